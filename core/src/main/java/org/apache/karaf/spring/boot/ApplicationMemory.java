@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot;
+
+/**
+ * Memory footprint of a started application, sizes are estimations in bytes.
+ * The stack values are the ones of its stack loader, shared by all the applications using the same stack.
+ */
+public class ApplicationMemory {
+    private final String name;
+    private final int classes;
+    private final long metaspace;
+    private final long contextHeap;
+    private final long contextObjects;
+    private final int threads;
+    private final int jars;
+    private final int files;
+    private final String stack;
+    private final int stackApplications;
+    private final int stackClasses;
+    private final long stackMetaspace;
+
+    public ApplicationMemory(final String name, final int classes, final long metaspace,
+                             final long contextHeap, final long contextObjects,
+                             final int threads, final int jars, final int files,
+                             final String stack, final int stackApplications,
+                             final int stackClasses, final long stackMetaspace) {
+        this.name = name;
+        this.classes = classes;
+        this.metaspace = metaspace;
+        this.contextHeap = contextHeap;
+        this.contextObjects = contextObjects;
+        this.threads = threads;
+        this.jars = jars;
+        this.files = files;
+        this.stack = stack;
+        this.stackApplications = stackApplications;
+        this.stackClasses = stackClasses;
+        this.stackMetaspace = stackMetaspace;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // classes defined by the application loaders, -1 if the JVM does not expose them
+    public int getClasses() {
+        return classes;
+    }
+
+    // classes times the average metaspace per loaded class of the JVM, -1 if unknown
+    public long getMetaspace() {
+        return metaspace;
+    }
+
+    // sampled walk of the object graph of the application contexts, -1 if no context is started
+    public long getContextHeap() {
+        return contextHeap;
+    }
+
+    public long getContextObjects() {
+        return contextObjects;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // jars on the application loaders, nested jars share the handle of their artifact
+    public int getJars() {
+        return jars;
+    }
+
+    // files held open by the application loaders (artifact, class archive, exploded directories are not counted)
+    public int getFiles() {
+        return files;
+    }
+
+    // null when the application does not use a stack
+    public String getStack() {
+        return stack;
+    }
+
+    public int getStackApplications() {
+        return stackApplications;
+    }
+
+    public int getStackClasses() {
+        return stackClasses;
+    }
+
+    public long getStackMetaspace() {
+        return stackMetaspace;
+    }
+
+    @Override
+    public String toString() {
+        return "ApplicationMemory[" +
+                "name='" + name + '\'' +
+                ", classes=" + classes +
+                ", metaspace=" + metaspace +
+                ", contextHeap=" + contextHeap +
+                ", contextObjects=" + contextObjects +
+                ", threads=" + threads +
+                ", jars=" + jars +
+                ", files=" + files +
+                ", stack='" + stack + '\'' +
+                ", stackApplications=" + stackApplications +
+                ", stackClasses=" + stackClasses +
+                ", stackMetaspace=" + stackMetaspace +
+                ']';
+    }
+}
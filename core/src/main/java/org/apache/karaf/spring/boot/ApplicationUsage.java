@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot;
+
+/**
+ * Resources consumed by the live threads of an application, values are cumulative over the thread lifetimes.
+ */
+public class ApplicationUsage {
+    private final String name;
+    private final int threads;
+    private final long cpuTime;
+    private final long allocatedBytes;
+    private final long blockedCount;
+    private final long blockedTime;
+
+    public ApplicationUsage(final String name, final int threads, final long cpuTime, final long allocatedBytes,
+                            final long blockedCount, final long blockedTime) {
+        this.name = name;
+        this.threads = threads;
+        this.cpuTime = cpuTime;
+        this.allocatedBytes = allocatedBytes;
+        this.blockedCount = blockedCount;
+        this.blockedTime = blockedTime;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // nanoseconds, -1 if the JVM does not support it
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    // -1 if the JVM does not support it
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getBlockedCount() {
+        return blockedCount;
+    }
+
+    // milliseconds, -1 if the JVM does not support it
+    public long getBlockedTime() {
+        return blockedTime;
+    }
+
+    @Override
+    public String toString() {
+        return "ApplicationUsage[" +
+                "name='" + name + '\'' +
+                ", threads=" + threads +
+                ", cpuTime=" + cpuTime +
+                ", allocatedBytes=" + allocatedBytes +
+                ", blockedCount=" + blockedCount +
+                ", blockedTime=" + blockedTime +
+                ']';
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.karaf.spring.boot;
 
+import java.io.InputStream;
 import java.net.URI;
 import java.util.Map;
 
@@ -24,16 +25,34 @@ public interface SpringBootService {
     String install(URI uri, String stack) throws Exception;
 
     String install(String name, URI uri, String stack) throws Exception;
+
+    String install(String name, InputStream stream, String fileName, String stack) throws Exception;
     // void install(URI uri, String[] stacks) throws Exception;
 
     void start(String name, String[] args) throws Exception;
 
+    void start(String name, String instance, String[] args) throws Exception;
+
     void stop(String name) throws Exception;
 
+    void stop(String name, String instance) throws Exception;
+
+    void restart(String name, String[] args) throws Exception;
+
+    void reload(String name) throws Exception;
+
+    void uninstall(String name) throws Exception;
+
     void stopAll();
 
     Map<String, Boolean> list() throws Exception;
 
+    Map<String, ApplicationUsage> usage();
+
+    String profile(String name, long duration, long interval, boolean wall, String[] startArgs) throws Exception;
+
+    Map<String, ApplicationMemory> memory(String name);
+
     // String[] listStacks() throws Exception;
 
     // void addStack(URI uri) throws Exception;
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.command;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.apache.karaf.spring.boot.command.Sizes.bytes;
+
+@Service
+@Command(scope = "spring-boot", name = "http-metrics", description = "Display the HTTP request metrics of the Spring Boot apps using the HTTP service")
+public class HttpMetricsCommand implements Action {
+    @Argument(index = 0, name = "name", description = "Spring Boot application name, all applications if not set", required = false, multiValued = false)
+    private String name;
+
+    @Option(name = "--reset", description = "Reset the metrics after having displayed them", required = false)
+    private boolean reset;
+
+    @Override
+    public Object execute() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final Set<ObjectName> names = new TreeSet<>(server.queryNames(new ObjectName(
+                "org.apache.karaf.spring.boot:type=HttpMetrics,application=" + (name == null ? "*" : ObjectName.quote(name))), null));
+        if (names.isEmpty()) {
+            System.out.println(name == null ? "No HTTP metrics available" : "No HTTP metrics for " + name);
+            return null;
+        }
+
+        final ShellTable table = new ShellTable();
+        table.column("Name");
+        table.column("Servlet");
+        table.column("Requests").alignRight();
+        table.column("Req/s").alignRight();
+        table.column("In flight").alignRight();
+        table.column("2xx").alignRight();
+        table.column("3xx").alignRight();
+        table.column("4xx").alignRight();
+        table.column("5xx").alignRight();
+        table.column("Read").alignRight();
+        table.column("Written").alignRight();
+        table.column("Mean (ms)").alignRight();
+        table.column("P50 (ms)").alignRight();
+        table.column("P90 (ms)").alignRight();
+        table.column("P99 (ms)").alignRight();
+        table.column("P99.9 (ms)").alignRight();
+        table.column("Max (ms)").alignRight();
+
+        final ShellTable bulkheads = new ShellTable();
+        bulkheads.column("Name");
+        bulkheads.column("Max concurrent").alignRight();
+        bulkheads.column("Active").alignRight();
+        bulkheads.column("Queue size").alignRight();
+        bulkheads.column("Max queue size").alignRight();
+        bulkheads.column("Queued").alignRight();
+        bulkheads.column("Rejected").alignRight();
+        bulkheads.column("Timed out").alignRight();
+        bulkheads.column("Queue mean (ms)").alignRight();
+        bulkheads.column("Queue P50 (ms)").alignRight();
+        bulkheads.column("Queue P99 (ms)").alignRight();
+        bulkheads.column("Queue max (ms)").alignRight();
+        boolean hasBulkhead = false;
+        for (final ObjectName objectName : names) {
+            final String application = String.valueOf(server.getAttribute(objectName, "Application"));
+            final double uptime = Math.max(1, System.currentTimeMillis() - (Long) server.getAttribute(objectName, "StartTimestamp")) / 1000.;
+            addRow(table, application, "*", CompositeData.class.cast(server.getAttribute(objectName, "Total")), uptime);
+            for (final Object row : TabularData.class.cast(server.getAttribute(objectName, "Mappings")).values()) {
+                final CompositeData entry = CompositeData.class.cast(row);
+                addRow(table, "", String.valueOf(entry.get("key")), CompositeData.class.cast(entry.get("value")), uptime);
+            }
+            final CompositeData bulkhead = CompositeData.class.cast(server.getAttribute(objectName, "Bulkhead"));
+            if (bulkhead != null) {
+                hasBulkhead = true;
+                bulkheads.addRow().addContent(
+                        application,
+                        bulkhead.get("maxConcurrentRequests"),
+                        bulkhead.get("active"),
+                        bulkhead.get("queueSize"),
+                        bulkhead.get("maxQueueSize"),
+                        bulkhead.get("queued"),
+                        bulkhead.get("rejected"),
+                        bulkhead.get("timedOut"),
+                        millis((Double) bulkhead.get("queueTimeMean")),
+                        millis((Long) bulkhead.get("queueTimeP50")),
+                        millis((Long) bulkhead.get("queueTimeP99")),
+                        millis((Long) bulkhead.get("queueTimeMax")));
+            }
+            if (reset) {
+                server.invoke(objectName, "reset", new Object[0], new String[0]);
+            }
+        }
+        table.print(System.out);
+        if (hasBulkhead) {
+            System.out.println();
+            bulkheads.print(System.out);
+        }
+        return null;
+    }
+
+    private void addRow(final ShellTable table, final String application, final String servlet,
+                        final CompositeData statistics, final double uptime) {
+        final long requests = (Long) statistics.get("requests");
+        table.addRow().addContent(
+                application,
+                servlet,
+                requests,
+                String.format("%.1f", requests / uptime),
+                statistics.get("inFlight"),
+                statistics.get("status2xx"),
+                statistics.get("status3xx"),
+                statistics.get("status4xx"),
+                statistics.get("status5xx"),
+                bytes((Long) statistics.get("bytesRead")),
+                bytes((Long) statistics.get("bytesWritten")),
+                millis((Double) statistics.get("latencyMean")),
+                millis((Long) statistics.get("latencyP50")),
+                millis((Long) statistics.get("latencyP90")),
+                millis((Long) statistics.get("latencyP99")),
+                millis((Long) statistics.get("latencyP999")),
+                millis((Long) statistics.get("latencyMax")));
+    }
+
+    private static String millis(final double micros) {
+        return String.format("%.2f", micros / 1000.);
+    }
+}
@@ -33,7 +33,7 @@ public class InstallCommand implements Action {
     @Reference
     private SpringBootService springBootService;
 
-    @Argument(name = "location", description = "The fatjar location", required = true)
+    @Argument(name = "location", description = "The fatjar location (any supported URL: file, mvn, http...)", required = true)
     private String location;
 
     @Option(name = "name", description = "The name of Spring Boot app", required = false)
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.command;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+import org.apache.karaf.spring.boot.ApplicationMemory;
+import org.apache.karaf.spring.boot.SpringBootService;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.apache.karaf.spring.boot.command.Sizes.bytes;
+
+@Service
+@Command(scope = "spring-boot", name = "memory", description = "Display the estimated memory footprint of the running Spring Boot apps and of their stacks")
+public class MemoryCommand implements Action {
+    @Reference
+    private SpringBootService springBootService;
+
+    @Argument(index = 0, name = "name", description = "Spring Boot application name, all applications if not set", required = false, multiValued = false)
+    private String name;
+
+    @Override
+    public Object execute() throws Exception {
+        final Map<String, ApplicationMemory> memory = springBootService.memory(name);
+        if (memory.isEmpty()) {
+            System.out.println("No Spring Boot application started");
+            return null;
+        }
+
+        final ShellTable table = new ShellTable();
+        table.column("Name");
+        table.column("Classes").alignRight();
+        table.column("Metaspace").alignRight();
+        table.column("Context heap").alignRight();
+        table.column("Context objects").alignRight();
+        table.column("Threads").alignRight();
+        table.column("Jars").alignRight();
+        table.column("Files").alignRight();
+        table.column("Stack");
+
+        final ShellTable stacks = new ShellTable();
+        stacks.column("Stack");
+        stacks.column("Applications").alignRight();
+        stacks.column("Classes").alignRight();
+        stacks.column("Metaspace").alignRight();
+        stacks.column("Saved metaspace").alignRight();
+        final Map<String, ApplicationMemory> stackRows = new TreeMap<>();
+
+        for (final ApplicationMemory application : memory.values()) {
+            table.addRow().addContent(
+                    application.getName(),
+                    count(application.getClasses()),
+                    bytes(application.getMetaspace()),
+                    bytes(application.getContextHeap()),
+                    application.getContextObjects(),
+                    application.getThreads(),
+                    application.getJars(),
+                    application.getFiles(),
+                    application.getStack() == null ? "" : application.getStack());
+            if (application.getStack() != null) {
+                stackRows.putIfAbsent(application.getStack(), application);
+            }
+        }
+        table.print(System.out);
+
+        if (!stackRows.isEmpty()) {
+            for (final ApplicationMemory application : stackRows.values()) {
+                // without the stack each application would load its own copy of the stack classes
+                final long stackMetaspace = application.getStackMetaspace();
+                stacks.addRow().addContent(
+                        application.getStack(),
+                        application.getStackApplications(),
+                        count(application.getStackClasses()),
+                        bytes(stackMetaspace),
+                        bytes(stackMetaspace < 0 ? -1 : stackMetaspace * Math.max(0, application.getStackApplications() - 1)));
+            }
+            System.out.println();
+            stacks.print(System.out);
+        }
+        return null;
+    }
+
+    private static String count(final int value) {
+        return value < 0 ? "n/a" : Integer.toString(value);
+    }
+}
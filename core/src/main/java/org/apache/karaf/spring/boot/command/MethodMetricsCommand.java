@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.command;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+@Service
+@Command(scope = "spring-boot", name = "method-metrics", description = "Display the method timings of the Spring Boot apps instrumented with instrumentation.includes")
+public class MethodMetricsCommand implements Action {
+    @Argument(index = 0, name = "name", description = "Spring Boot application name, all applications if not set", required = false, multiValued = false)
+    private String name;
+
+    @Option(name = "--top", description = "Number of methods to display per application, by total time", required = false)
+    private int top = 20;
+
+    @Option(name = "--reset", description = "Reset the metrics after having displayed them", required = false)
+    private boolean reset;
+
+    @Override
+    public Object execute() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final Set<ObjectName> names = new TreeSet<>(server.queryNames(new ObjectName(
+                "org.apache.karaf.spring.boot:type=MethodTimings,application=" + (name == null ? "*" : ObjectName.quote(name))), null));
+        if (names.isEmpty()) {
+            System.out.println(name == null ? "No method metrics available" : "No method metrics for " + name);
+            return null;
+        }
+
+        final ShellTable table = new ShellTable();
+        table.column("Name");
+        table.column("Method");
+        table.column("Invocations").alignRight();
+        table.column("Total (ms)").alignRight();
+        table.column("Mean (ms)").alignRight();
+        table.column("Max (ms)").alignRight();
+        for (final ObjectName objectName : names) {
+            final String application = String.valueOf(server.getAttribute(objectName, "Application"));
+            final List<CompositeData> methods = new ArrayList<>();
+            for (final Object row : TabularData.class.cast(server.getAttribute(objectName, "Methods")).values()) {
+                methods.add(CompositeData.class.cast(row));
+            }
+            methods.sort(Comparator.comparing((CompositeData it) -> (Long) CompositeData.class.cast(it.get("value")).get("totalTime")).reversed());
+            for (int i = 0; i < Math.min(top, methods.size()); i++) {
+                final CompositeData statistics = CompositeData.class.cast(methods.get(i).get("value"));
+                table.addRow().addContent(
+                        i == 0 ? application : "",
+                        methods.get(i).get("key"),
+                        statistics.get("invocations"),
+                        millis((Long) statistics.get("totalTime")),
+                        millis((Double) statistics.get("meanTime")),
+                        millis((Long) statistics.get("maxTime")));
+            }
+            if (reset) {
+                server.invoke(objectName, "reset", new Object[0], new String[0]);
+            }
+        }
+        table.print(System.out);
+        return null;
+    }
+
+    private static String millis(final double micros) {
+        return String.format("%.2f", micros / 1000.);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.command;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.spring.boot.SpringBootService;
+
+import java.util.List;
+
+@Service
+@Command(scope = "spring-boot", name = "profile", description = "Sample the threads of a Spring Boot app and write collapsed stacks (flame graph input)")
+public class ProfileCommand implements Action {
+    @Reference
+    private SpringBootService springBootService;
+
+    @Option(name = "--interval", description = "Sampling interval in milliseconds", required = false)
+    private long interval = 20;
+
+    @Option(name = "--wall", description = "Sample all the threads, not only the runnable ones", required = false)
+    private boolean wall;
+
+    @Option(name = "--start", description = "Start the application once the sampling began to profile its startup", required = false)
+    private boolean start;
+
+    @Argument(index = 0, name = "name", description = "Spring Boot application name", required = true, multiValued = false)
+    private String name;
+
+    @Argument(index = 1, name = "seconds", description = "Profiling duration in seconds", required = true, multiValued = false)
+    private long seconds;
+
+    @Argument(index = 2, name = "args", description = "Main args when --start is set", required = false, multiValued = true)
+    private List<String> args;
+
+    @Override
+    public Object execute() throws Exception {
+        final String output = springBootService.profile(
+                name, seconds * 1000, interval, wall,
+                start ? (args == null ? new String[0] : args.toArray(new String[0])) : null);
+        return "Profile of " + name + " written to " + output;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.command;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.spring.boot.SpringBootService;
+
+@Service
+@Command(scope = "spring-boot", name = "reload",
+        description = "Reload the classes of a reloadable (classloader.reloadable=true) spring-boot application keeping its libraries loaded")
+public class ReloadCommand implements Action {
+    @Reference
+    private SpringBootService springBootService;
+
+    @Argument(name = "name", description = "The application name", required = true)
+    private String name;
+
+    @Override
+    public Object execute() throws Exception {
+        final long start = System.nanoTime();
+        springBootService.reload(name);
+        return "Spring Boot app " + name + " reloaded in " + (System.nanoTime() - start) / 1_000_000 + "ms";
+    }
+}
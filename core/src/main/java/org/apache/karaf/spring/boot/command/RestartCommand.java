@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.command;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.spring.boot.SpringBootService;
+
+import java.util.List;
+
+@Service
+@Command(scope = "spring-boot", name = "restart",
+        description = "Restart a spring-boot application keeping its classloader, previous args are reused if none is given")
+public class RestartCommand implements Action {
+    @Reference
+    private SpringBootService springBootService;
+
+    @Argument(name = "name", description = "The application name followed by the main args", required = true, multiValued = true)
+    private List<String> args;
+
+    @Override
+    public Object execute() throws Exception {
+        if (args == null || args.isEmpty()) {
+            throw new IllegalArgumentException("Missing application name");
+        }
+        final String name = args.remove(0);
+        final long start = System.nanoTime();
+        springBootService.restart(name, args.toArray(new String[0]));
+        return "Spring Boot app " + name + " restarted in " + (System.nanoTime() - start) / 1_000_000 + "ms";
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.command;
+
+final class Sizes {
+    private Sizes() {
+        // no-op
+    }
+
+    // human readable size, n/a for the negative (unavailable) values
+    static String bytes(final long value) {
+        if (value < 0) {
+            return "n/a";
+        }
+        if (value < 1024) {
+            return value + "B";
+        }
+        final int exp = (int) (Math.log(value) / Math.log(1024));
+        return String.format("%.1f%c", value / Math.pow(1024, exp), "KMGTPE".charAt(exp - 1));
+    }
+}
@@ -19,6 +19,7 @@ package org.apache.karaf.spring.boot.command;
 import org.apache.karaf.shell.api.action.Action;
 import org.apache.karaf.shell.api.action.Argument;
 import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Reference;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.apache.karaf.spring.boot.SpringBootService;
@@ -31,6 +32,9 @@ public class StartCommand implements Action {
     @Reference
     private SpringBootService springBootService;
 
+    @Option(name = "--instance", description = "Starts a named instance of the already started application, it shares its classes", required = false)
+    private String instance;
+
     @Argument(name = "jarname", description = "The fatjar name followed by the main args", required = true, multiValued = true)
     private List<String> args;
 
@@ -41,7 +45,7 @@ public class StartCommand implements Action {
         }
         String name = args.remove(0);
         String[] concreteArgs = args.toArray(new String[0]);
-        springBootService.start(name , concreteArgs);
-        return "Spring Boot app " + name + " started with " + concreteArgs;
+        springBootService.start(name, instance, concreteArgs);
+        return "Spring Boot app " + name + (instance == null ? "" : " instance " + instance) + " started with " + concreteArgs;
     }
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.command;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.TreeSet;
+
+@Service
+@Command(scope = "spring-boot", name = "startup-profile", description = "Display the slowest beans and configurations of the Spring Boot apps started with karaf.spring-boot.profiling.beans=true")
+public class StartupProfileCommand implements Action {
+    @Argument(index = 0, name = "name", description = "Spring Boot application name, all applications if not set", required = false, multiValued = false)
+    private String name;
+
+    @Option(name = "--top", description = "Number of beans and configurations to display", required = false)
+    private int top = 20;
+
+    @Override
+    public Object execute() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final Set<ObjectName> names = new TreeSet<>(server.queryNames(new ObjectName(
+                "org.apache.karaf.spring.boot:type=StartupProfiler,application=" + (name == null ? "*" : ObjectName.quote(name))), null));
+        if (names.isEmpty()) {
+            System.out.println(name == null ? "No startup profile available" : "No startup profile for " + name);
+            return null;
+        }
+
+        for (final ObjectName objectName : names) {
+            final String application = String.valueOf(server.getAttribute(objectName, "Application"));
+            System.out.println(application + ": configuration classes processed in " +
+                    millis((Long) server.getAttribute(objectName, "ConfigurationPhase")) + "ms");
+
+            final ShellTable beans = new ShellTable();
+            beans.column("Bean");
+            beans.column("Type");
+            beans.column("Configuration");
+            beans.column("Count").alignRight();
+            beans.column("Instantiation (ms)").alignRight();
+            beans.column("Initialization (ms)").alignRight();
+            beans.column("Total (ms)").alignRight();
+            final CompositeData[] beanRows = (CompositeData[]) server.getAttribute(objectName, "Beans");
+            for (int i = 0; i < Math.min(top, beanRows.length); i++) {
+                final CompositeData bean = beanRows[i];
+                beans.addRow().addContent(
+                        bean.get("name"),
+                        bean.get("type"),
+                        bean.get("configuration") == null ? "" : bean.get("configuration"),
+                        bean.get("count"),
+                        millis((Long) bean.get("instantiation")),
+                        millis((Long) bean.get("initialization")),
+                        millis((Long) bean.get("total")));
+            }
+            beans.print(System.out);
+            System.out.println();
+
+            final ShellTable configurations = new ShellTable();
+            configurations.column("Configuration");
+            configurations.column("Beans").alignRight();
+            configurations.column("Conditions").alignRight();
+            configurations.column("Matched");
+            configurations.column("Total (ms)").alignRight();
+            final CompositeData[] configurationRows = (CompositeData[]) server.getAttribute(objectName, "Configurations");
+            for (int i = 0; i < Math.min(top, configurationRows.length); i++) {
+                final CompositeData configuration = configurationRows[i];
+                configurations.addRow().addContent(
+                        configuration.get("name"),
+                        configuration.get("beans"),
+                        configuration.get("conditions"),
+                        configuration.get("matched"),
+                        millis((Long) configuration.get("total")));
+            }
+            configurations.print(System.out);
+            System.out.println();
+        }
+        return null;
+    }
+
+    private static String millis(final long micros) {
+        return String.format("%.2f", micros / 1000.);
+    }
+}
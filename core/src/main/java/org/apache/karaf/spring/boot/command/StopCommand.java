@@ -19,6 +19,7 @@ package org.apache.karaf.spring.boot.command;
 import org.apache.karaf.shell.api.action.Action;
 import org.apache.karaf.shell.api.action.Argument;
 import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Reference;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.apache.karaf.spring.boot.SpringBootService;
@@ -29,12 +30,15 @@ public class StopCommand implements Action {
     @Reference
     private SpringBootService springBootService;
 
+    @Option(name = "--instance", description = "Only stops this named instance of the application", required = false)
+    private String instance;
+
     @Argument(name = "jarname", description = "The fatjar name", required = true)
     private String name;
 
     @Override
     public Object execute() throws Exception {
-        springBootService.stop(name);
-        return "Spring Boot app " + name + " has been stopped";
+        springBootService.stop(name, instance);
+        return "Spring Boot app " + name + (instance == null ? "" : " instance " + instance) + " has been stopped";
     }
 }
\ No newline at end of file
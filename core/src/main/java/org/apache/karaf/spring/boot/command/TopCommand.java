@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.command;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+import org.apache.karaf.spring.boot.ApplicationUsage;
+import org.apache.karaf.spring.boot.SpringBootService;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.karaf.spring.boot.command.Sizes.bytes;
+
+@Service
+@Command(scope = "spring-boot", name = "top", description = "Display the CPU, allocation and thread usage of the running Spring Boot apps")
+public class TopCommand implements Action {
+    @Reference
+    private SpringBootService springBootService;
+
+    @Option(name = "--interval", description = "Refresh interval in milliseconds", required = false)
+    private long interval = 1000;
+
+    @Option(name = "--iterations", description = "Number of refreshes, negative to refresh until interrupted", required = false)
+    private int iterations = -1;
+
+    @Option(name = "--sort", description = "Sort column: cpu, alloc, threads or blocked", required = false)
+    private String sort = "cpu";
+
+    @Override
+    public Object execute() throws Exception {
+        Map<String, ApplicationUsage> previous = springBootService.usage();
+        long previousTime = System.nanoTime();
+        for (int i = 0; iterations < 0 || i < iterations; i++) {
+            try {
+                Thread.sleep(interval);
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            final Map<String, ApplicationUsage> current = springBootService.usage();
+            final long now = System.nanoTime();
+            if (iterations != 1) {
+                System.out.print("\u001B[H\u001B[2J"); // clear screen
+            }
+            print(previous, current, now - previousTime);
+            previous = current;
+            previousTime = now;
+        }
+        return null;
+    }
+
+    private void print(final Map<String, ApplicationUsage> previous, final Map<String, ApplicationUsage> current,
+                       final long elapsedNs) {
+        final List<Row> rows = new ArrayList<>();
+        current.forEach((name, usage) -> {
+            final ApplicationUsage before = previous.get(name);
+            // threads can die between two snapshots so deltas are floored to 0
+            final long cpu = before == null || usage.getCpuTime() < 0 ? 0 : Math.max(0, usage.getCpuTime() - before.getCpuTime());
+            final long alloc = before == null || usage.getAllocatedBytes() < 0 ? 0 : Math.max(0, usage.getAllocatedBytes() - before.getAllocatedBytes());
+            final long blocked = before == null || usage.getBlockedTime() < 0 ? 0 : Math.max(0, usage.getBlockedTime() - before.getBlockedTime());
+            rows.add(new Row(usage, cpu * 100. / elapsedNs, alloc * 1_000_000_000. / elapsedNs, blocked));
+        });
+        rows.sort(comparator().reversed());
+
+        final ShellTable table = new ShellTable();
+        table.column("Name");
+        table.column("Threads").alignRight();
+        table.column("CPU %").alignRight();
+        table.column("CPU time (ms)").alignRight();
+        table.column("Alloc/s").alignRight();
+        table.column("Allocated").alignRight();
+        table.column("Blocked (ms)").alignRight();
+        table.column("Blocked total (ms)").alignRight();
+        for (final Row row : rows) {
+            table.addRow().addContent(
+                    row.usage.getName(),
+                    row.usage.getThreads(),
+                    String.format("%.1f", row.cpuPercent),
+                    row.usage.getCpuTime() < 0 ? "n/a" : row.usage.getCpuTime() / 1_000_000,
+                    row.usage.getAllocatedBytes() < 0 ? "n/a" : bytes((long) row.allocationRate),
+                    row.usage.getAllocatedBytes() < 0 ? "n/a" : bytes(row.usage.getAllocatedBytes()),
+                    row.usage.getBlockedTime() < 0 ? "n/a" : row.blocked,
+                    row.usage.getBlockedTime() < 0 ? "n/a" : row.usage.getBlockedTime());
+        }
+        table.print(System.out);
+    }
+
+    private Comparator<Row> comparator() {
+        switch (sort) {
+            case "alloc":
+                return Comparator.comparingDouble(r -> r.allocationRate);
+            case "threads":
+                return Comparator.comparingInt(r -> r.usage.getThreads());
+            case "blocked":
+                return Comparator.comparingLong(r -> r.blocked);
+            case "cpu":
+                return Comparator.comparingDouble(r -> r.cpuPercent);
+            default:
+                throw new IllegalArgumentException("Unknown sort column '" + sort + "'");
+        }
+    }
+
+    private static class Row {
+        private final ApplicationUsage usage;
+        private final double cpuPercent;
+        private final double allocationRate;
+        private final long blocked;
+
+        private Row(final ApplicationUsage usage, final double cpuPercent, final double allocationRate, final long blocked) {
+            this.usage = usage;
+            this.cpuPercent = cpuPercent;
+            this.allocationRate = allocationRate;
+            this.blocked = blocked;
+        }
+    }
+}
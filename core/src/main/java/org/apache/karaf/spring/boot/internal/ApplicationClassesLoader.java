@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.ProtectionDomain;
+
+/**
+ * Disposable loader of the application classes (BOOT-INF/classes) in reloadable mode,
+ * its parent is the enhanced launcher loader owning the libraries so a reload only drops the application code.
+ */
+public class ApplicationClassesLoader extends URLClassLoader {
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private final ClassTransformers.Scope transformation;
+
+    public ApplicationClassesLoader(final URL[] urls, final ClassLoader libraries) {
+        this(urls, libraries, null);
+    }
+
+    ApplicationClassesLoader(final URL[] urls, final ClassLoader libraries, final ClassTransformers.Scope transformation) {
+        super(urls, libraries);
+        this.transformation = transformation;
+    }
+
+    @Override
+    protected Class<?> findClass(final String name) throws ClassNotFoundException {
+        if (transformation == null || !transformation.matches(name)) {
+            return super.findClass(name);
+        }
+        final URL resource = findResource(name.replace('.', '/') + ".class");
+        if (resource == null) {
+            throw new ClassNotFoundException(name);
+        }
+        final byte[] bytecode;
+        try {
+            bytecode = ClassTransformers.read(resource);
+        } catch (final IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        final ProtectionDomain domain = transformation.domain(resource, name);
+        final byte[] transformed = transformation.transform(this, name, domain, bytecode);
+        final int lastDot = name.lastIndexOf('.');
+        if (lastDot > 0) {
+            ensurePackage(name.substring(0, lastDot));
+        }
+        final byte[] value = transformed == null ? bytecode : transformed;
+        return defineClass(name, value, 0, value.length, domain);
+    }
+
+    // getDefinedPackage is not available in java 8
+    @SuppressWarnings("deprecation")
+    private void ensurePackage(final String name) {
+        if (getPackage(name) == null) {
+            try {
+                definePackage(name, null, null, null, null, null, null, null);
+            } catch (final IllegalArgumentException iae) {
+                // defined concurrently
+            }
+        }
+    }
+}
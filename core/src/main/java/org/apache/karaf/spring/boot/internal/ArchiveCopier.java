@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Copies an artifact to the storage in a single sequential read, computing its digest on the fly.
+ * The copy goes to a temporary file moved over the target once complete so a failed install
+ * never breaks an already installed artifact.
+ */
+public final class ArchiveCopier {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ArchiveCopier() {
+        // no-op
+    }
+
+    /**
+     * Streams an artifact validating its manifest from the first entries, before the rest of the
+     * archive is read, so an invalid artifact aborts the copy immediately.
+     * The complete copy is validated from its central directory before it replaces the target,
+     * it covers the archives not starting with their manifest.
+     *
+     * @return the descriptor read from the copy and the hexadecimal SHA-256 of the artifact.
+     */
+    public static CopiedArchive copy(final InputStream source, final Path target) throws IOException {
+        final MessageDigest digest = newDigest();
+        final Path tmp = temporaryFile(target);
+        try (final FileChannel out = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING);
+             final WriteThroughInputStream stream = new WriteThroughInputStream(source, out, digest)) {
+            final JarInputStream jar = new JarInputStream(stream, false); // don't close it, it would close the source
+            final Manifest manifest = jar.getManifest();
+            if (manifest != null) {
+                ArchiveDescriptor.validate(manifest.getMainAttributes());
+            } else if (jar.getNextJarEntry() == null) {
+                throw new IllegalArgumentException("Invalid Spring Boot application artifact (not a jar)");
+            }
+            stream.drain();
+            out.force(false);
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        final ArchiveDescriptor descriptor;
+        try {
+            descriptor = ArchiveDescriptor.read(tmp.toFile());
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new CopiedArchive(descriptor, hex(digest.digest()));
+    }
+
+    /**
+     * Copies a local file validated from its central directory before anything is copied.
+     * The copy is a {@link FileChannel#transferTo(long, long, WritableByteChannel)} to a channel digesting
+     * what it writes so the source is read once, sequentially, and never mapped (a mapping
+     * would keep the file locked on Windows until it is garbage collected).
+     *
+     * @return the descriptor read from the source and the hexadecimal SHA-256 of the artifact.
+     */
+    public static CopiedArchive copy(final Path source, final Path target) throws IOException {
+        final ArchiveDescriptor descriptor = ArchiveDescriptor.read(source.toFile());
+        final MessageDigest digest = newDigest();
+        final Path tmp = temporaryFile(target);
+        try (final FileChannel in = FileChannel.open(source, READ);
+             final FileChannel out = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            final WritableByteChannel digesting = new DigestingChannel(out, digest);
+            final long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, digesting);
+            }
+            out.force(false);
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new CopiedArchive(descriptor, hex(digest.digest()));
+    }
+
+    private static Path temporaryFile(final Path target) {
+        return target.resolveSibling(target.getFileName() + ".part");
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(final byte[] bytes) {
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    public static final class CopiedArchive {
+        private final ArchiveDescriptor descriptor;
+        private final String digest;
+
+        private CopiedArchive(final ArchiveDescriptor descriptor, final String digest) {
+            this.descriptor = descriptor;
+            this.digest = digest;
+        }
+
+        public ArchiveDescriptor getDescriptor() {
+            return descriptor;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+    }
+
+    // everything transferred to the target is digested first
+    private static class DigestingChannel implements WritableByteChannel {
+        private final FileChannel out;
+        private final MessageDigest digest;
+
+        private DigestingChannel(final FileChannel out, final MessageDigest digest) {
+            this.out = out;
+            this.digest = digest;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final int length = src.remaining();
+            digest.update(src.duplicate());
+            while (src.hasRemaining()) {
+                out.write(src);
+            }
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return out.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // no-op, the target is closed by the copy
+        }
+    }
+
+    // everything read from the source is digested and written to the target, whoever reads it
+    private static class WriteThroughInputStream extends FilterInputStream {
+        private final FileChannel out;
+        private final MessageDigest digest;
+
+        private WriteThroughInputStream(final InputStream in, final FileChannel out, final MessageDigest digest) {
+            super(in);
+            this.out = out;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int value = super.read();
+            if (value >= 0) {
+                final byte[] single = new byte[]{(byte) value};
+                onRead(single, 0, 1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                onRead(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException { // skipped bytes must still be copied
+            final byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(n, 0))];
+            long remaining = n;
+            while (remaining > 0) {
+                final int read = read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                remaining -= read;
+            }
+            return n - remaining;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void drain() throws IOException {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (read(buffer, 0, buffer.length) >= 0) {
+                // no-op, read() copies
+            }
+        }
+
+        private void onRead(final byte[] b, final int off, final int len) throws IOException {
+            digest.update(b, off, len);
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Function;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * What we need from a Spring Boot fatjar, read once at install time (manifest + central directory)
+ * and persisted in the application metadata so starting an application does not reopen the archive.
+ */
+public class ArchiveDescriptor {
+    private static final String DEFAULT_CLASSES = "BOOT-INF/classes/";
+    private static final String DEFAULT_LIB = "BOOT-INF/lib/";
+
+    private final String mainClass;
+    private final String startClass;
+    private final String springBootVersion;
+    private final String classes;
+    private final String lib;
+    private final List<String> libraries;
+
+    private ArchiveDescriptor(final String mainClass, final String startClass, final String springBootVersion,
+                              final String classes, final String lib, final List<String> libraries) {
+        this.mainClass = mainClass;
+        this.startClass = startClass;
+        this.springBootVersion = springBootVersion;
+        this.classes = classes;
+        this.lib = lib;
+        this.libraries = unmodifiableList(libraries);
+    }
+
+    public String getMainClass() {
+        return mainClass;
+    }
+
+    public String getStartClass() {
+        return startClass;
+    }
+
+    public String getSpringBootVersion() {
+        return springBootVersion;
+    }
+
+    public String getClasses() {
+        return classes;
+    }
+
+    public String getLib() {
+        return lib;
+    }
+
+    // classpath order: classpath index when present, central directory order otherwise
+    public List<String> getLibraries() {
+        return libraries;
+    }
+
+    public void store(final Properties properties) {
+        properties.setProperty("archive.main-class", mainClass);
+        if (startClass != null) {
+            properties.setProperty("archive.start-class", startClass);
+        }
+        properties.setProperty("archive.spring-boot-version", springBootVersion);
+        properties.setProperty("archive.classes", classes);
+        properties.setProperty("archive.lib", lib);
+        properties.remove("archive.libraries"); // comma separated list of the previous metadata
+        for (int i = 0; i < libraries.size(); i++) { // one per property, a jar name can contain a comma
+            properties.setProperty("archive.libraries." + i, libraries.get(i));
+        }
+    }
+
+    // null when the metadata predates the descriptor
+    public static ArchiveDescriptor load(final Properties properties) {
+        final String main = properties.getProperty("archive.main-class");
+        final String version = properties.getProperty("archive.spring-boot-version");
+        if (main == null || version == null) {
+            return null;
+        }
+        return new ArchiveDescriptor(
+                main, properties.getProperty("archive.start-class"), version,
+                properties.getProperty("archive.classes", DEFAULT_CLASSES),
+                properties.getProperty("archive.lib", DEFAULT_LIB),
+                loadLibraries(properties::getProperty));
+    }
+
+    // stored libraries, from the metadata properties or the application configuration
+    static List<String> loadLibraries(final Function<String, String> properties) {
+        final String legacy = properties.apply("archive.libraries");
+        if (legacy != null) {
+            return legacy.isEmpty() ? emptyList() : Stream.of(legacy.split(",")).collect(toList());
+        }
+        final List<String> libraries = new ArrayList<>();
+        String library;
+        while ((library = properties.apply("archive.libraries." + libraries.size())) != null) {
+            libraries.add(library);
+        }
+        return libraries;
+    }
+
+    // reads the manifest and the central directory with a single open of the archive
+    public static ArchiveDescriptor read(final File source) throws IOException {
+        try (final JarFile jar = new JarFile(source)) {
+            final Manifest manifest = jar.getManifest();
+            if (manifest == null) {
+                throw new IllegalArgumentException("Invalid Spring Boot application artifact (no manifest)");
+            }
+            final Attributes attributes = manifest.getMainAttributes();
+            final String version = validate(attributes);
+            final String main = attributes.getValue(Attributes.Name.MAIN_CLASS);
+            if (main == null) {
+                throw new IllegalArgumentException("No main in " + source);
+            }
+            final String classes = normalizeFolder(attributes.getValue("Spring-Boot-Classes"), DEFAULT_CLASSES);
+            final String lib = normalizeFolder(attributes.getValue("Spring-Boot-Lib"), DEFAULT_LIB);
+            final String index = attributes.getValue("Spring-Boot-Classpath-Index");
+
+            List<String> libraries = null;
+            if (index != null) {
+                final JarEntry indexEntry = jar.getJarEntry(index);
+                if (indexEntry != null) {
+                    libraries = readClasspathIndex(jar, indexEntry, lib);
+                }
+            }
+            if (libraries == null) {
+                libraries = new ArrayList<>();
+                final Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    final String name = entries.nextElement().getName();
+                    if (name.startsWith(lib) && name.endsWith(".jar") && name.indexOf('/', lib.length()) < 0) {
+                        libraries.add(name);
+                    }
+                }
+            }
+            return new ArchiveDescriptor(
+                    main, attributes.getValue("Start-Class"), version, classes, lib, libraries);
+        }
+    }
+
+    public static String validate(final Attributes attributes) {
+        final String version = attributes.getValue("Spring-Boot-Version");
+        if (version == null) {
+            throw new IllegalArgumentException("Invalid Spring Boot application artifact (Spring-Boot-Version not found in MANIFEST)");
+        }
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveDescriptor[" +
+                "mainClass='" + mainClass + '\'' +
+                ", startClass='" + startClass + '\'' +
+                ", springBootVersion='" + springBootVersion + '\'' +
+                ", libraries=" + libraries +
+                ']';
+    }
+
+    // 2.3 format is a yaml list: - "BOOT-INF/lib/foo.jar", previous one was a plain list of jar names
+    private static List<String> readClasspathIndex(final JarFile jar, final JarEntry entry, final String lib) throws IOException {
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(jar.getInputStream(entry), StandardCharsets.UTF_8))) {
+            return reader.lines()
+                    .map(String::trim)
+                    .filter(it -> !it.isEmpty())
+                    .map(it -> it.startsWith("- ") ? it.substring(2).trim() : it)
+                    .map(it -> it.startsWith("\"") && it.endsWith("\"") && it.length() > 1 ? it.substring(1, it.length() - 1) : it)
+                    .map(it -> it.startsWith(lib) ? it : lib + it)
+                    .collect(toList());
+        }
+    }
+
+    private static String normalizeFolder(final String value, final String defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        final String trimmed = value.trim();
+        return trimmed.endsWith("/") ? trimmed : trimmed + '/';
+    }
+}
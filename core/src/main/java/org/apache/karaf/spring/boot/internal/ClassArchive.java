@@ -0,0 +1,424 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Uncompressed copy of the classes of a fatjar (classes folder then libraries, in classpath order),
+ * written at install time next to the artifact. The child loader defines the classes from slices
+ * of the memory mapped file so a start does not inflate nested jar entries anymore
+ * and the pages are shared through the page cache between restarts.
+ * The index also lists every entry name of the classpath with the sources owning it so resource lookups
+ * ({@code getResource(s)}) become a hash lookup instead of a probe of each nested jar.
+ * Layout: a header page (magic, version, index position, artifact digest), the data section
+ * starting on the next page then the index (sources, completeness and entry name to sources/offset/length).
+ */
+public final class ClassArchive {
+    private static final int MAGIC = 0x4B534243;
+    private static final int VERSION = 2;
+    private static final int PAGE = 4096;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final MappedByteBuffer data;
+    private final String[] sources;
+    private final boolean complete;
+    private final Map<String, Entry> index;
+    private final ProtectionDomain[] domains;
+    private final URL[] locations;
+    private volatile boolean resourcesBound;
+
+    private ClassArchive(final MappedByteBuffer data, final String[] sources, final boolean complete, final Map<String, Entry> index) {
+        this.data = data;
+        this.sources = sources;
+        this.complete = complete;
+        this.index = index;
+        this.domains = new ProtectionDomain[sources.length];
+        this.locations = new URL[sources.length];
+    }
+
+    public static Path of(final File artifact) {
+        return artifact.toPath().resolveSibling(artifact.getName() + ".classes");
+    }
+
+    // only the sources the child loader actually has are served (reloadable mode excludes the application classes)
+    public void bind(final URL[] urls) {
+        Arrays.fill(domains, null);
+        Arrays.fill(locations, null);
+        int bound = 0;
+        for (final URL url : urls) {
+            final String location = url.toExternalForm();
+            for (int i = 0; i < sources.length; i++) {
+                final String source = sources[i].endsWith("/") ? sources[i].substring(0, sources[i].length() - 1) : sources[i];
+                if (locations[i] == null && location.endsWith(source + "!/")) {
+                    domains[i] = new ProtectionDomain(new CodeSource(url, (CodeSigner[]) null), null);
+                    locations[i] = url;
+                    bound++;
+                    break;
+                }
+            }
+        }
+        resourcesBound = bound == urls.length; // an url outside of the artifact can only be probed
+    }
+
+    public ByteBuffer find(final String className) {
+        final Entry entry = index.get(className.replace('.', '/') + ".class");
+        if (entry == null || entry.offset < 0 || domains[entry.sources[0]] == null) {
+            return null;
+        }
+        final ByteBuffer slice = data.duplicate();
+        slice.position(entry.offset);
+        slice.limit(entry.offset + entry.length);
+        return slice.slice();
+    }
+
+    public ProtectionDomain findDomain(final String className) {
+        final Entry entry = index.get(className.replace('.', '/') + ".class");
+        return entry == null || entry.offset < 0 ? null : domains[entry.sources[0]];
+    }
+
+    /**
+     * @param name the resource name as passed to {@code ClassLoader#getResources}.
+     * @return the urls of the resource in the bound sources, in classpath order,
+     * or null when the index can't answer and the nested jars must be probed.
+     */
+    public List<URL> findResources(final String name) {
+        if (!resourcesBound) {
+            return null;
+        }
+        if (name.isEmpty()) { // roots
+            final List<URL> roots = new ArrayList<>(locations.length);
+            for (final URL location : locations) {
+                if (location != null) {
+                    roots.add(location);
+                }
+            }
+            return roots;
+        }
+        Entry entry = index.get(name);
+        if (entry == null && !name.endsWith("/")) { // nested jars resolve folders without their trailing slash
+            entry = index.get(name + '/');
+        }
+        if (entry == null) {
+            return emptyList();
+        }
+        try {
+            final String path = encode(name);
+            final List<URL> urls = new ArrayList<>(entry.sources.length);
+            for (final int source : entry.sources) {
+                if (locations[source] != null) {
+                    urls.add(new URL(locations[source], path));
+                }
+            }
+            return urls;
+        } catch (final MalformedURLException e) {
+            return null;
+        }
+    }
+
+    // install time readers (component index), bindings are ignored
+    Collection<String> names() {
+        return index.entrySet().stream()
+                .filter(it -> it.getValue().offset >= 0)
+                .map(Map.Entry::getKey)
+                .collect(toList());
+    }
+
+    byte[] read(final String resource) {
+        final Entry entry = index.get(resource);
+        return entry == null || entry.offset < 0 ? null : bytes(data, entry.offset, entry.length);
+    }
+
+    // false when a library was left in its jar (signed) or is missing
+    boolean isComplete() {
+        return complete;
+    }
+
+    // null when there is no archive or when it was built for another artifact
+    public static ClassArchive open(final Path file, final String digest) throws IOException {
+        if (!Files.exists(file) || digest == null) {
+            return null;
+        }
+        try (final FileChannel channel = FileChannel.open(file, READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final DataInputStream header = new DataInputStream(new ByteArrayInputStream(bytes(mapped, 0, PAGE)));
+            if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+                return null;
+            }
+            final int indexOffset = header.readInt();
+            final int indexLength = header.readInt();
+            if (!digest.equals(header.readUTF())) {
+                return null;
+            }
+
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes(mapped, indexOffset, indexLength)));
+            final String[] sources = new String[in.readInt()];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = in.readUTF();
+            }
+            final boolean complete = in.readBoolean();
+            final int count = in.readInt();
+            final Map<String, Entry> index = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                final String name = in.readUTF();
+                final int[] owners = new int[in.readInt()];
+                for (int j = 0; j < owners.length; j++) {
+                    owners[j] = in.readInt();
+                }
+                index.put(name, new Entry(owners, in.readInt(), in.readInt()));
+            }
+            return new ClassArchive(mapped, sources, complete, index);
+        }
+    }
+
+    /**
+     * Extracts the classes of the fatjar in a single pass over the artifact, the first occurrence
+     * of a class in classpath order wins as in the child loader. Signed libraries are left in their jar
+     * but their entries are still indexed for resource lookups.
+     */
+    public static void write(final File artifact, final ArchiveDescriptor descriptor, final String digest) throws IOException {
+        final Path target = of(artifact);
+        final Path tmp = target.resolveSibling(target.getFileName() + ".part");
+        try (final JarFile jar = new JarFile(artifact);
+             final FileChannel out = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            final List<String> sources = new ArrayList<>();
+            final Map<String, Entry> entries = new LinkedHashMap<>();
+            long position = PAGE;
+            boolean complete = true;
+
+            final List<String> names = new ArrayList<>();
+            final Map<String, byte[]> classes = new LinkedHashMap<>();
+            final Enumeration<JarEntry> jarEntries = jar.entries();
+            while (jarEntries.hasMoreElements()) {
+                final JarEntry entry = jarEntries.nextElement();
+                final String name = entry.getName();
+                if (!name.startsWith(descriptor.getClasses()) || name.length() == descriptor.getClasses().length()) {
+                    continue;
+                }
+                final String relative = name.substring(descriptor.getClasses().length());
+                names.add(relative);
+                if (isClass(relative)) {
+                    try (final InputStream stream = jar.getInputStream(entry)) {
+                        classes.put(relative, readAll(stream));
+                    }
+                }
+            }
+            position = append(out, position, sources, descriptor.getClasses(), names, classes, entries);
+
+            for (final String library : descriptor.getLibraries()) {
+                final JarEntry entry = jar.getJarEntry(library);
+                if (entry == null) {
+                    complete = false;
+                    continue;
+                }
+                names.clear();
+                classes.clear();
+                boolean signed = false;
+                try (final ZipInputStream nested = new ZipInputStream(jar.getInputStream(entry))) {
+                    ZipEntry nestedEntry;
+                    while ((nestedEntry = nested.getNextEntry()) != null) {
+                        final String name = nestedEntry.getName();
+                        names.add(name);
+                        if (name.startsWith("META-INF/") && name.endsWith(".SF")) {
+                            signed = true;
+                            classes.clear();
+                        }
+                        if (!signed && isClass(name) && !entries.containsKey(name)) {
+                            classes.put(name, readAll(nested));
+                        }
+                    }
+                }
+                complete &= !signed;
+                position = append(out, position, sources, library, names, classes, entries);
+            }
+
+            final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+            try (final DataOutputStream index = new DataOutputStream(indexBytes)) {
+                index.writeInt(sources.size());
+                for (final String source : sources) {
+                    index.writeUTF(source);
+                }
+                index.writeBoolean(complete);
+                index.writeInt(entries.size());
+                for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    index.writeUTF(entry.getKey());
+                    index.writeInt(entry.getValue().sources.length);
+                    for (final int source : entry.getValue().sources) {
+                        index.writeInt(source);
+                    }
+                    index.writeInt(entry.getValue().offset);
+                    index.writeInt(entry.getValue().length);
+                }
+            }
+            if (position + indexBytes.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(artifact + " is too big for a class archive");
+            }
+            writeFully(out, ByteBuffer.wrap(indexBytes.toByteArray()), position);
+
+            final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            try (final DataOutputStream header = new DataOutputStream(headerBytes)) {
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeInt((int) position);
+                header.writeInt(indexBytes.size());
+                header.writeUTF(digest);
+            }
+            writeFully(out, ByteBuffer.wrap(headerBytes.toByteArray()), 0);
+            out.force(false);
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // classes only carry data for their first occurrence, later ones just add their source to the entry
+    private static long append(final FileChannel out, final long start, final List<String> sources, final String source,
+                               final List<String> names, final Map<String, byte[]> classes,
+                               final Map<String, Entry> entries) throws IOException {
+        final int sourceIndex = sources.size();
+        sources.add(source);
+        long position = start;
+        for (final String name : names) {
+            final Entry existing = entries.get(name);
+            if (existing != null) {
+                final int[] owners = Arrays.copyOf(existing.sources, existing.sources.length + 1);
+                owners[existing.sources.length] = sourceIndex;
+                entries.put(name, new Entry(owners, existing.offset, existing.length));
+                continue;
+            }
+            final byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                entries.put(name, new Entry(new int[]{sourceIndex}, -1, 0));
+                continue;
+            }
+            if (position + bytes.length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many classes for a class archive");
+            }
+            writeFully(out, ByteBuffer.wrap(bytes), position);
+            entries.put(name, new Entry(new int[]{sourceIndex}, (int) position, bytes.length));
+            position += bytes.length;
+        }
+        return position;
+    }
+
+    // module-info and multi-release variants stay in the jars
+    private static boolean isClass(final String name) {
+        return name.endsWith(".class") && !name.startsWith("META-INF/") && !name.endsWith("module-info.class");
+    }
+
+    private static void writeFully(final FileChannel out, final ByteBuffer buffer, final long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            current += out.write(buffer, current);
+        }
+    }
+
+    private static byte[] bytes(final ByteBuffer buffer, final int offset, final int length) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        final byte[] bytes = new byte[Math.min(length, view.remaining())];
+        view.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] readAll(final InputStream stream) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final byte[] tmp = new byte[8 * 1024];
+        int read;
+        while ((read = stream.read(tmp)) >= 0) {
+            if (read > 0) {
+                buffer.write(tmp, 0, read);
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    // same escaping as the JVM url classpath so urls compare equal to the probed ones
+    private static String encode(final String name) {
+        StringBuilder builder = null;
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            final int c = bytes[i] & 0xFF;
+            final boolean safe = c < 0x80 && (Character.isLetterOrDigit(c) || "/-_.!~*'()$&+,;=:@".indexOf(c) >= 0);
+            if (safe && builder == null) {
+                continue;
+            }
+            if (builder == null) {
+                builder = new StringBuilder(bytes.length + 16).append(new String(bytes, 0, i, StandardCharsets.UTF_8));
+            }
+            if (safe) {
+                builder.append((char) c);
+            } else {
+                builder.append('%').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        return builder == null ? name : builder.toString();
+    }
+
+    private static class Entry {
+        private final int[] sources; // the first one owns the archived bytes
+        private final int offset; // -1 when the entry is not archived (resource or class of a signed jar)
+        private final int length;
+
+        private Entry(final int[] sources, final int offset, final int length) {
+            this.sources = sources;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
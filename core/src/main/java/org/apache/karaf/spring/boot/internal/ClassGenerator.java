@@ -316,7 +316,7 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitCode();
             Label label0 = new Label();
             methodVisitor.visitLabel(label0);
-            methodVisitor.visitLineNumber(47, label0);
+            methodVisitor.visitLineNumber(49, label0);
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitVarInsn(ILOAD, 1);
             methodVisitor.visitVarInsn(ALOAD, 2);
@@ -325,7 +325,7 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitMethodInsn(INVOKESPECIAL, "org/springframework/boot/loader/LaunchedURLClassLoader", "<init>", "(ZLorg/springframework/boot/loader/archive/Archive;[Ljava/net/URL;Ljava/lang/ClassLoader;)V", false);
             Label label1 = new Label();
             methodVisitor.visitLabel(label1);
-            methodVisitor.visitLineNumber(48, label1);
+            methodVisitor.visitLineNumber(50, label1);
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitTypeInsn(NEW, "org/apache/karaf/spring/boot/internal/ClassGenerator");
             methodVisitor.visitInsn(DUP);
@@ -333,7 +333,7 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitFieldInsn(PUTFIELD, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader", "integrations", "Lorg/apache/karaf/spring/boot/internal/ClassGenerator;");
             Label label2 = new Label();
             methodVisitor.visitLabel(label2);
-            methodVisitor.visitLineNumber(49, label2);
+            methodVisitor.visitLineNumber(51, label2);
             methodVisitor.visitInsn(RETURN);
             Label label3 = new Label();
             methodVisitor.visitLabel(label3);
@@ -359,20 +359,20 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitTryCatchBlock(label2, label5, label2, null);
             Label label6 = new Label();
             methodVisitor.visitLabel(label6);
-            methodVisitor.visitLineNumber(53, label6);
+            methodVisitor.visitLineNumber(55, label6);
             methodVisitor.visitVarInsn(ALOAD, 1);
             Label label7 = new Label();
             methodVisitor.visitJumpInsn(IFNONNULL, label7);
             Label label8 = new Label();
             methodVisitor.visitLabel(label8);
-            methodVisitor.visitLineNumber(54, label8);
+            methodVisitor.visitLineNumber(56, label8);
             methodVisitor.visitTypeInsn(NEW, "java/lang/ClassNotFoundException");
             methodVisitor.visitInsn(DUP);
             methodVisitor.visitLdcInsn("<null>");
             methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/lang/ClassNotFoundException", "<init>", "(Ljava/lang/String;)V", false);
             methodVisitor.visitInsn(ATHROW);
             methodVisitor.visitLabel(label7);
-            methodVisitor.visitLineNumber(56, label7);
+            methodVisitor.visitLineNumber(58, label7);
             methodVisitor.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitFieldInsn(GETFIELD, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader", "integrations", "Lorg/apache/karaf/spring/boot/internal/ClassGenerator;");
@@ -382,14 +382,14 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitJumpInsn(IFEQ, label9);
             Label label10 = new Label();
             methodVisitor.visitLabel(label10);
-            methodVisitor.visitLineNumber(57, label10);
+            methodVisitor.visitLineNumber(59, label10);
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitFieldInsn(GETFIELD, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader", "integrations", "Lorg/apache/karaf/spring/boot/internal/ClassGenerator;");
             methodVisitor.visitVarInsn(ALOAD, 1);
             methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/ClassGenerator", "loadFromBundle", "(Ljava/lang/String;)Ljava/lang/Class;", false);
             methodVisitor.visitInsn(ARETURN);
             methodVisitor.visitLabel(label9);
-            methodVisitor.visitLineNumber(59, label9);
+            methodVisitor.visitLineNumber(61, label9);
             methodVisitor.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitVarInsn(ALOAD, 1);
@@ -398,14 +398,14 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitVarInsn(ASTORE, 3);
             methodVisitor.visitInsn(MONITORENTER);
             methodVisitor.visitLabel(label0);
-            methodVisitor.visitLineNumber(60, label0);
+            methodVisitor.visitLineNumber(62, label0);
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitVarInsn(ALOAD, 1);
             methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader", "findLoadedClass", "(Ljava/lang/String;)Ljava/lang/Class;", false);
             methodVisitor.visitVarInsn(ASTORE, 4);
             Label label11 = new Label();
             methodVisitor.visitLabel(label11);
-            methodVisitor.visitLineNumber(61, label11);
+            methodVisitor.visitLineNumber(63, label11);
             methodVisitor.visitVarInsn(ALOAD, 4);
             methodVisitor.visitJumpInsn(IFNONNULL, label3);
             methodVisitor.visitVarInsn(ALOAD, 0);
@@ -415,7 +415,7 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitJumpInsn(IFEQ, label3);
             Label label12 = new Label();
             methodVisitor.visitLabel(label12);
-            methodVisitor.visitLineNumber(62, label12);
+            methodVisitor.visitLineNumber(64, label12);
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitVarInsn(ALOAD, 1);
             methodVisitor.visitVarInsn(ILOAD, 2);
@@ -429,7 +429,7 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitLabel(label1);
             methodVisitor.visitInsn(ARETURN);
             methodVisitor.visitLabel(label3);
-            methodVisitor.visitLineNumber(64, label3);
+            methodVisitor.visitLineNumber(66, label3);
             methodVisitor.visitFrame(Opcodes.F_APPEND,1, new Object[] {"java/lang/Object"}, 0, null);
             methodVisitor.visitVarInsn(ALOAD, 3);
             methodVisitor.visitInsn(MONITOREXIT);
@@ -445,7 +445,7 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitVarInsn(ALOAD, 5);
             methodVisitor.visitInsn(ATHROW);
             methodVisitor.visitLabel(label13);
-            methodVisitor.visitLineNumber(65, label13);
+            methodVisitor.visitLineNumber(67, label13);
             methodVisitor.visitFrame(Opcodes.F_CHOP,1, null, 0, null);
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitVarInsn(ALOAD, 1);
@@ -462,24 +462,43 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitEnd();
         }
         {
-            methodVisitor = classWriter.visitMethod(ACC_PUBLIC, "getResources", "(Ljava/lang/String;)Ljava/util/Enumeration;", "(Ljava/lang/String;)Ljava/util/Enumeration<Ljava/net/URL;>;", new String[]{"java/io/IOException"});
+            methodVisitor = classWriter.visitMethod(ACC_PUBLIC, "getResources", "(Ljava/lang/String;)Ljava/util/Enumeration;", "(Ljava/lang/String;)Ljava/util/Enumeration<Ljava/net/URL;>;", new String[] { "java/io/IOException" });
             methodVisitor.visitCode();
             Label label0 = new Label();
             methodVisitor.visitLabel(label0);
-            methodVisitor.visitLineNumber(67, label0);
-            methodVisitor.visitLdcInsn("META-INF/spring.factories");
+            methodVisitor.visitLineNumber(72, label0);
+            methodVisitor.visitLdcInsn("META-INF/spring.components");
             methodVisitor.visitVarInsn(ALOAD, 1);
             methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "equals", "(Ljava/lang/Object;)Z", false);
             Label label1 = new Label();
             methodVisitor.visitJumpInsn(IFEQ, label1);
             Label label2 = new Label();
             methodVisitor.visitLabel(label2);
-            methodVisitor.visitLineNumber(68, label2);
+            methodVisitor.visitLineNumber(73, label2);
+            methodVisitor.visitVarInsn(ALOAD, 0);
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader", "getParent", "()Ljava/lang/ClassLoader;", false);
+            methodVisitor.visitTypeInsn(CHECKCAST, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader");
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitVarInsn(ALOAD, 1);
+            methodVisitor.visitMethodInsn(INVOKESPECIAL, "org/springframework/boot/loader/LaunchedURLClassLoader", "getResources", "(Ljava/lang/String;)Ljava/util/Enumeration;", false);
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader", "componentIndexes", "(Ljava/util/Enumeration;)Ljava/util/Enumeration;", false);
+            methodVisitor.visitInsn(ARETURN);
+            methodVisitor.visitLabel(label1);
+            methodVisitor.visitLineNumber(75, label1);
+            methodVisitor.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+            methodVisitor.visitLdcInsn("META-INF/spring.factories");
+            methodVisitor.visitVarInsn(ALOAD, 1);
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "equals", "(Ljava/lang/Object;)Z", false);
             Label label3 = new Label();
-            methodVisitor.visitLabel(label3);
-            methodVisitor.visitLineNumber(69, label3);
+            methodVisitor.visitJumpInsn(IFEQ, label3);
+            Label label4 = new Label();
+            methodVisitor.visitLabel(label4);
+            methodVisitor.visitLineNumber(76, label4);
+            methodVisitor.visitVarInsn(ALOAD, 0);
+            methodVisitor.visitVarInsn(ALOAD, 1);
+            Label label5 = new Label();
+            methodVisitor.visitLabel(label5);
+            methodVisitor.visitLineNumber(77, label5);
             methodVisitor.visitMethodInsn(INVOKESPECIAL, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader", "handleSpringFactories", "(Ljava/lang/String;)Ljava/util/stream/Stream;", false);
             methodVisitor.visitTypeInsn(NEW, "java/net/URL");
             methodVisitor.visitInsn(DUP);
@@ -493,45 +512,45 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitInsn(ACONST_NULL);
             methodVisitor.visitMethodInsn(INVOKESPECIAL, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader$StaticURLStreamHandler", "<init>", "(Ljava/lang/String;Lorg/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader$1;)V", false);
             methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/net/URL", "<init>", "(Ljava/lang/String;Ljava/lang/String;ILjava/lang/String;Ljava/net/URLStreamHandler;)V", false);
-            Label label4 = new Label();
-            methodVisitor.visitLabel(label4);
-            methodVisitor.visitLineNumber(70, label4);
-            methodVisitor.visitMethodInsn(INVOKESTATIC, "java/util/stream/Stream", "of", "(Ljava/lang/Object;)Ljava/util/stream/Stream;", true);
-            Label label5 = new Label();
-            methodVisitor.visitLabel(label5);
-            methodVisitor.visitLineNumber(68, label5);
-            methodVisitor.visitMethodInsn(INVOKESTATIC, "java/util/stream/Stream", "concat", "(Ljava/util/stream/Stream;Ljava/util/stream/Stream;)Ljava/util/stream/Stream;", true);
             Label label6 = new Label();
             methodVisitor.visitLabel(label6);
-            methodVisitor.visitLineNumber(72, label6);
+            methodVisitor.visitLineNumber(78, label6);
+            methodVisitor.visitMethodInsn(INVOKESTATIC, "java/util/stream/Stream", "of", "(Ljava/lang/Object;)Ljava/util/stream/Stream;", true);
+            Label label7 = new Label();
+            methodVisitor.visitLabel(label7);
+            methodVisitor.visitLineNumber(76, label7);
+            methodVisitor.visitMethodInsn(INVOKESTATIC, "java/util/stream/Stream", "concat", "(Ljava/util/stream/Stream;Ljava/util/stream/Stream;)Ljava/util/stream/Stream;", true);
+            Label label8 = new Label();
+            methodVisitor.visitLabel(label8);
+            methodVisitor.visitLineNumber(80, label8);
             methodVisitor.visitMethodInsn(INVOKESTATIC, "java/util/stream/Collectors", "toList", "()Ljava/util/stream/Collector;", false);
             methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/stream/Stream", "collect", "(Ljava/util/stream/Collector;)Ljava/lang/Object;", true);
             methodVisitor.visitTypeInsn(CHECKCAST, "java/util/Collection");
-            Label label7 = new Label();
-            methodVisitor.visitLabel(label7);
-            methodVisitor.visitLineNumber(68, label7);
+            Label label9 = new Label();
+            methodVisitor.visitLabel(label9);
+            methodVisitor.visitLineNumber(76, label9);
             methodVisitor.visitMethodInsn(INVOKESTATIC, "java/util/Collections", "enumeration", "(Ljava/util/Collection;)Ljava/util/Enumeration;", false);
             methodVisitor.visitInsn(ARETURN);
-            methodVisitor.visitLabel(label1);
-            methodVisitor.visitLineNumber(74, label1);
+            methodVisitor.visitLabel(label3);
+            methodVisitor.visitLineNumber(82, label3);
             methodVisitor.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitVarInsn(ALOAD, 1);
             methodVisitor.visitMethodInsn(INVOKESPECIAL, "org/springframework/boot/loader/LaunchedURLClassLoader", "getResources", "(Ljava/lang/String;)Ljava/util/Enumeration;", false);
             methodVisitor.visitInsn(ARETURN);
-            Label label8 = new Label();
-            methodVisitor.visitLabel(label8);
-            methodVisitor.visitLocalVariable("this", "Lorg/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader;", null, label0, label8, 0);
-            methodVisitor.visitLocalVariable("name", "Ljava/lang/String;", null, label0, label8, 1);
+            Label label10 = new Label();
+            methodVisitor.visitLabel(label10);
+            methodVisitor.visitLocalVariable("this", "Lorg/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader;", null, label0, label10, 0);
+            methodVisitor.visitLocalVariable("name", "Ljava/lang/String;", null, label0, label10, 1);
             methodVisitor.visitMaxs(11, 2);
             methodVisitor.visitEnd();
         }
         {
-            methodVisitor = classWriter.visitMethod(ACC_PRIVATE, "handleSpringFactories", "(Ljava/lang/String;)Ljava/util/stream/Stream;", "(Ljava/lang/String;)Ljava/util/stream/Stream<Ljava/net/URL;>;", new String[]{"java/io/IOException"});
+            methodVisitor = classWriter.visitMethod(ACC_PRIVATE, "handleSpringFactories", "(Ljava/lang/String;)Ljava/util/stream/Stream;", "(Ljava/lang/String;)Ljava/util/stream/Stream<Ljava/net/URL;>;", new String[] { "java/io/IOException" });
             methodVisitor.visitCode();
             Label label0 = new Label();
             methodVisitor.visitLabel(label0);
-            methodVisitor.visitLineNumber(78, label0);
+            methodVisitor.visitLineNumber(86, label0);
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitVarInsn(ALOAD, 1);
             methodVisitor.visitMethodInsn(INVOKESPECIAL, "org/springframework/boot/loader/LaunchedURLClassLoader", "getResources", "(Ljava/lang/String;)Ljava/util/Enumeration;", false);
@@ -540,11 +559,11 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitInvokeDynamicInsn("apply", "()Ljava/util/function/Function;", new Handle(Opcodes.H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false), new Object[]{Type.getType("(Ljava/lang/Object;)Ljava/lang/Object;"), new Handle(Opcodes.H_INVOKESTATIC, "org/apache/karaf/spring/boot/internal/factories/SpringFactoriesRewriter", "rewrite", "(Ljava/net/URL;)Ljava/util/stream/Stream;", false), Type.getType("(Ljava/net/URL;)Ljava/util/stream/Stream;")});
             Label label1 = new Label();
             methodVisitor.visitLabel(label1);
-            methodVisitor.visitLineNumber(79, label1);
+            methodVisitor.visitLineNumber(87, label1);
             methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/stream/Stream", "flatMap", "(Ljava/util/function/Function;)Ljava/util/stream/Stream;", true);
             Label label2 = new Label();
             methodVisitor.visitLabel(label2);
-            methodVisitor.visitLineNumber(78, label2);
+            methodVisitor.visitLineNumber(86, label2);
             methodVisitor.visitInsn(ARETURN);
             Label label3 = new Label();
             methodVisitor.visitLabel(label3);
@@ -558,7 +577,7 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitCode();
             Label label0 = new Label();
             methodVisitor.visitLabel(label0);
-            methodVisitor.visitLineNumber(83, label0);
+            methodVisitor.visitLineNumber(91, label0);
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitVarInsn(ALOAD, 1);
             methodVisitor.visitVarInsn(ALOAD, 3);
@@ -569,19 +588,19 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitVarInsn(ASTORE, 4);
             Label label1 = new Label();
             methodVisitor.visitLabel(label1);
-            methodVisitor.visitLineNumber(84, label1);
+            methodVisitor.visitLineNumber(92, label1);
             methodVisitor.visitVarInsn(ILOAD, 2);
             Label label2 = new Label();
             methodVisitor.visitJumpInsn(IFEQ, label2);
             Label label3 = new Label();
             methodVisitor.visitLabel(label3);
-            methodVisitor.visitLineNumber(85, label3);
+            methodVisitor.visitLineNumber(93, label3);
             methodVisitor.visitVarInsn(ALOAD, 0);
             methodVisitor.visitVarInsn(ALOAD, 4);
             methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader", "resolveClass", "(Ljava/lang/Class;)V", false);
             methodVisitor.visitLabel(label2);
-            methodVisitor.visitLineNumber(87, label2);
-            methodVisitor.visitFrame(Opcodes.F_APPEND, 1, new Object[]{"java/lang/Class"}, 0, null);
+            methodVisitor.visitLineNumber(95, label2);
+            methodVisitor.visitFrame(Opcodes.F_APPEND,1, new Object[] {"java/lang/Class"}, 0, null);
             methodVisitor.visitVarInsn(ALOAD, 4);
             methodVisitor.visitInsn(ARETURN);
             Label label4 = new Label();
@@ -594,17 +613,171 @@ public class ClassGenerator implements Opcodes {
             methodVisitor.visitMaxs(5, 5);
             methodVisitor.visitEnd();
         }
+        {
+            methodVisitor = classWriter.visitMethod(ACC_PROTECTED, "findClass", "(Ljava/lang/String;)Ljava/lang/Class;", "(Ljava/lang/String;)Ljava/lang/Class<*>;", new String[] { "java/lang/ClassNotFoundException" });
+            methodVisitor.visitCode();
+            Label label0 = new Label();
+            methodVisitor.visitLabel(label0);
+            methodVisitor.visitLineNumber(100, label0);
+            methodVisitor.visitVarInsn(ALOAD, 0);
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader", "getParent", "()Ljava/lang/ClassLoader;", false);
+            methodVisitor.visitTypeInsn(CHECKCAST, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader");
+            methodVisitor.visitVarInsn(ASTORE, 2);
+            Label label1 = new Label();
+            methodVisitor.visitLabel(label1);
+            methodVisitor.visitLineNumber(101, label1);
+            methodVisitor.visitVarInsn(ALOAD, 2);
+            methodVisitor.visitVarInsn(ALOAD, 1);
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader", "findArchivedClass", "(Ljava/lang/String;)Ljava/nio/ByteBuffer;", false);
+            methodVisitor.visitVarInsn(ASTORE, 3);
+            Label label2 = new Label();
+            methodVisitor.visitLabel(label2);
+            methodVisitor.visitLineNumber(102, label2);
+            methodVisitor.visitVarInsn(ALOAD, 3);
+            Label label3 = new Label();
+            methodVisitor.visitJumpInsn(IFNONNULL, label3);
+            Label label4 = new Label();
+            methodVisitor.visitLabel(label4);
+            methodVisitor.visitLineNumber(103, label4);
+            methodVisitor.visitVarInsn(ALOAD, 0);
+            methodVisitor.visitVarInsn(ALOAD, 1);
+            methodVisitor.visitMethodInsn(INVOKESPECIAL, "org/springframework/boot/loader/LaunchedURLClassLoader", "findClass", "(Ljava/lang/String;)Ljava/lang/Class;", false);
+            Label label5 = new Label();
+            methodVisitor.visitJumpInsn(GOTO, label5);
+            methodVisitor.visitLabel(label3);
+            methodVisitor.visitFrame(Opcodes.F_APPEND,2, new Object[] {"org/apache/karaf/spring/boot/internal/KarafLauncherLoader", "java/nio/ByteBuffer"}, 0, null);
+            methodVisitor.visitVarInsn(ALOAD, 0);
+            methodVisitor.visitVarInsn(ALOAD, 1);
+            methodVisitor.visitVarInsn(ALOAD, 3);
+            methodVisitor.visitVarInsn(ALOAD, 2);
+            methodVisitor.visitVarInsn(ALOAD, 1);
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader", "findArchivedDomain", "(Ljava/lang/String;)Ljava/security/ProtectionDomain;", false);
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader", "defineClass", "(Ljava/lang/String;Ljava/nio/ByteBuffer;Ljava/security/ProtectionDomain;)Ljava/lang/Class;", false);
+            methodVisitor.visitLabel(label5);
+            methodVisitor.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] {"java/lang/Class"});
+            methodVisitor.visitVarInsn(ASTORE, 4);
+            Label label6 = new Label();
+            methodVisitor.visitLabel(label6);
+            methodVisitor.visitLineNumber(104, label6);
+            methodVisitor.visitVarInsn(ALOAD, 2);
+            methodVisitor.visitVarInsn(ALOAD, 3);
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader", "onClassDefined", "(Ljava/nio/ByteBuffer;)V", false);
+            Label label7 = new Label();
+            methodVisitor.visitLabel(label7);
+            methodVisitor.visitLineNumber(105, label7);
+            methodVisitor.visitVarInsn(ALOAD, 4);
+            methodVisitor.visitInsn(ARETURN);
+            Label label8 = new Label();
+            methodVisitor.visitLabel(label8);
+            methodVisitor.visitLocalVariable("this", "Lorg/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader;", null, label0, label8, 0);
+            methodVisitor.visitLocalVariable("name", "Ljava/lang/String;", null, label0, label8, 1);
+            methodVisitor.visitLocalVariable("launcher", "Lorg/apache/karaf/spring/boot/internal/KarafLauncherLoader;", null, label1, label8, 2);
+            methodVisitor.visitLocalVariable("bytecode", "Ljava/nio/ByteBuffer;", null, label2, label8, 3);
+            methodVisitor.visitLocalVariable("value", "Ljava/lang/Class;", "Ljava/lang/Class<*>;", label6, label8, 4);
+            methodVisitor.visitMaxs(5, 5);
+            methodVisitor.visitEnd();
+        }
+        {
+            methodVisitor = classWriter.visitMethod(ACC_PUBLIC, "findResource", "(Ljava/lang/String;)Ljava/net/URL;", null, null);
+            methodVisitor.visitCode();
+            Label label0 = new Label();
+            methodVisitor.visitLabel(label0);
+            methodVisitor.visitLineNumber(110, label0);
+            methodVisitor.visitVarInsn(ALOAD, 0);
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader", "getParent", "()Ljava/lang/ClassLoader;", false);
+            methodVisitor.visitTypeInsn(CHECKCAST, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader");
+            methodVisitor.visitVarInsn(ALOAD, 1);
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader", "findIndexedResources", "(Ljava/lang/String;)Ljava/util/List;", false);
+            methodVisitor.visitVarInsn(ASTORE, 2);
+            Label label1 = new Label();
+            methodVisitor.visitLabel(label1);
+            methodVisitor.visitLineNumber(111, label1);
+            methodVisitor.visitVarInsn(ALOAD, 2);
+            Label label2 = new Label();
+            methodVisitor.visitJumpInsn(IFNONNULL, label2);
+            Label label3 = new Label();
+            methodVisitor.visitLabel(label3);
+            methodVisitor.visitLineNumber(112, label3);
+            methodVisitor.visitVarInsn(ALOAD, 0);
+            methodVisitor.visitVarInsn(ALOAD, 1);
+            methodVisitor.visitMethodInsn(INVOKESPECIAL, "org/springframework/boot/loader/LaunchedURLClassLoader", "findResource", "(Ljava/lang/String;)Ljava/net/URL;", false);
+            methodVisitor.visitInsn(ARETURN);
+            methodVisitor.visitLabel(label2);
+            methodVisitor.visitLineNumber(114, label2);
+            methodVisitor.visitFrame(Opcodes.F_APPEND,1, new Object[] {"java/util/List"}, 0, null);
+            methodVisitor.visitVarInsn(ALOAD, 2);
+            methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "isEmpty", "()Z", true);
+            Label label4 = new Label();
+            methodVisitor.visitJumpInsn(IFEQ, label4);
+            methodVisitor.visitInsn(ACONST_NULL);
+            Label label5 = new Label();
+            methodVisitor.visitJumpInsn(GOTO, label5);
+            methodVisitor.visitLabel(label4);
+            methodVisitor.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+            methodVisitor.visitVarInsn(ALOAD, 2);
+            methodVisitor.visitInsn(ICONST_0);
+            methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "get", "(I)Ljava/lang/Object;", true);
+            methodVisitor.visitTypeInsn(CHECKCAST, "java/net/URL");
+            methodVisitor.visitLabel(label5);
+            methodVisitor.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] {"java/net/URL"});
+            methodVisitor.visitInsn(ARETURN);
+            Label label6 = new Label();
+            methodVisitor.visitLabel(label6);
+            methodVisitor.visitLocalVariable("this", "Lorg/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader;", null, label0, label6, 0);
+            methodVisitor.visitLocalVariable("name", "Ljava/lang/String;", null, label0, label6, 1);
+            methodVisitor.visitLocalVariable("urls", "Ljava/util/List;", "Ljava/util/List<Ljava/net/URL;>;", label1, label6, 2);
+            methodVisitor.visitMaxs(2, 3);
+            methodVisitor.visitEnd();
+        }
+        {
+            methodVisitor = classWriter.visitMethod(ACC_PUBLIC, "findResources", "(Ljava/lang/String;)Ljava/util/Enumeration;", "(Ljava/lang/String;)Ljava/util/Enumeration<Ljava/net/URL;>;", new String[] { "java/io/IOException" });
+            methodVisitor.visitCode();
+            Label label0 = new Label();
+            methodVisitor.visitLabel(label0);
+            methodVisitor.visitLineNumber(119, label0);
+            methodVisitor.visitVarInsn(ALOAD, 0);
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader", "getParent", "()Ljava/lang/ClassLoader;", false);
+            methodVisitor.visitTypeInsn(CHECKCAST, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader");
+            methodVisitor.visitVarInsn(ALOAD, 1);
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader", "findIndexedResources", "(Ljava/lang/String;)Ljava/util/List;", false);
+            methodVisitor.visitVarInsn(ASTORE, 2);
+            Label label1 = new Label();
+            methodVisitor.visitLabel(label1);
+            methodVisitor.visitLineNumber(120, label1);
+            methodVisitor.visitVarInsn(ALOAD, 2);
+            Label label2 = new Label();
+            methodVisitor.visitJumpInsn(IFNONNULL, label2);
+            methodVisitor.visitVarInsn(ALOAD, 0);
+            methodVisitor.visitVarInsn(ALOAD, 1);
+            methodVisitor.visitMethodInsn(INVOKESPECIAL, "org/springframework/boot/loader/LaunchedURLClassLoader", "findResources", "(Ljava/lang/String;)Ljava/util/Enumeration;", false);
+            Label label3 = new Label();
+            methodVisitor.visitJumpInsn(GOTO, label3);
+            methodVisitor.visitLabel(label2);
+            methodVisitor.visitFrame(Opcodes.F_APPEND,1, new Object[] {"java/util/List"}, 0, null);
+            methodVisitor.visitVarInsn(ALOAD, 2);
+            methodVisitor.visitMethodInsn(INVOKESTATIC, "java/util/Collections", "enumeration", "(Ljava/util/Collection;)Ljava/util/Enumeration;", false);
+            methodVisitor.visitLabel(label3);
+            methodVisitor.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] {"java/util/Enumeration"});
+            methodVisitor.visitInsn(ARETURN);
+            Label label4 = new Label();
+            methodVisitor.visitLabel(label4);
+            methodVisitor.visitLocalVariable("this", "Lorg/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader;", null, label0, label4, 0);
+            methodVisitor.visitLocalVariable("name", "Ljava/lang/String;", null, label0, label4, 1);
+            methodVisitor.visitLocalVariable("urls", "Ljava/util/List;", "Ljava/util/List<Ljava/net/URL;>;", label1, label4, 2);
+            methodVisitor.visitMaxs(2, 3);
+            methodVisitor.visitEnd();
+        }
         {
             methodVisitor = classWriter.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
             methodVisitor.visitCode();
             Label label0 = new Label();
             methodVisitor.visitLabel(label0);
-            methodVisitor.visitLineNumber(40, label0);
+            methodVisitor.visitLineNumber(42, label0);
             methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/ClassLoader", "registerAsParallelCapable", "()Z", false);
             methodVisitor.visitInsn(POP);
             Label label1 = new Label();
             methodVisitor.visitLabel(label1);
-            methodVisitor.visitLineNumber(41, label1);
+            methodVisitor.visitLineNumber(43, label1);
             methodVisitor.visitInsn(RETURN);
             methodVisitor.visitMaxs(1, 0);
             methodVisitor.visitEnd();
@@ -614,39 +787,79 @@ public class ClassGenerator implements Opcodes {
         return classWriter.toByteArray();
     }
 
+    // Launcher and ExecutableArchiveLauncher (it overrides createClassLoader(Iterator))
     public byte[] patchLauncher(final byte[] original, final String archiveOrExplodedFolder) {
         final ClassReader reader = new ClassReader(original);
-        final ClassWriter writer = new KarafClassWriter(reader, COMPUTE_FRAMES, "org.springframework.boot.loader.Launcher");
+        final String owner = reader.getClassName();
+        final ClassWriter writer = new KarafClassWriter(reader, COMPUTE_FRAMES, owner.replace('/', '.'));
         reader.accept(new ClassVisitor(ASM8, writer) {
             @Override
             public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
                                              final String signature, final String[] exceptions) {
                 switch (name) {
                     case "createClassLoader":
+                        if ("(Ljava/util/Iterator;)Ljava/lang/ClassLoader;".equals(descriptor) || // 2.3
+                                "(Ljava/util/List;)Ljava/lang/ClassLoader;".equals(descriptor)) {
+                            // final URL[] urls = ((KarafLauncherLoader) getClass().getClassLoader()).classPath();
+                            // if (urls != null) return createClassLoader(urls); <original code, scans the archive>
+                            return new MethodVisitor(ASM8, super.visitMethod(access, name, descriptor, signature, exceptions)) {
+                                @Override
+                                public void visitCode() {
+                                    super.visitCode();
+                                    visitVarInsn(ALOAD, 0);
+                                    visitVarInsn(ALOAD, 0);
+                                    visitMethodInsn(INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;", false);
+                                    visitMethodInsn(INVOKEVIRTUAL, "java/lang/Class", "getClassLoader", "()Ljava/lang/ClassLoader;", false);
+                                    visitTypeInsn(CHECKCAST, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader");
+                                    visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader", "classPath", "()[Ljava/net/URL;", false);
+                                    visitInsn(DUP);
+                                    final Label scan = new Label();
+                                    visitJumpInsn(IFNULL, scan);
+                                    visitMethodInsn(INVOKEVIRTUAL, owner, "createClassLoader", "([Ljava/net/URL;)Ljava/lang/ClassLoader;", false);
+                                    visitInsn(ARETURN);
+                                    visitLabel(scan);
+                                    visitInsn(POP2);
+                                }
+                            };
+                        }
                         if ("([Ljava/net/URL;)Ljava/lang/ClassLoader;".equals(descriptor)) { // ClassLoader createClassLoader(URL[])
-                            // return new LaunchedURLClassLoader(isExploded(), getArchive(), urls, getClass().getClassLoader());
+                            // final KarafLauncherLoader launcher = (KarafLauncherLoader) getClass().getClassLoader();
+                            // return launcher.applicationLoader(
+                            //     new KarafEnhancedChildLauncherClassLoader(isExploded(), getArchive(), launcher.libraries(urls), launcher), urls);
                             final MethodVisitor methodVisitor = super.visitMethod(
                                     ACC_PROTECTED, name, "([Ljava/net/URL;)Ljava/lang/ClassLoader;", null, new String[]{"java/lang/Exception"});
                             methodVisitor.visitCode();
                             final Label label0 = new Label();
                             methodVisitor.visitLabel(label0);
                             methodVisitor.visitLineNumber(12, label0);
+                            methodVisitor.visitVarInsn(ALOAD, 0);
+                            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;", false);
+                            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Class", "getClassLoader", "()Ljava/lang/ClassLoader;", false);
+                            methodVisitor.visitTypeInsn(CHECKCAST, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader");
+                            methodVisitor.visitVarInsn(ASTORE, 2);
+                            final Label label1 = new Label();
+                            methodVisitor.visitLabel(label1);
+                            methodVisitor.visitLineNumber(13, label1);
+                            methodVisitor.visitVarInsn(ALOAD, 2);
                             methodVisitor.visitTypeInsn(NEW, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader");
                             methodVisitor.visitInsn(DUP);
                             methodVisitor.visitVarInsn(ALOAD, 0);
                             methodVisitor.visitMethodInsn(INVOKESPECIAL, "org/springframework/boot/loader/Launcher", "isExploded", "()Z", false);
                             methodVisitor.visitVarInsn(ALOAD, 0);
                             methodVisitor.visitMethodInsn(INVOKESPECIAL, "org/springframework/boot/loader/Launcher", "getArchive", "()Lorg/springframework/boot/loader/archive/Archive;", false);
+                            methodVisitor.visitVarInsn(ALOAD, 2);
                             methodVisitor.visitVarInsn(ALOAD, 1);
-                            methodVisitor.visitVarInsn(ALOAD, 0);
-                            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;", false);
-                            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Class", "getClassLoader", "()Ljava/lang/ClassLoader;", false);
+                            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader", "libraries", "([Ljava/net/URL;)[Ljava/net/URL;", false);
+                            methodVisitor.visitVarInsn(ALOAD, 2);
                             methodVisitor.visitMethodInsn(INVOKESPECIAL, "org/apache/karaf/spring/boot/internal/KarafEnhancedChildLauncherClassLoader", "<init>", "(ZLorg/springframework/boot/loader/archive/Archive;[Ljava/net/URL;Ljava/lang/ClassLoader;)V", false);
+                            methodVisitor.visitVarInsn(ALOAD, 1);
+                            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "org/apache/karaf/spring/boot/internal/KarafLauncherLoader", "applicationLoader", "(Ljava/lang/ClassLoader;[Ljava/net/URL;)Ljava/lang/ClassLoader;", false);
                             methodVisitor.visitInsn(ARETURN);
-                            final Label label1 = new Label();
-                            methodVisitor.visitLabel(label1);
-                            methodVisitor.visitLocalVariable("this", "Lorg/springframework/boot/loader/Launcher;", null, label0, label1, 0);
-                            methodVisitor.visitLocalVariable("urls", "[Ljava/net/URL;", null, label0, label1, 1);
+                            final Label label2 = new Label();
+                            methodVisitor.visitLabel(label2);
+                            methodVisitor.visitLocalVariable("this", "Lorg/springframework/boot/loader/Launcher;", null, label0, label2, 0);
+                            methodVisitor.visitLocalVariable("urls", "[Ljava/net/URL;", null, label0, label2, 1);
+                            methodVisitor.visitLocalVariable("launcher", "Lorg/apache/karaf/spring/boot/internal/KarafLauncherLoader;", null, label1, label2, 2);
                             methodVisitor.visitMaxs(0, 0);
                             methodVisitor.visitEnd();
                             return super.visitMethod(access, name + "_karaf_spring_boot_integration_disabled", descriptor, signature, exceptions);
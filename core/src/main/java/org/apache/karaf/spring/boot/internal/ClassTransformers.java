@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.reverseOrder;
+
+/**
+ * Applies {@link ClassFileTransformer} to the classes the loaders of an application define, without any {@code -javaagent}.
+ * Transformers are the {@link ClassFileTransformer} OSGi services, optionally restricted to some applications
+ * with the {@code karaf.spring-boot.applications} service property, and the built-in {@link MethodTimingTransformer}.
+ * Only the classes of the packages (or classes) listed in {@code instrumentation.includes} (application metadata,
+ * {@code karaf.spring-boot.instrumentation.includes} otherwise) and not in {@code instrumentation.excludes} are transformed,
+ * an application without includes defines its classes as before.
+ * The built-in method timings can be disabled with {@code instrumentation.method-timing=false}.
+ */
+public class ClassTransformers {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClassTransformers.class);
+    private static final String APPLICATIONS = "karaf.spring-boot.applications";
+
+    private final ServiceTracker<ClassFileTransformer, ClassFileTransformer> tracker;
+
+    public ClassTransformers(final BundleContext context) {
+        this.tracker = context == null ? null : new ServiceTracker<>(context, ClassFileTransformer.class, null);
+    }
+
+    public void open() {
+        if (tracker != null) {
+            tracker.open();
+        }
+    }
+
+    public void close() {
+        if (tracker != null) {
+            tracker.close();
+        }
+    }
+
+    /**
+     * @return the transformation of the application or null when it has no instrumented package.
+     */
+    Scope forApplication(final String application, final Map<String, String> configuration) {
+        final String[] includes = packages(configuration, "includes");
+        if (includes.length == 0) {
+            return null;
+        }
+        final MethodTimings timings = Boolean.parseBoolean(config(configuration, "method-timing", "true")) ?
+                new MethodTimings(application) : null;
+        return new Scope(application, includes, packages(configuration, "excludes"), timings);
+    }
+
+    private Collection<ServiceReference<ClassFileTransformer>> references() {
+        if (tracker == null) {
+            return emptyList();
+        }
+        final ServiceReference<ClassFileTransformer>[] references = tracker.getServiceReferences();
+        if (references == null) {
+            return emptyList();
+        }
+        Arrays.sort(references, reverseOrder()); // highest ranking first
+        return Arrays.asList(references);
+    }
+
+    static byte[] read(final URL resource) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final byte[] tmp = new byte[4 * 1024];
+        int read;
+        try (final InputStream stream = resource.openStream()) {
+            while ((read = stream.read(tmp)) >= 0) {
+                if (read > 0) {
+                    buffer.write(tmp, 0, read);
+                }
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    private static String[] packages(final Map<String, String> configuration, final String key) {
+        return Stream.of(config(configuration, key, "").split(","))
+                .map(String::trim)
+                .filter(it -> !it.isEmpty())
+                .map(it -> it.endsWith(".") ? it.substring(0, it.length() - 1) : it)
+                .toArray(String[]::new);
+    }
+
+    private static String config(final Map<String, String> configuration, final String key, final String defaultValue) {
+        final String value = configuration.get("instrumentation." + key);
+        return value != null ? value : System.getProperty("karaf.spring-boot.instrumentation." + key, defaultValue);
+    }
+
+    private static boolean accepts(final ServiceReference<?> reference, final String application) {
+        final Object applications = reference.getProperty(APPLICATIONS);
+        if (applications == null) {
+            return true;
+        }
+        final Stream<String> names = applications instanceof String[] ?
+                Stream.of((String[]) applications) :
+                Stream.of(String.valueOf(applications).split(",")).map(String::trim);
+        return names.anyMatch(application::equals);
+    }
+
+    /**
+     * Transformation of the classes of an application.
+     */
+    final class Scope {
+        private final String application;
+        private final String[] includes;
+        private final String[] excludes;
+        private final MethodTimings timings;
+        private final MethodTimingTransformer timingTransformer;
+        private final ConcurrentMap<String, ProtectionDomain> domains = new ConcurrentHashMap<>();
+
+        private Scope(final String application, final String[] includes, final String[] excludes, final MethodTimings timings) {
+            this.application = application;
+            this.includes = includes;
+            this.excludes = excludes;
+            this.timings = timings;
+            this.timingTransformer = timings == null ? null : new MethodTimingTransformer(timings);
+        }
+
+        boolean matches(final String className) {
+            for (final String exclude : excludes) {
+                if (isIn(className, exclude)) {
+                    return false;
+                }
+            }
+            for (final String include : includes) {
+                if (isIn(className, include)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // the package or class itself, its subpackages and nested classes
+        private boolean isIn(final String className, final String prefix) {
+            if (!className.startsWith(prefix)) {
+                return false;
+            }
+            if (className.length() == prefix.length()) {
+                return true;
+            }
+            final char next = className.charAt(prefix.length());
+            return next == '.' || next == '$';
+        }
+
+        /**
+         * @return the transformed bytecode or null when no transformer changed it.
+         */
+        byte[] transform(final ClassLoader loader, final String className, final ProtectionDomain domain, final byte[] bytecode) {
+            final String internalName = className.replace('.', '/');
+            byte[] current = bytecode;
+            for (final ServiceReference<ClassFileTransformer> reference : references()) {
+                if (!accepts(reference, application)) {
+                    continue;
+                }
+                final ClassFileTransformer transformer = tracker.getService(reference);
+                if (transformer != null) {
+                    current = apply(transformer, loader, internalName, domain, current);
+                }
+            }
+            if (timingTransformer != null) { // last so the probes time the transformed code
+                current = apply(timingTransformer, loader, internalName, domain, current);
+            }
+            return current == bytecode ? null : current;
+        }
+
+        // like the archived classes, one domain per code source (the jar or directory of the class)
+        ProtectionDomain domain(final URL resource, final String className) {
+            final String value = resource.toExternalForm();
+            final String location = value.substring(0, value.length() - (className.replace('.', '/') + ".class").length());
+            return domains.computeIfAbsent(location, it -> {
+                try {
+                    return new ProtectionDomain(new CodeSource(new URL(resource, it), (CodeSigner[]) null), null);
+                } catch (final MalformedURLException e) {
+                    return null;
+                }
+            });
+        }
+
+        void start() {
+            if (timings != null) {
+                timings.register();
+            }
+        }
+
+        void stop() {
+            if (timings != null) {
+                timings.unregister();
+            }
+        }
+
+        // a failing transformer must not prevent the application to start, the class is kept as it is
+        private byte[] apply(final ClassFileTransformer transformer, final ClassLoader loader, final String className,
+                             final ProtectionDomain domain, final byte[] bytecode) {
+            try {
+                final byte[] transformed = transformer.transform(loader, className, null, domain, bytecode);
+                return transformed == null ? bytecode : transformed;
+            } catch (final IllegalClassFormatException | RuntimeException e) {
+                LOGGER.warn("Can't transform {} of {} with {}: {}", className, application, transformer, e.getMessage());
+                return bytecode;
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.util.Collections.singletonList;
+import static org.objectweb.asm.ClassReader.SKIP_CODE;
+import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
+import static org.objectweb.asm.ClassReader.SKIP_FRAMES;
+import static org.objectweb.asm.Opcodes.ACC_ANNOTATION;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ASM8;
+
+/**
+ * {@code META-INF/spring.components} of an application computed at install time from its class archive,
+ * with the stereotypes spring-context-indexer would generate ({@code @Indexed} annotations and types, {@code javax.*}
+ * annotations, {@code package-info}), so component scanning becomes an index lookup.
+ * Spring trusts an index for the whole classpath so it is only generated when the archive covers all the libraries.
+ */
+public final class ComponentIndex {
+    private static final String INDEXED = "Lorg/springframework/stereotype/Indexed;";
+
+    private final ClassArchive archive;
+    private final Map<String, Type> types = new HashMap<>();
+
+    private ComponentIndex(final ClassArchive archive) {
+        this.archive = archive;
+    }
+
+    public static Path of(final File artifact) {
+        return artifact.toPath().resolveSibling(artifact.getName() + ".components");
+    }
+
+    // null when there is no index or when it was built for another artifact
+    public static URL find(final File artifact, final String digest) throws IOException {
+        final Path index = of(artifact);
+        if (digest == null || !Files.exists(index)) {
+            return null;
+        }
+        try (final BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.ISO_8859_1)) {
+            return ("# " + digest).equals(reader.readLine()) ? index.toUri().toURL() : null;
+        }
+    }
+
+    public static void write(final File artifact, final ArchiveDescriptor descriptor, final String digest) throws IOException {
+        final Path target = of(artifact);
+        final ClassArchive archive = ClassArchive.open(ClassArchive.of(artifact), digest);
+        if (archive == null || !archive.isComplete()) {
+            Files.deleteIfExists(target);
+            return;
+        }
+        final Map<String, Set<String>> index = new ComponentIndex(archive).compute();
+
+        final Path tmp = target.resolveSibling(target.getFileName() + ".part");
+        try (final Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.ISO_8859_1)) {
+            writer.write("# " + digest + '\n');
+            for (final Map.Entry<String, Set<String>> entry : index.entrySet()) {
+                writer.write(entry.getKey() + '=' + String.join(",", entry.getValue()) + '\n');
+            }
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Map<String, Set<String>> compute() {
+        final Map<String, Set<String>> index = new TreeMap<>();
+        for (final String resource : archive.names()) {
+            final Type type = type(resource.substring(0, resource.length() - ".class".length()));
+            if (type == null || !type.candidate) {
+                continue;
+            }
+            if (type.name.endsWith("/package-info")) {
+                index.put(type.name.substring(0, type.name.length() - "/package-info".length()).replace('/', '.'),
+                        new LinkedHashSet<>(singletonList("package-info")));
+                continue;
+            }
+            if (type.annotation) {
+                continue;
+            }
+            final Set<String> stereotypes = new LinkedHashSet<>();
+            for (final String annotation : type.annotations) { // javax stereotypes
+                if (annotation.startsWith("Ljavax/")) {
+                    stereotypes.add(toClassName(annotation));
+                }
+            }
+            collectOnAnnotations(type, new HashSet<>(), stereotypes);
+            collectOnTypes(type.name, new HashSet<>(), stereotypes);
+            if (!stereotypes.isEmpty()) {
+                index.put(type.name.replace('/', '.'), stereotypes);
+            }
+        }
+        return index;
+    }
+
+    // an annotation carrying @Indexed is a stereotype, meta-annotations are visited transitively
+    private void collectOnAnnotations(final Type type, final Set<String> seen, final Set<String> stereotypes) {
+        for (final String annotation : type.annotations) {
+            if (INDEXED.equals(annotation)) {
+                stereotypes.add(type.name.replace('/', '.'));
+            }
+            if (annotation.startsWith("Ljava/lang/") || !seen.add(annotation)) {
+                continue;
+            }
+            final Type annotationType = type(annotation.substring(1, annotation.length() - 1));
+            if (annotationType != null) {
+                collectOnAnnotations(annotationType, seen, stereotypes);
+            }
+        }
+    }
+
+    // the type itself and its parents (classes and interfaces) when they are @Indexed
+    private void collectOnTypes(final String name, final Set<String> seen, final Set<String> stereotypes) {
+        if (name == null || !seen.add(name)) {
+            return;
+        }
+        final Type type = type(name);
+        if (type == null) {
+            return;
+        }
+        if (type.annotations.contains(INDEXED)) {
+            stereotypes.add(name.replace('/', '.'));
+        }
+        collectOnTypes(type.superName, seen, stereotypes);
+        for (final String itf : type.interfaces) {
+            collectOnTypes(itf, seen, stereotypes);
+        }
+    }
+
+    // types outside of the archive (JVM, bundle) are never stereotypes
+    private Type type(final String name) {
+        if (types.containsKey(name)) {
+            return types.get(name);
+        }
+        final byte[] bytes = name.startsWith("java/") ? null : archive.read(name + ".class");
+        final Type type = bytes == null ? null : parse(bytes);
+        types.put(name, type);
+        return type;
+    }
+
+    private Type parse(final byte[] bytes) {
+        final Type type = new Type();
+        new ClassReader(bytes).accept(new ClassVisitor(ASM8) {
+            @Override
+            public void visit(final int version, final int access, final String name, final String signature,
+                              final String superName, final String[] interfaces) {
+                type.name = name;
+                type.superName = superName;
+                type.interfaces = interfaces == null ? new String[0] : interfaces;
+                type.annotation = (access & ACC_ANNOTATION) != 0;
+                type.candidate = true;
+            }
+
+            @Override
+            public void visitInnerClass(final String name, final String outerName, final String innerName, final int access) {
+                if (name.equals(type.name)) { // like the indexer: top level and static nested types only
+                    type.candidate = outerName != null && (access & ACC_STATIC) != 0;
+                }
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
+                type.annotations.add(descriptor);
+                return null;
+            }
+        }, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES);
+        return type;
+    }
+
+    private static String toClassName(final String descriptor) {
+        return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+    }
+
+    private static class Type {
+        private String name;
+        private String superName;
+        private String[] interfaces;
+        private boolean annotation;
+        private boolean candidate;
+        private final List<String> annotations = new ArrayList<>();
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.apache.karaf.spring.boot.SpringBootService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Installs and starts the fatjars dropped in a directory, stops and uninstalls them when they are removed.
+ * A file is deployed once its size and modification date did not change for the debounce delay
+ * and all the files ready at the same time are deployed in parallel as a batch.
+ * The deployments and undeployments of a given file are executed in order, one at a time.
+ * The application is named after the file (without the .jar extension).
+ */
+public class DeployDirectoryWatcher implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeployDirectoryWatcher.class);
+
+    private final SpringBootService service;
+    private final Path directory;
+    private final long debounce;
+    private final ExecutorService executor;
+    private final Map<Path, Candidate> pending = new HashMap<>();
+    private final ConcurrentMap<String, String> deployed = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Void>> tasks = new ConcurrentHashMap<>();
+    private volatile WatchService watchService;
+    private Thread thread;
+
+    public DeployDirectoryWatcher(final SpringBootService service, final Path directory,
+                                  final long debounce, final int parallelism) {
+        this.service = service;
+        this.directory = directory;
+        this.debounce = debounce;
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            final Thread thread = new Thread(r, "karaf-spring-boot-deployer-" + counter.incrementAndGet());
+            thread.setContextClassLoader(DeployDirectoryWatcher.class.getClassLoader());
+            return thread;
+        });
+    }
+
+    public synchronized void start() throws IOException {
+        Files.createDirectories(directory);
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        try (final Stream<Path> existing = Files.list(directory)) { // dropped while we were not running
+            existing.filter(this::isFatJar).forEach(this::onChange);
+        }
+        thread = new Thread(this, "karaf-spring-boot-deploy-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        LOGGER.info("Watching {} for Spring Boot applications", directory);
+    }
+
+    public synchronized void stop() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            // no-op
+        }
+        watchService = null;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void run() {
+        final WatchService watcher = watchService;
+        while (!Thread.currentThread().isInterrupted()) {
+            final WatchKey key;
+            try {
+                key = pending.isEmpty() ? watcher.take() : watcher.poll(debounce, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException | ClosedWatchServiceException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (key != null) {
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) { // we lost events, rescan
+                        try (final Stream<Path> existing = Files.list(directory)) {
+                            existing.filter(this::isFatJar).forEach(this::onChange);
+                        } catch (final IOException e) {
+                            LOGGER.error(e.getMessage(), e);
+                        }
+                        continue;
+                    }
+                    final Path file = directory.resolve(Path.class.cast(event.context()));
+                    if (!isFatJar(file)) {
+                        continue;
+                    }
+                    if (event.kind() == ENTRY_DELETE) {
+                        pending.remove(file);
+                        submit(file, () -> undeploy(file));
+                    } else {
+                        onChange(file);
+                    }
+                }
+                if (!key.reset()) {
+                    LOGGER.warn("{} is no more watchable, stopping hot deployment", directory);
+                    break;
+                }
+            }
+            deployStableFiles();
+        }
+    }
+
+    private void onChange(final Path file) {
+        pending.computeIfAbsent(file, k -> new Candidate()).touch();
+    }
+
+    private void deployStableFiles() {
+        final long now = System.currentTimeMillis();
+        final List<Path> batch = new ArrayList<>();
+        final Iterator<Map.Entry<Path, Candidate>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Path, Candidate> entry = iterator.next();
+            final Path file = entry.getKey();
+            final Candidate candidate = entry.getValue();
+            try {
+                if (!Files.exists(file)) {
+                    iterator.remove();
+                    continue;
+                }
+                final long size = Files.size(file);
+                final long lastModified = Files.getLastModifiedTime(file).toMillis();
+                if (size != candidate.size || lastModified != candidate.lastModified) { // still being written
+                    candidate.size = size;
+                    candidate.lastModified = lastModified;
+                    candidate.touch();
+                } else if (now - candidate.lastChange >= debounce) {
+                    iterator.remove();
+                    batch.add(file);
+                }
+            } catch (final IOException e) {
+                LOGGER.debug("Can't check {}: {}", file, e.getMessage());
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        LOGGER.info("Deploying {} Spring Boot application(s): {}", batch.size(), batch);
+        batch.forEach(file -> submit(file, () -> deploy(file)));
+    }
+
+    // queued after the pending task of the same file if any, other files are not blocked
+    private void submit(final Path file, final Runnable task) {
+        final String key = file.toString();
+        final CompletableFuture<Void> future = tasks.compute(key, (k, previous) -> previous == null ?
+                CompletableFuture.runAsync(task, executor) :
+                previous.exceptionally(e -> null).thenRunAsync(task, executor));
+        future.whenComplete((r, e) -> tasks.remove(key, future));
+    }
+
+    private void deploy(final Path file) {
+        final String name = toName(file);
+        try {
+            ArchiveDescriptor.read(file.toFile()); // a corrupted or partially written update keeps the deployed one running
+            if (deployed.containsKey(file.toString())) { // update
+                service.stop(name);
+            }
+            service.install(name, file.toUri(), null);
+            deployed.put(file.toString(), name);
+            service.start(name, new String[0]);
+        } catch (final Exception e) {
+            LOGGER.error("Can't deploy {}: {}", file, e.getMessage(), e);
+        }
+    }
+
+    private void undeploy(final Path file) {
+        final String name = deployed.remove(file.toString());
+        if (name == null) {
+            return;
+        }
+        try {
+            service.uninstall(name);
+        } catch (final Exception e) {
+            LOGGER.error("Can't undeploy {}: {}", file, e.getMessage(), e);
+        }
+    }
+
+    private String toName(final Path file) {
+        final String fileName = file.getFileName().toString();
+        return fileName.substring(0, fileName.length() - ".jar".length());
+    }
+
+    private boolean isFatJar(final Path file) {
+        final String name = file.getFileName().toString();
+        return name.endsWith(".jar") && !name.startsWith(".");
+    }
+
+    private static class Candidate {
+        private long size = -1;
+        private long lastModified = -1;
+        private long lastChange;
+
+        private void touch() {
+            lastChange = System.currentTimeMillis();
+        }
+    }
+}
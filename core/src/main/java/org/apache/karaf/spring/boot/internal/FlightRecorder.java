@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+
+/**
+ * JDK Flight Recorder events of the applications (category {@code Karaf / Spring Boot}).
+ * The bundle targets Java 8 so the event types are created with {@code jdk.jfr.EventFactory} through reflection,
+ * events are no-op when JFR is not available, when {@code karaf.spring-boot.jfr.enabled} is false
+ * or when the recording does not enable them.
+ * Durations are the event ones (between {@link EventDefinition#begin()} and the commit).
+ * The event types are registered by the bundle start and unregistered by its stop, the definitions themselves
+ * are constants so they can be resolved once (including reflectively by the services).
+ */
+public final class FlightRecorder {
+    private static final Api API = Api.load();
+    private static volatile ScheduledExecutorService flusher; // commits the bursts, only while registered
+
+    public static final EventDefinition LIFECYCLE = new EventDefinition(
+            "Lifecycle", "Application Lifecycle", "Installation, start, stop, restart, reload or uninstallation of an application",
+            new Field(String.class, "application", "Application"),
+            new Field(String.class, "instance", "Instance"),
+            new Field(String.class, "action", "Action"),
+            new Field(boolean.class, "success", "Success"));
+
+    public static final EventDefinition CLASS_DEFINES = new EventDefinition(
+            "ClassDefineBurst", "Class Define Burst", "Classes defined by the loaders of an application without a pause",
+            new Field(String.class, "application", "Application"),
+            new Field(int.class, "classes", "Classes"),
+            new Field(int.class, "archivedClasses", "Archived Classes"),
+            new Field(long.class, "archivedBytes", "Archived Bytes"));
+
+    public static final EventDefinition SPRING_FACTORIES = new EventDefinition(
+            "SpringFactoriesRewrite", "spring.factories Rewrite", "spring.factories lookup of a library with the Karaf additions",
+            new Field(String.class, "application", "Application"),
+            new Field(String.class, "library", "Library"),
+            new Field(int.class, "added", "Added Resources"));
+
+    public static final EventDefinition HTTP_REQUEST = new EventDefinition(
+            "HttpRequest", "HTTP Request", "Request served by an application through the HTTP service",
+            new Field(String.class, "application", "Application"),
+            new Field(String.class, "servlet", "Servlet"),
+            new Field(int.class, "status", "Status"));
+
+    private FlightRecorder() {
+        // no-op
+    }
+
+    // the bundle classloader (so these constants) survives a stop/start, the types are registered again
+    public static synchronized void register() {
+        for (final EventDefinition definition : asList(LIFECYCLE, CLASS_DEFINES, SPRING_FACTORIES, HTTP_REQUEST)) {
+            definition.register();
+        }
+        if (API != null && flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "karaf-spring-boot-jfr");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // the event types stay registered until their factory is collected, the bundle stop must not wait for it
+    public static synchronized void unregister() {
+        if (flusher != null) {
+            flusher.shutdownNow(); // the loaders flushed their bursts when they were destroyed
+            flusher = null;
+        }
+        for (final EventDefinition definition : asList(LIFECYCLE, CLASS_DEFINES, SPRING_FACTORIES, HTTP_REQUEST)) {
+            definition.unregister();
+        }
+    }
+
+    public static final class EventDefinition {
+        private final String name;
+        private final String label;
+        private final String description;
+        private final Field[] fields;
+        private volatile Registration registration; // null when not registered
+
+        private EventDefinition(final String name, final String label, final String description, final Field... fields) {
+            this.name = name;
+            this.label = label;
+            this.description = description;
+            this.fields = fields;
+        }
+
+        public boolean isEnabled() {
+            final Registration current = registration;
+            return current != null && current.isEnabled();
+        }
+
+        /**
+         * @return the started event or null when the event type is disabled.
+         */
+        public Object begin() {
+            final Registration current = registration;
+            if (current == null || !current.isEnabled()) {
+                return null;
+            }
+            try {
+                final Object event = API.newEvent.invoke(current.factory);
+                API.begin.invoke(event);
+                return event;
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        public void end(final Object event) {
+            if (event == null) {
+                return;
+            }
+            try {
+                API.end.invoke(event);
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                // no-op
+            }
+        }
+
+        /**
+         * @param event  the event returned by {@link #begin()}, ignored when null.
+         * @param values the field values, in the definition order.
+         */
+        public void commit(final Object event, final Object... values) {
+            if (event == null) {
+                return;
+            }
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    API.set.invoke(event, i, values[i]);
+                }
+                API.commit.invoke(event);
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                // no-op
+            }
+        }
+
+        private synchronized void register() {
+            if (API == null || registration != null) {
+                return;
+            }
+            try {
+                final Object factory = API.create(name, label, description, fields);
+                registration = new Registration(factory, API.getEventType.invoke(factory));
+            } catch (final ReflectiveOperationException | RuntimeException | LinkageError e) {
+                // no event
+            }
+        }
+
+        private synchronized void unregister() {
+            final Registration current = registration;
+            if (current == null) {
+                return;
+            }
+            registration = null;
+            try {
+                API.unregister.invoke(current.factory);
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                // no-op
+            }
+        }
+    }
+
+    private static final class Registration {
+        private static final long ENABLED_REFRESH = TimeUnit.SECONDS.toNanos(1);
+
+        private final Object factory;
+        private final Object type;
+        private volatile boolean enabled;
+        private volatile long nextEnabledCheck = System.nanoTime();
+
+        private Registration(final Object factory, final Object type) {
+            this.factory = factory;
+            this.type = type;
+        }
+
+        // reflective and called for each event, a recording (de)activating the type is seen within a second
+        private boolean isEnabled() {
+            final long now = System.nanoTime();
+            if (now - nextEnabledCheck >= 0) {
+                try {
+                    enabled = Boolean.class.cast(API.isEnabled.invoke(type));
+                } catch (final ReflectiveOperationException | RuntimeException e) {
+                    enabled = false;
+                }
+                nextEnabledCheck = now + ENABLED_REFRESH;
+            }
+            return enabled;
+        }
+    }
+
+    /**
+     * Aggregates the class defines of an application in one event per burst,
+     * a burst ends when no class is defined during {@code karaf.spring-boot.jfr.define-burst-gap} milliseconds
+     * or when it is flushed.
+     * An ended burst is committed by a timer so the event is not delayed until the next define.
+     */
+    static final class DefineBurst {
+        private static final long GAP = TimeUnit.MILLISECONDS.toNanos(Long.getLong("karaf.spring-boot.jfr.define-burst-gap", 100L));
+
+        private final String application;
+        private Object event;
+        private boolean scheduled;
+        private long last;
+        private int classes;
+        private int archivedClasses;
+        private long archivedBytes;
+
+        DefineBurst(final String application) {
+            this.application = application;
+        }
+
+        // archived is the class archive bytecode or null when the class was read from the nested jars
+        synchronized void onDefine(final ByteBuffer archived) {
+            final long now = System.nanoTime();
+            if (event != null && now - last > GAP) {
+                flush();
+            }
+            if (event == null) {
+                event = CLASS_DEFINES.begin();
+                if (event == null) {
+                    return;
+                }
+                schedule(GAP);
+            }
+            last = now;
+            classes++;
+            if (archived != null) {
+                archivedClasses++;
+                archivedBytes += archived.limit();
+            }
+            CLASS_DEFINES.end(event);
+        }
+
+        synchronized void flush() {
+            if (event == null) {
+                return;
+            }
+            CLASS_DEFINES.commit(event, application, classes, archivedClasses, archivedBytes);
+            event = null;
+            classes = 0;
+            archivedClasses = 0;
+            archivedBytes = 0;
+        }
+
+        private synchronized void expire() {
+            scheduled = false;
+            if (event == null) {
+                return;
+            }
+            final long idle = System.nanoTime() - last;
+            if (idle > GAP) {
+                flush();
+            } else {
+                schedule(GAP - idle + 1);
+            }
+        }
+
+        // without the timer (stopping) the burst is committed by the next define or the flush
+        private void schedule(final long delay) {
+            final ScheduledExecutorService current = flusher;
+            if (current == null || scheduled) {
+                return;
+            }
+            try {
+                current.schedule(this::expire, delay, TimeUnit.NANOSECONDS);
+                scheduled = true;
+            } catch (final RejectedExecutionException ree) {
+                // no-op
+            }
+        }
+    }
+
+    private static final class Field {
+        private final Class<?> type;
+        private final String name;
+        private final String label;
+
+        private Field(final Class<?> type, final String name, final String label) {
+            this.type = type;
+            this.name = name;
+            this.label = label;
+        }
+    }
+
+    private static final class Api {
+        private final Method createFactory;
+        private final Method newEvent;
+        private final Method getEventType;
+        private final Method unregister;
+        private final Method isEnabled;
+        private final Method begin;
+        private final Method end;
+        private final Method set;
+        private final Method commit;
+        private final Constructor<?> annotationElement;
+        private final Constructor<?> valueDescriptor;
+        private final Class<? extends Annotation> nameAnnotation;
+        private final Class<? extends Annotation> labelAnnotation;
+        private final Class<? extends Annotation> descriptionAnnotation;
+        private final Class<? extends Annotation> categoryAnnotation;
+        private final Class<? extends Annotation> stackTraceAnnotation;
+
+        private Api(final ClassLoader loader) throws ReflectiveOperationException {
+            final Class<?> factory = loader.loadClass("jdk.jfr.EventFactory");
+            final Class<?> event = loader.loadClass("jdk.jfr.Event");
+            createFactory = factory.getMethod("create", List.class, List.class);
+            newEvent = factory.getMethod("newEvent");
+            getEventType = factory.getMethod("getEventType");
+            unregister = factory.getMethod("unregister");
+            isEnabled = loader.loadClass("jdk.jfr.EventType").getMethod("isEnabled");
+            begin = event.getMethod("begin");
+            end = event.getMethod("end");
+            set = event.getMethod("set", int.class, Object.class);
+            commit = event.getMethod("commit");
+            annotationElement = loader.loadClass("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+            valueDescriptor = loader.loadClass("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+            nameAnnotation = loader.loadClass("jdk.jfr.Name").asSubclass(Annotation.class);
+            labelAnnotation = loader.loadClass("jdk.jfr.Label").asSubclass(Annotation.class);
+            descriptionAnnotation = loader.loadClass("jdk.jfr.Description").asSubclass(Annotation.class);
+            categoryAnnotation = loader.loadClass("jdk.jfr.Category").asSubclass(Annotation.class);
+            stackTraceAnnotation = loader.loadClass("jdk.jfr.StackTrace").asSubclass(Annotation.class);
+        }
+
+        private Object create(final String name, final String label, final String description,
+                              final Field... fields) throws ReflectiveOperationException {
+            final List<Object> annotations = asList(
+                    annotationElement.newInstance(nameAnnotation, "org.apache.karaf.spring.boot." + name),
+                    annotationElement.newInstance(labelAnnotation, label),
+                    annotationElement.newInstance(descriptionAnnotation, description),
+                    annotationElement.newInstance(categoryAnnotation, new String[]{"Karaf", "Spring Boot"}),
+                    annotationElement.newInstance(stackTraceAnnotation, false));
+            final List<Object> descriptors = new ArrayList<>(fields.length);
+            for (final Field field : fields) {
+                descriptors.add(valueDescriptor.newInstance(field.type, field.name,
+                        asList(annotationElement.newInstance(labelAnnotation, field.label))));
+            }
+            try {
+                return createFactory.invoke(null, annotations, descriptors);
+            } catch (final InvocationTargetException ite) { // invalid definition or JFR disabled
+                throw new IllegalStateException(ite.getTargetException());
+            }
+        }
+
+        // jdk.jfr is not visible from the bundle, only from the system loader
+        private static Api load() {
+            if (!Boolean.parseBoolean(System.getProperty("karaf.spring-boot.jfr.enabled", "true"))) {
+                return null;
+            }
+            try {
+                return new Api(ClassLoader.getSystemClassLoader());
+            } catch (final ReflectiveOperationException | RuntimeException | LinkageError e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.http.context.ServletContextHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * Stops the applications without HTTP traffic (as seen by the HTTP metrics of the bridge) for a while
+ * and registers a placeholder servlet on their patterns instead.
+ * The first request received by the placeholder starts the application again, requests are held
+ * (asynchronously) during the startup and replayed in the application once it is started.
+ * Replays go through the local endpoint of the application as plain {@code REQUEST} dispatches to run the whole filter chain.
+ * The idle timeout (minutes) is {@code idle.timeout} in the application metadata, {@code karaf.spring-boot.idle.timeout} otherwise.
+ * Traffic is read from the {@code HttpMetrics} MBean of the application, an application without it never hibernates.
+ */
+public class Hibernation {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Hibernation.class);
+    private static final String ENDPOINT = "org.apache.karaf.spring.boot.services.web.LocalEndpointServlet";
+    private static final String REPLAYED = Hibernation.class.getName() + ".replayed";
+
+    private final BundleContext context;
+    private final SpringBootServiceImpl service;
+    private final long defaultTimeout;
+    private final long checkInterval;
+    private final long startTimeout;
+    private final ConcurrentMap<String, Placeholder> placeholders = new ConcurrentHashMap<>();
+    private final Set<String> unobservable = ConcurrentHashMap.newKeySet(); // already warned about
+    private ScheduledExecutorService scheduler;
+    private ExecutorService starter;
+
+    public Hibernation(final BundleContext context, final SpringBootServiceImpl service,
+                       final long defaultTimeout, final long checkInterval, final long startTimeout) {
+        this.context = context;
+        this.service = service;
+        this.defaultTimeout = defaultTimeout;
+        this.checkInterval = checkInterval;
+        this.startTimeout = startTimeout;
+    }
+
+    public synchronized void start() {
+        final AtomicInteger counter = new AtomicInteger();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "karaf-spring-boot-hibernation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        starter = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "karaf-spring-boot-wake-up-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, checkInterval, checkInterval, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (starter != null) {
+            starter.shutdownNow();
+            starter = null;
+        }
+        new ArrayList<>(placeholders.keySet()).forEach(this::forget);
+    }
+
+    // the application was started (by a placeholder or not), held requests can be replayed
+    void onStarted(final String name) {
+        ofNullable(placeholders.get(name)).ifPresent(Placeholder::awake);
+    }
+
+    // explicit stop/uninstall, the application must not be woken up anymore
+    void forget(final String name) {
+        unobservable.remove(name);
+        ofNullable(placeholders.remove(name)).ifPresent(Placeholder::close);
+    }
+
+    void check() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String, KarafLauncherLoader> application : service.getLoaders().entrySet()) {
+            final String name = application.getKey();
+            final long timeout = TimeUnit.MINUTES.toMillis(Long.parseLong(application.getValue().getConfiguration()
+                    .getOrDefault("idle.timeout", Long.toString(defaultTimeout)).trim()));
+            if (timeout <= 0 || placeholders.containsKey(name) || !application.getValue().getInstances().isEmpty()) {
+                continue;
+            }
+            try {
+                final ObjectName metrics = new ObjectName(
+                        "org.apache.karaf.spring.boot:type=HttpMetrics,application=" + ObjectName.quote(name));
+                final long lastRequest = Math.max(
+                        Number.class.cast(server.getAttribute(metrics, "LastRequestTimestamp")).longValue(),
+                        Number.class.cast(server.getAttribute(metrics, "StartTimestamp")).longValue());
+                if (now - lastRequest >= timeout && Number.class.cast(server.getAttribute(metrics, "InFlight")).longValue() == 0) {
+                    hibernate(name, application.getValue());
+                }
+            } catch (final InstanceNotFoundException infe) {
+                if (unobservable.add(name)) {
+                    LOGGER.warn("{} has an idle timeout but no HTTP metrics (not a web application or " +
+                            "karaf.spring-boot.http.metrics.enabled=false), it will never hibernate", name);
+                }
+            } catch (final Exception e) {
+                LOGGER.warn("Can't check activity of {}: {}", name, e.getMessage(), e);
+            }
+        }
+    }
+
+    private void hibernate(final String name, final KarafLauncherLoader loader) throws InvalidSyntaxException {
+        final String contextName = "karaf-spring-boot-" + name;
+        final ServiceReference<?>[] helpers = context.getServiceReferences(
+                ServletContextHelper.class.getName(), "(osgi.http.whiteboard.context.name=" + contextName + ")");
+        final ServiceReference<?>[] servlets = context.getServiceReferences(
+                Servlet.class.getName(), "(osgi.http.whiteboard.servlet.pattern=*)");
+        if (helpers == null || helpers.length == 0 || servlets == null) {
+            return;
+        }
+        final String select = "(osgi.http.whiteboard.context.name=" + contextName + ")";
+        final Set<String> patterns = new LinkedHashSet<>();
+        Stream.of(servlets)
+                .filter(it -> select.equals(it.getProperty("osgi.http.whiteboard.context.select")))
+                .map(it -> it.getProperty("osgi.http.whiteboard.servlet.pattern"))
+                .forEach(it -> {
+                    if (it instanceof String[]) {
+                        patterns.addAll(Arrays.asList((String[]) it));
+                    } else if (it instanceof Collection) {
+                        ((Collection<?>) it).forEach(p -> patterns.add(String.valueOf(p)));
+                    } else if (it != null) {
+                        patterns.add(String.valueOf(it));
+                    }
+                });
+        if (patterns.isEmpty()) {
+            return;
+        }
+
+        LOGGER.info("Hibernating idle Spring Boot application {}", name);
+        final Placeholder placeholder = new Placeholder(
+                name, loader.getArgs(), String.valueOf(helpers[0].getProperty("osgi.http.whiteboard.context.path")), patterns);
+        placeholders.put(name, placeholder);
+        placeholder.register(); // lower ranking than the application context, it only takes over once it is stopped
+        service.stopLoader(name);
+    }
+
+    private class Placeholder extends HttpServlet {
+        private final String name;
+        private final String[] args;
+        private final String contextPath;
+        private final Set<String> patterns;
+        private final List<AsyncContext> held = new ArrayList<>();
+        private final AtomicInteger forwarding = new AtomicInteger();
+        private final Collection<ServiceRegistration<?>> registrations = new ArrayList<>();
+        private int replaying;
+        private boolean starting;
+        private boolean awake;
+        private boolean closed;
+
+        private Placeholder(final String name, final String[] args, final String contextPath, final Set<String> patterns) {
+            this.name = name;
+            this.args = args;
+            this.contextPath = contextPath;
+            this.patterns = patterns;
+        }
+
+        @Override
+        protected void service(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+            final boolean forward;
+            synchronized (this) {
+                forward = awake;
+                if (!forward && !closed) {
+                    hold(req, resp);
+                    return;
+                }
+            }
+            if (!forward) {
+                unavailable(resp);
+                return;
+            }
+            // replayed requests and the ones routed here before the application registrations take over
+            forwarding.incrementAndGet();
+            try {
+                // a replay comes back as an ASYNC dispatch, the application must see the original REQUEST one
+                forward(release(req) ? new Replay(req) : req, resp);
+            } finally {
+                forwarding.decrementAndGet();
+                closeIfIdle();
+            }
+        }
+
+        private void hold(final HttpServletRequest req, final HttpServletResponse resp) {
+            final AsyncContext asyncContext = req.startAsync(req, resp);
+            asyncContext.setTimeout(startTimeout);
+            asyncContext.addListener(new AsyncListener() {
+                @Override
+                public void onComplete(final AsyncEvent event) {
+                    // a replay which never came back in service()
+                    if (release(event.getAsyncContext().getRequest())) {
+                        closeIfIdle();
+                    }
+                }
+
+                @Override
+                public void onTimeout(final AsyncEvent event) throws IOException {
+                    synchronized (Placeholder.this) {
+                        if (!held.remove(asyncContext)) {
+                            return;
+                        }
+                    }
+                    unavailable(HttpServletResponse.class.cast(event.getAsyncContext().getResponse()));
+                    event.getAsyncContext().complete();
+                }
+
+                @Override
+                public void onError(final AsyncEvent event) {
+                    synchronized (Placeholder.this) {
+                        held.remove(asyncContext);
+                    }
+                    if (release(event.getAsyncContext().getRequest())) {
+                        closeIfIdle();
+                    }
+                }
+
+                @Override
+                public void onStartAsync(final AsyncEvent event) {
+                    // no-op
+                }
+            });
+            held.add(asyncContext);
+            if (!starting) {
+                starting = true;
+                starter.execute(this::wakeUp);
+            }
+        }
+
+        private void wakeUp() {
+            LOGGER.info("Waking up Spring Boot application {}", name);
+            try {
+                service.start(name, args); // calls awake() through onStarted()
+            } catch (final Exception e) {
+                LOGGER.error("Can't wake up {}: {}", name, e.getMessage(), e);
+                final List<AsyncContext> failed;
+                synchronized (this) {
+                    starting = false;
+                    failed = new ArrayList<>(held);
+                    held.clear();
+                }
+                failed.forEach(it -> {
+                    try {
+                        unavailable(HttpServletResponse.class.cast(it.getResponse()));
+                    } catch (final IOException | RuntimeException ignored) {
+                        // no-op
+                    } finally {
+                        it.complete();
+                    }
+                });
+            }
+        }
+
+        private void awake() {
+            final List<AsyncContext> replay;
+            synchronized (this) {
+                awake = true;
+                replay = new ArrayList<>(held);
+                held.clear();
+                replaying += replay.size();
+                replay.forEach(it -> it.getRequest().setAttribute(REPLAYED, this));
+            }
+            placeholders.remove(name, this);
+            replay.forEach(it -> { // comes back in service() as an ASYNC dispatch and is forwarded
+                try {
+                    it.dispatch();
+                } catch (final IllegalStateException ise) { // completed meanwhile
+                    release(it.getRequest());
+                }
+            });
+            closeIfIdle();
+        }
+
+        // the placeholder can only be closed once all the replays were forwarded
+        private synchronized boolean release(final ServletRequest request) {
+            if (request.getAttribute(REPLAYED) != this) {
+                return false;
+            }
+            request.removeAttribute(REPLAYED);
+            replaying--;
+            return true;
+        }
+
+        private void forward(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+            try {
+                final ServiceReference<?>[] endpoints = context.getAllServiceReferences(
+                        ENDPOINT, "(karaf.spring-boot.application=" + name + ")");
+                if (endpoints == null || endpoints.length == 0) {
+                    unavailable(resp);
+                    return;
+                }
+                final Object endpoint = context.getService(endpoints[0]);
+                try {
+                    Servlet.class.cast(endpoint).service(req, resp);
+                } finally {
+                    context.ungetService(endpoints[0]);
+                }
+            } catch (final InvalidSyntaxException e) {
+                throw new ServletException(e);
+            }
+        }
+
+        private void unavailable(final HttpServletResponse resp) throws IOException {
+            if (!resp.isCommitted()) {
+                resp.setHeader("Retry-After", Long.toString(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(startTimeout))));
+                resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+        }
+
+        private void closeIfIdle() {
+            synchronized (this) {
+                if (!awake || replaying > 0 || forwarding.get() > 0 || !held.isEmpty()) {
+                    return;
+                }
+            }
+            close();
+        }
+
+        private void register() {
+            final String helperName = "karaf-spring-boot-" + name + "-hibernated";
+            final Hashtable<String, Object> helperConfig = new Hashtable<>();
+            helperConfig.put("osgi.http.whiteboard.context.name", helperName);
+            helperConfig.put("osgi.http.whiteboard.context.path", contextPath.isEmpty() ? "/" : contextPath);
+            helperConfig.put(Constants.SERVICE_RANKING, Integer.MIN_VALUE); // contexts of a path are tried by ranking
+            final Hashtable<String, Object> servletConfig = new Hashtable<>();
+            servletConfig.put("osgi.http.whiteboard.servlet.name", helperName);
+            servletConfig.put("osgi.http.whiteboard.servlet.pattern", patterns.toArray(new String[0]));
+            servletConfig.put("osgi.http.whiteboard.servlet.asyncSupported", true);
+            servletConfig.put("osgi.http.whiteboard.context.select", "(osgi.http.whiteboard.context.name=" + helperName + ")");
+            synchronized (this) {
+                registrations.add(context.registerService(
+                        ServletContextHelper.class, new ServletContextHelper(context.getBundle()) {
+                        }, helperConfig));
+                registrations.add(context.registerService(Servlet.class, this, servletConfig));
+            }
+        }
+
+        private void close() {
+            final List<ServiceRegistration<?>> toUnregister;
+            final List<AsyncContext> rejected;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                toUnregister = new ArrayList<>(registrations);
+                registrations.clear();
+                rejected = new ArrayList<>(held);
+                held.clear();
+            }
+            for (int i = toUnregister.size() - 1; i >= 0; i--) { // servlet before its context
+                try {
+                    toUnregister.get(i).unregister();
+                } catch (final IllegalStateException ise) {
+                    // no-op
+                }
+            }
+            rejected.forEach(it -> {
+                try {
+                    unavailable(HttpServletResponse.class.cast(it.getResponse()));
+                } catch (final IOException | RuntimeException ignored) {
+                    // no-op
+                } finally {
+                    it.complete();
+                }
+            });
+        }
+    }
+
+    private static class Replay extends HttpServletRequestWrapper {
+        private Replay(final HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public DispatcherType getDispatcherType() {
+            return DispatcherType.REQUEST;
+        }
+    }
+}
@@ -17,6 +17,8 @@
 package org.apache.karaf.spring.boot.internal;
 
 import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -28,7 +30,21 @@ import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
 
+import static java.util.Collections.unmodifiableMap;
 import static java.util.Objects.requireNonNull;
 
 public class KarafLauncherLoader extends URLClassLoader {
@@ -36,33 +52,287 @@ public class KarafLauncherLoader extends URLClassLoader {
         ClassLoader.registerAsParallelCapable();
     }
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(KarafLauncherLoader.class);
+
     private final ClassGenerator integrations;
     private final File base;
     private final BundleContext context;
-    private Object contextHolder;
+    private final String name;
+    private final ThreadGroup threadGroup;
+    private final Map<String, String> configuration;
+    private final Instance defaultInstance;
+    private final ConcurrentMap<String, Instance> instances = new ConcurrentHashMap<>(); // named instances
+    private final ThreadLocal<Instance> running = new ThreadLocal<>();
+    private final FlightRecorder.DefineBurst defines;
+    private final ClassTransformers.Scope transformation; // null when no class is instrumented
+    private ClassLoader applicationLoader;
+    private volatile ClassLoader libraries;
+    private volatile ApplicationClassesLoader applicationClasses; // reloadable mode only
+    private volatile ClassArchive classArchive;
+    private volatile ClassArchive resourceIndex; // the class archive when it also answers resource lookups
+    private volatile URL componentIndex;
+
+    public KarafLauncherLoader(final BundleContext context, final String name,
+                               final File baseOrJar, final ClassLoader parent,
+                               final Map<String, String> configuration) throws MalformedURLException {
+        this(context, name, baseOrJar, parent, configuration, null);
+    }
 
-    public KarafLauncherLoader(final BundleContext context,
-                               final File baseOrJar, final ClassLoader parent) throws MalformedURLException {
+    public KarafLauncherLoader(final BundleContext context, final String name,
+                               final File baseOrJar, final ClassLoader parent,
+                               final Map<String, String> configuration,
+                               final ClassTransformers transformers) throws MalformedURLException {
         super(new URL[]{baseOrJar.toURI().toURL()}, parent);
         this.integrations = new ClassGenerator();
         this.base = baseOrJar;
         this.context = context;
+        this.name = name;
+        this.threadGroup = new ThreadGroup("spring-boot-" + name);
+        this.configuration = unmodifiableMap(configuration);
+        this.defaultInstance = new Instance(name, threadGroup);
+        this.defines = new FlightRecorder.DefineBurst(name);
+        this.transformation = transformers == null ? null : transformers.forApplication(name, this.configuration);
     }
 
     public BundleContext getContext() {
         return context;
     }
 
+    // instance name, integrations read it while the context starts so from a thread of the instance
+    public String getName() {
+        return defaultInstance == null ? name : currentInstance().name; // java 9+ ClassLoader constructor calls it
+    }
+
+    // application metadata, integrations (services) read it reflectively
+    public Map<String, String> getConfiguration() {
+        return configuration;
+    }
+
+    // threads created by the application inherit it since it is launched from a thread of this group
+    public ThreadGroup getThreadGroup() {
+        return threadGroup;
+    }
+
+    // this loader, the libraries one and the application classes one in reloadable mode
+    public List<ClassLoader> getApplicationLoaders() {
+        final List<ClassLoader> loaders = new ArrayList<>(3);
+        loaders.add(this);
+        final ClassLoader libraries = this.libraries;
+        if (libraries != null) {
+            loaders.add(libraries);
+        }
+        final ClassLoader applicationClasses = this.applicationClasses;
+        if (applicationClasses != null) {
+            loaders.add(applicationClasses);
+        }
+        return loaders;
+    }
+
+    // the started application contexts, default instance first
+    public List<Object> getContexts() {
+        final List<Object> contexts = new ArrayList<>(1 + instances.size());
+        final List<Instance> all = new ArrayList<>(instances.values());
+        all.add(0, defaultInstance);
+        for (final Instance instance : all) {
+            final Object contextHolder = instance.contextHolder;
+            if (contextHolder != null) {
+                try {
+                    contexts.add(readField(contextHolder, "context"));
+                } catch (final ReflectiveOperationException | RuntimeException e) {
+                    // no-op, closing
+                }
+            }
+        }
+        return contexts;
+    }
+
+    public boolean isClassArchiveOpened() {
+        return classArchive != null || resourceIndex != null;
+    }
+
+    public synchronized String[] getArgs() {
+        return defaultInstance.args.clone();
+    }
+
+    public Set<String> getInstances() {
+        return new TreeSet<>(instances.keySet());
+    }
+
     public synchronized void launch(final String main, final String... args) throws InvocationTargetException, IllegalAccessException, ClassNotFoundException, NoSuchMethodException {
+        defaultInstance.args = args == null ? new String[0] : args.clone();
+        if (transformation != null) {
+            transformation.start();
+        }
         final Method method = loadClass(main).getMethod("main", String[].class);
         if (!method.isAccessible()) {
             method.setAccessible(true);
         }
-        method.invoke(null, new Object[]{args});
+        try {
+            method.invoke(null, new Object[]{args});
+        } finally {
+            defines.flush();
+        }
+    }
+
+    // closes the context and runs the captured SpringApplication again in the same application loader,
+    // classes are already loaded and patched so it is a fraction of a launch
+    public synchronized void restart(final String... newArgs) throws Exception {
+        final Object contextHolder = defaultInstance.contextHolder;
+        if (contextHolder == null) {
+            throw new IllegalStateException("Application " + name + " is not started");
+        }
+        final Object application = readField(contextHolder, "application");
+        if (newArgs != null && newArgs.length > 0) {
+            defaultInstance.args = newArgs.clone();
+        }
+        final ClassLoader loader = applicationLoader != null ? applicationLoader : contextHolder.getClass().getClassLoader();
+        closeContext(defaultInstance);
+        runInApplicationLoader(defaultInstance, loader, () -> findMethod(application.getClass(), "run", String[].class)
+                .invoke(application, new Object[]{defaultInstance.args.clone()}));
+        defines.flush();
+    }
+
+    // a named instance reuses the classes of the started application, only a context is created
+    public synchronized ThreadGroup addInstance(final String id) {
+        if (applicationLoader == null) {
+            throw new IllegalStateException("Application " + name + " must be started before its instances");
+        }
+        if (configuration.get("archive.start-class") == null) {
+            throw new IllegalStateException("No Start-Class for " + name + ", can't start instances");
+        }
+        final String instanceName = name + '.' + id;
+        final Instance instance = new Instance(instanceName, new ThreadGroup(threadGroup, "spring-boot-" + instanceName));
+        if (instances.putIfAbsent(id, instance) != null) {
+            throw new IllegalArgumentException("Instance " + id + " of " + name + " is already started");
+        }
+        return instance.threadGroup;
+    }
+
+    public synchronized void launchInstance(final String id, final String... args) throws Exception {
+        final Instance instance = instances.get(id);
+        if (instance == null) {
+            throw new IllegalArgumentException("No instance " + id + " for " + name);
+        }
+        instance.args = args == null ? new String[0] : args.clone();
+        try {
+            runStartClass(instance);
+        } catch (final Exception e) {
+            instances.remove(id, instance);
+            release(instance.threadGroup);
+            throw e;
+        }
+    }
+
+    public synchronized void stopInstance(final String id) throws ReflectiveOperationException {
+        final Instance instance = instances.remove(id);
+        if (instance == null) {
+            throw new IllegalArgumentException("No instance " + id + " for " + name);
+        }
+        try {
+            if (instance.contextHolder != null) {
+                closeContext(instance);
+            }
+        } finally {
+            release(instance.threadGroup);
+        }
+    }
+
+    // reloadable mode: only the application classes loader is recreated, libraries stay loaded,
+    // the start class is then run again to create a new context with the new classes
+    public synchronized void reload() throws Exception {
+        if (applicationClasses == null) {
+            throw new IllegalStateException("Application " + name + " is not started or not reloadable (classloader.reloadable)");
+        }
+        if (configuration.get("archive.start-class") == null) {
+            throw new IllegalStateException("No Start-Class for " + name + ", can't reload it");
+        }
+        final String directory = configuration.get("classloader.classes-directory");
+        if (base.isFile() && (directory == null || directory.trim().isEmpty())) { // the nested classes did not change
+            LOGGER.warn("No classloader.classes-directory configured for {}, reloading the classes of its artifact", name);
+        }
+        for (final Instance instance : instances.values()) {
+            if (instance.contextHolder != null) {
+                closeContext(instance);
+            }
+        }
+        if (defaultInstance.contextHolder != null) {
+            closeContext(defaultInstance);
+        }
+        final ApplicationClassesLoader previous = applicationClasses;
+        applicationClasses = new ApplicationClassesLoader(previous.getURLs(), previous.getParent(), transformation);
+        applicationLoader = applicationClasses;
+        try {
+            previous.close();
+        } catch (final IOException e) {
+            // no-op
+        }
+        runStartClass(defaultInstance);
+        for (final Instance instance : instances.values()) { // threads they create belong to the default group until restarted
+            runStartClass(instance);
+        }
+        defines.flush();
+    }
+
+    // called by the patched launchers instead of scanning the archive: the class path read at install time (same urls
+    // as the launcher ones), null when there is none (metadata of a previous version, exploded application, other launcher)
+    public URL[] classPath() throws ReflectiveOperationException, MalformedURLException {
+        final String classes = configuration.get("archive.classes");
+        if (classes == null || base.isDirectory() ||
+                !"org.springframework.boot.loader.JarLauncher".equals(configuration.get("archive.main-class"))) {
+            return null;
+        }
+        final URLStreamHandler handler = URLStreamHandler.class.cast(
+                loadClass("org.springframework.boot.loader.jar.Handler").getConstructor().newInstance());
+        final String root = base.toURI() + "!/";
+        final List<URL> urls = new ArrayList<>();
+        urls.add(new URL("jar", "", -1, root + (classes.endsWith("/") ? classes.substring(0, classes.length() - 1) : classes) + "!/", handler));
+        for (final String library : ArchiveDescriptor.loadLibraries(configuration::get)) {
+            urls.add(new URL("jar", "", -1, root + library + "!/", handler));
+        }
+        return urls.toArray(new URL[0]);
+    }
+
+    // called by the patched Launcher.createClassLoader, reloadable mode keeps the application classes out of the libraries loader
+    public URL[] libraries(final URL[] urls) {
+        if (!isReloadable()) {
+            return urls;
+        }
+        return Stream.of(urls).filter(it -> !isApplicationClasses(it)).toArray(URL[]::new);
+    }
+
+    // called by the patched Launcher.createClassLoader with the libraries loader
+    public synchronized ClassLoader applicationLoader(final ClassLoader libraries, final URL[] urls) throws MalformedURLException {
+        final ClassArchive archive = openClassArchive(libraries instanceof URLClassLoader ? URLClassLoader.class.cast(libraries).getURLs() : urls);
+        classArchive = isEnabled("classloader.class-archive") ? archive : null;
+        resourceIndex = isEnabled("classloader.resource-index") ? archive : null;
+        componentIndex = findComponentIndex();
+        this.libraries = libraries;
+        if (!isReloadable()) {
+            applicationLoader = libraries;
+            return libraries;
+        }
+        final String directory = configuration.get("classloader.classes-directory");
+        applicationClasses = new ApplicationClassesLoader(directory != null && !directory.trim().isEmpty() ?
+                new URL[]{new File(directory.trim()).toURI().toURL()} :
+                Stream.of(urls).filter(this::isApplicationClasses).toArray(URL[]::new), libraries, transformation);
+        applicationLoader = applicationClasses;
+        return applicationLoader;
     }
 
     public synchronized void destroy() {
         try {
+            for (final Instance instance : instances.values()) {
+                if (instance.contextHolder != null) {
+                    try {
+                        closeContext(instance);
+                    } catch (final ReflectiveOperationException | RuntimeException e) {
+                        // no-op, the default instance must still be stopped
+                    }
+                }
+                release(instance.threadGroup);
+            }
+            instances.clear();
+            final Object contextHolder = defaultInstance.contextHolder;
             if (contextHolder != null) {
                 try {
                     final Field context = contextHolder.getClass().getDeclaredField("context");
@@ -83,9 +353,109 @@ public class KarafLauncherLoader extends URLClassLoader {
             } catch (final IOException e) {
                 // no-op
             }
+            if (applicationClasses != null) {
+                try {
+                    applicationClasses.close();
+                } catch (final IOException e) {
+                    // no-op
+                }
+                applicationClasses = null;
+            }
+            applicationLoader = null;
+            libraries = null;
+            defines.flush();
+            if (transformation != null) {
+                transformation.stop();
+            }
+            classArchive = null; // unmapped once collected
+            resourceIndex = null;
+            componentIndex = null;
+            release(threadGroup);
         }
     }
 
+    // a group stays referenced by its parent until destroyed (each start has its own one),
+    // a daemon group is destroyed with its last thread when some are still stopping
+    @SuppressWarnings({"deprecation", "removal"})
+    private static void release(final ThreadGroup group) {
+        try {
+            group.setDaemon(true);
+            if (group.activeCount() == 0 && group.activeGroupCount() == 0) {
+                group.destroy();
+            }
+        } catch (final IllegalThreadStateException | SecurityException e) {
+            // already destroyed or a thread was started in between, destroyed when it ends
+        }
+    }
+
+    // called by the child loader getResources for META-INF/spring.components
+    public Enumeration<URL> componentIndexes(final Enumeration<URL> found) {
+        final URL index = componentIndex;
+        if (index == null) {
+            return found;
+        }
+        final List<URL> urls = Collections.list(found);
+        urls.add(index);
+        return Collections.enumeration(urls);
+    }
+
+    // called by the child loader findClass, null when the class must be read from the nested jars,
+    // instrumented classes are always returned (transformed) so the child loader defines them
+    public ByteBuffer findArchivedClass(final String className) {
+        final ClassArchive archive = classArchive;
+        final ByteBuffer archived = archive == null ? null : archive.find(className);
+        final ClassTransformers.Scope scope = transformation;
+        if (scope == null || !scope.matches(className)) {
+            return archived;
+        }
+        final ClassLoader loader = libraries;
+        final byte[] bytecode;
+        if (archived != null) {
+            bytecode = new byte[archived.remaining()];
+            archived.duplicate().get(bytecode);
+        } else {
+            final URL resource = loader instanceof URLClassLoader ?
+                    URLClassLoader.class.cast(loader).findResource(className.replace('.', '/') + ".class") : null;
+            if (resource == null) {
+                return null;
+            }
+            try {
+                bytecode = ClassTransformers.read(resource);
+            } catch (final IOException e) { // let the child loader fail
+                return null;
+            }
+        }
+        final byte[] transformed = scope.transform(loader, className, findArchivedDomain(className), bytecode);
+        if (transformed == null) {
+            return archived != null ? archived : ByteBuffer.wrap(bytecode);
+        }
+        return ByteBuffer.wrap(transformed);
+    }
+
+    // called by the child loader findClass once the class is defined, archived is null when it was read from the nested jars
+    public void onClassDefined(final ByteBuffer archived) {
+        defines.onDefine(archived);
+    }
+
+    public ProtectionDomain findArchivedDomain(final String className) {
+        final ClassArchive archive = classArchive;
+        final ProtectionDomain domain = archive == null ? null : archive.findDomain(className);
+        final ClassTransformers.Scope scope = transformation;
+        if (domain != null || scope == null || !scope.matches(className)) {
+            return domain;
+        }
+        final ClassLoader loader = libraries; // instrumented class read from the nested jars
+        final URL resource = loader instanceof URLClassLoader ?
+                URLClassLoader.class.cast(loader).findResource(className.replace('.', '/') + ".class") : null;
+        return resource == null ? null : scope.domain(resource, className);
+    }
+
+    // called by the child loader findResource(s), null when the nested jars must be probed
+    public List<URL> findIndexedResources(final String name) {
+        final ClassArchive index = resourceIndex;
+        return index == null || name == null ? null : index.findResources(name);
+    }
+
     @Override
     protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
         if (name == null) {
@@ -111,7 +481,7 @@ public class KarafLauncherLoader extends URLClassLoader {
                     final String sub = name.substring("org.springframework.".length());
                     if (sub.startsWith("boot.loader.")) {
                         final String subName = sub.substring("boot.loader.".length());
-                        if ("Launcher".equals(subName)) {
+                        if ("Launcher".equals(subName) || "ExecutableArchiveLauncher".equals(subName)) {
                             try {
                                 final byte[] original = readBytes(name.replace('.', '/') + ".class");
                                 return loadIntegrationClass(name, resolve, integrations.patchLauncher(original, base.getAbsolutePath()));
@@ -134,7 +504,8 @@ public class KarafLauncherLoader extends URLClassLoader {
 
     @Override
     public URL getResource(final String name) {
-        if ("org/springframework/boot/loader/Launcher.class".equals(name)) {
+        if ("org/springframework/boot/loader/Launcher.class".equals(name) ||
+                "org/springframework/boot/loader/ExecutableArchiveLauncher.class".equals(name)) {
             return findResource(name);
         }
         return super.getResource(name);
@@ -162,7 +533,131 @@ public class KarafLauncherLoader extends URLClassLoader {
         return value;
     }
 
+    private ClassArchive openClassArchive(final URL[] urls) {
+        if (!base.isFile() || !(isEnabled("classloader.class-archive") || isEnabled("classloader.resource-index"))) {
+            return null;
+        }
+        try {
+            final ClassArchive archive = ClassArchive.open(ClassArchive.of(base), configuration.get("digest"));
+            if (archive != null) {
+                archive.bind(urls);
+            }
+            return archive;
+        } catch (final IOException | RuntimeException e) { // classes are still in the artifact
+            return null;
+        }
+    }
+
+    // reloadable classes can get new components and stack classes are not indexed, scanning must stay exhaustive there
+    private URL findComponentIndex() {
+        final String stack = configuration.getOrDefault("stack", "<none>");
+        if (!base.isFile() || isReloadable() || !("<none>".equals(stack) || stack.isEmpty()) ||
+                !Boolean.parseBoolean(configuration.getOrDefault("classloader.component-index", "true"))) {
+            return null;
+        }
+        try {
+            return ComponentIndex.find(base, configuration.get("digest"));
+        } catch (final IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private boolean isEnabled(final String key) {
+        return Boolean.parseBoolean(configuration.getOrDefault(key, "true"));
+    }
+
+    private boolean isReloadable() {
+        return Boolean.parseBoolean(configuration.getOrDefault("classloader.reloadable", "false"));
+    }
+
+    // nested jar (jar:...!/BOOT-INF/classes!/) or exploded (file:.../BOOT-INF/classes/) url
+    private boolean isApplicationClasses(final URL url) {
+        String classes = configuration.getOrDefault("archive.classes", "BOOT-INF/classes/");
+        if (classes.endsWith("/")) {
+            classes = classes.substring(0, classes.length() - 1);
+        }
+        final String value = url.toExternalForm();
+        return value.endsWith(classes + "!/") || value.endsWith(classes + "/");
+    }
+
+    private void closeContext(final Instance instance) throws ReflectiveOperationException {
+        final Object contextInstance = readField(instance.contextHolder, "context");
+        instance.contextHolder = null; // the next run captures its own context
+        findMethod(contextInstance.getClass(), "close").invoke(contextInstance);
+    }
+
+    private void runStartClass(final Instance instance) throws Exception {
+        final ClassLoader loader = applicationLoader;
+        runInApplicationLoader(instance, loader, () -> findMethod(loader.loadClass(configuration.get("archive.start-class")), "main", String[].class)
+                .invoke(null, new Object[]{instance.args.clone()}));
+    }
+
+    private void runInApplicationLoader(final Instance instance, final ClassLoader loader, final Run run) throws Exception {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader old = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        running.set(instance);
+        try {
+            run.run();
+        } catch (final InvocationTargetException ite) {
+            final Throwable cause = ite.getTargetException();
+            throw cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause);
+        } finally {
+            running.remove();
+            thread.setContextClassLoader(old);
+        }
+    }
+
+    // explicitly run instance first, then the thread group the instance threads inherit, default instance otherwise
+    private Instance currentInstance() {
+        final Instance instance = running.get();
+        if (instance != null) {
+            return instance;
+        }
+        if (!instances.isEmpty()) {
+            ThreadGroup group = Thread.currentThread().getThreadGroup();
+            while (group != null && group != threadGroup) {
+                for (final Instance candidate : instances.values()) {
+                    if (candidate.threadGroup == group) {
+                        return candidate;
+                    }
+                }
+                group = group.getParent();
+            }
+        }
+        return defaultInstance;
+    }
+
+    private Object readField(final Object instance, final String name) throws ReflectiveOperationException {
+        final Field field = instance.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(instance);
+    }
+
+    private Method findMethod(final Class<?> type, final String name, final Class<?>... parameterTypes) throws NoSuchMethodException {
+        final Method method = type.getMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return method;
+    }
+
     public void setContextHolder(final Object instance) {
-        this.contextHolder = instance;
+        currentInstance().contextHolder = instance;
+    }
+
+    @FunctionalInterface
+    private interface Run {
+        void run() throws Exception;
+    }
+
+    private static class Instance {
+        private final String name;
+        private final ThreadGroup threadGroup;
+        private volatile Object contextHolder;
+        private volatile String[] args = new String[0];
+
+        private Instance(final String name, final ThreadGroup threadGroup) {
+            this.name = name;
+            this.threadGroup = threadGroup;
+        }
     }
-}
\ No newline at end of file
+}
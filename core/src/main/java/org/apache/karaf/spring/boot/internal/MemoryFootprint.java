@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.ref.Reference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Estimates the memory held by an application: classes of its loaders (and their metaspace),
+ * heap reachable from its application contexts and jars opened by its loaders.
+ * <p>
+ * Metaspace is the loaded classes times the average metaspace per loaded class of the JVM.
+ * The heap is a walk of the instance fields from the contexts which only enters the objects of JDK classes or of classes
+ * of the application (and stack) loaders, classes, loaders and threads are not entered and large arrays are sampled
+ * ({@code karaf.spring-boot.memory.array-sample} elements, their size is extrapolated).
+ * Object sizes assume compressed oops when the heap is under 32GB.
+ */
+public class MemoryFootprint {
+    private static final long COMPRESSED_OOPS_LIMIT = 32L * 1024 * 1024 * 1024;
+
+    private final int maxObjects;
+    private final int arraySample;
+    private final int referenceSize;
+    private final int headerSize;
+    private final int arrayHeaderSize;
+    private final ConcurrentMap<Class<?>, Layout> layouts = new ConcurrentHashMap<>();
+
+    public MemoryFootprint(final int maxObjects, final int arraySample) {
+        this.maxObjects = maxObjects;
+        this.arraySample = Math.max(1, arraySample);
+        final boolean compressed = Runtime.getRuntime().maxMemory() < COMPRESSED_OOPS_LIMIT;
+        this.referenceSize = compressed ? 4 : 8;
+        this.headerSize = compressed ? 12 : 16;
+        this.arrayHeaderSize = compressed ? 16 : 24;
+    }
+
+    /**
+     * @return the classes defined by the loader, -1 if the JVM does not let us read them.
+     */
+    public static int countClasses(final ClassLoader loader) {
+        try {
+            final Field field = ClassLoader.class.getDeclaredField("classes");
+            field.setAccessible(true);
+            final Collection<?> classes = Collection.class.cast(field.get(loader));
+            synchronized (classes) { // ClassLoader.addClass lock
+                return classes.size();
+            }
+        } catch (final ReflectiveOperationException | RuntimeException e) { // java.lang not opened
+            return -1;
+        }
+    }
+
+    public static int countClasses(final Collection<ClassLoader> loaders) {
+        int total = 0;
+        for (final ClassLoader loader : loaders) {
+            final int classes = countClasses(loader);
+            if (classes < 0) {
+                return -1;
+            }
+            total += classes;
+        }
+        return total;
+    }
+
+    /**
+     * @return the average metaspace used per loaded class, -1 if the JVM has no metaspace pool.
+     */
+    public static long metaspacePerClass() {
+        final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+        final long loaded = classLoading.getLoadedClassCount();
+        if (loaded == 0) {
+            return -1;
+        }
+        long used = -1;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName())) {
+                used = pool.getUsage().getUsed();
+            }
+        }
+        return used < 0 ? -1 : used / loaded;
+    }
+
+    // jar urls on the loaders and the distinct files they are read from, nested jars share their artifact handle
+    public static int[] countJars(final Collection<ClassLoader> loaders, final boolean classArchive) {
+        int jars = 0;
+        final Set<String> files = new HashSet<>();
+        for (final ClassLoader loader : loaders) {
+            if (!URLClassLoader.class.isInstance(loader)) {
+                continue;
+            }
+            for (final URL url : URLClassLoader.class.cast(loader).getURLs()) {
+                final String value = url.toExternalForm();
+                final String file;
+                if (value.startsWith("jar:")) {
+                    final int separator = value.indexOf("!/");
+                    file = separator > 0 ? value.substring("jar:".length(), separator) : value.substring("jar:".length());
+                } else if (value.startsWith("file:") && !value.endsWith("/")) {
+                    file = value;
+                } else { // exploded directory
+                    continue;
+                }
+                jars++;
+                files.add(file);
+            }
+        }
+        return new int[]{jars, files.size() + (classArchive ? 1 : 0)};
+    }
+
+    /**
+     * @param roots  the objects to walk from.
+     * @param owners the loaders of the classes the walk can enter, JDK classes are always entered.
+     * @return the estimated bytes and the number of visited objects.
+     */
+    public long[] retainedHeap(final Collection<?> roots, final Collection<ClassLoader> owners) {
+        final Set<ClassLoader> ownedLoaders = Collections.newSetFromMap(new IdentityHashMap<>());
+        ownedLoaders.addAll(owners);
+        final Map<Object, Boolean> visited = new IdentityHashMap<>();
+        final Deque<Node> toVisit = new ArrayDeque<>();
+        for (final Object root : roots) {
+            toVisit.add(new Node(root, 1));
+        }
+        double bytes = 0;
+        while (!toVisit.isEmpty() && visited.size() < maxObjects) {
+            final Node node = toVisit.poll();
+            if (visited.put(node.value, Boolean.TRUE) != null) {
+                continue;
+            }
+            final Class<?> type = node.value.getClass();
+            if (type.isArray()) {
+                final int length = Array.getLength(node.value);
+                final Class<?> component = type.getComponentType();
+                bytes += node.weight * align(arrayHeaderSize + (long) length * sizeOf(component));
+                if (!component.isPrimitive() && length > 0) {
+                    final int stride = Math.max(1, length / arraySample);
+                    for (int i = 0; i < length; i += stride) {
+                        push(toVisit, Array.get(node.value, i), node.weight * stride, ownedLoaders);
+                    }
+                }
+                continue;
+            }
+            final Layout layout = layouts.computeIfAbsent(type, this::layout);
+            bytes += node.weight * layout.size;
+            for (final Field field : layout.references) {
+                try {
+                    push(toVisit, field.get(node.value), node.weight, ownedLoaders);
+                } catch (final IllegalAccessException | RuntimeException e) {
+                    // no-op, counted as a leaf
+                }
+            }
+        }
+        return new long[]{(long) bytes, visited.size()};
+    }
+
+    private void push(final Deque<Node> toVisit, final Object value, final double weight, final Set<ClassLoader> owners) {
+        if (value == null || value instanceof Class || value instanceof ClassLoader ||
+                value instanceof Thread || value instanceof ThreadGroup) {
+            return;
+        }
+        Class<?> type = value.getClass();
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        final ClassLoader loader = type.getClassLoader();
+        if (loader == null || loader == ClassLoader.getSystemClassLoader().getParent() || owners.contains(loader)) {
+            toVisit.add(new Node(value, weight));
+        }
+    }
+
+    private Layout layout(final Class<?> type) {
+        long size = headerSize;
+        final List<Field> references = new ArrayList<>();
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (final Field field : current.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                size += sizeOf(field.getType());
+                if (field.getType().isPrimitive() ||
+                        (current == Reference.class && "referent".equals(field.getName()))) { // weak caches
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    references.add(field);
+                } catch (final RuntimeException e) {
+                    // package not opened, the object is a leaf for this field
+                }
+            }
+        }
+        return new Layout(align(size), references.toArray(new Field[0]));
+    }
+
+    private int sizeOf(final Class<?> type) {
+        if (!type.isPrimitive()) {
+            return referenceSize;
+        }
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static long align(final long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static class Layout {
+        private final long size;
+        private final Field[] references;
+
+        private Layout(final long size, final Field[] references) {
+            this.size = size;
+            this.references = references;
+        }
+    }
+
+    private static class Node {
+        private final Object value;
+        private final double weight;
+
+        private Node(final Object value, final double weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+/**
+ * Snapshot of the timings of an instrumented method, times are in microseconds.
+ */
+public class MethodStatistics {
+    private final long invocations;
+    private final long totalTime;
+    private final long maxTime;
+
+    MethodStatistics(final long invocations, final long totalTime, final long maxTime) {
+        this.invocations = invocations;
+        this.totalTime = totalTime;
+        this.maxTime = maxTime;
+    }
+
+    public long getInvocations() {
+        return invocations;
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    public double getMeanTime() {
+        return invocations == 0 ? 0 : totalTime / (double) invocations;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AdviceAdapter;
+import org.objectweb.asm.commons.Method;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.StringJoiner;
+
+import static org.objectweb.asm.Opcodes.ACC_ABSTRACT;
+import static org.objectweb.asm.Opcodes.ACC_BRIDGE;
+import static org.objectweb.asm.Opcodes.ACC_INTERFACE;
+import static org.objectweb.asm.Opcodes.ACC_NATIVE;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+import static org.objectweb.asm.Opcodes.ASM8;
+
+/**
+ * Built-in transformer injecting timing probes in the methods of the instrumented classes of an application,
+ * the durations feed its {@link MethodTimings}.
+ * The probe only adds straight code at the method entry and before its returns and explicit throws
+ * so existing frames stay valid and no class is loaded while transforming,
+ * methods left by an exception thrown by a callee are not recorded.
+ */
+class MethodTimingTransformer implements ClassFileTransformer {
+    private static final Type TIMINGS = Type.getType(MethodTimings.class);
+    private static final Method EXIT = Method.getMethod("void exit(int, long)");
+    private static final Type SYSTEM = Type.getType(System.class);
+    private static final Method NANO_TIME = Method.getMethod("long nanoTime()");
+
+    private final MethodTimings timings;
+
+    MethodTimingTransformer(final MethodTimings timings) {
+        this.timings = timings;
+    }
+
+    @Override
+    public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+                            final ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+        final ClassReader reader = new ClassReader(classfileBuffer);
+        if ((reader.getAccess() & ACC_INTERFACE) != 0) {
+            return null;
+        }
+        final ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        final String owner = className.replace('/', '.');
+        reader.accept(new ClassVisitor(ASM8, writer) {
+            @Override
+            public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+                                             final String signature, final String[] exceptions) {
+                final MethodVisitor delegate = super.visitMethod(access, name, descriptor, signature, exceptions);
+                if ((access & (ACC_ABSTRACT | ACC_NATIVE | ACC_SYNTHETIC | ACC_BRIDGE)) != 0 || "<clinit>".equals(name)) {
+                    return delegate;
+                }
+                final int probe = timings.register(toMethodName(owner, name, descriptor));
+                return new AdviceAdapter(ASM8, delegate, access, name, descriptor) {
+                    private int start;
+
+                    @Override
+                    protected void onMethodEnter() {
+                        invokeStatic(SYSTEM, NANO_TIME);
+                        start = newLocal(Type.LONG_TYPE);
+                        storeLocal(start);
+                    }
+
+                    @Override
+                    protected void onMethodExit(final int opcode) {
+                        push(probe);
+                        loadLocal(start);
+                        invokeStatic(TIMINGS, EXIT);
+                    }
+                };
+            }
+        }, ClassReader.EXPAND_FRAMES);
+        return writer.toByteArray();
+    }
+
+    // org.app.Service.find(java.lang.String, int), overloads with homonym types stay distinct
+    private static String toMethodName(final String owner, final String name, final String descriptor) {
+        final StringJoiner parameters = new StringJoiner(", ", owner + '.' + name + '(', ")");
+        for (final Type type : Type.getArgumentTypes(descriptor)) {
+            parameters.add(type.getClassName());
+        }
+        return parameters.toString();
+    }
+}
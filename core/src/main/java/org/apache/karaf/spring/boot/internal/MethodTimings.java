@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Method timings of an application fed by the probes {@link MethodTimingTransformer} injects in its classes,
+ * registered as {@code org.apache.karaf.spring.boot:type=MethodTimings,application=<name>}.
+ * Probes are identified by an int so the instrumented code only does an array lookup,
+ * the ids of a stopped application are released and reused by the next registrations
+ * so restarts do not grow the table.
+ */
+public class MethodTimings implements MethodTimingsMXBean {
+    private static final Object LOCK = new Object();
+    private static volatile Probe[] probes = new Probe[1024];
+    private static final BitSet RELEASED = new BitSet();
+    private static int nextProbe;
+
+    private final String application;
+    private final long startTimestamp = System.currentTimeMillis();
+    private final ConcurrentMap<String, Probe> methods = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+
+    MethodTimings(final String application) {
+        this.application = application;
+    }
+
+    // called by the instrumented methods on exit, start is the System.nanoTime() of the method entry
+    public static void exit(final int probe, final long start) {
+        final long duration = System.nanoTime() - start;
+        final Probe[] current = probes;
+        if (probe < current.length) {
+            final Probe value = current[probe];
+            if (value != null) {
+                value.record(duration);
+            }
+        }
+    }
+
+    // called while the class is transformed, before it is defined
+    int register(final String method) {
+        synchronized (LOCK) {
+            final Probe existing = methods.get(method); // reloaded class, the method keeps its statistics
+            if (existing != null) {
+                return existing.id;
+            }
+            Probe[] current = probes;
+            int id = RELEASED.nextSetBit(0);
+            if (id >= 0) {
+                RELEASED.clear(id);
+            } else {
+                if (nextProbe == current.length) {
+                    current = Arrays.copyOf(current, current.length * 2);
+                }
+                id = nextProbe++;
+            }
+            final Probe probe = new Probe(id);
+            current[probe.id] = probe;
+            probes = current;
+            methods.put(method, probe);
+            return probe.id;
+        }
+    }
+
+    synchronized void register() {
+        if (objectName != null) {
+            return;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName name = new ObjectName("org.apache.karaf.spring.boot:type=MethodTimings,application=" + ObjectName.quote(application));
+            try {
+                server.registerMBean(this, name);
+            } catch (final InstanceAlreadyExistsException iaee) { // previous instance not properly stopped
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+            objectName = name;
+        } catch (final JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    synchronized void unregister() {
+        synchronized (LOCK) {
+            final Probe[] current = probes;
+            for (final Probe probe : methods.values()) {
+                current[probe.id] = null;
+                RELEASED.set(probe.id);
+            }
+            methods.clear();
+        }
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (final JMException e) {
+            // no-op
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String getApplication() {
+        return application;
+    }
+
+    @Override
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    @Override
+    public Map<String, MethodStatistics> getMethods() {
+        final Map<String, MethodStatistics> snapshot = new TreeMap<>();
+        methods.forEach((name, probe) -> {
+            final long invocations = probe.invocations.sum();
+            if (invocations > 0) {
+                snapshot.put(name, new MethodStatistics(
+                        invocations, TimeUnit.NANOSECONDS.toMicros(probe.time.sum()), TimeUnit.NANOSECONDS.toMicros(probe.max.get())));
+            }
+        });
+        return snapshot;
+    }
+
+    @Override
+    public void reset() {
+        methods.values().forEach(Probe::reset);
+    }
+
+    private static class Probe {
+        private final int id;
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder time = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Probe(final int id) {
+            this.id = id;
+        }
+
+        private void record(final long duration) {
+            invocations.increment();
+            time.add(duration);
+            max.accumulate(duration);
+        }
+
+        private void reset() {
+            invocations.reset();
+            time.reset();
+            max.reset();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.util.Collections.singletonMap;
+
+/**
+ * Samples the stacks of the threads attributed to one application (same rules as {@link ThreadAccounting})
+ * and aggregates them as collapsed stacks ({@code frame;frame;frame count} lines, root first), the flame graph input format.
+ * The loader is resolved at each sample so a profile can start before the application is launched.
+ * Stacks are taken at safepoints by the JVM, methods which never reach one are under represented.
+ */
+public class SamplingProfiler {
+    private final String name;
+    private final Supplier<KarafLauncherLoader> loader;
+    private final long interval;
+    private final int maxDepth;
+    private final boolean wall;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final Map<String, Long> stacks = new HashMap<>();
+    private volatile boolean running;
+    private volatile Thread thread;
+    private long samples;
+
+    /**
+     * @param name     the application name.
+     * @param loader   the current loader of the application, null when not started.
+     * @param interval the sampling interval in milliseconds.
+     * @param maxDepth the maximum number of frames per stack.
+     * @param wall     true to sample all the threads, false to only sample the runnable ones.
+     */
+    public SamplingProfiler(final String name, final Supplier<KarafLauncherLoader> loader,
+                            final long interval, final int maxDepth, final boolean wall) {
+        this.name = name;
+        this.loader = loader;
+        this.interval = Math.max(1, interval);
+        this.maxDepth = maxDepth;
+        this.wall = wall;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("Profiler already started");
+        }
+        running = true;
+        thread = new Thread(() -> {
+            long next = System.nanoTime();
+            while (running) {
+                sample();
+                next += TimeUnit.MILLISECONDS.toNanos(interval);
+                final long pause = next - System.nanoTime();
+                if (pause > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(pause);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                } else { // slower than the interval, skip the late samples
+                    next = System.nanoTime();
+                }
+            }
+        }, "spring-boot-profiler-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // not synchronized, the sampling thread needs the lock to finish its last sample
+    public void stop() throws InterruptedException {
+        running = false;
+        final Thread sampler = thread;
+        if (sampler != null) {
+            sampler.join();
+            thread = null;
+        }
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    public synchronized void write(final Path output) throws IOException {
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (final Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            for (final Map.Entry<String, Long> stack : new TreeMap<>(stacks).entrySet()) {
+                writer.write(stack.getKey() + ' ' + stack.getValue() + '\n');
+            }
+        }
+    }
+
+    synchronized void sample() {
+        final KarafLauncherLoader current = loader.get();
+        if (current == null) {
+            return;
+        }
+        final Map<ThreadGroup, String> groups = new IdentityHashMap<>(singletonMap(current.getThreadGroup(), name));
+        final Map<ClassLoader, String> loaders = new IdentityHashMap<>(singletonMap(current, name));
+        final Thread self = Thread.currentThread();
+        final Thread[] all = ThreadAccounting.allThreads();
+        final long[] ids = new long[all.length];
+        int count = 0;
+        for (final Thread candidate : all) {
+            if (candidate != self && ThreadAccounting.findApplication(candidate, groups, loaders) != null) {
+                ids[count++] = candidate.getId();
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+
+        final long[] attributed = new long[count];
+        System.arraycopy(ids, 0, attributed, 0, count);
+        samples++;
+        final StringBuilder builder = new StringBuilder();
+        for (final ThreadInfo info : threadMXBean.getThreadInfo(attributed, maxDepth)) {
+            if (info == null || (!wall && info.getThreadState() != Thread.State.RUNNABLE)) {
+                continue;
+            }
+            final StackTraceElement[] trace = info.getStackTrace();
+            if (trace.length == 0) {
+                continue;
+            }
+            builder.setLength(0);
+            for (int i = trace.length - 1; i >= 0; i--) {
+                final String className = trace[i].getClassName();
+                final int hidden = className.indexOf('/'); // lambda and hidden classes get an address suffix
+                builder.append(hidden > 0 ? className.substring(0, hidden) : className).append('.').append(trace[i].getMethodName());
+                if (i > 0) {
+                    builder.append(';');
+                }
+            }
+            stacks.merge(builder.toString(), 1L, Long::sum);
+        }
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.karaf.spring.boot.internal;
 
+import org.apache.karaf.spring.boot.ApplicationMemory;
+import org.apache.karaf.spring.boot.ApplicationUsage;
 import org.apache.karaf.spring.boot.SpringBootService;
 import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
@@ -24,6 +26,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URI;
@@ -32,17 +35,22 @@ import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.jar.Attributes;
-import java.util.jar.JarFile;
-import java.util.jar.Manifest;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
+import static java.util.Collections.singletonMap;
 import static java.util.Optional.ofNullable;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toMap;
 
 public class SpringBootServiceImpl implements SpringBootService {
 
@@ -52,14 +60,23 @@ public class SpringBootServiceImpl implements SpringBootService {
     private File metadata;
     private File storage;
     private File stacksBase;
+    private File profiles;
     private final ConcurrentMap<String, KarafLauncherLoader> loaders = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, URLClassLoader> stacks = new ConcurrentHashMap<>();
+    private final ThreadAccounting threadAccounting = new ThreadAccounting(
+            Boolean.parseBoolean(System.getProperty("karaf.spring-boot.usage.contention-monitoring", "false")));
+    private final MemoryFootprint memoryFootprint = new MemoryFootprint(
+            Integer.getInteger("karaf.spring-boot.memory.max-objects", 1_000_000),
+            Integer.getInteger("karaf.spring-boot.memory.array-sample", 100));
+    private volatile Hibernation hibernation;
+    private volatile ClassTransformers transformers;
 
     public SpringBootServiceImpl(final BundleContext context) {
         this.context = context;
         metadata = new File(new File(System.getProperty("karaf.data")), "spring-boot/metadata");
         storage = new File(new File(System.getProperty("karaf.data")), "spring-boot/applications");
         stacksBase = new File(new File(System.getProperty("karaf.data")), "spring-boot/stacks");
+        profiles = new File(new File(System.getProperty("karaf.data")), "spring-boot/profiles");
         metadata.mkdirs();
         storage.mkdirs();
         stacksBase.mkdirs();
@@ -74,74 +91,129 @@ public class SpringBootServiceImpl implements SpringBootService {
     }
 
     @Override
-    public String install(String name, final URI uri, final String stack) throws Exception {
-        LOGGER.info("Installing Spring Boot application located {}", uri);
-        final Path source = Paths.get(uri);
-        String fileName = source.getFileName().toString();
+    public String install(final String name, final URI uri, final String stack) throws Exception {
+        return recordLifecycle(name == null ? uri.toString() : name, null, "install", () -> doInstall(name, uri, stack));
+    }
 
-        LOGGER.debug("Copying {} to storage", fileName);
-        File springBootJar = new File(storage, fileName);
+    @Override
+    public String install(final String name, final InputStream stream, final String fileName, final String stack) throws Exception {
+        return recordLifecycle(name == null ? fileName : name, null, "install", () -> doInstall(name, stream, fileName, stack));
+    }
+
+    private String doInstall(final String name, final URI uri, final String stack) throws Exception {
+        LOGGER.info("Installing Spring Boot application located {}", uri);
+        if (!"file".equals(uri.getScheme())) {
+            try (final InputStream stream = uri.toURL().openStream()) {
+                return doInstall(name, stream, toFileName(uri), stack);
+            }
+        }
 
+        final Path source = Paths.get(uri);
         if (!Files.exists(source)) {
             throw new IllegalArgumentException(source + " does not exist");
         }
-        // todo: digest?
         // todo: handle exploded dirs
-        try (final InputStream stream = uri.toURL().openStream()) {
-            Files.copy(stream, springBootJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        final String fileName = source.getFileName().toString();
+        LOGGER.debug("Copying {} to storage", fileName);
+        final File springBootJar = new File(storage, fileName);
+        final ArchiveCopier.CopiedArchive copy = ArchiveCopier.copy(source, springBootJar.toPath()); // validates it before copying anything
+        writeClassArchive(springBootJar, copy.getDescriptor(), copy.getDigest());
+        return storeMetadata(name, fileName, copy.getDescriptor(), copy.getDigest(), stack);
+    }
+
+    private String doInstall(final String name, final InputStream stream, final String fileName, final String stack) throws Exception {
+        if (fileName == null || fileName.isEmpty() || fileName.contains("/") || fileName.contains(File.separator)) {
+            throw new IllegalArgumentException("Invalid artifact name '" + fileName + "'");
         }
-        Attributes attributes = getAttributes(springBootJar); // validates it is a spring boot app
-        if (name == null) {
-            String startClass = attributes.getValue("Start-Class");
+        LOGGER.debug("Streaming {} to storage", fileName);
+        final File springBootJar = new File(storage, fileName);
+        final ArchiveCopier.CopiedArchive copy = ArchiveCopier.copy(stream, springBootJar.toPath()); // validates it before replacing the artifact
+        writeClassArchive(springBootJar, copy.getDescriptor(), copy.getDigest());
+        return storeMetadata(name, fileName, copy.getDescriptor(), copy.getDigest(), stack);
+    }
+
+    // optional, without it (or with an outdated one) classes are read from the nested jars and scanned
+    private void writeClassArchive(final File artifact, final ArchiveDescriptor descriptor, final String digest) {
+        if (!Boolean.parseBoolean(System.getProperty("karaf.spring-boot.class-archive.enabled", "true"))) {
+            return;
+        }
+        try {
+            ClassArchive.write(artifact, descriptor, digest);
+            ComponentIndex.write(artifact, descriptor, digest); // reads the archive
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("Can't create the class archive of {}: {}", artifact, e.getMessage());
+        }
+    }
+
+    private String storeMetadata(final String name, final String fileName, final ArchiveDescriptor descriptor,
+                                 final String digest, final String stack) throws IOException {
+        String appName = name;
+        if (appName == null) {
+            final String startClass = descriptor.getStartClass();
             if (startClass != null) {
-                name = startClass.substring(startClass.lastIndexOf(".") + 1);
+                appName = startClass.substring(startClass.lastIndexOf(".") + 1);
             } else {
-                name = fileName;
+                appName = fileName;
             }
         }
         final Properties meta = new Properties();
-        try (final Writer writer = Files.newBufferedWriter(metadata.toPath().resolve(name + ".properties"))) {
+        try (final Writer writer = Files.newBufferedWriter(metadata.toPath().resolve(appName + ".properties"))) {
             meta.setProperty("stack", stack == null || stack.trim().isEmpty() ? "<none>" : stack);
             meta.setProperty("jar", fileName);
-            meta.setProperty("name", name);
+            meta.setProperty("name", appName);
+            meta.setProperty("digest", digest);
+            descriptor.store(meta);
             meta.store(writer, null);
         }
-        return name;
+        return appName;
     }
 
     @Override
     public void start(final String name, final String[] args) throws Exception {
+        recordLifecycle(name, null, "start", () -> {
+            doStart(name, args);
+            return null;
+        });
+    }
+
+    private void doStart(final String name, final String[] args) throws Exception {
         LOGGER.info("Starting Spring Boot application {} with args {}", name, args);
         final Path meta = metadata.toPath().resolve(name + ".properties");
         if (!Files.exists(meta)) {
             throw new IllegalArgumentException("No metadata for " + name);
         }
         final Properties config = new Properties();
-        config.load(Files.newBufferedReader(meta));
+        try (final Reader reader = Files.newBufferedReader(meta)) {
+            config.load(reader);
+        }
         final File springBootJar = new File(storage, config.get("jar").toString());
         if (!springBootJar.exists()) {
             throw new IllegalArgumentException(name + " is not fully installed");
         }
-        final Attributes attributes = getAttributes(springBootJar);
-        final String main = attributes.getValue(Attributes.Name.MAIN_CLASS);
-        LOGGER.debug("Got Spring Boot Main-Class {}", main);
-        if (main == null) {
-            throw new IllegalArgumentException("No main in " + springBootJar);
+        ArchiveDescriptor descriptor = ArchiveDescriptor.load(config);
+        if (descriptor == null) { // installed by a previous version, read it once and keep it
+            descriptor = ArchiveDescriptor.read(springBootJar);
+            descriptor.store(config);
+            try (final Writer writer = Files.newBufferedWriter(meta)) {
+                config.store(writer, null);
+            }
         }
+        final String main = descriptor.getMainClass();
+        LOGGER.debug("Got Spring Boot Main-Class {}", main);
         final ClassLoader bundleLoader = getClass().getClassLoader();
         final String stack = config.getProperty("stack", "");
         final KarafLauncherLoader loader = new KarafLauncherLoader(
                 context,
+                name,
                 springBootJar,
                 "<none>".equals(stack) || stack.isEmpty() ?
                         createLauncherRootParent(bundleLoader) :
-                        createLauncherRootParent(getStackLoader(stack, bundleLoader)));
-        final Thread thread = Thread.currentThread();
-        final ClassLoader old = thread.getContextClassLoader();
-        thread.setContextClassLoader(loader);
+                        createLauncherRootParent(getStackLoader(stack, bundleLoader)),
+                config.stringPropertyNames().stream().collect(toMap(identity(), config::getProperty)),
+                transformers);
         loaders.put(name, loader);
         try {
-            loader.launch(main, args);
+            launchInThreadGroup(loader, () -> loader.launch(main, args));
         } catch (final Exception e) {
             loaders.remove(name);
             try {
@@ -150,16 +222,166 @@ public class SpringBootServiceImpl implements SpringBootService {
                 // no-op
             }
             throw e;
-        } finally {
-            thread.setContextClassLoader(old);
         }
+        ofNullable(hibernation).ifPresent(it -> it.onStarted(name));
+    }
+
+    // named instances share the classes of the started application, each one has its own context
+    @Override
+    public void start(final String name, final String instance, final String[] args) throws Exception {
+        if (instance == null || instance.isEmpty()) {
+            start(name, args);
+            return;
+        }
+        final KarafLauncherLoader loader = loaders.get(name);
+        if (loader == null) {
+            throw new IllegalArgumentException(name + " is not started, start it before its instances");
+        }
+        LOGGER.info("Starting instance {} of Spring Boot application {} with args {}", instance, name, args);
+        recordLifecycle(name, instance, "start", () -> {
+            launchInThreadGroup(loader.addInstance(instance), loader, () -> loader.launchInstance(instance, args));
+            return null;
+        });
+    }
+
+    @Override
+    public void stop(final String name, final String instance) throws Exception {
+        if (instance == null || instance.isEmpty()) {
+            stop(name);
+            return;
+        }
+        final KarafLauncherLoader loader = loaders.get(name);
+        if (loader == null) {
+            throw new IllegalArgumentException(name + " is not started");
+        }
+        LOGGER.info("Stopping instance {} of Spring Boot application {}", instance, name);
+        recordLifecycle(name, instance, "stop", () -> {
+            loader.stopInstance(instance);
+            return null;
+        });
     }
 
     @Override
     public void stop(final String name) {
+        final Object event = FlightRecorder.LIFECYCLE.begin();
+        boolean success = false;
+        try {
+            stopLoader(name);
+            success = true;
+        } finally {
+            FlightRecorder.LIFECYCLE.commit(event, name, null, "stop", success);
+        }
+        ofNullable(hibernation).ifPresent(it -> it.forget(name));
+    }
+
+    public void setHibernation(final Hibernation hibernation) {
+        this.hibernation = hibernation;
+    }
+
+    public void setTransformers(final ClassTransformers transformers) {
+        this.transformers = transformers;
+    }
+
+    void stopLoader(final String name) {
         ofNullable(loaders.remove(name)).ifPresent(KarafLauncherLoader::destroy);
     }
 
+    Map<String, KarafLauncherLoader> getLoaders() {
+        return loaders;
+    }
+
+    @Override
+    public void restart(final String name, final String[] args) throws Exception {
+        recordLifecycle(name, null, "restart", () -> {
+            doRestart(name, args);
+            return null;
+        });
+    }
+
+    private void doRestart(final String name, final String[] args) throws Exception {
+        final KarafLauncherLoader loader = loaders.get(name);
+        if (loader == null) {
+            start(name, args);
+            return;
+        }
+        final String[] restartArgs = args == null || args.length == 0 ? loader.getArgs() : args;
+        if (isArtifactUpdated(name, loader)) { // loaded classes are outdated, needs a new loader
+            LOGGER.info("Spring Boot application {} artifact changed, doing a full restart", name);
+            stop(name);
+            start(name, restartArgs);
+            return;
+        }
+        LOGGER.info("Restarting Spring Boot application {} with args {}", name, restartArgs);
+        try {
+            launchInThreadGroup(loader, () -> loader.restart(restartArgs));
+        } catch (final Exception e) {
+            if (loaders.remove(name, loader)) {
+                loader.destroy();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void reload(final String name) throws Exception {
+        recordLifecycle(name, null, "reload", () -> {
+            doReload(name);
+            return null;
+        });
+    }
+
+    private void doReload(final String name) throws Exception {
+        final KarafLauncherLoader loader = loaders.get(name);
+        if (loader == null) {
+            throw new IllegalArgumentException(name + " is not started");
+        }
+        if (isArtifactUpdated(name, loader)) { // libraries can have changed too
+            LOGGER.info("Spring Boot application {} artifact changed, doing a full restart", name);
+            final String[] args = loader.getArgs();
+            stop(name);
+            start(name, args);
+            return;
+        }
+        LOGGER.info("Reloading Spring Boot application {} classes", name);
+        try {
+            launchInThreadGroup(loader, loader::reload);
+        } catch (final Exception e) {
+            if (loaders.remove(name, loader)) {
+                loader.destroy();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void uninstall(final String name) throws Exception {
+        recordLifecycle(name, null, "uninstall", () -> {
+            doUninstall(name);
+            return null;
+        });
+    }
+
+    private void doUninstall(final String name) throws Exception {
+        LOGGER.info("Uninstalling Spring Boot application {}", name);
+        stop(name);
+        final Path meta = metadata.toPath().resolve(name + ".properties");
+        if (!Files.exists(meta)) {
+            throw new IllegalArgumentException("No metadata for " + name);
+        }
+        final Properties config = new Properties();
+        try (final Reader reader = Files.newBufferedReader(meta)) {
+            config.load(reader);
+        }
+        Files.delete(meta);
+
+        final String jar = config.getProperty("jar");
+        if (jar != null && !isJarUsed(jar)) {
+            Files.deleteIfExists(storage.toPath().resolve(jar));
+            Files.deleteIfExists(ClassArchive.of(storage.toPath().resolve(jar).toFile()));
+            Files.deleteIfExists(ComponentIndex.of(storage.toPath().resolve(jar).toFile()));
+        }
+    }
+
     @Override
     public void stopAll() {
         loaders.keySet().forEach(this::stop);
@@ -174,6 +396,86 @@ public class SpringBootServiceImpl implements SpringBootService {
         stacks.clear();
     }
 
+    public void destroy() {
+        stopAll();
+        threadAccounting.destroy();
+    }
+
+    @Override
+    public Map<String, ApplicationUsage> usage() {
+        return threadAccounting.snapshot(loaders);
+    }
+
+    @Override
+    public Map<String, ApplicationMemory> memory(final String name) {
+        final Map<String, KarafLauncherLoader> selected;
+        if (name == null) {
+            selected = loaders;
+        } else {
+            final KarafLauncherLoader loader = loaders.get(name);
+            if (loader == null) {
+                throw new IllegalArgumentException(name + " is not started");
+            }
+            selected = singletonMap(name, loader);
+        }
+        final Map<String, ApplicationUsage> usages = threadAccounting.snapshot(selected);
+        final long metaspacePerClass = MemoryFootprint.metaspacePerClass();
+        final Map<String, Integer> stackApplications = new HashMap<>();
+        loaders.values().forEach(loader -> ofNullable(getStack(loader)).ifPresent(stack -> stackApplications.merge(stack, 1, Integer::sum)));
+
+        final Map<String, ApplicationMemory> memory = new TreeMap<>();
+        selected.forEach((application, loader) -> {
+            final List<ClassLoader> applicationLoaders = loader.getApplicationLoaders();
+            final String stack = getStack(loader);
+            final URLClassLoader stackLoader = stack == null ? null : stacks.get(stack);
+            final List<ClassLoader> owners = new ArrayList<>(applicationLoaders);
+            if (stackLoader != null) {
+                owners.add(stackLoader);
+            }
+            final List<Object> contexts = loader.getContexts();
+            final long[] heap = contexts.isEmpty() ? new long[]{-1, 0} : memoryFootprint.retainedHeap(contexts, owners);
+            final int classes = MemoryFootprint.countClasses(applicationLoaders);
+            final int stackClasses = stackLoader == null ? -1 : MemoryFootprint.countClasses(stackLoader);
+            final int[] jars = MemoryFootprint.countJars(applicationLoaders, loader.isClassArchiveOpened());
+            memory.put(application, new ApplicationMemory(
+                    application, classes, estimateMetaspace(classes, metaspacePerClass),
+                    heap[0], heap[1],
+                    ofNullable(usages.get(application)).map(ApplicationUsage::getThreads).orElse(0),
+                    jars[0], jars[1],
+                    stack, stack == null ? 0 : stackApplications.getOrDefault(stack, 0),
+                    stackClasses, estimateMetaspace(stackClasses, metaspacePerClass)));
+        });
+        return memory;
+    }
+
+    // when start args are set the application is started once the sampling began so its startup is profiled
+    @Override
+    public String profile(final String name, final long duration, final long interval, final boolean wall,
+                          final String[] startArgs) throws Exception {
+        if (startArgs == null && !loaders.containsKey(name)) {
+            throw new IllegalArgumentException(name + " is not started");
+        }
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(duration);
+        final SamplingProfiler profiler = new SamplingProfiler(
+                name, () -> loaders.get(name), interval, Integer.getInteger("karaf.spring-boot.profile.max-depth", 512), wall);
+        profiler.start();
+        try {
+            if (startArgs != null) {
+                start(name, startArgs);
+            }
+            final long remaining = end - System.nanoTime();
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            }
+        } finally {
+            profiler.stop();
+        }
+        final Path output = profiles.toPath().resolve(name + '-' + System.currentTimeMillis() + ".collapsed");
+        profiler.write(output);
+        LOGGER.info("Profiled Spring Boot application {} ({} samples) in {}", name, profiler.getSamples(), output);
+        return output.toString();
+    }
+
     @Override
     public Map<String, Boolean> list() throws Exception {
         Map<String, Boolean> state = new HashMap<>();
@@ -181,11 +483,50 @@ public class SpringBootServiceImpl implements SpringBootService {
             Properties properties = new Properties();
             properties.load(Files.newBufferedReader(file.toPath()));
             String name = properties.getProperty("name");
-            state.put(name, loaders.get(name) != null);
+            KarafLauncherLoader loader = loaders.get(name);
+            state.put(name, loader != null);
+            if (loader != null) {
+                loader.getInstances().forEach(instance -> state.put(name + '.' + instance, true));
+            }
         }
         return state;
     }
 
+    private String getStack(final KarafLauncherLoader loader) {
+        final String stack = loader.getConfiguration().getOrDefault("stack", "<none>");
+        return "<none>".equals(stack) || stack.isEmpty() ? null : stack;
+    }
+
+    private long estimateMetaspace(final int classes, final long metaspacePerClass) {
+        return classes < 0 || metaspacePerClass < 0 ? -1 : classes * metaspacePerClass;
+    }
+
+    private boolean isArtifactUpdated(final String name, final KarafLauncherLoader loader) throws IOException {
+        final Path meta = metadata.toPath().resolve(name + ".properties");
+        if (!Files.exists(meta)) {
+            throw new IllegalArgumentException("No metadata for " + name);
+        }
+        final Properties config = new Properties();
+        try (final Reader reader = Files.newBufferedReader(meta)) {
+            config.load(reader);
+        }
+        return !ofNullable(config.getProperty("digest")).equals(ofNullable(loader.getConfiguration().get("digest")));
+    }
+
+    // several applications can be installed from the same artifact with different names
+    private boolean isJarUsed(final String jar) throws IOException {
+        for (final File file : ofNullable(metadata.listFiles()).orElseGet(() -> new File[0])) {
+            final Properties properties = new Properties();
+            try (final Reader reader = Files.newBufferedReader(file.toPath())) {
+                properties.load(reader);
+            }
+            if (jar.equals(properties.getProperty("jar"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private URLClassLoader getStackLoader(final String stack, final ClassLoader bundleLoader) {
         return stacks.computeIfAbsent(stack, stackName -> {
             try {
@@ -210,23 +551,84 @@ public class SpringBootServiceImpl implements SpringBootService {
         });
     }
 
+    // the launch runs in a thread of the application group so all the threads the application creates are attributable
+    private void launchInThreadGroup(final KarafLauncherLoader loader, final Launch launch) throws Exception {
+        launchInThreadGroup(loader.getThreadGroup(), loader, launch);
+    }
+
+    private void launchInThreadGroup(final ThreadGroup group, final KarafLauncherLoader loader, final Launch launch) throws Exception {
+        final FutureTask<Void> task = new FutureTask<>(() -> {
+            launch.run();
+            return null;
+        });
+        final Thread thread = new Thread(group, task, group.getName() + "-launcher");
+        thread.setContextClassLoader(loader);
+        thread.start();
+        try {
+            task.get();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw ie;
+        } catch (final ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ee;
+        }
+    }
+
     private ClassLoader createLauncherRootParent(final ClassLoader parent) {
         return new RootClassLoader(parent);
     }
 
-    private Attributes getAttributes(File source) throws IOException {
-        try (JarFile jar = new JarFile(source)) {
-            Manifest manifest = jar.getManifest();
-            final Attributes attributes = manifest.getMainAttributes();
-            if (attributes.getValue("Spring-Boot-Version") == null) {
-                LOGGER.warn("Spring-Boot-Version not found in MANIFEST");
-                source.delete();
-                throw new IllegalArgumentException("Invalid Spring Boot application artifact");
+    // mvn:group/artifact/version[/type[/classifier]] -> artifact-version[-classifier].type, last path segment otherwise
+    private String toFileName(final URI uri) {
+        final String value = uri.getSchemeSpecificPart();
+        if ("mvn".equals(uri.getScheme())) {
+            final String[] segments = (value.contains("!") ? value.substring(value.lastIndexOf('!') + 1) : value).split("/");
+            if (segments.length >= 3) {
+                final String type = segments.length > 3 && !segments[3].isEmpty() ? segments[3] : "jar";
+                final String classifier = segments.length > 4 && !segments[4].isEmpty() ? "-" + segments[4] : "";
+                return segments[1] + '-' + segments[2] + classifier + '.' + type;
             }
-            return attributes;
-        } catch (Exception e) {
-            source.delete();
-            throw e;
         }
+        String path = ofNullable(uri.getPath()).orElse(value);
+        final int query = path.indexOf('?');
+        if (query > 0) {
+            path = path.substring(0, query);
+        }
+        final String name = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf(':')) + 1);
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Can't deduce an artifact name from " + uri);
+        }
+        return name.endsWith(".jar") ? name : name + ".jar";
+    }
+
+    // the event duration is the action one, nested actions (a restart stopping and starting the application) get their own event
+    private <T> T recordLifecycle(final String application, final String instance, final String action,
+                                  final Action<T> task) throws Exception {
+        final Object event = FlightRecorder.LIFECYCLE.begin();
+        boolean success = false;
+        try {
+            final T result = task.run();
+            success = true;
+            return result;
+        } finally {
+            FlightRecorder.LIFECYCLE.commit(event, application, instance, action, success);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Launch {
+        void run() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Action<T> {
+        T run() throws Exception;
     }
-}
\ No newline at end of file
+}
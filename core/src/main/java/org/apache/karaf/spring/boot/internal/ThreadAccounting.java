@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.apache.karaf.spring.boot.ApplicationUsage;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Attributes the live threads of the JVM to the applications - by thread group first, then by context classloader -
+ * and aggregates their CPU time, allocated bytes and blocked time with the {@link ThreadMXBean}.
+ * The monitoring it enables is JVM wide, {@link #destroy()} restores what it found.
+ */
+public class ThreadAccounting {
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final boolean contentionMonitoring;
+    private Method allocatedBytes; // published by initialized
+    private Method setAllocatedMemoryEnabled; // not null when we enabled it
+    private boolean enabledCpuTime;
+    private boolean enabledContentionMonitoring;
+    private volatile boolean initialized;
+
+    /**
+     * @param contentionMonitoring enables the thread contention monitoring (blocked time), it slows down every
+     *                             monitor of the JVM so it is opt-in, the blocked time is reported as -1 otherwise.
+     */
+    public ThreadAccounting(final boolean contentionMonitoring) {
+        this.contentionMonitoring = contentionMonitoring;
+    }
+
+    public Map<String, ApplicationUsage> snapshot(final Map<String, KarafLauncherLoader> loaders) {
+        ensureInitialized();
+
+        final Map<ThreadGroup, String> groups = new IdentityHashMap<>();
+        final Map<ClassLoader, String> classLoaders = new IdentityHashMap<>();
+        loaders.forEach((name, loader) -> {
+            groups.put(loader.getThreadGroup(), name);
+            classLoaders.put(loader, name);
+        });
+
+        final Map<String, List<Thread>> threadsPerApplication = new HashMap<>();
+        loaders.keySet().forEach(name -> threadsPerApplication.put(name, new ArrayList<>()));
+        for (final Thread thread : allThreads()) {
+            final String name = findApplication(thread, groups, classLoaders);
+            if (name != null) {
+                threadsPerApplication.get(name).add(thread);
+            }
+        }
+
+        final Map<String, ApplicationUsage> usages = new TreeMap<>();
+        threadsPerApplication.forEach((name, threads) -> usages.put(name, aggregate(name, threads)));
+        return usages;
+    }
+
+    public static String findApplication(final Thread thread,
+                                         final Map<ThreadGroup, String> groups,
+                                         final Map<ClassLoader, String> loaders) {
+        ThreadGroup group = thread.getThreadGroup();
+        while (group != null) {
+            final String name = groups.get(group);
+            if (name != null) {
+                return name;
+            }
+            group = group.getParent();
+        }
+        ClassLoader loader = thread.getContextClassLoader();
+        while (loader != null) {
+            final String name = loaders.get(loader);
+            if (name != null) {
+                return name;
+            }
+            loader = loader.getParent();
+        }
+        return null;
+    }
+
+    public static Thread[] allThreads() {
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        Thread[] threads = new Thread[root.activeCount() + 16];
+        int count;
+        while ((count = root.enumerate(threads, true)) == threads.length) {
+            threads = new Thread[threads.length * 2];
+        }
+        final Thread[] result = new Thread[count];
+        System.arraycopy(threads, 0, result, 0, count);
+        return result;
+    }
+
+    private ApplicationUsage aggregate(final String name, final List<Thread> threads) {
+        final long[] ids = threads.stream().mapToLong(Thread::getId).toArray();
+        long cpu = threadMXBean.isThreadCpuTimeEnabled() ? 0 : -1;
+        if (cpu == 0) {
+            for (final long id : ids) {
+                final long time = threadMXBean.getThreadCpuTime(id);
+                if (time > 0) { // -1 when the thread died in between
+                    cpu += time;
+                }
+            }
+        }
+
+        long allocated = -1;
+        if (allocatedBytes != null && ids.length > 0) {
+            try {
+                allocated = 0;
+                for (final long value : (long[]) allocatedBytes.invoke(threadMXBean, (Object) ids)) {
+                    if (value > 0) {
+                        allocated += value;
+                    }
+                }
+            } catch (final Exception e) {
+                allocated = -1;
+            }
+        } else if (allocatedBytes != null) {
+            allocated = 0;
+        }
+
+        long blockedCount = 0;
+        long blockedTime = threadMXBean.isThreadContentionMonitoringEnabled() ? 0 : -1;
+        for (final ThreadInfo info : threadMXBean.getThreadInfo(ids)) {
+            if (info == null) {
+                continue;
+            }
+            blockedCount += info.getBlockedCount();
+            if (blockedTime >= 0 && info.getBlockedTime() > 0) {
+                blockedTime += info.getBlockedTime();
+            }
+        }
+        return new ApplicationUsage(name, ids.length, cpu, allocated, blockedCount, blockedTime);
+    }
+
+    // monitoring has a cost so only enable it once somebody looks at it
+    private void ensureInitialized() {
+        if (initialized) {
+            return;
+        }
+        synchronized (this) {
+            if (initialized) {
+                return;
+            }
+            try {
+                if (threadMXBean.isThreadCpuTimeSupported() && !threadMXBean.isThreadCpuTimeEnabled()) {
+                    threadMXBean.setThreadCpuTimeEnabled(true);
+                    enabledCpuTime = true;
+                }
+                if (contentionMonitoring &&
+                        threadMXBean.isThreadContentionMonitoringSupported() && !threadMXBean.isThreadContentionMonitoringEnabled()) {
+                    threadMXBean.setThreadContentionMonitoringEnabled(true);
+                    enabledContentionMonitoring = true;
+                }
+            } catch (final SecurityException | UnsupportedOperationException e) {
+                // no-op, we'll report -1
+            }
+            allocatedBytes = findAllocatedBytesMethod();
+            initialized = true;
+        }
+    }
+
+    // restores the JVM monitoring state found before the first snapshot
+    public synchronized void destroy() {
+        if (!initialized) {
+            return;
+        }
+        try {
+            if (enabledCpuTime) {
+                threadMXBean.setThreadCpuTimeEnabled(false);
+            }
+            if (enabledContentionMonitoring) {
+                threadMXBean.setThreadContentionMonitoringEnabled(false);
+            }
+            if (setAllocatedMemoryEnabled != null) {
+                setAllocatedMemoryEnabled.invoke(threadMXBean, false);
+            }
+        } catch (final Exception e) {
+            // no-op, best effort
+        } finally {
+            enabledCpuTime = false;
+            enabledContentionMonitoring = false;
+            setAllocatedMemoryEnabled = null;
+            allocatedBytes = null;
+            initialized = false;
+        }
+    }
+
+    // com.sun.management is not always importable in OSGi, use the public interface reflectively
+    private Method findAllocatedBytesMethod() {
+        try {
+            final Class<?> api = ClassLoader.getSystemClassLoader().loadClass("com.sun.management.ThreadMXBean");
+            if (!api.isInstance(threadMXBean)) {
+                return null;
+            }
+            final Method enabled = api.getMethod("isThreadAllocatedMemoryEnabled");
+            if (!Boolean.class.cast(enabled.invoke(threadMXBean))) {
+                final Method setter = api.getMethod("setThreadAllocatedMemoryEnabled", boolean.class);
+                setter.invoke(threadMXBean, true);
+                setAllocatedMemoryEnabled = setter;
+            }
+            return api.getMethod("getThreadAllocatedBytes", long[].class);
+        } catch (final Exception | LinkageError e) {
+            return null;
+        }
+    }
+}
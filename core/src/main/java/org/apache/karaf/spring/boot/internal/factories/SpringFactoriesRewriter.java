@@ -16,6 +16,9 @@
  */
 package org.apache.karaf.spring.boot.internal.factories;
 
+import org.apache.karaf.spring.boot.internal.FlightRecorder;
+import org.apache.karaf.spring.boot.internal.KarafLauncherLoader;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -27,11 +30,14 @@ import java.net.URLConnection;
 import java.net.URLStreamHandler;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
+import static java.util.stream.Collectors.toList;
+
 public final class SpringFactoriesRewriter {
     private static final Map<Pattern, Function<URL, Stream<URL>>> MAPPERS = new HashMap<>();
 
@@ -43,7 +49,9 @@ public final class SpringFactoriesRewriter {
                         url.getProtocol(), url.getHost(), url.getPort(), url.getFile() + "_karaf.jar",
                         new StringURLStreamHandler(("" +
                                 "org.springframework.boot.autoconfigure.EnableAutoConfiguration=" +
-                                "org.apache.karaf.spring.boot.services.web.HttpServiceServletServerFactory$SpringConfiguration" +
+                                "org.apache.karaf.spring.boot.services.web.HttpServiceServletServerFactory$SpringConfiguration," +
+                                "org.apache.karaf.spring.boot.services.web.HttpServiceReactiveServerFactory$SpringConfiguration," +
+                                "org.apache.karaf.spring.boot.services.web.LocalTransport$SpringConfiguration" +
                                 "").getBytes(StandardCharsets.UTF_8))));
             } catch (final MalformedURLException e) {
                 throw new IllegalArgumentException(e);
@@ -61,7 +69,26 @@ public final class SpringFactoriesRewriter {
                 .map(URLWithJarName::new)
                 .flatMap(url -> MAPPERS.entrySet().stream()
                         .filter(it -> it.getKey().matcher(url.jarName).matches())
-                        .flatMap(it -> it.getValue().apply(url.url)));
+                        .flatMap(it -> record(url, it.getValue())));
+    }
+
+    private static Stream<URL> record(final URLWithJarName url, final Function<URL, Stream<URL>> mapper) {
+        final Object event = FlightRecorder.SPRING_FACTORIES.begin();
+        if (event == null) {
+            return mapper.apply(url.url);
+        }
+        final List<URL> urls = mapper.apply(url.url).collect(toList());
+        FlightRecorder.SPRING_FACTORIES.commit(event, findApplication(), url.jarName, (int) urls.stream().filter(it -> it != url.url).count());
+        return urls.stream();
+    }
+
+    // the lookup runs in the application classloader
+    private static String findApplication() {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        while (loader != null && !KarafLauncherLoader.class.isInstance(loader)) {
+            loader = loader.getParent();
+        }
+        return loader == null ? null : KarafLauncherLoader.class.cast(loader).getName();
     }
 
     // here we can rewrite the factories if needed
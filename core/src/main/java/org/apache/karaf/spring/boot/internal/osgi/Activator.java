@@ -18,12 +18,19 @@ package org.apache.karaf.spring.boot.internal.osgi;
 
 import org.apache.karaf.spring.boot.FatJarUrlHandler;
 import org.apache.karaf.spring.boot.SpringBootService;
+import org.apache.karaf.spring.boot.internal.ClassTransformers;
+import org.apache.karaf.spring.boot.internal.DeployDirectoryWatcher;
+import org.apache.karaf.spring.boot.internal.FlightRecorder;
+import org.apache.karaf.spring.boot.internal.Hibernation;
 import org.apache.karaf.spring.boot.internal.SpringBootServiceImpl;
 import org.apache.karaf.util.tracker.BaseActivator;
 import org.apache.karaf.util.tracker.annotation.ProvideService;
 import org.apache.karaf.util.tracker.annotation.Services;
 import org.osgi.service.url.URLStreamHandlerService;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Hashtable;
 
 @Services(
@@ -31,22 +38,66 @@ import java.util.Hashtable;
 )
 public class Activator extends BaseActivator {
     private SpringBootServiceImpl springBootService;
+    private DeployDirectoryWatcher deployDirectoryWatcher;
+    private Hibernation hibernation;
+    private ClassTransformers transformers;
 
     @Override
     protected void doStart() {
+        FlightRecorder.register();
         final FatJarUrlHandler fatJarUrlHandler = new FatJarUrlHandler();
         final Hashtable<String, Object> serviceProperties = new Hashtable<>();
         serviceProperties.put("url.handler.protocol", "spring-boot");
         register(URLStreamHandlerService.class, fatJarUrlHandler, serviceProperties);
         springBootService = new SpringBootServiceImpl(bundleContext);
+        transformers = new ClassTransformers(bundleContext);
+        transformers.open();
+        springBootService.setTransformers(transformers);
         register(SpringBootService.class, springBootService);
+
+        if (Boolean.parseBoolean(System.getProperty("karaf.spring-boot.idle.enabled", "true"))) {
+            hibernation = new Hibernation(
+                    bundleContext, springBootService,
+                    Long.getLong("karaf.spring-boot.idle.timeout", 0L), // minutes, 0 = only applications with idle.timeout
+                    Long.getLong("karaf.spring-boot.idle.check-interval", 60L),
+                    Long.getLong("karaf.spring-boot.idle.start-timeout", 120000L));
+            springBootService.setHibernation(hibernation);
+            hibernation.start();
+        }
+
+        if (Boolean.parseBoolean(System.getProperty("karaf.spring-boot.deploy.enabled", "false"))) {
+            deployDirectoryWatcher = new DeployDirectoryWatcher(
+                    springBootService,
+                    Paths.get(System.getProperty(
+                            "karaf.spring-boot.deploy.directory",
+                            new File(new File(System.getProperty("karaf.data")), "spring-boot/deploy").getAbsolutePath())),
+                    Long.getLong("karaf.spring-boot.deploy.debounce", 1000L),
+                    Integer.getInteger("karaf.spring-boot.deploy.parallelism", Runtime.getRuntime().availableProcessors()));
+            try {
+                deployDirectoryWatcher.start();
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
     }
 
     @Override
     protected void doStop() {
         try {
-            springBootService.stopAll();
+            if (deployDirectoryWatcher != null) {
+                deployDirectoryWatcher.stop();
+            }
+            if (hibernation != null) {
+                springBootService.setHibernation(null);
+                hibernation.stop();
+            }
+            springBootService.destroy();
+            if (transformers != null) {
+                springBootService.setTransformers(null);
+                transformers.close();
+            }
         } finally {
+            FlightRecorder.unregister();
             super.doStop();
         }
     }
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+public class ArchiveCopierTest {
+    @Test
+    public void streamAndFileCopiesAreIdentical() throws IOException {
+        final byte[] jar = newJar(true);
+        final Path base = Files.createDirectories(Paths.get("target/archive-copier"));
+        final Path source = Files.write(base.resolve("source.jar"), jar);
+
+        final ArchiveCopier.CopiedArchive streamed = ArchiveCopier.copy(new ByteArrayInputStream(jar), base.resolve("streamed.jar"));
+        final ArchiveCopier.CopiedArchive transferred = ArchiveCopier.copy(source, base.resolve("transferred.jar"));
+
+        Assert.assertEquals(streamed.getDigest(), transferred.getDigest());
+        Assert.assertArrayEquals(jar, Files.readAllBytes(base.resolve("streamed.jar")));
+        Assert.assertArrayEquals(jar, Files.readAllBytes(base.resolve("transferred.jar")));
+        Assert.assertEquals("2.3.3.RELEASE", streamed.getDescriptor().getSpringBootVersion());
+        Assert.assertEquals("2.3.3.RELEASE", transferred.getDescriptor().getSpringBootVersion());
+    }
+
+    @Test
+    public void invalidManifestAbortsTheCopy() throws IOException {
+        final Path target = Files.createDirectories(Paths.get("target/archive-copier")).resolve("invalid.jar");
+        try {
+            ArchiveCopier.copy(new ByteArrayInputStream(newJar(false)), target);
+            Assert.fail("IllegalArgumentException expected");
+        } catch (final IllegalArgumentException iae) {
+            // good
+        }
+        Assert.assertFalse(Files.exists(target));
+        Assert.assertFalse(Files.exists(target.resolveSibling("invalid.jar.part")));
+    }
+
+    @Test
+    public void invalidArchiveKeepsTheInstalledArtifact() throws IOException {
+        final Path target = Files.createDirectories(Paths.get("target/archive-copier")).resolve("installed.jar");
+        final byte[] installed = newJar(true);
+        Files.write(target, installed);
+
+        final ByteArrayOutputStream noManifest = new ByteArrayOutputStream(); // only detected from the central directory
+        try (final JarOutputStream jar = new JarOutputStream(noManifest)) {
+            jar.putNextEntry(new JarEntry("BOOT-INF/classes/application.properties"));
+            jar.write("server.port=1234".getBytes());
+            jar.closeEntry();
+        }
+        try {
+            ArchiveCopier.copy(new ByteArrayInputStream(noManifest.toByteArray()), target);
+            Assert.fail("IllegalArgumentException expected");
+        } catch (final IllegalArgumentException iae) {
+            // good
+        }
+        Assert.assertArrayEquals(installed, Files.readAllBytes(target));
+        Assert.assertFalse(Files.exists(target.resolveSibling("installed.jar.part")));
+    }
+
+    private byte[] newJar(final boolean springBoot) throws IOException {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "org.springframework.boot.loader.JarLauncher");
+        if (springBoot) {
+            manifest.getMainAttributes().putValue("Spring-Boot-Version", "2.3.3.RELEASE");
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final JarOutputStream jar = new JarOutputStream(out, manifest)) {
+            jar.putNextEntry(new JarEntry("BOOT-INF/classes/application.properties"));
+            jar.write("server.port=1234".getBytes());
+            jar.closeEntry();
+        }
+        return out.toByteArray();
+    }
+}
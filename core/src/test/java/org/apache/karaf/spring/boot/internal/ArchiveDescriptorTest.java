@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import static java.util.Arrays.asList;
+
+public class ArchiveDescriptorTest {
+    @Test
+    public void librariesWithACommaSurviveTheMetadata() throws IOException {
+        final File jar = FatJars.fatJar()
+                .add("BOOT-INF/lib/first,with-comma.jar", FatJars.jar().toByteArray())
+                .add("BOOT-INF/lib/second.jar", FatJars.jar().toByteArray())
+                .write(Paths.get("target/archive-descriptor/comma.jar"));
+        final ArchiveDescriptor descriptor = ArchiveDescriptor.read(jar);
+        Assert.assertEquals(asList("BOOT-INF/lib/first,with-comma.jar", "BOOT-INF/lib/second.jar"), descriptor.getLibraries());
+
+        final Properties metadata = new Properties();
+        descriptor.store(metadata);
+        final StringWriter stored = new StringWriter();
+        metadata.store(stored, null);
+        final Properties reloaded = new Properties();
+        reloaded.load(new StringReader(stored.toString()));
+
+        Assert.assertEquals(descriptor.getLibraries(), ArchiveDescriptor.load(reloaded).getLibraries());
+    }
+
+    @Test
+    public void commaSeparatedLibrariesAreStillRead() {
+        final Properties metadata = new Properties();
+        metadata.setProperty("archive.main-class", "org.springframework.boot.loader.JarLauncher");
+        metadata.setProperty("archive.spring-boot-version", "2.3.3.RELEASE");
+        metadata.setProperty("archive.libraries", "BOOT-INF/lib/first.jar,BOOT-INF/lib/second.jar");
+
+        Assert.assertEquals(
+                asList("BOOT-INF/lib/first.jar", "BOOT-INF/lib/second.jar"),
+                ArchiveDescriptor.load(metadata).getLibraries());
+    }
+}
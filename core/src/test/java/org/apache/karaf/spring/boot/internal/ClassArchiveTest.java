@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+public class ClassArchiveTest {
+    @Test
+    public void classesAreServedInClasspathOrder() throws IOException {
+        final File artifact = newFatJar();
+        ClassArchive.write(artifact, ArchiveDescriptor.read(artifact), "digest");
+
+        Assert.assertNull(ClassArchive.open(ClassArchive.of(artifact), "other"));
+        final ClassArchive archive = ClassArchive.open(ClassArchive.of(artifact), "digest");
+        Assert.assertNotNull(archive);
+        Assert.assertNull(archive.find("app.Application")); // not bound yet
+
+        final String base = "jar:" + artifact.toURI() + "!/BOOT-INF/";
+        archive.bind(new URL[]{new URL(base + "classes!/"), new URL(base + "lib/lib.jar!/")});
+        Assert.assertEquals("application", read(archive.find("app.Application")));
+        Assert.assertEquals("library", read(archive.find("lib.Library")));
+        Assert.assertEquals("application", read(archive.find("shared.Shadowed")));
+        Assert.assertNull(archive.find("missing.Missing"));
+        Assert.assertEquals(new URL(base + "lib/lib.jar!/"), archive.findDomain("lib.Library").getCodeSource().getLocation());
+
+        archive.bind(new URL[]{new URL(base + "lib/lib.jar!/")}); // reloadable mode, application classes are not in the child
+        Assert.assertNull(archive.find("app.Application"));
+        Assert.assertEquals("library", read(archive.find("lib.Library")));
+    }
+
+    @Test
+    public void resourcesAreIndexed() throws IOException {
+        final File artifact = newFatJar();
+        ClassArchive.write(artifact, ArchiveDescriptor.read(artifact), "digest");
+
+        final ClassArchive archive = ClassArchive.open(ClassArchive.of(artifact), "digest");
+        final String base = "jar:" + artifact.toURI() + "!/BOOT-INF/";
+        archive.bind(new URL[]{new URL(base + "classes!/"), new URL(base + "lib/lib.jar!/"), new URL("file:/other/")});
+        Assert.assertNull(archive.findResources("app.properties")); // unknown url, can't answer
+
+        archive.bind(new URL[]{new URL(base + "classes!/"), new URL(base + "lib/lib.jar!/")});
+        Assert.assertEquals(asList(new URL(base + "classes!/app.properties"), new URL(base + "lib/lib.jar!/app.properties")),
+                archive.findResources("app.properties"));
+        Assert.assertEquals(singletonList(new URL(base + "lib/lib.jar!/META-INF/MANIFEST.MF")), archive.findResources("META-INF/MANIFEST.MF"));
+        Assert.assertEquals(singletonList(new URL(base + "lib/lib.jar!/lib/my%20file.txt")), archive.findResources("lib/my file.txt"));
+        Assert.assertEquals(singletonList(new URL(base + "lib/lib.jar!/lib")), archive.findResources("lib"));
+        Assert.assertEquals(2, archive.findResources("shared/Shadowed.class").size());
+        Assert.assertEquals(2, archive.findResources("").size());
+        Assert.assertTrue(archive.findResources("missing.properties").isEmpty());
+    }
+
+    private String read(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes);
+    }
+
+    private File newFatJar() throws IOException {
+        final byte[] lib = FatJars.jar()
+                .directory("lib/")
+                .add("lib/Library.class", "library")
+                .add("lib/my file.txt", "library")
+                .add("shared/Shadowed.class", "library")
+                .add("app.properties", "library")
+                .toByteArray();
+        return FatJars.fatJar()
+                .add("BOOT-INF/classes/app/Application.class", "application")
+                .add("BOOT-INF/classes/shared/Shadowed.class", "application")
+                .add("BOOT-INF/classes/app.properties", "application")
+                .add("BOOT-INF/lib/lib.jar", lib)
+                .write(Paths.get("target/class-archive/app.jar"));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import static org.objectweb.asm.Opcodes.ACC_ABSTRACT;
+import static org.objectweb.asm.Opcodes.ACC_ANNOTATION;
+import static org.objectweb.asm.Opcodes.ACC_INTERFACE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.V1_8;
+
+public class ComponentIndexTest {
+    @Test
+    public void stereotypes() throws IOException {
+        final File artifact = newFatJar();
+        final ArchiveDescriptor descriptor = ArchiveDescriptor.read(artifact);
+        ClassArchive.write(artifact, descriptor, "digest");
+        ComponentIndex.write(artifact, descriptor, "digest");
+
+        Assert.assertNull(ComponentIndex.find(artifact, "other"));
+        final URL url = ComponentIndex.find(artifact, "digest");
+        Assert.assertNotNull(url);
+        final Properties index = new Properties();
+        try (final InputStream stream = url.openStream()) {
+            index.load(stream);
+        }
+        Assert.assertEquals("org.springframework.stereotype.Component", index.getProperty("app.MyService"));
+        Assert.assertEquals("lib.Repository", index.getProperty("app.MyRepository"));
+        Assert.assertEquals("lib.Repository", index.getProperty("lib.Repository"));
+        Assert.assertEquals("javax.persistence.Entity", index.getProperty("app.MyEntity"));
+        Assert.assertNull(index.getProperty("app.Plain"));
+        Assert.assertNull(index.getProperty("org.springframework.stereotype.Service")); // annotations are not candidates
+    }
+
+    private File newFatJar() throws IOException {
+        final byte[] lib = FatJars.jar()
+                .add("org/springframework/stereotype/Indexed.class", annotation("org/springframework/stereotype/Indexed"))
+                .add("org/springframework/stereotype/Component.class", annotation("org/springframework/stereotype/Component", "org/springframework/stereotype/Indexed"))
+                .add("org/springframework/stereotype/Service.class", annotation("org/springframework/stereotype/Service", "org/springframework/stereotype/Component"))
+                .add("lib/Repository.class", type("lib/Repository", ACC_INTERFACE | ACC_ABSTRACT, null, "org/springframework/stereotype/Indexed"))
+                .toByteArray();
+        return FatJars.fatJar()
+                .add("BOOT-INF/classes/app/MyService.class", type("app/MyService", 0, null, "org/springframework/stereotype/Service"))
+                .add("BOOT-INF/classes/app/MyRepository.class", type("app/MyRepository", 0, "lib/Repository"))
+                .add("BOOT-INF/classes/app/MyEntity.class", type("app/MyEntity", 0, null, "javax/persistence/Entity"))
+                .add("BOOT-INF/classes/app/Plain.class", type("app/Plain", 0, null))
+                .add("BOOT-INF/lib/lib.jar", lib)
+                .write(Paths.get("target/component-index/app.jar"));
+    }
+
+    private byte[] annotation(final String name, final String... annotations) {
+        return type(name, ACC_INTERFACE | ACC_ABSTRACT | ACC_ANNOTATION, "java/lang/annotation/Annotation", annotations);
+    }
+
+    private byte[] type(final String name, final int access, final String itf, final String... annotations) {
+        final ClassWriter writer = new ClassWriter(0);
+        writer.visit(V1_8, ACC_PUBLIC | access, name, null, "java/lang/Object", itf == null ? null : new String[]{itf});
+        for (final String annotation : annotations) {
+            writer.visitAnnotation('L' + annotation + ';', true).visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.apache.karaf.spring.boot.SpringBootService;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class DeployDirectoryWatcherTest {
+    @Test
+    public void undeployWaitsForTheDeploymentOfTheSameFile() throws Exception {
+        final BlockingQueue<String> calls = new LinkedBlockingQueue<>();
+        final CountDownLatch installed = new CountDownLatch(1);
+        final SpringBootService service = SpringBootService.class.cast(Proxy.newProxyInstance(
+                Thread.currentThread().getContextClassLoader(), new Class<?>[]{SpringBootService.class},
+                (proxy, method, args) -> {
+                    calls.add(method.getName() + ":" + args[0]);
+                    if ("install".equals(method.getName())) {
+                        Assert.assertTrue(installed.await(1, TimeUnit.MINUTES));
+                        return args[0];
+                    }
+                    return null;
+                }));
+        final Path directory = Paths.get("target/deploy-watcher/" + UUID.randomUUID());
+        final DeployDirectoryWatcher watcher = new DeployDirectoryWatcher(service, directory, 100, 2);
+        watcher.start();
+        try {
+            final Path jar = Files.write(directory.resolve("app.jar"), FatJars.fatJar().toByteArray());
+            Assert.assertEquals("install:app", calls.poll(1, TimeUnit.MINUTES));
+
+            Files.delete(jar); // while the deployment is still running
+            Assert.assertNull(calls.poll(500, TimeUnit.MILLISECONDS));
+
+            installed.countDown();
+            Assert.assertEquals("start:app", calls.poll(1, TimeUnit.MINUTES));
+            Assert.assertEquals("uninstall:app", calls.poll(1, TimeUnit.MINUTES));
+            Assert.assertNull(calls.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            installed.countDown();
+            watcher.stop();
+        }
+    }
+
+    @Test
+    public void invalidUpdateKeepsTheDeployedApplication() throws Exception {
+        final BlockingQueue<String> calls = new LinkedBlockingQueue<>();
+        final SpringBootService service = SpringBootService.class.cast(Proxy.newProxyInstance(
+                Thread.currentThread().getContextClassLoader(), new Class<?>[]{SpringBootService.class},
+                (proxy, method, args) -> {
+                    calls.add(method.getName() + ":" + args[0]);
+                    return "install".equals(method.getName()) ? args[0] : null;
+                }));
+        final Path directory = Paths.get("target/deploy-watcher/" + UUID.randomUUID());
+        final DeployDirectoryWatcher watcher = new DeployDirectoryWatcher(service, directory, 100, 2);
+        watcher.start();
+        try {
+            final Path jar = Files.write(directory.resolve("app.jar"), FatJars.fatJar().toByteArray());
+            Assert.assertEquals("install:app", calls.poll(1, TimeUnit.MINUTES));
+            Assert.assertEquals("start:app", calls.poll(1, TimeUnit.MINUTES));
+
+            Files.write(jar, new byte[]{1, 2, 3}); // not a jar
+            Assert.assertNull(calls.poll(1, TimeUnit.SECONDS));
+        } finally {
+            watcher.stop();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Builds the (fat)jars of the tests, entries are written in insertion order.
+ */
+final class FatJars {
+    private final Manifest manifest = new Manifest();
+    private final Map<String, byte[]> entries = new LinkedHashMap<>();
+
+    private FatJars() {
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    }
+
+    // a plain jar, typically a nested library
+    static FatJars jar() {
+        return new FatJars();
+    }
+
+    static FatJars fatJar() {
+        final FatJars jar = new FatJars();
+        jar.manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "org.springframework.boot.loader.JarLauncher");
+        jar.manifest.getMainAttributes().putValue("Spring-Boot-Version", "2.3.3.RELEASE");
+        return jar;
+    }
+
+    FatJars directory(final String name) {
+        entries.put(name, null);
+        return this;
+    }
+
+    FatJars add(final String name, final String content) {
+        return add(name, content.getBytes());
+    }
+
+    FatJars add(final String name, final byte[] content) {
+        entries.put(name, content);
+        return this;
+    }
+
+    byte[] toByteArray() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out);
+        return out.toByteArray();
+    }
+
+    File write(final Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (final OutputStream out = Files.newOutputStream(file)) {
+            write(out);
+        }
+        return file.toFile();
+    }
+
+    private void write(final OutputStream out) throws IOException {
+        try (final JarOutputStream jar = new JarOutputStream(out, manifest)) {
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                jar.putNextEntry(new JarEntry(entry.getKey()));
+                if (entry.getValue() != null) {
+                    jar.write(entry.getValue());
+                }
+                jar.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.http.context.ServletContextHelper;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.GenericServlet;
+import javax.servlet.Servlet;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonMap;
+
+public class HibernationTest {
+    private static final String APPLICATION = "hibernated";
+
+    private final List<Object> registered = new CopyOnWriteArrayList<>();
+    private final List<Object> unregistered = new CopyOnWriteArrayList<>();
+    private final List<DispatcherType> served = new CopyOnWriteArrayList<>();
+    private final CountDownLatch replayed = new CountDownLatch(1);
+    private final CountDownLatch closed = new CountDownLatch(2); // placeholder servlet and context
+    private final ObjectName metrics = metricsName();
+    private Hibernation hibernation;
+    private SpringBootServiceImpl service;
+    private KarafLauncherLoader loader;
+
+    @Before
+    public void init() throws Exception {
+        System.setProperty("karaf.data", "target");
+        loader = newLoader();
+        service = new SpringBootServiceImpl(null) {
+            @Override
+            public void start(final String name, final String[] args) throws Exception {
+                loader = newLoader();
+                getLoaders().put(name, loader);
+                hibernation.onStarted(name);
+            }
+        };
+        service.getLoaders().put(APPLICATION, loader);
+        hibernation = new Hibernation(context(), service, 0, TimeUnit.HOURS.toSeconds(1), 30000);
+        service.setHibernation(hibernation);
+        hibernation.start();
+    }
+
+    @After
+    public void destroy() throws Exception {
+        hibernation.stop();
+        service.stopAll();
+        if (ManagementFactory.getPlatformMBeanServer().isRegistered(metrics)) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metrics);
+        }
+        System.clearProperty("karaf.data");
+    }
+
+    @Test
+    public void idleApplicationIsReplacedByAPlaceholderAndWokenUpByARequest() throws Exception {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean(new Metrics(), MetricsMBean.class), metrics);
+
+        hibernation.check();
+        Assert.assertFalse(service.getLoaders().containsKey(APPLICATION));
+        Assert.assertEquals(2, registered.size());
+        Assert.assertTrue(ServletContextHelper.class.isInstance(registered.get(0)));
+        final Servlet placeholder = Servlet.class.cast(registered.get(1));
+
+        placeholder.service(request(placeholder), response());
+        Assert.assertTrue(replayed.await(1, TimeUnit.MINUTES));
+        Assert.assertTrue(service.getLoaders().containsKey(APPLICATION));
+        Assert.assertEquals(1, served.size());
+        Assert.assertEquals(DispatcherType.REQUEST, served.get(0)); // replayed as the original request
+        Assert.assertTrue(closed.await(1, TimeUnit.MINUTES)); // placeholder closed once the replay is done
+        Assert.assertEquals(registered, unregistered);
+    }
+
+    @Test
+    public void applicationWithoutMetricsNeverHibernates() {
+        hibernation.check();
+        Assert.assertTrue(service.getLoaders().containsKey(APPLICATION));
+        Assert.assertTrue(registered.isEmpty());
+    }
+
+    private KarafLauncherLoader newLoader() throws Exception {
+        return new KarafLauncherLoader(
+                null, APPLICATION, new File("target"), getClass().getClassLoader(), singletonMap("idle.timeout", "1"));
+    }
+
+    private BundleContext context() {
+        final ServiceReference<?> helper = reference(singletonMap("osgi.http.whiteboard.context.path", "/app"));
+        final Map<String, Object> servletProperties = new HashMap<>();
+        servletProperties.put("osgi.http.whiteboard.context.select", "(osgi.http.whiteboard.context.name=karaf-spring-boot-" + APPLICATION + ")");
+        servletProperties.put("osgi.http.whiteboard.servlet.pattern", new String[]{"/*"});
+        final ServiceReference<?> servlet = reference(servletProperties);
+        final ServiceReference<?> endpoint = reference(singletonMap("karaf.spring-boot.application", APPLICATION));
+        final Servlet endpointServlet = new GenericServlet() {
+            @Override
+            public void service(final ServletRequest req, final ServletResponse res) {
+                served.add(req.getDispatcherType());
+                replayed.countDown();
+            }
+        };
+        return BundleContext.class.cast(Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{BundleContext.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getServiceReferences":
+                            return ServletContextHelper.class.getName().equals(args[0]) ?
+                                    new ServiceReference<?>[]{helper} : new ServiceReference<?>[]{servlet};
+                        case "getAllServiceReferences":
+                            return new ServiceReference<?>[]{endpoint};
+                        case "getService":
+                            return endpointServlet;
+                        case "ungetService":
+                            return true;
+                        case "registerService":
+                            registered.add(args[1]);
+                            return ServiceRegistration.class.cast(Proxy.newProxyInstance(
+                                    getClass().getClassLoader(), new Class<?>[]{ServiceRegistration.class}, (r, m, a) -> {
+                                        if ("unregister".equals(m.getName())) {
+                                            unregistered.add(0, args[1]);
+                                            closed.countDown();
+                                        }
+                                        return null;
+                                    }));
+                        default:
+                            return null;
+                    }
+                }));
+    }
+
+    private ServiceReference<?> reference(final Map<String, Object> properties) {
+        return ServiceReference.class.cast(Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{ServiceReference.class},
+                (proxy, method, args) -> "getProperty".equals(method.getName()) ? properties.get(args[0]) : null));
+    }
+
+    // the container parks the request then dispatch() brings it back to the placeholder as an ASYNC dispatch
+    private HttpServletRequest request(final Servlet placeholder) {
+        final Map<String, Object> attributes = new HashMap<>();
+        final DispatcherType[] type = {DispatcherType.REQUEST};
+        final HttpServletRequest[] self = {null};
+        final HttpServletResponse response = response();
+        self[0] = HttpServletRequest.class.cast(Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAttribute":
+                            return attributes.get(args[0]);
+                        case "setAttribute":
+                            attributes.put(String.class.cast(args[0]), args[1]);
+                            return null;
+                        case "removeAttribute":
+                            attributes.remove(args[0]);
+                            return null;
+                        case "getDispatcherType":
+                            return type[0];
+                        case "getMethod":
+                            return "GET";
+                        case "startAsync":
+                            return AsyncContext.class.cast(Proxy.newProxyInstance(
+                                    getClass().getClassLoader(), new Class<?>[]{AsyncContext.class}, (ac, m, a) -> {
+                                        switch (m.getName()) {
+                                            case "getRequest":
+                                                return self[0];
+                                            case "getResponse":
+                                                return response;
+                                            case "dispatch":
+                                                type[0] = DispatcherType.ASYNC;
+                                                placeholder.service(self[0], response);
+                                                return null;
+                                            default:
+                                                return null;
+                                        }
+                                    }));
+                        default:
+                            return null;
+                    }
+                }));
+        return self[0];
+    }
+
+    private HttpServletResponse response() {
+        return HttpServletResponse.class.cast(Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+                    if ("sendError".equals(method.getName())) {
+                        Assert.fail("Unexpected error " + args[0]);
+                    }
+                    return "isCommitted".equals(method.getName()) ? false : null;
+                }));
+    }
+
+    private static ObjectName metricsName() {
+        try {
+            return new ObjectName("org.apache.karaf.spring.boot:type=HttpMetrics,application=" + ObjectName.quote(APPLICATION));
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public interface MetricsMBean {
+        long getLastRequestTimestamp();
+
+        long getStartTimestamp();
+
+        long getInFlight();
+    }
+
+    // no request ever received
+    public static class Metrics implements MetricsMBean {
+        @Override
+        public long getLastRequestTimestamp() {
+            return 0;
+        }
+
+        @Override
+        public long getStartTimestamp() {
+            return 0;
+        }
+
+        @Override
+        public long getInFlight() {
+            return 0;
+        }
+    }
+}
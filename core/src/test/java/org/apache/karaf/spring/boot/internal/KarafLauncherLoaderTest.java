@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V1_8;
+
+public class KarafLauncherLoaderTest {
+    private static final List<String> RUNS = new CopyOnWriteArrayList<>();
+
+    // called by the generated start class
+    public static void record(final String version) {
+        RUNS.add(version);
+    }
+
+    @Test
+    public void reloadOnlyRecreatesTheApplicationClassesLoader() throws Exception {
+        final Path base = Files.createDirectories(Paths.get("target/launcher-loader/" + UUID.randomUUID()));
+        final Path classes = Files.createDirectories(base.resolve("BOOT-INF/classes"));
+        final Path lib = Files.createDirectories(base.resolve("BOOT-INF/lib/lib"));
+        writeStartClass(classes, "v1");
+
+        final Map<String, String> configuration = new HashMap<>();
+        configuration.put("classloader.reloadable", "true");
+        configuration.put("archive.start-class", "app.Main");
+        final KarafLauncherLoader loader = new KarafLauncherLoader(
+                null, "reloadable", base.toFile(), getClass().getClassLoader(), configuration);
+        try {
+            final URL[] urls = {classes.toUri().toURL(), lib.toUri().toURL()};
+            Assert.assertArrayEquals(new URL[]{lib.toUri().toURL()}, loader.libraries(urls));
+
+            final URLClassLoader libraries = new URLClassLoader(loader.libraries(urls), getClass().getClassLoader());
+            final ClassLoader application = loader.applicationLoader(libraries, urls);
+            Assert.assertTrue(ApplicationClassesLoader.class.isInstance(application));
+            Assert.assertSame(libraries, application.getParent());
+            Assert.assertEquals(singletonList(classes.toUri().toURL()), asList(URLClassLoader.class.cast(application).getURLs()));
+            Assert.assertEquals(asList(loader, libraries, application), loader.getApplicationLoaders());
+            final Class<?> main = application.loadClass("app.Main");
+            Assert.assertSame(application, main.getClassLoader());
+
+            RUNS.clear();
+            writeStartClass(classes, "v2");
+            loader.reload();
+            Assert.assertEquals(singletonList("v2"), RUNS);
+            final List<ClassLoader> reloaded = loader.getApplicationLoaders();
+            Assert.assertEquals(3, reloaded.size());
+            Assert.assertSame(libraries, reloaded.get(1));
+            Assert.assertNotSame(application, reloaded.get(2));
+            Assert.assertSame(libraries, reloaded.get(2).getParent());
+            Assert.assertNotSame(main, reloaded.get(2).loadClass("app.Main"));
+        } finally {
+            loader.destroy();
+        }
+    }
+
+    @Test
+    public void notReloadableKeepsASingleLoader() throws Exception {
+        final Path base = Files.createDirectories(Paths.get("target/launcher-loader/" + UUID.randomUUID()));
+        final URL[] urls = {base.resolve("BOOT-INF/classes/").toUri().toURL(), base.resolve("BOOT-INF/lib/lib/").toUri().toURL()};
+        final KarafLauncherLoader loader = new KarafLauncherLoader(
+                null, "plain", base.toFile(), getClass().getClassLoader(), new HashMap<>());
+        try {
+            Assert.assertArrayEquals(urls, loader.libraries(urls));
+            final URLClassLoader libraries = new URLClassLoader(urls, getClass().getClassLoader());
+            Assert.assertSame(libraries, loader.applicationLoader(libraries, urls));
+            Assert.assertEquals(asList(loader, libraries), loader.getApplicationLoaders());
+            try {
+                loader.reload();
+                Assert.fail("IllegalStateException expected");
+            } catch (final IllegalStateException ise) {
+                // good
+            }
+        } finally {
+            loader.destroy();
+        }
+    }
+
+    // app.Main.main(String[]) records the version it was generated with
+    private void writeStartClass(final Path classes, final String version) throws IOException {
+        final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(V1_8, ACC_PUBLIC, "app/Main", null, "java/lang/Object", null);
+        final MethodVisitor constructor = writer.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(ALOAD, 0);
+        constructor.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+        final MethodVisitor main = writer.visitMethod(ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V", null, null);
+        main.visitCode();
+        main.visitLdcInsn(version);
+        main.visitMethodInsn(INVOKESTATIC, Type.getInternalName(KarafLauncherLoaderTest.class), "record", "(Ljava/lang/String;)V", false);
+        main.visitInsn(RETURN);
+        main.visitMaxs(0, 0);
+        main.visitEnd();
+        writer.visitEnd();
+        Files.write(Files.createDirectories(classes.resolve("app")).resolve("Main.class"), writer.toByteArray());
+    }
+}
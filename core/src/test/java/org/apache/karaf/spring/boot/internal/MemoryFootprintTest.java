@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+public class MemoryFootprintTest {
+    @Test
+    public void heapWalkStopsAtForeignClassesAndSamplesArrays() {
+        final MemoryFootprint footprint = new MemoryFootprint(1_000_000, 10);
+        final Object[] values = new Object[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new long[16];
+        }
+
+        final long[] all = footprint.retainedHeap(singletonList(values), emptyList());
+        Assert.assertTrue(all[0] > 1000 * 16 * 8); // extrapolated from the sampled arrays
+        Assert.assertTrue(all[1] < 20); // the array and ~10 sampled arrays
+
+        final Holder holder = new Holder(new Holder(values)); // test classes are not owned by the application
+        Assert.assertEquals(1, footprint.retainedHeap(singletonList(holder), emptyList())[1]);
+        final long[] owned = footprint.retainedHeap(singletonList(holder), singletonList(Holder.class.getClassLoader()));
+        Assert.assertEquals(all[1] + 2, owned[1]);
+        Assert.assertTrue(owned[0] > all[0]);
+    }
+
+    @Test
+    public void walkIsBounded() {
+        final Object[] values = new Object[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new Object[]{new Object()};
+        }
+        Assert.assertEquals(10, new MemoryFootprint(10, 1000).retainedHeap(singletonList(values), emptyList())[1]);
+    }
+
+    @Test
+    public void nestedJarsShareTheirArtifact() throws Exception {
+        try (final URLClassLoader loader = new URLClassLoader(new URL[]{
+                new URL("jar:file:/apps/app.jar!/BOOT-INF/classes!/"),
+                new URL("jar:file:/apps/app.jar!/BOOT-INF/lib/a.jar!/"),
+                new URL("file:/stacks/b.jar"),
+                new URL("file:/exploded/")}, null)) {
+            final int[] jars = MemoryFootprint.countJars(asList(loader), true);
+            Assert.assertEquals(3, jars[0]);
+            Assert.assertEquals(3, jars[1]); // app.jar, b.jar and the class archive
+        }
+    }
+
+    @Test
+    public void classesAreCounted() throws Exception {
+        try (final URLClassLoader loader = new URLClassLoader(new URL[]{new File("target/test-classes").toURI().toURL()}, null)) {
+            final int classes = MemoryFootprint.countClasses(loader);
+            Assume.assumeTrue("java.lang is not opened", classes >= 0);
+            Assert.assertEquals(0, classes);
+
+            loader.loadClass(MemoryFootprintTest.class.getPackage().getName() + ".instrumented.Excluded");
+            Assert.assertEquals(1, MemoryFootprint.countClasses(loader));
+        }
+    }
+
+    private static class Holder {
+        private final Object value;
+
+        private Holder(final Object value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MethodTimingTransformerTest {
+    private static final String PACKAGE = "org.apache.karaf.spring.boot.internal.instrumented";
+
+    @Test
+    public void instrumentedMethodsAreTimed() throws Exception {
+        final Map<String, String> configuration = new HashMap<>();
+        configuration.put("instrumentation.includes", PACKAGE);
+        configuration.put("instrumentation.excludes", PACKAGE + ".Excluded");
+        final ClassTransformers.Scope scope = new ClassTransformers(null).forApplication("timed", configuration);
+        Assert.assertNotNull(scope);
+        Assert.assertTrue(scope.matches(PACKAGE + ".Sample"));
+        Assert.assertTrue(scope.matches(PACKAGE + ".Sample$Nested"));
+        Assert.assertFalse(scope.matches(PACKAGE + ".Excluded"));
+        Assert.assertFalse(scope.matches(PACKAGE + "s.Other"));
+
+        scope.start();
+        try (final ApplicationClassesLoader loader = new ApplicationClassesLoader(
+                new URL[]{new File("target/test-classes").toURI().toURL()}, new HidingLoader(), scope)) {
+            final Class<?> sample = loader.loadClass(PACKAGE + ".Sample");
+            final Object instance = sample.getConstructor().newInstance();
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(3, sample.getMethod("add", int.class, int.class).invoke(instance, 1, 2));
+            }
+            try {
+                sample.getMethod("add", int.class, int.class).invoke(instance, -1, 2);
+                Assert.fail();
+            } catch (final InvocationTargetException ite) {
+                Assert.assertTrue(IllegalArgumentException.class.isInstance(ite.getTargetException()));
+            }
+            Assert.assertEquals("excluded", sample.getMethod("excluded").invoke(instance));
+
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final TabularData methods = TabularData.class.cast(server.getAttribute(
+                    new ObjectName("org.apache.karaf.spring.boot:type=MethodTimings,application=\"timed\""), "Methods"));
+            final Map<String, Long> invocations = new HashMap<>();
+            for (final Object row : methods.values()) {
+                final CompositeData entry = CompositeData.class.cast(row);
+                invocations.put(String.valueOf(entry.get("key")), (Long) CompositeData.class.cast(entry.get("value")).get("invocations"));
+            }
+            Assert.assertEquals(Long.valueOf(4), invocations.get(PACKAGE + ".Sample.add(int, int)"));
+            Assert.assertEquals(Long.valueOf(1), invocations.get(PACKAGE + ".Sample.<init>()"));
+            Assert.assertEquals(Long.valueOf(1), invocations.get(PACKAGE + ".Sample.excluded()"));
+            Assert.assertNull(invocations.get(PACKAGE + ".Excluded.value()"));
+        } finally {
+            scope.stop();
+        }
+        Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().queryNames(
+                new ObjectName("org.apache.karaf.spring.boot:type=MethodTimings,application=\"timed\""), null).isEmpty());
+    }
+
+    @Test
+    public void releasedProbesAreReused() {
+        final MethodTimings first = new MethodTimings("first");
+        final int probe = first.register("app.Service.find(java.lang.String)");
+        Assert.assertEquals(probe, first.register("app.Service.find(java.lang.String)"));
+        first.unregister();
+
+        final MethodTimings second = new MethodTimings("second");
+        Assert.assertEquals(probe, second.register("app.Service.find(java.lang.String)"));
+        Assert.assertNotEquals(probe, second.register("app.Service.find(app.String)"));
+        second.unregister();
+    }
+
+    @Test
+    public void noIncludeMeansNoTransformation() {
+        Assert.assertNull(new ClassTransformers(null).forApplication("plain", new HashMap<>()));
+    }
+
+    // the instrumented classes must be defined by the application loader and not by the test one
+    private static class HidingLoader extends ClassLoader {
+        private HidingLoader() {
+            super(MethodTimingTransformerTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith(PACKAGE + '.')) {
+                throw new ClassNotFoundException(name);
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+}
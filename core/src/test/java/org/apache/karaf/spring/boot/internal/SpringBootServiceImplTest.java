@@ -24,6 +24,11 @@ import org.junit.Test;
 import org.slf4j.impl.SimpleLogger;
 
 import java.io.File;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
 
 public class SpringBootServiceImplTest {
 
@@ -62,6 +67,41 @@ public class SpringBootServiceImplTest {
 
         Assert.assertTrue(new File("target/spring-boot/applications/rest-service-0.0.1-SNAPSHOT.jar").exists());
         Assert.assertTrue(new File("target/spring-boot/metadata/RestServiceApplication.properties").exists());
+
+        final Properties metadata = new Properties();
+        try (final Reader reader = Files.newBufferedReader(Paths.get("target/spring-boot/metadata/RestServiceApplication.properties"))) {
+            metadata.load(reader);
+        }
+        final ArchiveDescriptor descriptor = ArchiveDescriptor.load(metadata);
+        Assert.assertNotNull(descriptor);
+        Assert.assertEquals("org.springframework.boot.loader.JarLauncher", descriptor.getMainClass());
+        Assert.assertTrue(descriptor.getStartClass().endsWith(".RestServiceApplication"));
+        Assert.assertFalse(descriptor.getLibraries().isEmpty());
+    }
+
+    @Test
+    public void testUninstall() throws Exception {
+        final Path source = FatJars.fatJar()
+                .add("BOOT-INF/classes/application.properties", "server.port=1234")
+                .write(Paths.get("target/uninstall/uninstall-test.jar"))
+                .toPath();
+        final File jar = new File("target/spring-boot/applications/uninstall-test.jar");
+
+        SpringBootServiceImpl service = new SpringBootServiceImpl(null);
+        service.install("first", source.toUri(), null);
+        service.install("second", source.toUri(), null);
+        Assert.assertTrue(jar.exists());
+
+        service.uninstall("first"); // still used by the second one
+        Assert.assertFalse(new File("target/spring-boot/metadata/first.properties").exists());
+        Assert.assertTrue(jar.exists());
+
+        service.uninstall("second");
+        Assert.assertFalse(new File("target/spring-boot/metadata/second.properties").exists());
+        Assert.assertFalse(jar.exists());
+        Assert.assertFalse(Files.exists(ClassArchive.of(jar)));
+        Assert.assertFalse(Files.exists(ComponentIndex.of(jar)));
+        Assert.assertFalse(service.list().containsKey("second"));
     }
 
     @Test
@@ -72,5 +112,4 @@ public class SpringBootServiceImplTest {
         service.start("RestServiceApplication", new String[]{});
         Assert.assertTrue(service.list().get("RestServiceApplication"));
     }
-
 }
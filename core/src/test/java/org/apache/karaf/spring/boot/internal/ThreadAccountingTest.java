@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.internal;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static java.util.Collections.emptyMap;
+
+public class ThreadAccountingTest {
+    @Test
+    public void contentionMonitoringIsOptIn() {
+        final ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mxBean.isThreadContentionMonitoringSupported() && !mxBean.isThreadContentionMonitoringEnabled());
+
+        final ThreadAccounting accounting = new ThreadAccounting(false);
+        try {
+            accounting.snapshot(emptyMap());
+            Assert.assertFalse(mxBean.isThreadContentionMonitoringEnabled());
+        } finally {
+            accounting.destroy();
+        }
+    }
+
+    @Test
+    public void destroyRestoresTheMonitoringState() {
+        final ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mxBean.isThreadContentionMonitoringSupported() && !mxBean.isThreadContentionMonitoringEnabled());
+        final boolean cpuTime = mxBean.isThreadCpuTimeEnabled();
+
+        final ThreadAccounting accounting = new ThreadAccounting(true);
+        accounting.snapshot(emptyMap());
+        Assert.assertTrue(mxBean.isThreadContentionMonitoringEnabled());
+
+        accounting.destroy();
+        Assert.assertFalse(mxBean.isThreadContentionMonitoringEnabled());
+        Assert.assertEquals(cpuTime, mxBean.isThreadCpuTimeEnabled());
+    }
+}
@@ -27,8 +27,10 @@ import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.stream.Stream;
 
 import static java.util.Collections.enumeration;
@@ -67,6 +69,9 @@ public class KarafEnhancedChildLauncherClassLoader extends LaunchedURLClassLoade
 
     @Override
     public Enumeration<URL> getResources(final String name) throws IOException {
+        if ("META-INF/spring.components".equals(name)) {
+            return ((KarafLauncherLoader) getParent()).componentIndexes(super.getResources(name));
+        }
         if ("META-INF/spring.factories".equals(name)) {
             return enumeration(Stream.concat(
                     handleSpringFactories(name),
@@ -90,6 +95,31 @@ public class KarafEnhancedChildLauncherClassLoader extends LaunchedURLClassLoade
         return value;
     }
 
+    @Override
+    protected Class<?> findClass(final String name) throws ClassNotFoundException {
+        final KarafLauncherLoader launcher = (KarafLauncherLoader) getParent();
+        final ByteBuffer bytecode = launcher.findArchivedClass(name);
+        final Class<?> value = bytecode == null ?
+                super.findClass(name) : defineClass(name, bytecode, launcher.findArchivedDomain(name));
+        launcher.onClassDefined(bytecode);
+        return value;
+    }
+
+    @Override
+    public URL findResource(final String name) {
+        final List<URL> urls = ((KarafLauncherLoader) getParent()).findIndexedResources(name);
+        if (urls == null) {
+            return super.findResource(name);
+        }
+        return urls.isEmpty() ? null : urls.get(0);
+    }
+
+    @Override
+    public Enumeration<URL> findResources(final String name) throws IOException {
+        final List<URL> urls = ((KarafLauncherLoader) getParent()).findIndexedResources(name);
+        return urls == null ? super.findResources(name) : enumeration(urls);
+    }
+
     public static class Dumper {
         public static void main(String[] args) throws Exception {
             ASMifier.main(new String[]{
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.base;
+
+/**
+ * Creation cost of a bean, durations are in microseconds and exclude the beans created while resolving its dependencies.
+ */
+public class BeanStartup {
+    private final String name;
+    private final String type;
+    private final String configuration;
+    private final long count;
+    private final long instantiation;
+    private final long initialization;
+
+    BeanStartup(final String name, final String type, final String configuration,
+                final long count, final long instantiation, final long initialization) {
+        this.name = name;
+        this.type = type;
+        this.configuration = configuration;
+        this.count = count;
+        this.instantiation = instantiation;
+        this.initialization = initialization;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the configuration class declaring the bean or null if it is not a {@code @Bean} method.
+     */
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return the number of instances created (greater than one for prototypes).
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the constructor/factory method and dependency injection time.
+     */
+    public long getInstantiation() {
+        return instantiation;
+    }
+
+    /**
+     * @return the post processors and init methods time.
+     */
+    public long getInitialization() {
+        return initialization;
+    }
+
+    public long getTotal() {
+        return instantiation + initialization;
+    }
+}
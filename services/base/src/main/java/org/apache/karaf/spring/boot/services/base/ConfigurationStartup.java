@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.base;
+
+/**
+ * Cost of a configuration class: the configuration bean and its {@code @Bean} methods (microseconds)
+ * and the conditions Spring Boot evaluated for it.
+ */
+public class ConfigurationStartup {
+    private final String name;
+    private final long beans;
+    private final long total;
+    private final long conditions;
+    private final boolean matched;
+
+    ConfigurationStartup(final String name, final long beans, final long total, final long conditions, final boolean matched) {
+        this.name = name;
+        this.beans = beans;
+        this.total = total;
+        this.conditions = conditions;
+        this.matched = matched;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getBeans() {
+        return beans;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getConditions() {
+        return conditions;
+    }
+
+    /**
+     * @return false when the conditions of the class did not match (no bean created).
+     */
+    public boolean isMatched() {
+        return matched;
+    }
+}
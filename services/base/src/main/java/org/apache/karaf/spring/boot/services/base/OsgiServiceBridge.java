@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.base;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.util.tracker.ServiceTracker;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * Exports beans of an application as OSGi services and imports OSGi services as beans
+ * so co-located applications can call each other in process.
+ * Exported beans are the ones marked with {@link OsgiService} and the ones listed in
+ * {@code karaf.spring-boot.osgi.export} (bean names), imported services are listed in {@code karaf.spring-boot.osgi.import}
+ * (interface names, an additional filter can be set with {@code karaf.spring-boot.osgi.import.<interface>.filter}).
+ */
+class OsgiServiceBridge {
+    static final String APPLICATION = "karaf.spring-boot.application";
+    static final String BEAN = "karaf.spring-boot.bean";
+
+    private final BundleContext bundleContext;
+    private final String application;
+    private final Map<String, String> configuration;
+    private final Collection<ServiceRegistration<?>> registrations = new ArrayList<>();
+    private final Collection<ServiceTracker<?, ?>> trackers = new ArrayList<>();
+
+    private OsgiServiceBridge(final BundleContext bundleContext, final String application,
+                              final Map<String, String> configuration) {
+        this.bundleContext = bundleContext;
+        this.application = application;
+        this.configuration = configuration;
+    }
+
+    // services are loaded per application, the launcher state is read from its KarafLauncherLoader
+    static OsgiServiceBridge create() {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        while (loader != null && !"KarafLauncherLoader".equals(loader.getClass().getSimpleName())) {
+            loader = loader.getParent();
+        }
+        if (loader == null) {
+            return null;
+        }
+        try {
+            @SuppressWarnings("unchecked") // KarafLauncherLoader.getConfiguration()
+            final Map<String, String> configuration = (Map<String, String>) invoke(loader, "getConfiguration");
+            return new OsgiServiceBridge(
+                    BundleContext.class.cast(invoke(loader, "getContext")),
+                    String.class.cast(invoke(loader, "getName")),
+                    configuration);
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    String getApplication() {
+        return application;
+    }
+
+    Map<String, String> getConfiguration() {
+        return configuration;
+    }
+
+    synchronized void importServices(final ConfigurableApplicationContext context) {
+        final Environment environment = context.getEnvironment();
+        final String imports = environment.getProperty("karaf.spring-boot.osgi.import", configuration.get("osgi.import"));
+        if (imports == null || imports.trim().isEmpty()) {
+            return;
+        }
+        final long timeout = environment.getProperty("karaf.spring-boot.osgi.import.timeout", Long.class, 0L);
+        final ClassLoader loader = ofNullable(context.getClassLoader()).orElseGet(() -> Thread.currentThread().getContextClassLoader());
+        for (final String type : imports.split(",")) {
+            final String api = type.trim();
+            if (api.isEmpty()) {
+                continue;
+            }
+            final Class<?> apiClass;
+            try {
+                apiClass = loader.loadClass(api);
+            } catch (final ClassNotFoundException e) {
+                throw new IllegalArgumentException("Can't import " + api, e);
+            }
+            if (!apiClass.isInterface()) {
+                throw new IllegalArgumentException("Only interfaces can be imported as OSGi services: " + api);
+            }
+
+            final String filter = "(&(objectClass=" + api + ")(!(" + APPLICATION + '=' + application + "))" +
+                    environment.getProperty("karaf.spring-boot.osgi.import." + api + ".filter", "") + ')';
+            final ServiceTracker<Object, Object> tracker;
+            try {
+                tracker = new ServiceTracker<>(bundleContext, bundleContext.createFilter(filter), null);
+            } catch (final InvalidSyntaxException e) {
+                throw new IllegalArgumentException("Invalid filter for " + api + ": " + filter, e);
+            }
+            tracker.open(true); // the bundle doesn't wire the application packages
+            trackers.add(tracker);
+
+            final String simpleName = apiClass.getSimpleName();
+            final String beanName = environment.getProperty(
+                    "karaf.spring-boot.osgi.import." + api + ".name",
+                    Character.toLowerCase(simpleName.charAt(0)) + simpleName.substring(1));
+            context.getBeanFactory().registerSingleton(beanName, Proxy.newProxyInstance(
+                    apiClass.getClassLoader(), new Class<?>[]{apiClass}, new ServiceHandler(apiClass, tracker, timeout)));
+        }
+    }
+
+    synchronized void exportBeans(final ConfigurableApplicationContext context) {
+        final ConfigurableListableBeanFactory beanFactory = context.getBeanFactory();
+        final Set<String> names = new LinkedHashSet<>();
+        Stream.of(beanFactory.getBeanNamesForAnnotation(OsgiService.class)).forEach(names::add);
+        ofNullable(context.getEnvironment().getProperty("karaf.spring-boot.osgi.export", configuration.get("osgi.export")))
+                .ifPresent(list -> Stream.of(list.split(","))
+                        .map(String::trim)
+                        .filter(it -> !it.isEmpty())
+                        .forEach(names::add));
+        for (final String name : names) {
+            final Object bean = beanFactory.getBean(name);
+            final OsgiService config = beanFactory.findAnnotationOnBean(name, OsgiService.class);
+            final Hashtable<String, Object> properties = new Hashtable<>();
+            if (config != null) {
+                for (final String property : config.properties()) {
+                    final int sep = property.indexOf('=');
+                    if (sep <= 0) {
+                        throw new IllegalArgumentException("Invalid property '" + property + "' on bean " + name);
+                    }
+                    properties.put(property.substring(0, sep).trim(), property.substring(sep + 1).trim());
+                }
+            }
+            properties.put(APPLICATION, application);
+            properties.put(BEAN, name);
+            final String[] types = config != null && config.value().length > 0 ?
+                    Stream.of(config.value()).map(Class::getName).toArray(String[]::new) :
+                    findTypes(ClassUtils.getUserClass(bean));
+            registrations.add(bundleContext.registerService(types, bean, properties));
+        }
+    }
+
+    synchronized void close() {
+        registrations.forEach(it -> {
+            try {
+                it.unregister();
+            } catch (final IllegalStateException ise) {
+                // no-op
+            }
+        });
+        registrations.clear();
+        trackers.forEach(ServiceTracker::close);
+        trackers.clear();
+    }
+
+    // application interfaces, framework ones are not a contract between applications
+    private String[] findTypes(final Class<?> type) {
+        final Set<String> interfaces = new LinkedHashSet<>();
+        Class<?> current = type;
+        while (current != null && current != Object.class) {
+            collectInterfaces(current, interfaces);
+            current = current.getSuperclass();
+        }
+        return interfaces.isEmpty() ? new String[]{type.getName()} : interfaces.toArray(new String[0]);
+    }
+
+    private void collectInterfaces(final Class<?> type, final Set<String> interfaces) {
+        for (final Class<?> itf : type.getInterfaces()) {
+            final String name = itf.getName();
+            if (!name.startsWith("java.") && !name.startsWith("org.springframework.")) {
+                interfaces.add(name);
+            }
+            collectInterfaces(itf, interfaces);
+        }
+    }
+
+    private static Object invoke(final ClassLoader loader, final String name) throws Exception {
+        final Method method = loader.getClass().getDeclaredMethod(name);
+        method.setAccessible(true);
+        return method.invoke(loader);
+    }
+
+    // resolves the service on each call so it follows the exporting application restarts
+    private static class ServiceHandler implements InvocationHandler {
+        private final Class<?> api;
+        private final ServiceTracker<Object, Object> tracker;
+        private final long timeout;
+
+        private ServiceHandler(final Class<?> api, final ServiceTracker<Object, Object> tracker, final long timeout) {
+            this.api = api;
+            this.tracker = tracker;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "OsgiService[" + api.getName() + "]";
+                    default:
+                        return method.invoke(this, args);
+                }
+            }
+            final Object service = timeout > 0 ? tracker.waitForService(timeout) : tracker.getService();
+            if (service == null) {
+                throw new IllegalStateException("No " + api.getName() + " service available");
+            }
+            if (!api.isInstance(service)) {
+                throw new IllegalStateException(api.getName() + " is not shared with the exporting application, " +
+                        "it must be provided by a common stack");
+            }
+            try {
+                return method.invoke(service, args);
+            } catch (final InvocationTargetException ite) {
+                throw ite.getTargetException();
+            }
+        }
+    }
+}
@@ -18,21 +18,51 @@ package org.apache.karaf.spring.boot.services.base;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.SpringApplicationRunListener;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
 
 public class SpringApplicationContextCapture implements SpringApplicationRunListener {
     private final Object application;
     private final String[] args;
     private ConfigurableApplicationContext context;
+    private OsgiServiceBridge services;
+    private StartupProfiler profiler;
 
     public SpringApplicationContextCapture(final SpringApplication application, final String[] args) {
         this.application = application;
         this.args = args;
     }
 
+    @Override
+    public void contextPrepared(final ConfigurableApplicationContext context) {
+        services = OsgiServiceBridge.create();
+        if (services == null) {
+            return;
+        }
+        if (context.getEnvironment().getProperty("karaf.spring-boot.profiling.beans", Boolean.class,
+                Boolean.parseBoolean(services.getConfiguration().get("profiling.beans")))) {
+            profiler = StartupProfiler.install(services.getApplication(), context);
+            profiler.register();
+        }
+        context.addApplicationListener((ApplicationListener<ApplicationEvent>) event -> {
+            if (ContextClosedEvent.class.isInstance(event)) {
+                services.close();
+                if (profiler != null) {
+                    profiler.unregister();
+                }
+            }
+        });
+        services.importServices(context);
+    }
+
     @Override
     public void started(final ConfigurableApplicationContext context) {
         this.context = context;
+        if (profiler != null) {
+            profiler.stopRecording();
+        }
         try {
             Thread.currentThread().getContextClassLoader()
                     .loadClass("org.apache.karaf.spring.boot.internal.shared.ApplicationContextCapturer")
@@ -41,5 +71,18 @@ public class SpringApplicationContextCapture implements SpringApplicationRunList
         } catch (final Exception e) {
             throw new IllegalStateException(e);
         }
+        if (services != null) {
+            services.exportBeans(context);
+        }
+    }
+
+    @Override
+    public void failed(final ConfigurableApplicationContext context, final Throwable exception) {
+        if (services != null) {
+            services.close();
+        }
+        if (profiler != null) {
+            profiler.unregister();
+        }
     }
 }
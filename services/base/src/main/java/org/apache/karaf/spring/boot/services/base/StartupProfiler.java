@@ -0,0 +1,369 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.base;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessor;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.beans.factory.support.MergedBeanDefinitionPostProcessor;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Opt-in ({@code karaf.spring-boot.profiling.beans=true}) recorder of the bean creation costs of an application startup,
+ * registered as {@code org.apache.karaf.spring.boot:type=StartupProfiler,application=<name>}.
+ * A first post processor opens a frame per bean when it is instantiated and a last one
+ * (registered with the context post processors) closes it once every post processor ran,
+ * nested creations are subtracted so each bean only accounts for itself.
+ * Spring Boot 2.3 has no per-condition timing, the configuration class phase is timed as a whole
+ * and conditions are reported per configuration from the condition evaluation report.
+ */
+public class StartupProfiler implements StartupProfilerMXBean {
+    static final String DOMAIN = "org.apache.karaf.spring.boot";
+
+    private final String application;
+    private final ConfigurableListableBeanFactory beanFactory;
+    private final ConcurrentMap<String, Timing> timings = new ConcurrentHashMap<>();
+    private final ThreadLocal<Deque<Frame>> frames = new ThreadLocal<>();
+    private volatile boolean recording = true;
+    private volatile long configurationPhaseStart;
+    private volatile long configurationPhase;
+    private ObjectName objectName;
+
+    private StartupProfiler(final String application, final ConfigurableListableBeanFactory beanFactory) {
+        this.application = application;
+        this.beanFactory = beanFactory;
+    }
+
+    // must be called before the refresh so bean factory post processors are profiled too
+    static StartupProfiler install(final String application, final ConfigurableApplicationContext context) {
+        final StartupProfiler profiler = new StartupProfiler(application, context.getBeanFactory());
+        context.addBeanFactoryPostProcessor(profiler.new ConfigurationPhase());
+        context.getBeanFactory().addBeanPostProcessor(profiler.new Head());
+        context.getBeanFactory().registerSingleton("karafSpringBootStartupProfiler", profiler.new Tail());
+        return profiler;
+    }
+
+    // beans created later (prototypes, lazy beans) are not part of the startup
+    void stopRecording() {
+        recording = false;
+    }
+
+    synchronized void register() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName name = new ObjectName(DOMAIN + ":type=StartupProfiler,application=" + ObjectName.quote(application));
+            try {
+                server.registerMBean(this, name);
+            } catch (final InstanceAlreadyExistsException iaee) { // previous instance not properly stopped
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+            objectName = name;
+        } catch (final JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (final JMException e) {
+            // no-op
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String getApplication() {
+        return application;
+    }
+
+    @Override
+    public long getConfigurationPhase() {
+        return TimeUnit.NANOSECONDS.toMicros(configurationPhase);
+    }
+
+    @Override
+    public List<BeanStartup> getBeans() {
+        return timings.entrySet().stream()
+                .map(e -> e.getValue().snapshot(e.getKey()))
+                .sorted(Comparator.comparingLong(BeanStartup::getTotal).reversed())
+                .collect(toList());
+    }
+
+    @Override
+    public List<ConfigurationStartup> getConfigurations() {
+        final Map<String, long[]> costs = new HashMap<>(); // beans, total
+        final List<BeanStartup> beans = getBeans();
+        for (final BeanStartup bean : beans) {
+            if (bean.getConfiguration() != null) {
+                final long[] cost = costs.computeIfAbsent(bean.getConfiguration(), k -> new long[2]);
+                cost[0]++;
+                cost[1] += bean.getTotal();
+            }
+        }
+        for (final BeanStartup bean : beans) { // the configuration instance itself
+            final long[] cost = costs.get(bean.getType());
+            if (cost != null) {
+                cost[1] += bean.getTotal();
+            }
+        }
+
+        final Map<String, long[]> conditions = conditions(); // evaluated, matched (0/1)
+        conditions.keySet().forEach(name -> costs.computeIfAbsent(name, k -> new long[2]));
+        return costs.entrySet().stream()
+                .map(e -> {
+                    final long[] outcome = conditions.getOrDefault(e.getKey(), new long[]{0, 1});
+                    return new ConfigurationStartup(e.getKey(), e.getValue()[0], e.getValue()[1], outcome[0], outcome[1] == 1);
+                })
+                .sorted(Comparator.comparingLong(ConfigurationStartup::getTotal).reversed())
+                .collect(toList());
+    }
+
+    // spring-boot-autoconfigure is optional for the services, the report is read reflectively
+    private Map<String, long[]> conditions() {
+        final Map<String, long[]> conditions = new HashMap<>();
+        if (!beanFactory.containsSingleton("autoConfigurationReport")) {
+            return conditions;
+        }
+        try {
+            final Object report = beanFactory.getSingleton("autoConfigurationReport");
+            final Map<?, ?> bySource = Map.class.cast(report.getClass()
+                    .getMethod("getConditionAndOutcomesBySource").invoke(report));
+            Method isFullMatch = null; // ConditionAndOutcomes, looked up once
+            for (final Map.Entry<?, ?> entry : bySource.entrySet()) {
+                final String source = String.valueOf(entry.getKey());
+                final int method = source.indexOf('#');
+                final long[] outcome = conditions.computeIfAbsent(
+                        method > 0 ? source.substring(0, method) : source, k -> new long[]{0, 1});
+                for (final Object ignored : (Iterable<?>) entry.getValue()) {
+                    outcome[0]++;
+                }
+                if (method < 0) {
+                    if (isFullMatch == null) {
+                        isFullMatch = entry.getValue().getClass().getMethod("isFullMatch");
+                    }
+                    if (!(Boolean) isFullMatch.invoke(entry.getValue())) {
+                        outcome[1] = 0;
+                    }
+                }
+            }
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            // no-op, report format changed, only bean costs are available
+        }
+        return conditions;
+    }
+
+    private void open(final Class<?> type, final String name) {
+        Deque<Frame> stack = frames.get();
+        if (stack == null) {
+            stack = new ArrayDeque<>();
+            frames.set(stack);
+        }
+        stack.push(new Frame(name, type, System.nanoTime()));
+    }
+
+    private Frame find(final String name) {
+        final Deque<Frame> stack = frames.get();
+        if (stack == null) {
+            return null;
+        }
+        for (final Frame frame : stack) {
+            if (frame.name.equals(name)) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    private void close(final Frame frame) {
+        final long end = System.nanoTime();
+        final Deque<Frame> stack = frames.get();
+        while (!stack.isEmpty() && stack.pop() != frame) {
+            // failed creations above it are dropped
+        }
+        if (stack.isEmpty()) {
+            frames.remove();
+        } else {
+            stack.peek().nested += end - frame.start;
+        }
+
+        final long initStart = frame.initializing ? frame.initializationStart : end;
+        final long instantiation = initStart - frame.start - frame.nestedBeforeInitialization;
+        final long initialization = end - initStart - (frame.nested - frame.nestedBeforeInitialization);
+        timings.computeIfAbsent(frame.name, k -> new Timing(typeName(frame.type), configurationOf(frame.name)))
+                .add(Math.max(0, instantiation), Math.max(0, initialization));
+    }
+
+    private String configurationOf(final String name) {
+        try {
+            if (!beanFactory.containsBeanDefinition(name)) {
+                return null;
+            }
+            final String factoryBean = beanFactory.getMergedBeanDefinition(name).getFactoryBeanName();
+            return factoryBean == null ? null : beanFactory.getMergedBeanDefinition(factoryBean).getBeanClassName();
+        } catch (final BeansException e) {
+            return null;
+        }
+    }
+
+    private static String typeName(final Class<?> type) {
+        if (type == null) {
+            return null;
+        }
+        final String name = type.getName();
+        final int proxy = name.indexOf("$$");
+        return proxy > 0 ? name.substring(0, proxy) : name;
+    }
+
+    private class Head implements InstantiationAwareBeanPostProcessor {
+        @Override
+        public Object postProcessBeforeInstantiation(final Class<?> beanClass, final String beanName) {
+            if (recording) {
+                open(beanClass, beanName);
+            }
+            return null;
+        }
+
+        @Override
+        public Object postProcessBeforeInitialization(final Object bean, final String beanName) {
+            if (recording) {
+                final Frame frame = find(beanName);
+                if (frame != null && !frame.initializing) {
+                    frame.initializing = true;
+                    frame.initializationStart = System.nanoTime();
+                    frame.nestedBeforeInitialization = frame.nested;
+                }
+            }
+            return bean;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+            if (recording) {
+                final Frame frame = find(beanName);
+                if (frame != null && !frame.tail) { // created before the tail was registered (post processors)
+                    close(frame);
+                }
+            }
+            return bean;
+        }
+    }
+
+    // a merged bean definition post processor is registered after the other post processors
+    private class Tail implements MergedBeanDefinitionPostProcessor {
+        @Override
+        public void postProcessMergedBeanDefinition(final RootBeanDefinition beanDefinition, final Class<?> beanType,
+                                                    final String beanName) {
+            if (recording) {
+                final Frame frame = find(beanName);
+                if (frame != null) {
+                    frame.tail = true;
+                }
+            }
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+            if (recording) {
+                final Frame frame = find(beanName);
+                if (frame != null && frame.tail) {
+                    close(frame);
+                }
+            }
+            return bean;
+        }
+    }
+
+    // first bean factory post processor, its postProcessBeanFactory runs once all registry post processors ran
+    private class ConfigurationPhase implements BeanDefinitionRegistryPostProcessor {
+        @Override
+        public void postProcessBeanDefinitionRegistry(final BeanDefinitionRegistry registry) {
+            configurationPhaseStart = System.nanoTime();
+        }
+
+        @Override
+        public void postProcessBeanFactory(final ConfigurableListableBeanFactory beanFactory) {
+            configurationPhase = System.nanoTime() - configurationPhaseStart;
+        }
+    }
+
+    private static class Frame {
+        private final String name;
+        private final Class<?> type;
+        private final long start;
+        private boolean initializing;
+        private long initializationStart;
+        private long nested;
+        private long nestedBeforeInitialization;
+        private boolean tail;
+
+        private Frame(final String name, final Class<?> type, final long start) {
+            this.name = name;
+            this.type = type;
+            this.start = start;
+        }
+    }
+
+    private static class Timing {
+        private final String type;
+        private final String configuration;
+        private long count;
+        private long instantiation;
+        private long initialization;
+
+        private Timing(final String type, final String configuration) {
+            this.type = type;
+            this.configuration = configuration;
+        }
+
+        private synchronized void add(final long instantiation, final long initialization) {
+            this.count++;
+            this.instantiation += instantiation;
+            this.initialization += initialization;
+        }
+
+        private synchronized BeanStartup snapshot(final String name) {
+            return new BeanStartup(name, type, configuration, count,
+                    TimeUnit.NANOSECONDS.toMicros(instantiation), TimeUnit.NANOSECONDS.toMicros(initialization));
+        }
+    }
+}
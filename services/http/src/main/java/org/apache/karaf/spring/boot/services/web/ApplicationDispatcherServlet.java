@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.GenericServlet;
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Collections.enumeration;
+import static java.util.Collections.newSetFromMap;
+
+/**
+ * Single whiteboard servlet of an application dispatching to the application servlets and filters
+ * with its own {@link DispatcherRoutes}.
+ * Routes are replaced atomically, a request always sees a consistent snapshot.
+ */
+class ApplicationDispatcherServlet extends GenericServlet {
+    private final AtomicReference<DispatcherRoutes> routes = new AtomicReference<>(new DispatcherRoutes.Builder().build());
+    private final Set<Object> initialized = newSetFromMap(new IdentityHashMap<>());
+    private final boolean managed;
+    private ServletContext servletContext;
+
+    ApplicationDispatcherServlet() {
+        this(true);
+    }
+
+    // an unmanaged dispatcher only routes, the servlets and filters lifecycle is handled by the whiteboard
+    ApplicationDispatcherServlet(final boolean managed) {
+        this.managed = managed;
+    }
+
+    @Override
+    public synchronized void init() throws ServletException {
+        servletContext = getServletContext();
+        if (managed) {
+            initialize(routes.get());
+        }
+    }
+
+    synchronized void update(final DispatcherRoutes newRoutes) throws ServletException {
+        if (!managed) {
+            routes.set(newRoutes);
+            return;
+        }
+        if (servletContext != null) { // else done in init()
+            initialize(newRoutes);
+        }
+        final DispatcherRoutes previous = routes.getAndSet(newRoutes);
+
+        // requests already dispatched to a removed servlet/filter can still be running, it is the same as a whiteboard unregistration
+        final Set<Object> kept = newSetFromMap(new IdentityHashMap<>());
+        newRoutes.getServlets().forEach(it -> kept.add(it.servlet));
+        newRoutes.getFilters().forEach(it -> kept.add(it.filter));
+        destroy(previous, kept);
+    }
+
+    // path relative to the context path
+    boolean matches(final String path) {
+        return routes.get().match(path) != null;
+    }
+
+    @Override
+    public void service(final ServletRequest req, final ServletResponse res) throws ServletException, IOException {
+        final HttpServletRequest request = HttpServletRequest.class.cast(req);
+        final String path = request.getServletPath() + (request.getPathInfo() == null ? "" : request.getPathInfo());
+        final DispatcherRoutes.Match match = routes.get().match(path);
+        if (match == null) {
+            HttpServletResponse.class.cast(res).sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        new Chain(match.target, path).doFilter(new RoutedRequest(request, match), res);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        final DispatcherRoutes previous = routes.getAndSet(new DispatcherRoutes.Builder().build());
+        if (managed) {
+            destroy(previous, Collections.emptySet());
+        }
+        servletContext = null;
+    }
+
+    private void initialize(final DispatcherRoutes newRoutes) throws ServletException {
+        for (final DispatcherRoutes.FilterDefinition filter : newRoutes.getFilters()) {
+            if (initialized.add(filter.filter)) {
+                filter.filter.init(new Config(filter.name, filter.initParameters));
+            }
+        }
+        for (final DispatcherRoutes.ServletDefinition servlet : newRoutes.getServlets()) {
+            if (initialized.add(servlet.servlet)) {
+                servlet.servlet.init(new Config(servlet.name, servlet.initParameters));
+            }
+        }
+    }
+
+    private void destroy(final DispatcherRoutes old, final Set<Object> kept) {
+        old.getServlets().stream()
+                .map(it -> it.servlet)
+                .filter(it -> !kept.contains(it) && initialized.remove(it))
+                .forEach(Servlet::destroy);
+        old.getFilters().stream()
+                .map(it -> it.filter)
+                .filter(it -> !kept.contains(it) && initialized.remove(it))
+                .forEach(Filter::destroy);
+    }
+
+    private static class Chain implements FilterChain {
+        private final DispatcherRoutes.Target target;
+        private final String path;
+        private int index;
+
+        private Chain(final DispatcherRoutes.Target target, final String path) {
+            this.target = target;
+            this.path = path;
+        }
+
+        @Override
+        public void doFilter(final ServletRequest request, final ServletResponse response) throws IOException, ServletException {
+            while (index < target.filters.length) {
+                final int current = index++;
+                final DispatcherRoutes.FilterDefinition filter = target.filters[current];
+                if (filter.accepts(request.getDispatcherType()) && (!target.conditional[current] || filter.matches(path))) {
+                    filter.filter.doFilter(request, response, this);
+                    return;
+                }
+            }
+            target.servlet.servlet.service(request, response);
+        }
+    }
+
+    private static class RoutedRequest extends HttpServletRequestWrapper {
+        private final String servletPath;
+        private final String pathInfo;
+
+        private RoutedRequest(final HttpServletRequest request, final DispatcherRoutes.Match match) {
+            super(request);
+            this.servletPath = match.servletPath;
+            this.pathInfo = match.pathInfo;
+        }
+
+        @Override
+        public String getServletPath() {
+            return servletPath;
+        }
+
+        @Override
+        public String getPathInfo() {
+            return pathInfo;
+        }
+
+        @Override
+        public String getPathTranslated() {
+            return pathInfo == null ? null : getServletContext().getRealPath(pathInfo);
+        }
+    }
+
+    private class Config implements ServletConfig, FilterConfig {
+        private final String name;
+        private final Map<String, String> initParameters;
+
+        private Config(final String name, final Map<String, String> initParameters) {
+            this.name = name;
+            this.initParameters = initParameters;
+        }
+
+        @Override
+        public String getServletName() {
+            return name;
+        }
+
+        @Override
+        public String getFilterName() {
+            return name;
+        }
+
+        @Override
+        public ServletContext getServletContext() {
+            return servletContext;
+        }
+
+        @Override
+        public String getInitParameter(final String key) {
+            return initParameters.get(key);
+        }
+
+        @Override
+        public Enumeration<String> getInitParameterNames() {
+            return enumeration(initParameters.keySet());
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of requests an application processes concurrently so a slow application
+ * can't hold all the threads of the shared HTTP service.
+ * Excess requests are parked with an {@link AsyncContext} (they don't hold a container thread)
+ * in a bounded queue and dispatched again (ASYNC dispatch) when a permit is released.
+ * The rest of the chain sees a resumed request as a {@code REQUEST} dispatch, it is the first time it is processed:
+ * dispatcher type based filters (authentication for instance) must not be skipped.
+ * Requests which can't be queued or wait longer than the queue timeout get a 503.
+ */
+class BulkheadFilter implements Filter {
+    private static final String PERMIT = BulkheadFilter.class.getName() + ".permit";
+    private static final double[] PERCENTILES = {50, 99};
+
+    private final int maxConcurrentRequests;
+    private final int maxQueueSize;
+    private final long queueTimeout;
+    private final Object lock = new Object();
+    private final Deque<Parked> queue = new ArrayDeque<>();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LatencyHistogram queueTimes = new LatencyHistogram();
+    private int active;
+
+    /**
+     * @param queueTimeout maximum time a request can wait for a permit in milliseconds.
+     */
+    BulkheadFilter(final int maxConcurrentRequests, final int maxQueueSize, final long queueTimeout) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.maxQueueSize = maxQueueSize;
+        this.queueTimeout = queueTimeout;
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) {
+        // no-op
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+                         final FilterChain chain) throws IOException, ServletException {
+        final Object permit = request.getAttribute(PERMIT);
+        if (permit == Boolean.TRUE) { // already processed with a permit (asynchronous dispatch of the application)
+            chain.doFilter(request, response);
+            return;
+        }
+        if (permit == null && !tryAcquire()) {
+            park(request, response);
+            return;
+        }
+        // permit acquired now or handed over by release() to this parked request
+        request.setAttribute(PERMIT, Boolean.TRUE);
+        final ServletRequest current = permit == null ? request : resumed(request);
+        boolean async = false;
+        try {
+            chain.doFilter(current, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(final AsyncEvent event) {
+                        release();
+                    }
+
+                    @Override
+                    public void onTimeout(final AsyncEvent event) {
+                        // no-op, onComplete is called after
+                    }
+
+                    @Override
+                    public void onError(final AsyncEvent event) {
+                        // no-op, onComplete is called after
+                    }
+
+                    @Override
+                    public void onStartAsync(final AsyncEvent event) {
+                        event.getAsyncContext().addListener(this);
+                    }
+                });
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                release();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() { // parked requests would never be dispatched anymore
+        final Collection<Parked> parked;
+        synchronized (lock) {
+            parked = new ArrayList<>(queue);
+            queue.clear();
+        }
+        parked.forEach(it -> it.reject(true));
+    }
+
+    BulkheadStatistics snapshot() {
+        final int currentActive;
+        final int queueSize;
+        synchronized (lock) {
+            currentActive = active;
+            queueSize = queue.size();
+        }
+        return new BulkheadStatistics(
+                maxConcurrentRequests, maxQueueSize, currentActive, queueSize,
+                queued.sum(), rejected.sum(), timedOut.sum(),
+                queueTimes.getMean(), queueTimes.percentiles(PERCENTILES), queueTimes.getMax());
+    }
+
+    void reset() {
+        queued.reset();
+        rejected.reset();
+        timedOut.reset();
+        queueTimes.reset();
+    }
+
+    private boolean tryAcquire() {
+        synchronized (lock) {
+            if (active < maxConcurrentRequests) {
+                active++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void park(final ServletRequest request, final ServletResponse response) throws IOException {
+        if (maxQueueSize <= 0 || !request.isAsyncSupported()) {
+            rejected.increment();
+            reject(response);
+            return;
+        }
+
+        // started before being visible in the queue so release() can always dispatch it,
+        // the wrappers are kept for the dispatch (metrics, routing)
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(queueTimeout);
+        final Parked parked = new Parked(asyncContext);
+        asyncContext.addListener(parked);
+        final boolean dispatch;
+        synchronized (lock) {
+            if (active < maxConcurrentRequests) { // released in between
+                active++;
+                dispatch = true;
+            } else if (queue.size() < maxQueueSize) {
+                queue.add(parked);
+                queued.increment();
+                return;
+            } else {
+                dispatch = false;
+            }
+        }
+        if (dispatch) {
+            if (!parked.dispatch()) {
+                release();
+            }
+        } else {
+            rejected.increment();
+            parked.reject(true);
+        }
+    }
+
+    // the permit is handed over to the oldest parked request if any
+    private void release() {
+        while (true) {
+            final Parked next;
+            synchronized (lock) {
+                next = queue.poll();
+                if (next == null) {
+                    active--;
+                    return;
+                }
+            }
+            if (next.dispatch()) {
+                return;
+            }
+        }
+    }
+
+    private boolean remove(final Parked parked) {
+        synchronized (lock) {
+            return queue.remove(parked);
+        }
+    }
+
+    private static ServletRequest resumed(final ServletRequest request) {
+        if (HttpServletRequest.class.isInstance(request)) {
+            return new HttpServletRequestWrapper(HttpServletRequest.class.cast(request)) {
+                @Override
+                public DispatcherType getDispatcherType() {
+                    return DispatcherType.REQUEST;
+                }
+            };
+        }
+        return new ServletRequestWrapper(request) {
+            @Override
+            public DispatcherType getDispatcherType() {
+                return DispatcherType.REQUEST;
+            }
+        };
+    }
+
+    private static void reject(final ServletResponse response) throws IOException {
+        if (HttpServletResponse.class.isInstance(response)) {
+            HttpServletResponse.class.cast(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+
+    private class Parked implements AsyncListener {
+        private final AsyncContext asyncContext;
+        private final long start = System.nanoTime();
+
+        private Parked(final AsyncContext asyncContext) {
+            this.asyncContext = asyncContext;
+        }
+
+        private boolean dispatch() {
+            queueTimes.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            try {
+                asyncContext.getRequest().setAttribute(PERMIT, Boolean.FALSE);
+                asyncContext.dispatch();
+                return true;
+            } catch (final IllegalStateException ise) { // completed in between (client gone)
+                return false;
+            }
+        }
+
+        private void reject(final boolean withResponse) {
+            try {
+                if (withResponse) {
+                    BulkheadFilter.reject(asyncContext.getResponse());
+                }
+            } catch (final IOException | IllegalStateException e) {
+                // no-op, client likely gone
+            } finally {
+                try {
+                    asyncContext.complete();
+                } catch (final IllegalStateException ise) {
+                    // no-op, already completed
+                }
+            }
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+            if (remove(this)) {
+                timedOut.increment();
+                reject(true);
+            }
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+            if (remove(this)) {
+                reject(false);
+            }
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            // no-op
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+            // no-op
+        }
+    }
+}
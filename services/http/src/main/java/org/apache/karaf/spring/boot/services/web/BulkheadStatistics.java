@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+/**
+ * Snapshot of the bulkhead of an application, queue times are in microseconds.
+ */
+public class BulkheadStatistics {
+    private final int maxConcurrentRequests;
+    private final int maxQueueSize;
+    private final int active;
+    private final int queueSize;
+    private final long queued;
+    private final long rejected;
+    private final long timedOut;
+    private final double queueTimeMean;
+    private final long[] queueTimePercentiles;
+    private final long queueTimeMax;
+
+    BulkheadStatistics(final int maxConcurrentRequests, final int maxQueueSize,
+                       final int active, final int queueSize,
+                       final long queued, final long rejected, final long timedOut,
+                       final double queueTimeMean, final long[] queueTimePercentiles, final long queueTimeMax) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.maxQueueSize = maxQueueSize;
+        this.active = active;
+        this.queueSize = queueSize;
+        this.queued = queued;
+        this.rejected = rejected;
+        this.timedOut = timedOut;
+        this.queueTimeMean = queueTimeMean;
+        this.queueTimePercentiles = queueTimePercentiles;
+        this.queueTimeMax = queueTimeMax;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @return the number of requests which had to wait for a permit.
+     */
+    public long getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return the number of requests rejected because the queue was full.
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of requests rejected because they waited longer than the queue timeout.
+     */
+    public long getTimedOut() {
+        return timedOut;
+    }
+
+    public double getQueueTimeMean() {
+        return queueTimeMean;
+    }
+
+    public long getQueueTimeP50() {
+        return queueTimePercentiles[0];
+    }
+
+    public long getQueueTimeP99() {
+        return queueTimePercentiles[1];
+    }
+
+    public long getQueueTimeMax() {
+        return queueTimeMax;
+    }
+}
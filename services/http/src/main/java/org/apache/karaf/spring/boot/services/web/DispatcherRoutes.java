@@ -0,0 +1,308 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.Servlet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Immutable routing table of an application: servlet patterns are compiled in a trie of path segments
+ * (exact and prefix matches), an extension map and a default servlet, following the servlet specification precedence.
+ * The filter chain of each servlet is precomputed, only filters bound to specific url patterns are matched per request.
+ * As in the specification, a filter mapped to "/" only applies to the requests served by the default servlet.
+ */
+class DispatcherRoutes {
+    private final List<ServletDefinition> servlets;
+    private final List<FilterDefinition> filters;
+    private final Node root;
+    private final Map<String, Target> extensions;
+    private final Target defaultTarget;
+    private final Target contextRoot;
+
+    private DispatcherRoutes(final List<ServletDefinition> servlets, final List<FilterDefinition> filters,
+                             final Node root, final Map<String, Target> extensions,
+                             final Target defaultTarget, final Target contextRoot) {
+        this.servlets = servlets;
+        this.filters = filters;
+        this.root = root;
+        this.extensions = extensions;
+        this.defaultTarget = defaultTarget;
+        this.contextRoot = contextRoot;
+    }
+
+    Collection<ServletDefinition> getServlets() {
+        return servlets;
+    }
+
+    Collection<FilterDefinition> getFilters() {
+        return filters;
+    }
+
+    /**
+     * @param path the path of the request relative to the context.
+     * @return the matched servlet with the resulting servlet path and path info or null if nothing matches.
+     */
+    Match match(final String path) {
+        if (path.isEmpty() && contextRoot != null) {
+            return new Match(contextRoot, "", "/");
+        }
+        final String normalized = path.isEmpty() ? "/" : path;
+
+        // longest prefix wins, an exact match wins over everything
+        Node node = root;
+        Target prefix = root.prefix;
+        int prefixEnd = 0;
+        int start = 1;
+        while (node != null && start <= normalized.length()) {
+            int end = normalized.indexOf('/', start);
+            if (end < 0) {
+                end = normalized.length();
+            }
+            node = node.children.get(normalized.substring(start, end));
+            if (node != null && node.prefix != null) {
+                prefix = node.prefix;
+                prefixEnd = end;
+            }
+            if (node != null && end == normalized.length() && node.exact != null) {
+                return new Match(node.exact, normalized, null);
+            }
+            start = end + 1;
+        }
+        if (prefix != null) {
+            return new Match(prefix, normalized.substring(0, prefixEnd),
+                    prefixEnd == normalized.length() ? null : normalized.substring(prefixEnd));
+        }
+
+        final int lastSegment = normalized.lastIndexOf('/');
+        final int dot = normalized.lastIndexOf('.');
+        if (dot > lastSegment) {
+            final Target extension = extensions.get(normalized.substring(dot + 1));
+            if (extension != null) {
+                return new Match(extension, normalized, null);
+            }
+        }
+        return defaultTarget == null ? null : new Match(defaultTarget, normalized, null);
+    }
+
+    static class Builder {
+        private final List<ServletDefinition> servlets = new ArrayList<>();
+        private final List<FilterDefinition> filters = new ArrayList<>();
+
+        Builder servlet(final String name, final Servlet servlet, final Collection<String> patterns,
+                        final Map<String, String> initParameters) {
+            servlets.add(new ServletDefinition(name, servlet, patterns, initParameters));
+            return this;
+        }
+
+        Builder filter(final String name, final Filter filter, final int ranking,
+                       final Collection<String> patterns, final Collection<String> servletNames,
+                       final EnumSet<DispatcherType> dispatcherTypes, final Map<String, String> initParameters) {
+            filters.add(new FilterDefinition(name, filter, ranking, patterns, servletNames, dispatcherTypes, initParameters));
+            return this;
+        }
+
+        DispatcherRoutes build() {
+            // same ordering as the whiteboard: highest ranking first then registration order (stable sort)
+            final List<FilterDefinition> sortedFilters = new ArrayList<>(filters);
+            sortedFilters.sort(Comparator.comparingInt((FilterDefinition f) -> f.ranking).reversed());
+
+            final Node root = new Node();
+            final Map<String, Target> extensions = new HashMap<>();
+            Target defaultTarget = null;
+            Target contextRoot = null;
+            for (final ServletDefinition servlet : servlets) {
+                final Target target = new Target(servlet, sortedFilters, false);
+                for (final String pattern : servlet.patterns) {
+                    if (pattern.isEmpty()) {
+                        contextRoot = target;
+                    } else if ("/".equals(pattern)) {
+                        defaultTarget = new Target(servlet, sortedFilters, true);
+                    } else if (pattern.startsWith("*.")) {
+                        extensions.putIfAbsent(pattern.substring(2), target);
+                    } else if (pattern.endsWith("/*")) {
+                        final Node node = root.resolve(pattern.substring(0, pattern.length() - 2));
+                        if (node.prefix == null) {
+                            node.prefix = target;
+                        }
+                    } else if (pattern.startsWith("/")) {
+                        final Node node = root.resolve(pattern);
+                        if (node.exact == null) {
+                            node.exact = target;
+                        }
+                    } else {
+                        throw new IllegalArgumentException("Invalid pattern '" + pattern + "' for servlet " + servlet.name);
+                    }
+                }
+            }
+            return new DispatcherRoutes(
+                    unmodifiableList(new ArrayList<>(servlets)), unmodifiableList(sortedFilters),
+                    root, extensions, defaultTarget, contextRoot);
+        }
+    }
+
+    static class Match {
+        final Target target;
+        final String servletPath;
+        final String pathInfo;
+
+        private Match(final Target target, final String servletPath, final String pathInfo) {
+            this.target = target;
+            this.servletPath = servletPath;
+            this.pathInfo = pathInfo;
+        }
+    }
+
+    static class Target {
+        final ServletDefinition servlet;
+        final FilterDefinition[] filters;
+        final boolean[] conditional; // true when the filter must be matched against the path
+
+        private Target(final ServletDefinition servlet, final List<FilterDefinition> allFilters, final boolean defaultMapping) {
+            this.servlet = servlet;
+            final List<FilterDefinition> chain = new ArrayList<>();
+            final List<Boolean> matching = new ArrayList<>();
+            for (final FilterDefinition filter : allFilters) {
+                if (filter.servletNames.contains(servlet.name) || filter.matchesAll || (defaultMapping && filter.matchesDefault)) {
+                    chain.add(filter);
+                    matching.add(false);
+                } else if (filter.hasPathPatterns()) {
+                    chain.add(filter);
+                    matching.add(true);
+                }
+            }
+            this.filters = chain.toArray(new FilterDefinition[0]);
+            this.conditional = new boolean[filters.length];
+            for (int i = 0; i < conditional.length; i++) {
+                conditional[i] = matching.get(i);
+            }
+        }
+    }
+
+    static class ServletDefinition {
+        final String name;
+        final Servlet servlet;
+        final Collection<String> patterns;
+        final Map<String, String> initParameters;
+
+        private ServletDefinition(final String name, final Servlet servlet, final Collection<String> patterns,
+                                  final Map<String, String> initParameters) {
+            this.name = name;
+            this.servlet = servlet;
+            this.patterns = patterns;
+            this.initParameters = initParameters;
+        }
+    }
+
+    static class FilterDefinition {
+        final String name;
+        final Filter filter;
+        final int ranking;
+        final Collection<String> patterns;
+        final Set<String> servletNames;
+        final EnumSet<DispatcherType> dispatcherTypes;
+        final Map<String, String> initParameters;
+        private final boolean matchesAll;
+        private final boolean matchesDefault;
+        private final Set<String> exacts = new HashSet<>();
+        private final List<String> prefixes = new ArrayList<>();
+        private final Set<String> extensions = new HashSet<>();
+
+        private FilterDefinition(final String name, final Filter filter, final int ranking,
+                                 final Collection<String> patterns, final Collection<String> servletNames,
+                                 final EnumSet<DispatcherType> dispatcherTypes, final Map<String, String> initParameters) {
+            this.name = name;
+            this.filter = filter;
+            this.ranking = ranking;
+            this.patterns = patterns;
+            this.servletNames = new HashSet<>(servletNames);
+            this.dispatcherTypes = dispatcherTypes;
+            this.initParameters = initParameters;
+
+            boolean all = false;
+            boolean defaultMapping = false;
+            for (final String pattern : patterns) {
+                if ("/*".equals(pattern)) {
+                    all = true;
+                } else if ("/".equals(pattern)) {
+                    defaultMapping = true;
+                } else if (pattern.startsWith("*.")) {
+                    extensions.add(pattern.substring(1));
+                } else if (pattern.endsWith("/*")) {
+                    prefixes.add(pattern.substring(0, pattern.length() - 2));
+                } else {
+                    exacts.add(pattern);
+                }
+            }
+            this.matchesAll = all;
+            this.matchesDefault = defaultMapping;
+        }
+
+        boolean hasPathPatterns() {
+            return !exacts.isEmpty() || !prefixes.isEmpty() || !extensions.isEmpty();
+        }
+
+        boolean accepts(final DispatcherType type) {
+            return dispatcherTypes.contains(type);
+        }
+
+        boolean matches(final String path) {
+            if (exacts.contains(path)) {
+                return true;
+            }
+            for (final String prefix : prefixes) {
+                if (path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/')) {
+                    return true;
+                }
+            }
+            if (!extensions.isEmpty()) {
+                final int dot = path.lastIndexOf('.');
+                return dot > path.lastIndexOf('/') && extensions.contains(path.substring(dot));
+            }
+            return false;
+        }
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private Target exact;
+        private Target prefix;
+
+        // "/a/b" -> a -> b, the root is the empty path
+        private Node resolve(final String path) {
+            Node node = this;
+            if (path.isEmpty()) {
+                return node;
+            }
+            for (final String segment : path.substring(1).split("/", -1)) {
+                node = node.children.computeIfAbsent(segment, k -> new Node());
+            }
+            return node;
+        }
+    }
+}
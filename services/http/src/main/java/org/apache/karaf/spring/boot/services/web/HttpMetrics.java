@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP request metrics of an application, registered as
+ * {@code org.apache.karaf.spring.boot:type=HttpMetrics,application=<name>}.
+ */
+public class HttpMetrics implements HttpMetricsMXBean {
+    static final String DOMAIN = "org.apache.karaf.spring.boot";
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final String application;
+    private final long startTimestamp = System.currentTimeMillis();
+    private final Statistics total = new Statistics();
+    private final ConcurrentMap<String, Statistics> mappings = new ConcurrentHashMap<>();
+    private volatile long lastRequestTimestamp = -1;
+    private volatile BulkheadFilter bulkhead;
+    private final HttpRequestEvents events = HttpRequestEvents.load(HttpMetrics.class.getClassLoader());
+    private ObjectName objectName;
+
+    HttpMetrics(final String application) {
+        this.application = application;
+    }
+
+    Statistics forMapping(final String name) {
+        return mappings.computeIfAbsent(name, k -> new Statistics());
+    }
+
+    HttpRequestEvents getEvents() {
+        return events;
+    }
+
+    void setBulkhead(final BulkheadFilter bulkhead) {
+        this.bulkhead = bulkhead;
+    }
+
+    void onStart(final Statistics mapping) {
+        total.inFlight.increment();
+        mapping.inFlight.increment();
+    }
+
+    void onEnd(final Statistics mapping, final long startNanos, final int status,
+               final long bytesRead, final long bytesWritten) {
+        final long duration = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        total.record(duration, status, bytesRead, bytesWritten);
+        mapping.record(duration, status, bytesRead, bytesWritten);
+        lastRequestTimestamp = System.currentTimeMillis();
+    }
+
+    synchronized void register() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName name = new ObjectName(DOMAIN + ":type=HttpMetrics,application=" + ObjectName.quote(application));
+            try {
+                server.registerMBean(this, name);
+            } catch (final InstanceAlreadyExistsException iaee) { // previous instance not properly stopped
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+            objectName = name;
+        } catch (final JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (final JMException e) {
+            // no-op
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String getApplication() {
+        return application;
+    }
+
+    @Override
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    @Override
+    public long getLastRequestTimestamp() {
+        return lastRequestTimestamp;
+    }
+
+    @Override
+    public long getInFlight() {
+        return total.inFlight.sum();
+    }
+
+    @Override
+    public HttpStatistics getTotal() {
+        return total.snapshot();
+    }
+
+    @Override
+    public Map<String, HttpStatistics> getMappings() {
+        final Map<String, HttpStatistics> snapshot = new TreeMap<>();
+        mappings.forEach((name, statistics) -> snapshot.put(name, statistics.snapshot()));
+        return snapshot;
+    }
+
+    @Override
+    public BulkheadStatistics getBulkhead() {
+        final BulkheadFilter filter = bulkhead;
+        return filter == null ? null : filter.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        total.reset();
+        mappings.values().forEach(Statistics::reset);
+        final BulkheadFilter filter = bulkhead;
+        if (filter != null) {
+            filter.reset();
+        }
+    }
+
+    static class Statistics {
+        private final LongAdder inFlight = new LongAdder();
+        private final LongAdder[] statuses = new LongAdder[6]; // index 0 is for unexpected statuses
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        private Statistics() {
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = new LongAdder();
+            }
+        }
+
+        private void record(final long duration, final int status,
+                            final long read, final long written) {
+            inFlight.decrement();
+            latencies.record(duration);
+            final int family = status / 100;
+            statuses[family > 0 && family < statuses.length ? family : 0].increment();
+            if (read > 0) {
+                bytesRead.add(read);
+            }
+            bytesWritten.add(written);
+        }
+
+        private HttpStatistics snapshot() {
+            final long[] counts = new long[statuses.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = statuses[i].sum();
+            }
+            return new HttpStatistics(
+                    latencies.getCount(), inFlight.sum(), counts, bytesRead.sum(), bytesWritten.sum(),
+                    latencies.getMean(), latencies.percentiles(PERCENTILES), latencies.getMax());
+        }
+
+        private void reset() { // in flight requests are not reset
+            for (final LongAdder status : statuses) {
+                status.reset();
+            }
+            bytesRead.reset();
+            bytesWritten.reset();
+            latencies.reset();
+        }
+    }
+}
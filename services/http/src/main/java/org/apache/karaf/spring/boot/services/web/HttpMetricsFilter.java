@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Measures the requests of a servlet, one instance is bound to each servlet of the application.
+ * Asynchronous requests are measured until their completion.
+ * Each request is also recorded as a JDK Flight Recorder event when the recording enables it.
+ */
+class HttpMetricsFilter implements Filter {
+    private final HttpMetrics metrics;
+    private final HttpMetrics.Statistics mapping;
+    private final String servletName;
+
+    HttpMetricsFilter(final HttpMetrics metrics, final String servletName) {
+        this.metrics = metrics;
+        this.mapping = metrics.forMapping(servletName);
+        this.servletName = servletName;
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) {
+        // no-op
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+                         final FilterChain chain) throws IOException, ServletException {
+        if (!HttpServletResponse.class.isInstance(response)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final Object event = metrics.getEvents().begin();
+        final long start = System.nanoTime();
+        final CountingResponse countingResponse = new CountingResponse(HttpServletResponse.class.cast(response));
+        metrics.onStart(mapping);
+        boolean failed = true;
+        try {
+            chain.doFilter(request, countingResponse);
+            failed = false;
+        } finally {
+            if (!failed && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(final AsyncEvent event) {
+                        onEnd(request, countingResponse, event, start, false);
+                    }
+
+                    @Override
+                    public void onTimeout(final AsyncEvent event) {
+                        // no-op, onComplete is called after
+                    }
+
+                    @Override
+                    public void onError(final AsyncEvent event) {
+                        // no-op, onComplete is called after
+                    }
+
+                    @Override
+                    public void onStartAsync(final AsyncEvent event) {
+                        event.getAsyncContext().addListener(this);
+                    }
+                });
+            } else {
+                onEnd(request, countingResponse, event, start, failed);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // no-op
+    }
+
+    private void onEnd(final ServletRequest request, final CountingResponse response, final Object event,
+                       final long start, final boolean failed) {
+        // an exception not yet handled will become a 500 in the container
+        final int status = failed && !response.isCommitted() ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus();
+        metrics.onEnd(mapping, start, status, request.getContentLengthLong(), response.bytes);
+        metrics.getEvents().commit(event, metrics.getApplication(), servletName, status);
+    }
+
+    // writer characters are counted as bytes to not re-encode them
+    private static class CountingResponse extends HttpServletResponseWrapper {
+        private long bytes;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        private CountingResponse(final HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                final ServletOutputStream delegate = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public boolean isReady() {
+                        return delegate.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(final WriteListener writeListener) {
+                        delegate.setWriteListener(writeListener);
+                    }
+
+                    @Override
+                    public void write(final int b) throws IOException {
+                        delegate.write(b);
+                        bytes++;
+                    }
+
+                    @Override
+                    public void write(final byte[] b, final int off, final int len) throws IOException {
+                        delegate.write(b, off, len);
+                        bytes += len;
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        delegate.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        delegate.close();
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(super.getWriter()) {
+                    @Override
+                    public void write(final int c) {
+                        super.write(c);
+                        bytes++;
+                    }
+
+                    @Override
+                    public void write(final char[] buf, final int off, final int len) {
+                        super.write(buf, off, len);
+                        bytes += len;
+                    }
+
+                    @Override
+                    public void write(final String s, final int off, final int len) {
+                        super.write(s, off, len);
+                        bytes += len;
+                    }
+                };
+            }
+            return writer;
+        }
+    }
+}
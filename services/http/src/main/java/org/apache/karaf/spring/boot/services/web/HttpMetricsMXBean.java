@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import java.util.Map;
+
+public interface HttpMetricsMXBean {
+    String getApplication();
+
+    long getStartTimestamp();
+
+    long getLastRequestTimestamp();
+
+    long getInFlight();
+
+    HttpStatistics getTotal();
+
+    /**
+     * @return the statistics per servlet name.
+     */
+    Map<String, HttpStatistics> getMappings();
+
+    /**
+     * @return the bulkhead statistics or null if the application has no concurrency limit.
+     */
+    BulkheadStatistics getBulkhead();
+
+    void reset();
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import java.lang.reflect.Method;
+
+/**
+ * Emits the {@code org.apache.karaf.spring.boot.HttpRequest} JDK Flight Recorder events.
+ * The event type is owned by the Karaf Spring Boot bundle (one per JVM) so it is used reflectively
+ * since the services are loaded per application.
+ */
+final class HttpRequestEvents {
+    private static final String FLIGHT_RECORDER = "org.apache.karaf.spring.boot.internal.FlightRecorder";
+
+    private final Object definition;
+    private final Method begin;
+    private final Method commit;
+
+    private HttpRequestEvents(final Object definition, final Method begin, final Method commit) {
+        this.definition = definition;
+        this.begin = begin;
+        this.commit = commit;
+    }
+
+    // the bundle classes are visible from the application loader through the launcher one
+    static HttpRequestEvents load(final ClassLoader loader) {
+        try {
+            final Class<?> recorder = loader.loadClass(FLIGHT_RECORDER);
+            final Object definition = recorder.getField("HTTP_REQUEST").get(null);
+            return new HttpRequestEvents(
+                    definition,
+                    definition.getClass().getMethod("begin"),
+                    definition.getClass().getMethod("commit", Object.class, Object[].class));
+        } catch (final ReflectiveOperationException | RuntimeException | LinkageError e) {
+            return new HttpRequestEvents(null, null, null);
+        }
+    }
+
+    /**
+     * @return the started event or null when the event is disabled.
+     */
+    Object begin() {
+        if (definition == null) {
+            return null;
+        }
+        try {
+            return begin.invoke(definition);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    void commit(final Object event, final String application, final String servlet, final int status) {
+        if (event == null) {
+            return;
+        }
+        try {
+            commit.invoke(definition, event, new Object[]{application, servlet, status});
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            // no-op
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import org.osgi.service.http.HttpService;
+import org.springframework.boot.autoconfigure.AutoConfigureOrder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.SearchStrategy;
+import org.springframework.boot.web.reactive.server.ReactiveWebServerFactory;
+import org.springframework.boot.web.server.WebServer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ServletHttpHandlerAdapter;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRegistration;
+import java.util.Enumeration;
+
+/**
+ * Runs WebFlux applications in the HTTP service: the application {@link HttpHandler} is mounted
+ * as an asynchronous servlet (Servlet 3.1 non blocking I/O) with the same web server as servlet applications
+ * (dedicated context, metrics, drain, bulkhead...).
+ */
+public class HttpServiceReactiveServerFactory implements ReactiveWebServerFactory {
+    private final HttpServiceServletServerFactory delegate;
+
+    private HttpServiceReactiveServerFactory(final HttpServiceServletServerFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public WebServer getWebServer(final HttpHandler httpHandler) {
+        return delegate.getWebServer(servletContext -> {
+            final ServletRegistration.Dynamic registration = servletContext.addServlet(
+                    "karaf-spring-boot-reactive", new HttpHandlerServlet(httpHandler, servletContext));
+            registration.setAsyncSupported(true);
+            registration.addMapping("/");
+        });
+    }
+
+    @AutoConfigureOrder(Ordered.HIGHEST_PRECEDENCE)
+    @ConditionalOnClass({HttpHandler.class, ServletHttpHandlerAdapter.class, Servlet.class, HttpService.class})
+    @ConditionalOnProperty(name = "karaf.spring-boot.use-http-service", havingValue = "true", matchIfMissing = true)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    @ConditionalOnMissingBean(value = ReactiveWebServerFactory.class, search = SearchStrategy.CURRENT)
+    @Configuration(proxyBeanMethods = false)
+    public static class SpringConfiguration {
+        private final ClassLoader loader;
+
+        public SpringConfiguration() {
+            this.loader = HttpServiceServletServerFactory.findLauncherLoader();
+        }
+
+        @Bean
+        public HttpServiceReactiveServerFactory httpServiceReactiveWebServerFactory(final Environment environment) {
+            return new HttpServiceReactiveServerFactory(HttpServiceServletServerFactory.create(loader, environment));
+        }
+    }
+
+    // the adapter reads its mapping from the servlet context registrations, the HTTP service one doesn't expose them
+    private static class HttpHandlerServlet extends ServletHttpHandlerAdapter {
+        private final ServletContext servletContext;
+
+        private HttpHandlerServlet(final HttpHandler httpHandler, final ServletContext servletContext) {
+            super(httpHandler);
+            this.servletContext = servletContext;
+        }
+
+        @Override
+        public void init(final ServletConfig config) {
+            super.init(new ServletConfig() {
+                @Override
+                public String getServletName() {
+                    return config.getServletName();
+                }
+
+                @Override
+                public ServletContext getServletContext() {
+                    return servletContext;
+                }
+
+                @Override
+                public String getInitParameter(final String name) {
+                    return config.getInitParameter(name);
+                }
+
+                @Override
+                public Enumeration<String> getInitParameterNames() {
+                    return config.getInitParameterNames();
+                }
+            });
+        }
+    }
+}
@@ -18,9 +18,11 @@ package org.apache.karaf.spring.boot.services.web;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.http.HttpService;
+import org.osgi.service.http.context.ServletContextHelper;
 import org.osgi.service.log.Logger;
 import org.osgi.service.log.LoggerFactory;
 import org.osgi.util.tracker.ServiceTracker;
@@ -30,6 +32,8 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.autoconfigure.condition.SearchStrategy;
+import org.springframework.boot.web.server.GracefulShutdownCallback;
+import org.springframework.boot.web.server.GracefulShutdownResult;
 import org.springframework.boot.web.server.WebServer;
 import org.springframework.boot.web.server.WebServerException;
 import org.springframework.boot.web.servlet.ServletContextInitializer;
@@ -37,6 +41,7 @@ import org.springframework.boot.web.servlet.server.ServletWebServerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
@@ -44,6 +49,7 @@ import javax.servlet.FilterRegistration;
 import javax.servlet.MultipartConfigElement;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextAttributeListener;
 import javax.servlet.ServletContextEvent;
@@ -71,6 +77,7 @@ import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Dictionary;
@@ -78,16 +85,21 @@ import java.util.EnumSet;
 import java.util.Enumeration;
 import java.util.EventListener;
 import java.util.Hashtable;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.emptySet;
 import static java.util.Collections.enumeration;
+import static java.util.Collections.singleton;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.ofNullable;
 import static java.util.function.Function.identity;
@@ -97,14 +109,21 @@ import static java.util.stream.Collectors.toSet;
 
 public class HttpServiceServletServerFactory implements ServletWebServerFactory {
     private final BundleContext context;
+    private final String application;
+    private final Map<String, String> configuration;
+    private final Environment environment;
 
-    private HttpServiceServletServerFactory(final BundleContext context) {
+    private HttpServiceServletServerFactory(final BundleContext context, final String application,
+                                            final Map<String, String> configuration, final Environment environment) {
         this.context = context;
+        this.application = application;
+        this.configuration = configuration;
+        this.environment = environment;
     }
 
     @Override
     public WebServer getWebServer(final ServletContextInitializer... initializers) {
-        return new HttpServiceWebServer(initializers, context);
+        return new HttpServiceWebServer(initializers, context, application, configuration, environment);
     }
 
     @AutoConfigureOrder(Ordered.HIGHEST_PRECEDENCE)
@@ -117,41 +136,128 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
         private final ClassLoader loader;
 
         public SpringConfiguration() {
-            ClassLoader loader = Thread.currentThread().getContextClassLoader();
-            while (!"KarafLauncherLoader".equals(loader.getClass().getSimpleName())) {
-                loader = loader.getParent();
-            }
-            this.loader = requireNonNull(loader, "Didn't find KarafLauncherLoader");
+            this.loader = findLauncherLoader();
         }
 
         @Bean
-        public HttpServiceServletServerFactory httpServiceServletWebServerFactory() {
-            try {
-                final Method getBundleContext = loader.getClass().getDeclaredMethod("getContext");
-                if (!getBundleContext.isAccessible()) {
-                    getBundleContext.setAccessible(true);
-                }
-                final BundleContext ctx = BundleContext.class.cast(getBundleContext.invoke(loader));
-                return new HttpServiceServletServerFactory(ctx);
-            } catch (final Exception e) {
-                throw new IllegalStateException(e);
-            }
+        public HttpServiceServletServerFactory httpServiceServletWebServerFactory(final Environment environment) {
+            return create(loader, environment);
+        }
+    }
+
+    static ClassLoader findLauncherLoader() {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        while (!"KarafLauncherLoader".equals(loader.getClass().getSimpleName())) {
+            loader = loader.getParent();
+        }
+        return requireNonNull(loader, "Didn't find KarafLauncherLoader");
+    }
+
+    static HttpServiceServletServerFactory create(final ClassLoader launcherLoader, final Environment environment) {
+        try {
+            final BundleContext ctx = BundleContext.class.cast(invokeLoader(launcherLoader, "getContext"));
+            @SuppressWarnings("unchecked") // KarafLauncherLoader.getConfiguration()
+            final Map<String, String> configuration = (Map<String, String>) invokeLoader(launcherLoader, "getConfiguration");
+            return new HttpServiceServletServerFactory(
+                    ctx, String.class.cast(invokeLoader(launcherLoader, "getName")), configuration, environment);
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // a dedicated context per application: the whiteboard matches the application patterns only against its own
+    // registrations. Contexts sharing a path are tried by ranking until one has a matching servlet so applications
+    // without a context path share the root as long as their patterns differ (like in the default context),
+    // the explicit paths rank first and, being a deliberate choice, two applications can't claim the same one
+    static ServiceRegistration<ServletContextHelper> registerContextHelper(final BundleContext context, final String application,
+                                                                         final String contextName, final String contextPath,
+                                                                         final boolean explicit, final ServletContextHelper helper) {
+        final String path = contextPath.isEmpty() ? "/" : contextPath;
+        final Hashtable<String, Object> config = new Hashtable<>();
+        config.put("osgi.http.whiteboard.context.name", contextName);
+        config.put("osgi.http.whiteboard.context.path", path);
+        config.put(LocalEndpointServlet.APPLICATION, application);
+        config.put(LocalEndpointServlet.EXPLICIT_CONTEXT_PATH, explicit);
+        config.put(Constants.SERVICE_RANKING, explicit ? 1 : 0); // the hibernation placeholders are last
+        final ServiceRegistration<ServletContextHelper> registration = context.registerService(ServletContextHelper.class, helper, config);
+        if (!explicit) {
+            return registration;
         }
+
+        // checked after the registration to not race with a concurrent start, the oldest registration keeps the path
+        final long id = Number.class.cast(registration.getReference().getProperty(Constants.SERVICE_ID)).longValue();
+        final ServiceReference<?>[] helpers;
+        try {
+            helpers = context.getAllServiceReferences(
+                    ServletContextHelper.class.getName(), "(" + LocalEndpointServlet.EXPLICIT_CONTEXT_PATH + "=true)");
+        } catch (final InvalidSyntaxException e) {
+            registration.unregister();
+            throw new IllegalStateException(e);
+        }
+        final Optional<ServiceReference<?>> owner = Stream.of(ofNullable(helpers).orElse(new ServiceReference<?>[0]))
+                .filter(it -> Boolean.TRUE.equals(it.getProperty(LocalEndpointServlet.EXPLICIT_CONTEXT_PATH)))
+                .filter(it -> path.equals(it.getProperty("osgi.http.whiteboard.context.path")))
+                .filter(it -> Number.class.cast(it.getProperty(Constants.SERVICE_ID)).longValue() < id)
+                .findFirst();
+        if (owner.isPresent()) {
+            registration.unregister();
+            throw new IllegalStateException(
+                    "Context path '" + path + "' is already used by application '" +
+                            owner.get().getProperty(LocalEndpointServlet.APPLICATION) + "', " +
+                            "set another server.servlet.context-path or http.context-path in the metadata of '" + application + "'");
+        }
+        return registration;
+    }
+
+    static Object invokeLoader(final ClassLoader loader, final String name) throws Exception {
+        final Method method = loader.getClass().getDeclaredMethod(name);
+        method.setAccessible(true);
+        return method.invoke(loader);
     }
 
     private static class HttpServiceWebServer implements WebServer {
         private final BundleContext context;
+        private final String application;
+        private final Map<String, String> configuration;
+        private final Environment environment;
+        private ServiceRegistration<ServletContextHelper> contextHelper;
         private HttpServiceServletContext registrar;
+        private HttpMetrics metrics;
+        private ApplicationDispatcherServlet dispatcher;
+        private StaticResourceFilter staticResourceFilter;
+        private RequestDrainFilter drainFilter;
+        private BulkheadFilter bulkheadFilter;
+        private final Map<String, Filter> metricsFilters = new ConcurrentHashMap<>();
 
         private HttpServiceWebServer(final ServletContextInitializer[] initializers,
-                                     final BundleContext context) {
+                                     final BundleContext context, final String application,
+                                     final Map<String, String> configuration, final Environment environment) {
             this.context = context;
+            this.application = application;
+            this.configuration = configuration;
+            this.environment = environment;
             init(initializers);
         }
 
         private void init(final ServletContextInitializer... initializers) {
-            // todo: create a servletcontexthelper to have a dedicated context? make it configurable? + make it active at start() call
-            registrar = new HttpServiceServletContext(context);
+            // todo: make it active at start() call
+            final String contextName = "karaf-spring-boot-" + application;
+            final String contextPath = normalizeContextPath(environment.getProperty(
+                    "server.servlet.context-path", configuration.getOrDefault("http.context-path", "")));
+            registerContextHelper(contextName, contextPath,
+                    environment.containsProperty("server.servlet.context-path") || configuration.containsKey("http.context-path"));
+            registrar = new HttpServiceServletContext(
+                    context, contextName, contextPath, "(osgi.http.whiteboard.context.name=" + contextName + ")");
+            if (environment.getProperty("karaf.spring-boot.http.static-resources.enabled", Boolean.class, true) &&
+                    environment.getProperty("spring.resources.add-mappings", Boolean.class, true)) {
+                registrar.staticResources = StaticResourceIndex.scan(
+                        registrar.loader,
+                        ofNullable(environment.getProperty("spring.resources.static-locations"))
+                                .map(it -> asList(it.split(",")))
+                                .orElse(new ArrayList<>(StaticResourceIndex.DEFAULT_LOCATIONS)),
+                        environment.getProperty("karaf.spring-boot.http.static-resources.max-cached-file-size", Long.class, 1024 * 1024L),
+                        environment.getProperty("karaf.spring-boot.http.static-resources.cache-size", Long.class, 32 * 1024 * 1024L));
+            }
             Stream.of(initializers).forEach(it -> {
                 try {
                     it.onStartup(registrar);
@@ -159,6 +265,53 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
                     throw new IllegalStateException(e);
                 }
             });
+            if (environment.getProperty("karaf.spring-boot.http.metrics.enabled", Boolean.class, true)) {
+                metrics = new HttpMetrics(application);
+                metrics.register();
+            }
+            staticResourceFilter = createStaticResourceFilter();
+            drainFilter = new RequestDrainFilter(environment.getProperty("karaf.spring-boot.http.drain.retry-after", Long.class, 5L));
+            bulkheadFilter = createBulkheadFilter();
+            if (environment.getProperty("karaf.spring-boot.http.single-dispatcher", Boolean.class, false)) {
+                registerDispatcher();
+            } else {
+                registerWhiteboard();
+            }
+            registerLocalEndpoint(); // always, hibernation replays requests through it even without the local transport
+        }
+
+        private void registerWhiteboard() {
+            final Hashtable<String, Object> drainConfig = new Hashtable<>();
+            drainConfig.put("osgi.http.whiteboard.filter.name", "karaf-spring-boot-drain");
+            drainConfig.put("osgi.http.whiteboard.filter.pattern", "/*");
+            drainConfig.put("osgi.http.whiteboard.filter.asyncSupported", true);
+            drainConfig.put(Constants.SERVICE_RANKING, Integer.MAX_VALUE); // first, rejections must be cheap
+            drainConfig.put("osgi.http.whiteboard.context.select", registrar.contextSelect);
+            registrar.osgiRegistrations.add(context.registerService(Filter.class, drainFilter, drainConfig));
+            if (metrics != null) {
+                registerMetrics();
+            }
+            if (bulkheadFilter != null) {
+                final Hashtable<String, Object> config = new Hashtable<>();
+                config.put("osgi.http.whiteboard.filter.name", "karaf-spring-boot-bulkhead");
+                config.put("osgi.http.whiteboard.filter.pattern", "/*");
+                config.put("osgi.http.whiteboard.filter.asyncSupported", true);
+                config.put("osgi.http.whiteboard.filter.dispatcher", new String[]{"REQUEST", "ASYNC"}); // ASYNC for parked requests
+                // the whiteboard selects the filters of the resumed (ASYNC) dispatch itself so the REQUEST only
+                // application filters would be skipped, park after them (unlike the dispatcher which re-evaluates them)
+                config.put(Constants.SERVICE_RANKING, Integer.MIN_VALUE + 1);
+                config.put("osgi.http.whiteboard.context.select", registrar.contextSelect);
+                registrar.osgiRegistrations.add(context.registerService(Filter.class, bulkheadFilter, config));
+            }
+            if (staticResourceFilter != null) {
+                final Hashtable<String, Object> config = new Hashtable<>();
+                config.put("osgi.http.whiteboard.filter.name", "karaf-spring-boot-static-resources");
+                config.put("osgi.http.whiteboard.filter.pattern", "/*");
+                config.put("osgi.http.whiteboard.filter.asyncSupported", true);
+                config.put(Constants.SERVICE_RANKING, Integer.MIN_VALUE); // after the application filters
+                config.put("osgi.http.whiteboard.context.select", registrar.contextSelect);
+                registrar.osgiRegistrations.add(context.registerService(Filter.class, staticResourceFilter, config));
+            }
             // do the actual registrations
             registrar.servletRegistrations.forEach(it -> it.callback.accept(it.config));
             registrar.filterRegistrations.forEach(it -> {
@@ -186,16 +339,218 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
             });
         }
 
+        // entry point of the co-located applications (LocalTransport) and of the requests held during a hibernation,
+        // it reuses the routing of the single dispatcher mode
+        private void registerLocalEndpoint() {
+            if (dispatcher == null) {
+                dispatcher = new ApplicationDispatcherServlet(false);
+                refreshRoutes();
+                registrar.changeListener = this::refreshRoutes;
+                try {
+                    dispatcher.init(new LocalEndpointConfig("karaf-spring-boot-dispatcher-" + application));
+                } catch (final ServletException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            final LocalEndpointServlet endpoint = new LocalEndpointServlet(dispatcher, registrar.loader);
+            try {
+                endpoint.init(new LocalEndpointConfig("karaf-spring-boot-local-" + application));
+            } catch (final ServletException e) {
+                throw new IllegalStateException(e);
+            }
+            final Hashtable<String, Object> config = new Hashtable<>();
+            config.put(LocalEndpointServlet.APPLICATION, application);
+            config.put(LocalEndpointServlet.CONTEXT_PATH, registrar.contextPath);
+            registrar.osgiRegistrations.add(context.registerService(LocalEndpointServlet.class.getName(), endpoint, config));
+        }
+
+        // per application concurrency limit, the default can come from the application metadata
+        private BulkheadFilter createBulkheadFilter() {
+            final int maxConcurrentRequests = environment.getProperty(
+                    "karaf.spring-boot.http.bulkhead.max-concurrent-requests", Integer.class,
+                    Integer.parseInt(configuration.getOrDefault("http.bulkhead.max-concurrent-requests", "0")));
+            if (maxConcurrentRequests <= 0) {
+                return null;
+            }
+            final BulkheadFilter filter = new BulkheadFilter(
+                    maxConcurrentRequests,
+                    environment.getProperty("karaf.spring-boot.http.bulkhead.max-queue-size", Integer.class,
+                            Integer.parseInt(configuration.getOrDefault("http.bulkhead.max-queue-size", "100"))),
+                    environment.getProperty("karaf.spring-boot.http.bulkhead.queue-timeout", Long.class, 30000L));
+            if (metrics != null) {
+                metrics.setBulkhead(filter);
+            }
+            return filter;
+        }
+
+        // only simple "/prefix/**" static path patterns are served directly, others are left to Spring MVC
+        private StaticResourceFilter createStaticResourceFilter() {
+            if (registrar.staticResources == null) {
+                return null;
+            }
+            final String pattern = environment.getProperty( // only one of both stacks is active
+                    "spring.mvc.static-path-pattern", environment.getProperty("spring.webflux.static-path-pattern", "/**"));
+            if (!pattern.endsWith("/**") || pattern.substring(0, pattern.length() - 3).contains("*")) {
+                return null;
+            }
+            return new StaticResourceFilter(
+                    registrar.staticResources, pattern.substring(0, pattern.length() - 3),
+                    toSeconds(environment.getProperty("spring.resources.cache.period")));
+        }
+
+        // spring durations: plain seconds, ISO-8601 or simple units (10s, 5m, 1h, 7d)
+        private long toSeconds(final String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return -1;
+            }
+            final String trimmed = value.trim().toLowerCase(Locale.ROOT);
+            if (trimmed.startsWith("p")) {
+                return Duration.parse(value.trim()).getSeconds();
+            }
+            final int unitStart = trimmed.replaceAll("[a-z]+$", "").length();
+            final long amount = Long.parseLong(trimmed.substring(0, unitStart));
+            switch (trimmed.substring(unitStart)) {
+                case "":
+                case "s":
+                    return amount;
+                case "ms":
+                    return amount / 1000;
+                case "m":
+                    return TimeUnit.MINUTES.toSeconds(amount);
+                case "h":
+                    return TimeUnit.HOURS.toSeconds(amount);
+                case "d":
+                    return TimeUnit.DAYS.toSeconds(amount);
+                default:
+                    throw new IllegalArgumentException("Invalid duration: '" + value + "'");
+            }
+        }
+
+        private void registerContextHelper(final String contextName, final String contextPath, final boolean explicit) {
+            contextHelper = HttpServiceServletServerFactory.registerContextHelper(
+                    context, application, contextName, contextPath, explicit, new ServletContextHelper(context.getBundle()) {
+                        @Override
+                        public URL getResource(final String name) {
+                            return registrar == null ? super.getResource(name) : registrar.getResource(name);
+                        }
+
+                        @Override
+                        public String getMimeType(final String name) {
+                            return StaticResourceIndex.getMimeType(name);
+                        }
+
+                        @Override
+                        public Set<String> getResourcePaths(final String path) {
+                            return registrar == null ? null : registrar.getResourcePaths(path);
+                        }
+                    });
+        }
+
+        private String normalizeContextPath(final String path) {
+            String value = path == null ? "" : path.trim();
+            while (value.endsWith("/")) {
+                value = value.substring(0, value.length() - 1);
+            }
+            return value.isEmpty() || value.startsWith("/") ? value : "/" + value;
+        }
+
+        // one filter per servlet (and not per pattern) to get per mapping statistics without any matching logic
+        private void registerMetrics() {
+            registrar.servletRegistrations.forEach(servlet -> {
+                final String servletName = servlet.getName();
+                final Hashtable<String, Object> config = new Hashtable<>();
+                config.put("osgi.http.whiteboard.filter.name", "karaf-spring-boot-metrics-" + servletName);
+                config.put("osgi.http.whiteboard.filter.servlet", servletName);
+                config.put("osgi.http.whiteboard.filter.asyncSupported", true);
+                config.put(Constants.SERVICE_RANKING, Integer.MAX_VALUE - 1); // measure the whole chain
+                config.put("osgi.http.whiteboard.context.select", registrar.contextSelect);
+                registrar.osgiRegistrations.add(context.registerService(
+                        Filter.class, new HttpMetricsFilter(metrics, servletName), config));
+            });
+        }
+
+        // a single whiteboard servlet routing to the application servlets/filters instead of one service per servlet/filter
+        private void registerDispatcher() {
+            dispatcher = new ApplicationDispatcherServlet();
+            refreshRoutes();
+            registrar.changeListener = this::refreshRoutes; // late registrations
+
+            final Hashtable<String, Object> config = new Hashtable<>();
+            config.put("osgi.http.whiteboard.servlet.name", "karaf-spring-boot-" + application);
+            config.put("osgi.http.whiteboard.servlet.pattern", "/*");
+            config.put("osgi.http.whiteboard.servlet.asyncSupported", true);
+            config.put("osgi.http.whiteboard.context.select", registrar.contextSelect);
+            registrar.servletRegistrations.stream() // the whiteboard parses the multipart requests for the dispatcher
+                    .filter(it -> it.config.containsKey("osgi.http.whiteboard.servlet.multipart.enabled"))
+                    .findFirst()
+                    .ifPresent(it -> it.config.entrySet().stream()
+                            .filter(e -> e.getKey().startsWith("osgi.http.whiteboard.servlet.multipart."))
+                            .forEach(e -> config.put(e.getKey(), e.getValue())));
+            registrar.osgiRegistrations.add(context.registerService(Servlet.class, dispatcher, config));
+        }
+
+        private synchronized void refreshRoutes() {
+            final DispatcherRoutes.Builder builder = new DispatcherRoutes.Builder();
+            builder.filter(
+                    "karaf-spring-boot-drain", drainFilter, Integer.MAX_VALUE,
+                    singleton("/*"), emptySet(), EnumSet.of(DispatcherType.REQUEST), emptyMap());
+            registrar.servletRegistrations.forEach(it -> {
+                builder.servlet(it.getName(), it.servlet, it.getMappings(), it.getInitParameters());
+                if (metrics != null) {
+                    builder.filter(
+                            "karaf-spring-boot-metrics-" + it.getName(),
+                            metricsFilters.computeIfAbsent(it.getName(), name -> new HttpMetricsFilter(metrics, name)),
+                            Integer.MAX_VALUE - 1, emptySet(), singleton(it.getName()), EnumSet.of(DispatcherType.REQUEST), emptyMap());
+                }
+            });
+            if (bulkheadFilter != null) { // before the application filters, they see the resumed requests as REQUEST ones
+                builder.filter(
+                        "karaf-spring-boot-bulkhead", bulkheadFilter, Integer.MAX_VALUE - 2,
+                        singleton("/*"), emptySet(), EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC), emptyMap());
+            }
+            registrar.filterRegistrations.forEach(it -> builder.filter(
+                    it.getName(), it.filter,
+                    ofNullable(it.config.get(Constants.SERVICE_RANKING)).map(Integer.class::cast).orElse(0),
+                    it.getUrlPatternMappings(), it.getServletNameMappings(), it.dispatcherTypes, it.getInitParameters()));
+            if (staticResourceFilter != null) {
+                builder.filter(
+                        "karaf-spring-boot-static-resources", staticResourceFilter, Integer.MIN_VALUE,
+                        singleton("/*"), emptySet(), EnumSet.of(DispatcherType.REQUEST), emptyMap());
+            }
+            try {
+                dispatcher.update(builder.build());
+            } catch (final ServletException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
         @Override
         public void start() throws WebServerException {
             // it is started by another bundle
         }
 
+        @Override
+        public void shutDownGracefully(final GracefulShutdownCallback callback) {
+            if (drainFilter == null) {
+                callback.shutdownComplete(GracefulShutdownResult.IMMEDIATE);
+                return;
+            }
+            final Thread thread = new Thread(() -> callback.shutdownComplete(drain() ?
+                    GracefulShutdownResult.IDLE : GracefulShutdownResult.REQUESTS_ACTIVE),
+                    "karaf-spring-boot-" + application + "-shutdown");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
         @Override
         public void stop() throws WebServerException {
             if (registrar == null) {
                 return;
             }
+            // unregistering the servlets would fail the requests they are processing
+            if (drainFilter != null && !drain()) {
+                registrar.log(drainFilter.getActiveRequests() + " request(s) still active for '" + application + "', stopping anyway");
+            }
             registrar.osgiRegistrations.forEach(it -> {
                 try {
                     it.unregister();
@@ -203,6 +558,22 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
                     // no-op
                 }
             });
+            if (contextHelper != null) { // last since everything else references it
+                try {
+                    contextHelper.unregister();
+                } catch (final IllegalStateException ise) {
+                    // no-op
+                }
+                contextHelper = null;
+            }
+            if (metrics != null) {
+                metrics.unregister();
+            }
+        }
+
+        private boolean drain() {
+            return drainFilter.drain(
+                    environment.getProperty("karaf.spring-boot.http.drain.timeout", Long.class, 30000L), TimeUnit.MILLISECONDS);
         }
 
         @Override
@@ -218,6 +589,34 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
                     .map(Integer::parseInt)
                     .orElse(80);
         }
+
+        private class LocalEndpointConfig implements ServletConfig {
+            private final String name;
+
+            private LocalEndpointConfig(final String name) {
+                this.name = name;
+            }
+
+            @Override
+            public String getServletName() {
+                return name;
+            }
+
+            @Override
+            public ServletContext getServletContext() {
+                return registrar;
+            }
+
+            @Override
+            public String getInitParameter(final String name) {
+                return null;
+            }
+
+            @Override
+            public Enumeration<String> getInitParameterNames() {
+                return enumeration(emptySet());
+            }
+        }
     }
 
     private static class HttpServiceServletContext implements ServletContext {
@@ -228,12 +627,23 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
         private final Map<String, String> initParameters = new ConcurrentHashMap<>();
         private final Map<String, Object> attributes = new ConcurrentHashMap<>();
         private final ClassLoader loader;
+        private final String contextName;
+        private final String contextPath;
+        private final String contextSelect;
         private ServletContext delegate;
         private Logger logger;
+        private StaticResourceIndex staticResources;
+        private Runnable changeListener = () -> {
+            // no-op
+        };
 
-        private HttpServiceServletContext(final BundleContext ctx) {
+        private HttpServiceServletContext(final BundleContext ctx, final String contextName,
+                                          final String contextPath, final String contextSelect) {
             this.context = ctx;
             this.loader = Thread.currentThread().getContextClassLoader();
+            this.contextName = contextName;
+            this.contextPath = contextPath;
+            this.contextSelect = contextSelect;
 
             // capture the http whiteboard servlet context to not reimplement all the spec!
             addListener(new ServletContextListener() {
@@ -252,12 +662,14 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
         @Override
         public ServletRegistration.Dynamic addServlet(final String s, final Servlet servlet) {
             final DynamicServletRegistration registration = new DynamicServletRegistration(
-                    props -> osgiRegistrations.add(context.registerService(Servlet.class, servlet, props)), servlet);
+                    props -> osgiRegistrations.add(context.registerService(Servlet.class, servlet, props)), servlet, this::onChange);
             final String clazz = servlet.getClass().getName();
             registration.config.put("karaf.servlet.class", clazz);
             registration.config.put("osgi.http.whiteboard.servlet.name", clazz); // default
             registration.config.put(Constants.SERVICE_RANKING, 0);
+            registration.config.put("osgi.http.whiteboard.context.select", contextSelect);
             servletRegistrations.add(registration);
+            onChange();
             return registration;
         }
 
@@ -306,12 +718,14 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
         @Override
         public FilterRegistration.Dynamic addFilter(final String s, final Filter filter) {
             final DynamicFilterRegistration registration = new DynamicFilterRegistration(
-                    props -> osgiRegistrations.add(context.registerService(Filter.class, filter, props)), filter);
+                    props -> osgiRegistrations.add(context.registerService(Filter.class, filter, props)), filter, this::onChange);
             final String clazz = filter.getClass().getName();
             registration.config.put("karaf.filter.class", clazz);
             registration.config.put("osgi.http.whiteboard.filter.name", clazz); // default
             registration.config.put(Constants.SERVICE_RANKING, 0);
+            registration.config.put("osgi.http.whiteboard.context.select", contextSelect);
             filterRegistrations.add(registration);
+            onChange();
             return registration;
         }
 
@@ -341,7 +755,7 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
 
         @Override
         public String getContextPath() {
-            return "";
+            return contextPath;
         }
 
         @Override
@@ -371,18 +785,20 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
 
         @Override
         public String getMimeType(final String s) {
-            return null;
+            return StaticResourceIndex.getMimeType(s);
         }
 
         @Override
         public Set<String> getResourcePaths(final String s) {
-            return null;
+            return staticResources == null ? null : staticResources.getResourcePaths(s);
         }
 
         @Override
         public URL getResource(final String s) {
-            return ofNullable(context.getBundle().getResource(s))
-                    .orElseGet(() -> context.getBundle().getResource("META-INF/resources" + (s.startsWith("/") ? "" : "/") + s));
+            return ofNullable(staticResources)
+                    .map(it -> it.getResource(s))
+                    .orElseGet(() -> ofNullable(context.getBundle().getResource(s))
+                            .orElseGet(() -> context.getBundle().getResource("META-INF/resources" + (s.startsWith("/") ? "" : "/") + s)));
         }
 
         @Override
@@ -434,6 +850,7 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
         public <T extends EventListener> void addListener(final T t) {
             final Dictionary<String, Object> properties = new Hashtable<>();
             properties.put("osgi.http.whiteboard.listener", true);
+            properties.put("osgi.http.whiteboard.context.select", contextSelect);
             osgiRegistrations.add(context.registerService(findEventListenerTypes(t), t, properties));
         }
 
@@ -543,7 +960,7 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
 
         @Override
         public String getServletContextName() {
-            return "";
+            return contextName;
         }
 
         @Override
@@ -603,6 +1020,10 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
                     .toArray(String[]::new);
         }
 
+        private void onChange() {
+            changeListener.run();
+        }
+
         private void ensureLog() {
             if (logger == null) {
                 final ServiceReference<LoggerFactory> ref = context.getServiceReference(LoggerFactory.class);
@@ -620,11 +1041,13 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
         private final Hashtable<String, Object> config = new Hashtable<>();
         private final Consumer<Dictionary<String, Object>> callback;
         private final Servlet servlet;
+        private final Runnable onChange;
 
         private DynamicServletRegistration(final Consumer<Dictionary<String, Object>> callback,
-                                           final Servlet servlet) {
+                                           final Servlet servlet, final Runnable onChange) {
             this.callback = callback;
             this.servlet = servlet;
+            this.onChange = onChange;
         }
 
         @Override
@@ -667,6 +1090,7 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
                         Stream.of(strings))
                         .toArray(String[]::new));
             }
+            onChange.run();
             return Stream.of(strings).collect(toSet());
         }
 
@@ -723,19 +1147,25 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
         private final Consumer<Dictionary<String, Object>> callback;
         private final Collection<ServletBinding> servletBindings = new ArrayList<>();
         private final Filter filter;
+        private final Runnable onChange;
+        private final EnumSet<DispatcherType> dispatcherTypes = EnumSet.noneOf(DispatcherType.class);
 
         private DynamicFilterRegistration(final Consumer<Dictionary<String, Object>> callback,
-                                          final Filter filter) {
+                                          final Filter filter, final Runnable onChange) {
             this.callback = callback;
             this.filter = filter;
+            this.onChange = onChange;
         }
 
         @Override
         public void addMappingForServletNames(final EnumSet<DispatcherType> enumSet,
                                               final boolean b, final String... strings) {
-            servletBindings.addAll(enumSet.stream()
+            final EnumSet<DispatcherType> types = enumSet == null ? EnumSet.of(DispatcherType.REQUEST) : enumSet;
+            dispatcherTypes.addAll(types);
+            servletBindings.addAll(types.stream()
                     .flatMap(it -> Stream.of(strings).map(s -> new ServletBinding(it, s, b)))
                     .collect(toList()));
+            onChange.run();
         }
 
         @Override
@@ -746,7 +1176,8 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
         @Override
         public void addMappingForUrlPatterns(final EnumSet<DispatcherType> enumSet,
                                              final boolean b, final String... strings) {
-            // todo: handle dispatcherTypes - not critical yet
+            dispatcherTypes.addAll(enumSet == null ? EnumSet.of(DispatcherType.REQUEST) : enumSet);
+            config.put("osgi.http.whiteboard.filter.dispatcher", dispatcherTypes.stream().map(Enum::name).toArray(String[]::new));
             final Object patterns = config.get("osgi.http.whiteboard.filter.pattern");
             if (patterns == null) {
                 config.put("osgi.http.whiteboard.filter.pattern", strings);
@@ -759,6 +1190,7 @@ public class HttpServiceServletServerFactory implements ServletWebServerFactory
             if (!b) {
                 config.put(Constants.SERVICE_RANKING, 100);
             }
+            onChange.run();
         }
 
         @Override
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+/**
+ * Snapshot of the request statistics of an application or a servlet, latencies are in microseconds.
+ */
+public class HttpStatistics {
+    private final long requests;
+    private final long inFlight;
+    private final long[] statuses;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final double latencyMean;
+    private final long[] latencyPercentiles;
+    private final long latencyMax;
+
+    HttpStatistics(final long requests, final long inFlight, final long[] statuses,
+                   final long bytesRead, final long bytesWritten,
+                   final double latencyMean, final long[] latencyPercentiles, final long latencyMax) {
+        this.requests = requests;
+        this.inFlight = inFlight;
+        this.statuses = statuses;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.latencyMean = latencyMean;
+        this.latencyPercentiles = latencyPercentiles;
+        this.latencyMax = latencyMax;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    public long getStatus1xx() {
+        return statuses[1];
+    }
+
+    public long getStatus2xx() {
+        return statuses[2];
+    }
+
+    public long getStatus3xx() {
+        return statuses[3];
+    }
+
+    public long getStatus4xx() {
+        return statuses[4];
+    }
+
+    public long getStatus5xx() {
+        return statuses[5];
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public double getLatencyMean() {
+        return latencyMean;
+    }
+
+    public long getLatencyP50() {
+        return latencyPercentiles[0];
+    }
+
+    public long getLatencyP90() {
+        return latencyPercentiles[1];
+    }
+
+    public long getLatencyP99() {
+        return latencyPercentiles[2];
+    }
+
+    public long getLatencyP999() {
+        return latencyPercentiles[3];
+    }
+
+    public long getLatencyMax() {
+        return latencyMax;
+    }
+}
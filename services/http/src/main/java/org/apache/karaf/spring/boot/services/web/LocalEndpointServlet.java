@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import javax.servlet.GenericServlet;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+import java.util.function.Predicate;
+
+/**
+ * Entry point of an application for the {@link LocalTransport} of the co-located applications.
+ * It is registered in the OSGi registry under its class name and not as a {@link Servlet} to stay out of the whiteboard.
+ * Each application has its own copy of this class, callers test the routes through the JDK {@link Predicate}.
+ */
+class LocalEndpointServlet extends GenericServlet implements Predicate<String> {
+    static final String APPLICATION = "karaf.spring-boot.application";
+    static final String CONTEXT_PATH = "karaf.spring-boot.http.context-path";
+    static final String EXPLICIT_CONTEXT_PATH = "karaf.spring-boot.http.context-path.explicit";
+
+    private final ApplicationDispatcherServlet dispatcher;
+    private final ClassLoader loader;
+
+    LocalEndpointServlet(final ApplicationDispatcherServlet dispatcher, final ClassLoader loader) {
+        this.dispatcher = dispatcher;
+        this.loader = loader;
+    }
+
+    // does the application serve this path (relative to its context path)
+    @Override
+    public boolean test(final String path) {
+        return dispatcher.matches(path);
+    }
+
+    @Override
+    public void service(final ServletRequest req, final ServletResponse res) throws ServletException, IOException {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader old = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            dispatcher.service(req, res);
+        } finally {
+            thread.setContextClassLoader(old);
+        }
+    }
+}
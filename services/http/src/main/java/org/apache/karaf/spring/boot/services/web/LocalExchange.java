@@ -0,0 +1,413 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Servlet;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays the container role for a single local request: the endpoint is called in the caller thread
+ * and asynchronous requests are followed until they complete (Servlet 3 lifecycle).
+ */
+class LocalExchange implements AsyncContext {
+    private enum State {
+        NONE, STARTED, DISPATCH_PENDING, COMPLETE_PENDING, DISPATCHED, COMPLETED
+    }
+
+    private final Servlet endpoint;
+    private final Executor executor;
+    private final LocalHttpServletRequest request;
+    private final LocalHttpServletResponse response;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Listener> listeners = new ArrayList<>();
+    private State state = State.NONE;
+    private boolean inService;
+    private long timeout;
+    private long asyncStart;
+    private ServletRequest asyncRequest;
+    private ServletResponse asyncResponse;
+    private boolean originalRequestAndResponse = true;
+
+    LocalExchange(final Servlet endpoint, final Executor executor, final long timeout,
+                  final String method, final URI uri, final Map<String, List<String>> headers, final byte[] body,
+                  final ServletContext servletContext, final String contextPath) {
+        this.endpoint = endpoint;
+        this.executor = executor;
+        this.timeout = timeout;
+        this.request = new LocalHttpServletRequest(this, method, uri, headers, body, servletContext, contextPath);
+        this.response = new LocalHttpServletResponse(uri.toString());
+    }
+
+    LocalHttpServletResponse execute() throws IOException {
+        synchronized (this) {
+            inService = true;
+        }
+        service(request, response);
+        try {
+            await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + request.getRequestURI());
+        }
+        return response;
+    }
+
+    LocalHttpServletResponse getLocalResponse() {
+        return response;
+    }
+
+    synchronized boolean isAsyncStarted() {
+        return state == State.STARTED || state == State.DISPATCH_PENDING || state == State.COMPLETE_PENDING;
+    }
+
+    synchronized AsyncContext getAsyncContext() {
+        if (!isAsyncStarted()) {
+            throw new IllegalStateException("Async not started");
+        }
+        return this;
+    }
+
+    AsyncContext startAsync(final ServletRequest servletRequest, final ServletResponse servletResponse,
+                            final boolean original) {
+        final List<Listener> toNotify;
+        synchronized (this) {
+            if (!inService || (state != State.NONE && state != State.DISPATCHED)) {
+                throw new IllegalStateException("Can't start async in state " + state);
+            }
+            state = State.STARTED;
+            asyncStart = System.currentTimeMillis();
+            asyncRequest = servletRequest;
+            asyncResponse = servletResponse;
+            originalRequestAndResponse = original;
+            toNotify = new ArrayList<>(listeners);
+            listeners.clear(); // they must register again in onStartAsync
+        }
+        for (final Listener listener : toNotify) {
+            try {
+                listener.listener.onStartAsync(listener.event(this));
+            } catch (final IOException | RuntimeException e) {
+                // no-op, as containers do
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized ServletRequest getRequest() {
+        return asyncRequest == null ? request : asyncRequest;
+    }
+
+    @Override
+    public synchronized ServletResponse getResponse() {
+        return asyncResponse == null ? response : asyncResponse;
+    }
+
+    @Override
+    public synchronized boolean hasOriginalRequestAndResponse() {
+        return originalRequestAndResponse;
+    }
+
+    @Override
+    public void dispatch() {
+        doDispatch(null);
+    }
+
+    @Override
+    public void dispatch(final String path) {
+        doDispatch(path);
+    }
+
+    @Override
+    public void dispatch(final ServletContext context, final String path) {
+        if (context != request.getServletContext()) {
+            throw new UnsupportedOperationException("Local requests can't be dispatched to another context");
+        }
+        doDispatch(path);
+    }
+
+    @Override
+    public void complete() {
+        synchronized (this) {
+            if (state == State.COMPLETED) {
+                return;
+            }
+            if (state != State.STARTED && state != State.DISPATCH_PENDING) {
+                throw new IllegalStateException("Can't complete in state " + state);
+            }
+            if (inService) {
+                state = State.COMPLETE_PENDING;
+                return;
+            }
+        }
+        onComplete();
+    }
+
+    @Override
+    public void start(final Runnable run) {
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        executor.execute(() -> {
+            final Thread thread = Thread.currentThread();
+            final ClassLoader old = thread.getContextClassLoader();
+            thread.setContextClassLoader(loader);
+            try {
+                run.run();
+            } finally {
+                thread.setContextClassLoader(old);
+            }
+        });
+    }
+
+    @Override
+    public void addListener(final AsyncListener listener) {
+        addListener(listener, null, null);
+    }
+
+    @Override
+    public synchronized void addListener(final AsyncListener listener,
+                                         final ServletRequest servletRequest, final ServletResponse servletResponse) {
+        if (state == State.COMPLETED) {
+            throw new IllegalStateException("Request completed");
+        }
+        listeners.add(new Listener(listener, servletRequest, servletResponse));
+    }
+
+    @Override
+    public <T extends AsyncListener> T createListener(final Class<T> clazz) throws ServletException {
+        try {
+            return clazz.getConstructor().newInstance();
+        } catch (final Exception e) {
+            throw new ServletException(e);
+        }
+    }
+
+    @Override
+    public synchronized void setTimeout(final long timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public synchronized long getTimeout() {
+        return timeout;
+    }
+
+    private void doDispatch(final String path) {
+        synchronized (this) {
+            if (state != State.STARTED) {
+                throw new IllegalStateException("Can't dispatch in state " + state);
+            }
+            if (path != null) {
+                request.setPathInfo(path);
+            }
+            if (inService) {
+                state = State.DISPATCH_PENDING;
+                return;
+            }
+            state = State.DISPATCHED;
+            inService = true;
+        }
+        runDispatch();
+    }
+
+    private void runDispatch() {
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        executor.execute(() -> {
+            final Thread thread = Thread.currentThread();
+            final ClassLoader old = thread.getContextClassLoader();
+            thread.setContextClassLoader(loader);
+            try {
+                request.setDispatcherType(DispatcherType.ASYNC);
+                service(getRequest(), getResponse());
+            } finally {
+                thread.setContextClassLoader(old);
+            }
+        });
+    }
+
+    // the caller of service() must have set inService
+    private void service(final ServletRequest req, final ServletResponse res) {
+        Throwable error = null;
+        try {
+            endpoint.service(req, res);
+        } catch (final Exception | Error e) {
+            error = e;
+        }
+
+        final State current;
+        synchronized (this) {
+            inService = false;
+            current = state;
+            if (current == State.DISPATCH_PENDING) {
+                state = State.DISPATCHED;
+                inService = true;
+            }
+        }
+        if (error != null) {
+            onError(error, current);
+            return;
+        }
+        switch (current) {
+            case DISPATCH_PENDING:
+                runDispatch();
+                break;
+            case STARTED: // wait for the application
+                break;
+            default:
+                onComplete();
+        }
+    }
+
+    private void onError(final Throwable error, final State current) {
+        if (current == State.DISPATCH_PENDING) { // the dispatch already took over
+            return;
+        }
+        if (current == State.STARTED || current == State.COMPLETE_PENDING) {
+            for (final Listener listener : snapshotListeners()) {
+                try {
+                    listener.listener.onError(new AsyncEvent(this, listener.request(this), listener.response(this), error));
+                } catch (final IOException | RuntimeException e) {
+                    // no-op
+                }
+            }
+            synchronized (this) {
+                if (state != State.STARTED && state != State.COMPLETE_PENDING) { // dispatched or completed by a listener
+                    return;
+                }
+            }
+        }
+        sendError();
+        onComplete();
+    }
+
+    private void onTimeout() {
+        for (final Listener listener : snapshotListeners()) {
+            try {
+                listener.listener.onTimeout(listener.event(this));
+            } catch (final IOException | RuntimeException e) {
+                // no-op
+            }
+        }
+        synchronized (this) {
+            if (state != State.STARTED) {
+                return;
+            }
+        }
+        sendError();
+        onComplete();
+    }
+
+    private void onComplete() {
+        final List<Listener> toNotify;
+        synchronized (this) {
+            if (state == State.COMPLETED) {
+                return;
+            }
+            state = State.COMPLETED;
+            toNotify = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        for (final Listener listener : toNotify) {
+            try {
+                listener.listener.onComplete(listener.event(this));
+            } catch (final IOException | RuntimeException e) {
+                // no-op
+            }
+        }
+        response.commit();
+        done.countDown();
+    }
+
+    private void sendError() {
+        if (!response.isCommitted()) {
+            try {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } catch (final IOException | IllegalStateException e) {
+                // no-op
+            }
+        }
+    }
+
+    private void await() throws InterruptedException {
+        while (true) {
+            final long currentTimeout;
+            final long started;
+            synchronized (this) {
+                if (state == State.COMPLETED) {
+                    return;
+                }
+                currentTimeout = timeout;
+                started = asyncStart;
+            }
+            final long wait = currentTimeout <= 0 ? 1000 : Math.max(1, started + currentTimeout - System.currentTimeMillis());
+            if (done.await(wait, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            final boolean expired;
+            synchronized (this) {
+                expired = currentTimeout > 0 && timeout == currentTimeout && asyncStart == started &&
+                        state == State.STARTED && !inService && System.currentTimeMillis() - started >= currentTimeout;
+            }
+            if (expired) {
+                onTimeout();
+            }
+        }
+    }
+
+    private synchronized List<Listener> snapshotListeners() {
+        return new ArrayList<>(listeners);
+    }
+
+    private static class Listener {
+        private final AsyncListener listener;
+        private final ServletRequest request;
+        private final ServletResponse response;
+
+        private Listener(final AsyncListener listener, final ServletRequest request, final ServletResponse response) {
+            this.listener = listener;
+            this.request = request;
+            this.response = response;
+        }
+
+        private ServletRequest request(final LocalExchange exchange) {
+            return request == null ? exchange.getRequest() : request;
+        }
+
+        private ServletResponse response(final LocalExchange exchange) {
+            return response == null ? exchange.getResponse() : response;
+        }
+
+        private AsyncEvent event(final LocalExchange exchange) {
+            return new AsyncEvent(exchange, request(exchange), response(exchange));
+        }
+    }
+}
@@ -0,0 +1,705 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ReadListener;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpUpgradeHandler;
+import javax.servlet.http.Part;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.enumeration;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * In memory request of the local transport, the whole body is already buffered.
+ * Sessions only live for the request and authentication is not supported.
+ */
+class LocalHttpServletRequest implements HttpServletRequest {
+    private final LocalExchange exchange;
+    private final String method;
+    private final URI uri;
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final byte[] body;
+    private final ServletContext servletContext;
+    private final String contextPath;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private String pathInfo;
+    private volatile DispatcherType dispatcherType = DispatcherType.REQUEST;
+    private String characterEncoding;
+    private Map<String, String[]> parameters;
+    private ServletInputStream inputStream;
+    private BufferedReader reader;
+    private LocalSession session;
+
+    LocalHttpServletRequest(final LocalExchange exchange, final String method, final URI uri,
+                            final Map<String, List<String>> headers, final byte[] body,
+                            final ServletContext servletContext, final String contextPath) {
+        this.exchange = exchange;
+        this.method = method;
+        this.uri = uri;
+        this.headers.putAll(headers);
+        this.body = body == null ? new byte[0] : body;
+        this.servletContext = servletContext;
+        this.contextPath = contextPath;
+        this.pathInfo = ofPath(uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath()).substring(contextPath.length());
+        this.characterEncoding = findCharset(getContentType());
+    }
+
+    void setDispatcherType(final DispatcherType dispatcherType) {
+        this.dispatcherType = dispatcherType;
+    }
+
+    void setPathInfo(final String path) {
+        this.pathInfo = path;
+    }
+
+    @Override
+    public String getAuthType() {
+        return null;
+    }
+
+    @Override
+    public Cookie[] getCookies() {
+        final List<Cookie> cookies = new ArrayList<>();
+        for (final String header : headers.getOrDefault("Cookie", emptyList())) {
+            for (final String cookie : header.split(";")) {
+                final int sep = cookie.indexOf('=');
+                if (sep <= 0) {
+                    continue;
+                }
+                String value = cookie.substring(sep + 1).trim();
+                if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                try {
+                    cookies.add(new Cookie(cookie.substring(0, sep).trim(), value));
+                } catch (final IllegalArgumentException iae) {
+                    // invalid name, ignored as containers do
+                }
+            }
+        }
+        return cookies.isEmpty() ? null : cookies.toArray(new Cookie[0]);
+    }
+
+    @Override
+    public long getDateHeader(final String name) {
+        final String value = getHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (final DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date header " + name + ": " + value);
+        }
+    }
+
+    @Override
+    public String getHeader(final String name) {
+        final List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(final String name) {
+        return enumeration(headers.getOrDefault(name, emptyList()));
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return enumeration(headers.keySet());
+    }
+
+    @Override
+    public int getIntHeader(final String name) {
+        final String value = getHeader(name);
+        return value == null ? -1 : Integer.parseInt(value.trim());
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return pathInfo == null || pathInfo.isEmpty() ? null : pathInfo;
+    }
+
+    @Override
+    public String getPathTranslated() {
+        return pathInfo == null ? null : servletContext.getRealPath(pathInfo);
+    }
+
+    @Override
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    @Override
+    public String getQueryString() {
+        return uri.getRawQuery();
+    }
+
+    @Override
+    public String getRemoteUser() {
+        return null;
+    }
+
+    @Override
+    public boolean isUserInRole(final String role) {
+        return false;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return null;
+    }
+
+    @Override
+    public String getRequestedSessionId() {
+        return null;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        return new StringBuffer(getScheme()).append("://").append(getServerName()).append(':').append(getServerPort()).append(getRequestURI());
+    }
+
+    @Override
+    public String getServletPath() {
+        return "";
+    }
+
+    @Override
+    public HttpSession getSession(final boolean create) {
+        if (session == null && create) {
+            session = new LocalSession();
+        }
+        return session;
+    }
+
+    @Override
+    public HttpSession getSession() {
+        return getSession(true);
+    }
+
+    @Override
+    public String changeSessionId() {
+        if (session == null) {
+            throw new IllegalStateException("No session");
+        }
+        session.id = UUID.randomUUID().toString();
+        return session.id;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdValid() {
+        return false;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromCookie() {
+        return false;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromURL() {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean isRequestedSessionIdFromUrl() {
+        return false;
+    }
+
+    @Override
+    public boolean authenticate(final HttpServletResponse response) {
+        return false;
+    }
+
+    @Override
+    public void login(final String username, final String password) throws ServletException {
+        throw new ServletException("Login is not supported by the local transport");
+    }
+
+    @Override
+    public void logout() {
+        // no-op
+    }
+
+    @Override
+    public Collection<Part> getParts() throws ServletException {
+        throw new ServletException("Multipart requests are not supported by the local transport");
+    }
+
+    @Override
+    public Part getPart(final String name) throws ServletException {
+        throw new ServletException("Multipart requests are not supported by the local transport");
+    }
+
+    @Override
+    public <T extends HttpUpgradeHandler> T upgrade(final Class<T> handlerClass) throws ServletException {
+        throw new ServletException("Upgrades are not supported by the local transport");
+    }
+
+    @Override
+    public Object getAttribute(final String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return enumeration(new ArrayList<>(attributes.keySet()));
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    @Override
+    public void setCharacterEncoding(final String env) throws UnsupportedEncodingException {
+        if (reader == null) {
+            if (env != null && !java.nio.charset.Charset.isSupported(env)) {
+                throw new UnsupportedEncodingException(env);
+            }
+            characterEncoding = env;
+        }
+    }
+
+    @Override
+    public int getContentLength() {
+        return body.length;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        return body.length;
+    }
+
+    @Override
+    public String getContentType() {
+        return getHeader("Content-Type");
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+        if (reader != null) {
+            throw new IllegalStateException("getReader() already called");
+        }
+        if (inputStream == null) {
+            final ByteArrayInputStream delegate = new ByteArrayInputStream(body);
+            inputStream = new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return delegate.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(final ReadListener readListener) {
+                    try { // all the data is already there
+                        if (!isFinished()) {
+                            readListener.onDataAvailable();
+                        }
+                        readListener.onAllDataRead();
+                    } catch (final IOException | RuntimeException e) {
+                        readListener.onError(e);
+                    }
+                }
+
+                @Override
+                public int read() {
+                    return delegate.read();
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) {
+                    return delegate.read(b, off, len);
+                }
+
+                @Override
+                public int available() {
+                    return delegate.available();
+                }
+            };
+        }
+        return inputStream;
+    }
+
+    @Override
+    public String getParameter(final String name) {
+        final String[] values = getParameterMap().get(name);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return enumeration(getParameterMap().keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(final String name) {
+        return getParameterMap().get(name);
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        if (parameters == null) {
+            final Map<String, List<String>> values = new LinkedHashMap<>();
+            parse(uri.getRawQuery(), values);
+            final String contentType = getContentType();
+            if ("POST".equals(method) && inputStream == null && reader == null && contentType != null &&
+                    contentType.toLowerCase(Locale.ROOT).startsWith("application/x-www-form-urlencoded")) {
+                parse(new String(body, StandardCharsets.ISO_8859_1), values);
+            }
+            final Map<String, String[]> result = new LinkedHashMap<>();
+            values.forEach((key, list) -> result.put(key, list.toArray(new String[0])));
+            parameters = unmodifiableMap(result);
+        }
+        return parameters;
+    }
+
+    @Override
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    @Override
+    public String getScheme() {
+        return uri.getScheme();
+    }
+
+    @Override
+    public String getServerName() {
+        return uri.getHost();
+    }
+
+    @Override
+    public int getServerPort() {
+        return uri.getPort() > 0 ? uri.getPort() : ("https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80);
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+        if (inputStream != null) {
+            throw new IllegalStateException("getInputStream() already called");
+        }
+        if (reader == null) {
+            reader = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(body), characterEncoding == null ? "ISO-8859-1" : characterEncoding));
+        }
+        return reader;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return "127.0.0.1";
+    }
+
+    @Override
+    public String getRemoteHost() {
+        return "localhost";
+    }
+
+    @Override
+    public void setAttribute(final String name, final Object o) {
+        if (o == null) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, o);
+        }
+    }
+
+    @Override
+    public void removeAttribute(final String name) {
+        attributes.remove(name);
+    }
+
+    @Override
+    public Locale getLocale() {
+        final String language = getHeader("Accept-Language");
+        if (language == null || language.trim().isEmpty()) {
+            return Locale.getDefault();
+        }
+        final String tag = language.split(",")[0].split(";")[0].trim();
+        return "*".equals(tag) ? Locale.getDefault() : Locale.forLanguageTag(tag);
+    }
+
+    @Override
+    public Enumeration<Locale> getLocales() {
+        return enumeration(singletonList(getLocale()));
+    }
+
+    @Override
+    public boolean isSecure() {
+        return "https".equalsIgnoreCase(uri.getScheme());
+    }
+
+    @Override
+    public RequestDispatcher getRequestDispatcher(final String path) {
+        return null; // no container to forward to
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String getRealPath(final String path) {
+        return servletContext.getRealPath(path);
+    }
+
+    @Override
+    public int getRemotePort() {
+        return 0;
+    }
+
+    @Override
+    public String getLocalName() {
+        return "localhost";
+    }
+
+    @Override
+    public String getLocalAddr() {
+        return "127.0.0.1";
+    }
+
+    @Override
+    public int getLocalPort() {
+        return getServerPort();
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+        return exchange.startAsync(this, exchange.getLocalResponse(), true);
+    }
+
+    @Override
+    public AsyncContext startAsync(final ServletRequest servletRequest, final ServletResponse servletResponse) {
+        return exchange.startAsync(servletRequest, servletResponse,
+                servletRequest == this && servletResponse == exchange.getLocalResponse());
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+        return exchange.isAsyncStarted();
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return true;
+    }
+
+    @Override
+    public AsyncContext getAsyncContext() {
+        return exchange.getAsyncContext();
+    }
+
+    @Override
+    public DispatcherType getDispatcherType() {
+        return dispatcherType;
+    }
+
+    private String ofPath(final String path) {
+        return path.startsWith(contextPath) ? path : contextPath + path;
+    }
+
+    private void parse(final String query, final Map<String, List<String>> values) {
+        if (query == null || query.isEmpty()) {
+            return;
+        }
+        final String charset = characterEncoding == null ? "UTF-8" : characterEncoding;
+        for (final String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            final int sep = pair.indexOf('=');
+            try {
+                final String key = URLDecoder.decode(sep < 0 ? pair : pair.substring(0, sep), charset);
+                final String value = sep < 0 ? "" : URLDecoder.decode(pair.substring(sep + 1), charset);
+                values.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+            } catch (final UnsupportedEncodingException | IllegalArgumentException e) {
+                // invalid parameter, ignored as containers do
+            }
+        }
+    }
+
+    private static String findCharset(final String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        for (final String part : contentType.split(";")) {
+            final String trimmed = part.trim();
+            if (trimmed.toLowerCase(Locale.ROOT).startsWith("charset=")) {
+                return trimmed.substring("charset=".length()).replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    // request scoped, there is no session tracking between local calls
+    private class LocalSession implements HttpSession {
+        private final long creationTime = System.currentTimeMillis();
+        private final Map<String, Object> values = new ConcurrentHashMap<>();
+        private volatile String id = UUID.randomUUID().toString();
+        private int maxInactiveInterval = -1;
+
+        @Override
+        public long getCreationTime() {
+            return creationTime;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public long getLastAccessedTime() {
+            return creationTime;
+        }
+
+        @Override
+        public ServletContext getServletContext() {
+            return servletContext;
+        }
+
+        @Override
+        public void setMaxInactiveInterval(final int interval) {
+            maxInactiveInterval = interval;
+        }
+
+        @Override
+        public int getMaxInactiveInterval() {
+            return maxInactiveInterval;
+        }
+
+        @Override
+        @Deprecated
+        public javax.servlet.http.HttpSessionContext getSessionContext() { // not imported, java 8 warns on deprecated imports
+            return null;
+        }
+
+        @Override
+        public Object getAttribute(final String name) {
+            return values.get(name);
+        }
+
+        @Override
+        @Deprecated
+        public Object getValue(final String name) {
+            return getAttribute(name);
+        }
+
+        @Override
+        public Enumeration<String> getAttributeNames() {
+            return enumeration(new ArrayList<>(values.keySet()));
+        }
+
+        @Override
+        @Deprecated
+        public String[] getValueNames() {
+            return values.keySet().toArray(new String[0]);
+        }
+
+        @Override
+        public void setAttribute(final String name, final Object value) {
+            if (value == null) {
+                values.remove(name);
+            } else {
+                values.put(name, value);
+            }
+        }
+
+        @Override
+        @Deprecated
+        public void putValue(final String name, final Object value) {
+            setAttribute(name, value);
+        }
+
+        @Override
+        public void removeAttribute(final String name) {
+            values.remove(name);
+        }
+
+        @Override
+        @Deprecated
+        public void removeValue(final String name) {
+            removeAttribute(name);
+        }
+
+        @Override
+        public void invalidate() {
+            values.clear();
+            session = null;
+        }
+
+        @Override
+        public boolean isNew() {
+            return true;
+        }
+    }
+}
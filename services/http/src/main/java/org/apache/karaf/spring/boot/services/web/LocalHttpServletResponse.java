@@ -0,0 +1,431 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+/**
+ * In memory response of the local transport, the body is only read by the caller once the exchange completed.
+ */
+class LocalHttpServletResponse implements HttpServletResponse {
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final String requestUrl;
+    private int status = SC_OK;
+    private String reason;
+    private String characterEncoding;
+    private String contentType;
+    private Locale locale = Locale.getDefault();
+    private int bufferSize = 8192;
+    private volatile boolean committed;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    LocalHttpServletResponse(final String requestUrl) {
+        this.requestUrl = requestUrl;
+    }
+
+    int getStatusCode() {
+        return status;
+    }
+
+    String getReason() {
+        return reason;
+    }
+
+    Map<String, List<String>> getHeaderValues() {
+        return headers;
+    }
+
+    byte[] getBody() {
+        if (writer != null) {
+            writer.flush();
+        }
+        return body.toByteArray();
+    }
+
+    @Override
+    public void addCookie(final Cookie cookie) {
+        final StringBuilder value = new StringBuilder(cookie.getName()).append('=').append(cookie.getValue() == null ? "" : cookie.getValue());
+        if (cookie.getPath() != null) {
+            value.append("; Path=").append(cookie.getPath());
+        }
+        if (cookie.getDomain() != null) {
+            value.append("; Domain=").append(cookie.getDomain());
+        }
+        if (cookie.getMaxAge() >= 0) {
+            value.append("; Max-Age=").append(cookie.getMaxAge());
+        }
+        if (cookie.getSecure()) {
+            value.append("; Secure");
+        }
+        if (cookie.isHttpOnly()) {
+            value.append("; HttpOnly");
+        }
+        addHeader("Set-Cookie", value.toString());
+    }
+
+    @Override
+    public boolean containsHeader(final String name) {
+        return headers.containsKey(name);
+    }
+
+    @Override
+    public String encodeURL(final String url) {
+        return url;
+    }
+
+    @Override
+    public String encodeRedirectURL(final String url) {
+        return url;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String encodeUrl(final String url) {
+        return url;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String encodeRedirectUrl(final String url) {
+        return url;
+    }
+
+    @Override
+    public void sendError(final int sc, final String msg) throws IOException {
+        ensureNotCommitted();
+        resetBuffer();
+        status = sc;
+        reason = msg;
+        if (msg != null) {
+            setContentType("text/plain;charset=UTF-8");
+            getOutputStream().write(msg.getBytes(Charset.forName("UTF-8")));
+        }
+        committed = true;
+    }
+
+    @Override
+    public void sendError(final int sc) throws IOException {
+        sendError(sc, null);
+    }
+
+    @Override
+    public void sendRedirect(final String location) throws IOException {
+        ensureNotCommitted();
+        resetBuffer();
+        status = SC_FOUND;
+        setHeader("Location", location.contains("://") || requestUrl == null ? location : resolve(location));
+        committed = true;
+    }
+
+    @Override
+    public void setDateHeader(final String name, final long date) {
+        setHeader(name, formatDate(date));
+    }
+
+    @Override
+    public void addDateHeader(final String name, final long date) {
+        addHeader(name, formatDate(date));
+    }
+
+    @Override
+    public void setHeader(final String name, final String value) {
+        if (committed) {
+            return;
+        }
+        if (value == null) {
+            headers.remove(name);
+        } else if ("Content-Type".equalsIgnoreCase(name)) {
+            setContentType(value);
+        } else {
+            headers.put(name, new ArrayList<>(singletonList(value)));
+        }
+    }
+
+    @Override
+    public void addHeader(final String name, final String value) {
+        if (committed || value == null) {
+            return;
+        }
+        if ("Content-Type".equalsIgnoreCase(name)) {
+            setContentType(value);
+        } else {
+            headers.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(final String name, final int value) {
+        setHeader(name, Integer.toString(value));
+    }
+
+    @Override
+    public void addIntHeader(final String name, final int value) {
+        addHeader(name, Integer.toString(value));
+    }
+
+    @Override
+    public void setStatus(final int sc) {
+        if (!committed) {
+            status = sc;
+            reason = null;
+        }
+    }
+
+    @Override
+    @Deprecated
+    public void setStatus(final int sc, final String sm) {
+        if (!committed) {
+            status = sc;
+            reason = sm;
+        }
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public String getHeader(final String name) {
+        final List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Collection<String> getHeaders(final String name) {
+        return new ArrayList<>(headers.getOrDefault(name, emptyList()));
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return new ArrayList<>(headers.keySet());
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding == null ? "ISO-8859-1" : characterEncoding;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType == null ? null : contentType + (characterEncoding == null ? "" : ";charset=" + characterEncoding);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() already called");
+        }
+        if (outputStream == null) {
+            outputStream = new ServletOutputStream() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(final WriteListener writeListener) {
+                    try { // never blocks
+                        writeListener.onWritePossible();
+                    } catch (final IOException | RuntimeException e) {
+                        writeListener.onError(e);
+                    }
+                }
+
+                @Override
+                public void write(final int b) {
+                    body.write(b);
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) {
+                    body.write(b, off, len);
+                }
+
+                @Override
+                public void flush() {
+                    committed = true;
+                }
+            };
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        if (outputStream != null) {
+            throw new IllegalStateException("getOutputStream() already called");
+        }
+        if (writer == null) {
+            if (characterEncoding == null) {
+                characterEncoding = "ISO-8859-1";
+            }
+            writer = new PrintWriter(new OutputStreamWriter(body, Charset.forName(characterEncoding)) {
+                @Override
+                public void flush() throws IOException {
+                    super.flush();
+                    committed = true;
+                }
+            });
+        }
+        return writer;
+    }
+
+    @Override
+    public void setCharacterEncoding(final String charset) {
+        if (!committed && writer == null) {
+            characterEncoding = charset;
+        }
+    }
+
+    @Override
+    public void setContentLength(final int len) {
+        setContentLengthLong(len);
+    }
+
+    @Override
+    public void setContentLengthLong(final long len) {
+        setHeader("Content-Length", Long.toString(len));
+    }
+
+    @Override
+    public void setContentType(final String type) {
+        if (committed) {
+            return;
+        }
+        if (type == null) {
+            contentType = null;
+            return;
+        }
+        final String[] parts = type.split(";");
+        contentType = parts[0].trim();
+        for (int i = 1; i < parts.length; i++) {
+            final String part = parts[i].trim();
+            if (part.toLowerCase(Locale.ROOT).startsWith("charset=")) {
+                setCharacterEncoding(part.substring("charset=".length()).replace("\"", ""));
+            }
+        }
+    }
+
+    @Override
+    public void setBufferSize(final int size) {
+        if (committed || body.size() > 0) {
+            throw new IllegalStateException("Response already written");
+        }
+        bufferSize = size;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public void flushBuffer() {
+        if (writer != null) {
+            writer.flush();
+        }
+        committed = true;
+    }
+
+    @Override
+    public void resetBuffer() {
+        ensureNotCommitted();
+        if (writer != null) {
+            writer.flush();
+        }
+        body.reset();
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    @Override
+    public void reset() {
+        resetBuffer();
+        headers.clear();
+        status = SC_OK;
+        reason = null;
+        contentType = null;
+        if (writer == null) {
+            characterEncoding = null;
+        }
+    }
+
+    @Override
+    public void setLocale(final Locale loc) {
+        if (!committed && loc != null) {
+            locale = loc;
+            setHeader("Content-Language", loc.toLanguageTag());
+        }
+    }
+
+    @Override
+    public Locale getLocale() {
+        return locale;
+    }
+
+    // the exchange is done, no more write can be seen by the caller
+    void commit() {
+        if (writer != null) {
+            writer.flush();
+        }
+        committed = true;
+        if (contentType != null) {
+            headers.put("Content-Type", new ArrayList<>(singletonList(getContentType())));
+        }
+    }
+
+    private void ensureNotCommitted() {
+        if (committed) {
+            throw new IllegalStateException("Response already committed");
+        }
+    }
+
+    private String resolve(final String location) {
+        return URI.create(requestUrl).resolve(location).toString();
+    }
+
+    private static String formatDate(final long date) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(date).atZone(ZoneOffset.UTC));
+    }
+}
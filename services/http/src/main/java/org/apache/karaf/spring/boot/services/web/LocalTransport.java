@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.http.HttpService;
+import org.osgi.util.tracker.ServiceTracker;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.AbstractClientHttpResponse;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.web.client.RestTemplate;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Sends the HTTP calls targeting a co-located application directly to its dispatcher, without any socket.
+ * A request is local when its host is one of the local hosts, its port the HTTP service one
+ * and its path is routed by a running application (under its context path), others go through the network as usual.
+ * It is disabled by default, {@code karaf.spring-boot.http.local-transport.enabled=true} enables it.
+ */
+public class LocalTransport implements AutoCloseable {
+    private final ServiceTracker<Object, Object> endpoints;
+    private final ServiceTracker<HttpService, HttpService> httpServices;
+    private final Set<String> hosts;
+    private final long timeout;
+    private final ExecutorService executor;
+
+    public LocalTransport(final BundleContext context, final String application,
+                          final Set<String> hosts, final long timeout) {
+        try {
+            this.endpoints = new ServiceTracker<>(context, context.createFilter(
+                    "(objectClass=" + LocalEndpointServlet.class.getName() + ")"), null);
+        } catch (final InvalidSyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+        this.endpoints.open(true); // each application has its own copy of the endpoint class
+        this.httpServices = new ServiceTracker<>(context, HttpService.class, null);
+        this.httpServices.open();
+        this.hosts = hosts.stream().map(it -> it.toLowerCase(Locale.ROOT)).collect(toSet());
+        this.timeout = timeout;
+
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "karaf-spring-boot-" + application + "-local-transport-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public ClientHttpRequestInterceptor interceptor() {
+        return (request, body, execution) -> {
+            final URI uri = request.getURI();
+            final Endpoint endpoint = find(uri);
+            if (endpoint == null) {
+                return execution.execute(request, body);
+            }
+            final LocalHttpServletResponse response = execute(endpoint, request.getMethodValue(), uri, request.getHeaders(), body);
+            return new LocalClientHttpResponse(response);
+        };
+    }
+
+    @Override
+    public void close() {
+        endpoints.close();
+        httpServices.close();
+        executor.shutdownNow();
+    }
+
+    private LocalHttpServletResponse execute(final Endpoint endpoint, final String method, final URI uri,
+                                             final Map<String, List<String>> headers, final byte[] body) throws IOException {
+        final Map<String, List<String>> requestHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        requestHeaders.putAll(headers);
+        requestHeaders.computeIfAbsent("Host", k -> {
+            final List<String> host = new ArrayList<>(1);
+            host.add(uri.getPort() > 0 ? uri.getHost() + ':' + uri.getPort() : uri.getHost());
+            return host;
+        });
+        final ServletConfig config = endpoint.servlet.getServletConfig();
+        return new LocalExchange(
+                endpoint.servlet, executor, timeout, method, uri, requestHeaders, body,
+                config == null ? null : config.getServletContext(), endpoint.contextPath)
+                .execute();
+    }
+
+    private Endpoint find(final URI uri) {
+        if (uri.getHost() == null || !hosts.contains(uri.getHost().toLowerCase(Locale.ROOT))) {
+            return null;
+        }
+        final boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        if (!secure && !"http".equalsIgnoreCase(uri.getScheme())) {
+            return null;
+        }
+        final int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+        final ServiceReference<HttpService>[] httpReferences = httpServices.getServiceReferences();
+        if (httpReferences == null || Stream.of(httpReferences)
+                .map(it -> it.getProperty(secure ? "org.osgi.service.http.port.secure" : "org.osgi.service.http.port"))
+                .filter(Objects::nonNull)
+                .noneMatch(it -> String.valueOf(port).equals(String.valueOf(it).trim()))) {
+            return null;
+        }
+
+        final ServiceReference<Object>[] references = endpoints.getServiceReferences();
+        if (references == null) {
+            return null;
+        }
+        // longest context path first then the service ordering (ranking, registration) for the same context path,
+        // the first application actually routing the path wins, the empty context path doesn't match everything
+        final String path = ofNullable(uri.getPath()).filter(it -> !it.isEmpty()).orElse("/");
+        final Comparator<ServiceReference<Object>> byContextPath = Comparator.comparingInt(
+                it -> String.valueOf(it.getProperty(LocalEndpointServlet.CONTEXT_PATH)).length());
+        return Stream.of(references)
+                .filter(it -> {
+                    final String contextPath = String.valueOf(it.getProperty(LocalEndpointServlet.CONTEXT_PATH));
+                    return contextPath.isEmpty() || path.equals(contextPath) || path.startsWith(contextPath + '/');
+                })
+                .sorted(byContextPath.thenComparing(Comparator.naturalOrder()).reversed())
+                .map(it -> {
+                    final String contextPath = String.valueOf(it.getProperty(LocalEndpointServlet.CONTEXT_PATH));
+                    final Object servlet = endpoints.getService(it);
+                    if (!(servlet instanceof Servlet) || !(servlet instanceof Predicate) ||
+                            !routes(servlet, path.equals(contextPath) ? "" : path.substring(contextPath.length()))) {
+                        return null;
+                    }
+                    return new Endpoint(Servlet.class.cast(servlet), contextPath);
+                })
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+    }
+
+    // the endpoint of another application is a LocalEndpointServlet of its own loader, only its Predicate<String> is shared
+    @SuppressWarnings("unchecked")
+    private static boolean routes(final Object endpoint, final String path) {
+        return ((Predicate<String>) endpoint).test(path);
+    }
+
+    @ConditionalOnClass(RestTemplate.class)
+    @ConditionalOnProperty(name = "karaf.spring-boot.http.local-transport.enabled", havingValue = "true")
+    @Configuration(proxyBeanMethods = false)
+    public static class SpringConfiguration {
+        private final ClassLoader loader;
+
+        public SpringConfiguration() {
+            this.loader = HttpServiceServletServerFactory.findLauncherLoader();
+        }
+
+        @Bean
+        public LocalTransport karafLocalTransport(final Environment environment) {
+            try {
+                return new LocalTransport(
+                        BundleContext.class.cast(HttpServiceServletServerFactory.invokeLoader(loader, "getContext")),
+                        String.class.cast(HttpServiceServletServerFactory.invokeLoader(loader, "getName")),
+                        Stream.of(environment.getProperty("karaf.spring-boot.http.local-transport.hosts", "localhost,127.0.0.1,[::1]").split(","))
+                                .map(String::trim)
+                                .filter(it -> !it.isEmpty())
+                                .collect(toSet()),
+                        environment.getProperty("karaf.spring-boot.http.local-transport.timeout", Long.class, 30000L));
+            } catch (final Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // an interceptor and not a request factory to keep the one configured by the application for remote calls
+        @Bean
+        public RestTemplateCustomizer karafLocalTransportRestTemplateCustomizer(final LocalTransport transport) {
+            final ClientHttpRequestInterceptor interceptor = transport.interceptor();
+            return restTemplate -> {
+                final List<ClientHttpRequestInterceptor> interceptors = new ArrayList<>(restTemplate.getInterceptors());
+                interceptors.add(interceptor); // last, the application interceptors still see the request
+                restTemplate.setInterceptors(interceptors);
+            };
+        }
+    }
+
+    private static class Endpoint {
+        private final Servlet servlet;
+        private final String contextPath;
+
+        private Endpoint(final Servlet servlet, final String contextPath) {
+            this.servlet = servlet;
+            this.contextPath = contextPath;
+        }
+    }
+
+    private static class LocalClientHttpResponse extends AbstractClientHttpResponse {
+        private final LocalHttpServletResponse response;
+        private HttpHeaders headers;
+
+        private LocalClientHttpResponse(final LocalHttpServletResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public int getRawStatusCode() {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() {
+            return ofNullable(response.getReason()).orElse("");
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            if (headers == null) {
+                headers = new HttpHeaders();
+                response.getHeaderValues().forEach((key, values) -> values.forEach(value -> headers.add(key, value)));
+            }
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(response.getBody());
+        }
+
+        @Override
+        public void close() {
+            // no-op
+        }
+    }
+}
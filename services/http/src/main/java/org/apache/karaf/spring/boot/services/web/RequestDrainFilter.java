@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the active requests of an application (asynchronous ones until their completion)
+ * and, once draining, rejects new requests with a 503 so the application can be stopped
+ * without failing the requests it is processing.
+ */
+class RequestDrainFilter implements Filter {
+    private final AtomicInteger active = new AtomicInteger();
+    private final Object lock = new Object();
+    private final String retryAfter;
+    private volatile boolean draining;
+
+    /**
+     * @param retryAfter Retry-After header value in seconds sent with the 503 responses.
+     */
+    RequestDrainFilter(final long retryAfter) {
+        this.retryAfter = Long.toString(retryAfter);
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) {
+        // no-op
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+                         final FilterChain chain) throws IOException, ServletException {
+        if (draining) {
+            reject(response);
+            return;
+        }
+        active.incrementAndGet();
+        if (draining) { // drain() started in between, it may already have seen 0 active requests
+            release();
+            reject(response);
+            return;
+        }
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(final AsyncEvent event) {
+                        release();
+                    }
+
+                    @Override
+                    public void onTimeout(final AsyncEvent event) {
+                        // no-op, onComplete is called after
+                    }
+
+                    @Override
+                    public void onError(final AsyncEvent event) {
+                        // no-op, onComplete is called after
+                    }
+
+                    @Override
+                    public void onStartAsync(final AsyncEvent event) {
+                        event.getAsyncContext().addListener(this);
+                    }
+                });
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                release();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // no-op
+    }
+
+    int getActiveRequests() {
+        return active.get();
+    }
+
+    /**
+     * Stops accepting requests and waits for the active ones.
+     *
+     * @return true if there is no more active request, false if the timeout was reached before.
+     */
+    boolean drain(final long timeout, final TimeUnit unit) {
+        draining = true;
+        final long end = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (active.get() > 0) {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    lock.wait(remaining);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return active.get() == 0;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void release() {
+        if (active.decrementAndGet() == 0 && draining) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void reject(final ServletResponse response) throws IOException {
+        if (HttpServletResponse.class.isInstance(response)) {
+            final HttpServletResponse httpResponse = HttpServletResponse.class.cast(response);
+            httpResponse.setHeader("Retry-After", retryAfter);
+            httpResponse.setHeader("Connection", "close");
+            httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+}
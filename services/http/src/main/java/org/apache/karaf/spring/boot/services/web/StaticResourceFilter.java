@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+
+/**
+ * Serves the indexed static resources before they reach the application servlet.
+ * It is the last filter of the chain so application filters (security for instance) still apply.
+ * Supports conditional requests (ETag, Last-Modified), single byte ranges and precompressed gzip variants,
+ * anything else (multiple ranges, unknown paths, other methods) is delegated to the application.
+ */
+class StaticResourceFilter implements Filter {
+    private final StaticResourceIndex index;
+    private final String prefix;
+    private final String cacheControl;
+
+    /**
+     * @param prefix      the static path pattern prefix ({@code /assets} for {@code /assets/**}), empty for the root.
+     * @param cachePeriod Cache-Control max-age in seconds, negative to not send it.
+     */
+    StaticResourceFilter(final StaticResourceIndex index, final String prefix, final long cachePeriod) {
+        this.index = index;
+        this.prefix = prefix;
+        this.cacheControl = cachePeriod < 0 ? null : "max-age=" + cachePeriod;
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) {
+        // no-op
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+                         final FilterChain chain) throws IOException, ServletException {
+        if (!HttpServletRequest.class.isInstance(request) || !HttpServletResponse.class.isInstance(response)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        final HttpServletRequest req = HttpServletRequest.class.cast(request);
+        final String method = req.getMethod();
+        final boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        final String path = req.getServletPath() + (req.getPathInfo() == null ? "" : req.getPathInfo());
+        if (!path.startsWith(prefix)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        final StaticResourceIndex.StaticResource resource = index.find(path.substring(prefix.length()));
+        if (resource == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        serve(req, HttpServletResponse.class.cast(response), resource, head);
+    }
+
+    @Override
+    public void destroy() {
+        // no-op
+    }
+
+    private void serve(final HttpServletRequest request, final HttpServletResponse response,
+                       final StaticResourceIndex.StaticResource resource, final boolean head) throws IOException {
+        final byte[] gzip = resource.getGzip();
+        final String rangeHeader = request.getHeader("Range");
+        final boolean useGzip = gzip != null && rangeHeader == null && acceptsGzip(request);
+        final String etag = useGzip ? resource.etag.substring(0, resource.etag.length() - 1) + "-gzip\"" : resource.etag;
+
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", resource.lastModified);
+        response.setHeader("Accept-Ranges", "bytes");
+        if (cacheControl != null) {
+            response.setHeader("Cache-Control", cacheControl);
+        }
+        if (gzip != null) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        if (isNotModified(request, etag, resource.lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(resource.contentType);
+
+        long start = 0;
+        long end = resource.length - 1;
+        if (rangeHeader != null && isRangeApplicable(request, resource)) {
+            final long[] range = parseRange(rangeHeader, resource.length);
+            if (range == null) {
+                response.setHeader("Content-Range", "bytes */" + resource.length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (range.length == 2) {
+                start = range[0];
+                end = range[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + '-' + end + '/' + resource.length);
+            }
+        }
+
+        if (useGzip) {
+            response.setHeader("Content-Encoding", "gzip");
+            response.setContentLengthLong(gzip.length);
+            if (!head) {
+                response.getOutputStream().write(gzip);
+            }
+            return;
+        }
+
+        final long length = end - start + 1;
+        response.setContentLengthLong(length);
+        if (head || length <= 0) {
+            return;
+        }
+        final byte[] content = resource.getContent();
+        final ServletOutputStream out = response.getOutputStream();
+        if (content != null) {
+            out.write(content, (int) start, (int) length);
+            return;
+        }
+        try (final InputStream stream = resource.openStream()) { // too big for the cache
+            long skipped = 0;
+            while (skipped < start) {
+                final long value = stream.skip(start - skipped);
+                if (value <= 0) {
+                    throw new IOException("Can't skip to " + start + " in " + resource.path);
+                }
+                skipped += value;
+            }
+            final byte[] buffer = new byte[8192];
+            long remaining = length;
+            int read;
+            while (remaining > 0 && (read = stream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    private boolean isNotModified(final HttpServletRequest request, final String etag, final long lastModified) {
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) { // has precedence over If-Modified-Since
+            for (final String value : ifNoneMatch.split(",")) {
+                final String trimmed = value.trim();
+                if ("*".equals(trimmed) || etag.equals(trimmed) || etag.equals("W/" + trimmed)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        try {
+            final long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            return ifModifiedSince >= 0 && lastModified / 1000 * 1000 <= ifModifiedSince;
+        } catch (final IllegalArgumentException iae) {
+            return false;
+        }
+    }
+
+    // If-Range with a stale validator means the whole resource must be sent
+    private boolean isRangeApplicable(final HttpServletRequest request, final StaticResourceIndex.StaticResource resource) {
+        final String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return false; // weak etags can't be used for ranges and ours are weak
+        }
+        try {
+            return resource.lastModified / 1000 * 1000 <= request.getDateHeader("If-Range");
+        } catch (final IllegalArgumentException iae) {
+            return false;
+        }
+    }
+
+    /**
+     * @return {start, end} for a single satisfiable range, an empty array to ignore the header
+     * (invalid or multiple ranges) and null when the range is not satisfiable.
+     */
+    static long[] parseRange(final String header, final long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') > 0) {
+            return new long[0];
+        }
+        final String spec = header.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            if (dash == 0) { // suffix: last N bytes
+                final long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0 || length == 0) {
+                    return null;
+                }
+                return new long[]{Math.max(0, length - suffix), length - 1};
+            }
+            final long start = Long.parseLong(spec.substring(0, dash));
+            final long end = dash == spec.length() - 1 ? length - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+            if (start >= length) {
+                return null;
+            }
+            if (end < start) {
+                return new long[0];
+            }
+            return new long[]{start, end};
+        } catch (final NumberFormatException nfe) {
+            return new long[0];
+        }
+    }
+
+    private boolean acceptsGzip(final HttpServletRequest request) {
+        final Enumeration<String> headers = request.getHeaders("Accept-Encoding");
+        while (headers != null && headers.hasMoreElements()) {
+            for (final String value : headers.nextElement().split(",")) {
+                final String encoding = value.trim();
+                if (encoding.startsWith("gzip") || encoding.startsWith("*")) {
+                    return !encoding.replace(" ", "").endsWith(";q=0");
+                }
+            }
+        }
+        return false;
+    }
+}
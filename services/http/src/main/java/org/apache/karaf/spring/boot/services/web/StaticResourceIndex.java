@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Index of the static resources of an application (by default the Spring Boot locations:
+ * {@code META-INF/resources}, {@code resources}, {@code static} and {@code public} of all the application jars)
+ * built once at startup. Contents are loaded on first access and kept in memory within a size budget,
+ * compressible ones also get a precomputed gzip variant.
+ * Nested jar entries are compressed so they can't be memory mapped, bigger resources are streamed from the jar.
+ */
+class StaticResourceIndex {
+    static final Collection<String> DEFAULT_LOCATIONS = asList(
+            "classpath:/META-INF/resources/", "classpath:/resources/", "classpath:/static/", "classpath:/public/");
+
+    private static final int MIN_COMPRESSIBLE_SIZE = 1024;
+    private static final Set<String> COMPRESSIBLE_TYPES = new HashSet<>(asList(
+            "application/javascript", "application/json", "application/xml", "image/svg+xml", "application/wasm"));
+    private static final Map<String, String> MIME_TYPES = new HashMap<>();
+
+    static {
+        MIME_TYPES.put("html", "text/html");
+        MIME_TYPES.put("htm", "text/html");
+        MIME_TYPES.put("css", "text/css");
+        MIME_TYPES.put("js", "application/javascript");
+        MIME_TYPES.put("mjs", "application/javascript");
+        MIME_TYPES.put("json", "application/json");
+        MIME_TYPES.put("map", "application/json");
+        MIME_TYPES.put("xml", "application/xml");
+        MIME_TYPES.put("txt", "text/plain");
+        MIME_TYPES.put("svg", "image/svg+xml");
+        MIME_TYPES.put("png", "image/png");
+        MIME_TYPES.put("jpg", "image/jpeg");
+        MIME_TYPES.put("jpeg", "image/jpeg");
+        MIME_TYPES.put("gif", "image/gif");
+        MIME_TYPES.put("webp", "image/webp");
+        MIME_TYPES.put("ico", "image/x-icon");
+        MIME_TYPES.put("woff", "font/woff");
+        MIME_TYPES.put("woff2", "font/woff2");
+        MIME_TYPES.put("ttf", "font/ttf");
+        MIME_TYPES.put("wasm", "application/wasm");
+        MIME_TYPES.put("pdf", "application/pdf");
+    }
+
+    private final Map<String, StaticResource> resources;
+    private final long maxCachedFileSize;
+    private final AtomicLong remainingCacheSize;
+
+    private StaticResourceIndex(final long maxCachedFileSize, final long cacheSize) {
+        this.resources = new LinkedHashMap<>();
+        this.maxCachedFileSize = maxCachedFileSize;
+        this.remainingCacheSize = new AtomicLong(cacheSize);
+    }
+
+    /**
+     * @param locations Spring Boot static locations, only {@code classpath:} ones are indexed.
+     */
+    static StaticResourceIndex scan(final ClassLoader loader, final Collection<String> locations,
+                                    final long maxCachedFileSize, final long cacheSize) {
+        final PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(loader);
+        final StaticResourceIndex index = new StaticResourceIndex(maxCachedFileSize, cacheSize);
+        for (final String location : locations) {
+            final String trimmed = location.trim();
+            if (!trimmed.startsWith("classpath:")) {
+                continue;
+            }
+            String base = trimmed.substring("classpath:".length());
+            while (base.startsWith("/")) {
+                base = base.substring(1);
+            }
+            if (!base.isEmpty() && !base.endsWith("/")) {
+                base += '/';
+            }
+            try {
+                for (final Resource root : resolver.getResources("classpath*:" + base)) {
+                    final String rootUrl = root.getURL().toExternalForm();
+                    for (final Resource resource : resolver.getResources(rootUrl + "**")) {
+                        final URL url = resource.getURL();
+                        final String value = url.toExternalForm();
+                        if (value.endsWith("/") || !value.startsWith(rootUrl)) { // directory
+                            continue;
+                        }
+                        final String path = '/' + decode(value.substring(rootUrl.length()));
+                        if (!index.resources.containsKey(path)) { // first location wins as in Spring MVC
+                            try {
+                                index.resources.put(path, index.new StaticResource(path, url,
+                                        resource.contentLength(), resource.lastModified(), getMimeType(path)));
+                            } catch (final IOException ioe) {
+                                // not readable, let the application handle it
+                            }
+                        }
+                    }
+                }
+            } catch (final IOException e) {
+                throw new IllegalStateException("Can't index static resources of " + location, e);
+            }
+        }
+        return index;
+    }
+
+    StaticResource find(final String path) {
+        return resources.get(path);
+    }
+
+    URL getResource(final String path) {
+        final StaticResource resource = resources.get(path.startsWith("/") ? path : '/' + path);
+        return resource == null ? null : resource.url;
+    }
+
+    // direct children only, directories end with a slash
+    Set<String> getResourcePaths(final String path) {
+        final String directory = path.endsWith("/") ? path : path + '/';
+        final Set<String> children = new TreeSet<>();
+        for (final String resource : resources.keySet()) {
+            if (resource.startsWith(directory)) {
+                final int end = resource.indexOf('/', directory.length());
+                children.add(end < 0 ? resource : resource.substring(0, end + 1));
+            }
+        }
+        return children.isEmpty() ? null : children;
+    }
+
+    static String getMimeType(final String name) {
+        final int dot = name.lastIndexOf('.');
+        final String type = dot < 0 ? null : MIME_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type != null ? type : URLConnection.guessContentTypeFromName(name);
+    }
+
+    private static String decode(final String value) {
+        try {
+            return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    class StaticResource {
+        final String path;
+        final URL url;
+        final long length;
+        final long lastModified;
+        final String etag;
+        final String contentType;
+        private volatile byte[] content;
+        private volatile byte[] gzip;
+        private volatile boolean loaded;
+
+        private StaticResource(final String path, final URL url, final long length,
+                               final long lastModified, final String contentType) {
+            this.path = path;
+            this.url = url;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.contentType = contentType == null ? "application/octet-stream" : contentType;
+            this.etag = "W/\"" + length + '-' + lastModified + '"';
+        }
+
+        /**
+         * @return the cached content or null if the resource is too big to be cached, it must be streamed then.
+         */
+        byte[] getContent() throws IOException {
+            ensureLoaded();
+            return content;
+        }
+
+        byte[] getGzip() throws IOException {
+            ensureLoaded();
+            return gzip;
+        }
+
+        InputStream openStream() throws IOException {
+            return url.openStream();
+        }
+
+        private void ensureLoaded() throws IOException {
+            if (loaded) {
+                return;
+            }
+            synchronized (this) {
+                if (loaded) {
+                    return;
+                }
+                if (length <= maxCachedFileSize && reserve(length)) {
+                    final byte[] bytes = read();
+                    if (isCompressible()) {
+                        final byte[] compressed = compress(bytes);
+                        if (compressed.length < bytes.length * 0.9 && reserve(compressed.length)) {
+                            gzip = compressed;
+                        }
+                    }
+                    content = bytes;
+                }
+                loaded = true;
+            }
+        }
+
+        private boolean reserve(final long size) {
+            long remaining;
+            do {
+                remaining = remainingCacheSize.get();
+                if (remaining < size) {
+                    return false;
+                }
+            } while (!remainingCacheSize.compareAndSet(remaining, remaining - size));
+            return true;
+        }
+
+        private boolean isCompressible() {
+            return length >= MIN_COMPRESSIBLE_SIZE &&
+                    (contentType.startsWith("text/") || COMPRESSIBLE_TYPES.contains(contentType));
+        }
+
+        private byte[] read() throws IOException {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.max(length, 32));
+            final byte[] tmp = new byte[8192];
+            int read;
+            try (final InputStream stream = openStream()) {
+                while ((read = stream.read(tmp)) >= 0) {
+                    buffer.write(tmp, 0, read);
+                }
+            }
+            return buffer.toByteArray();
+        }
+
+        private byte[] compress(final byte[] bytes) throws IOException {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 2);
+            try (final GZIPOutputStream stream = new GZIPOutputStream(buffer)) {
+                stream.write(bytes);
+            }
+            return buffer.toByteArray();
+        }
+    }
+}
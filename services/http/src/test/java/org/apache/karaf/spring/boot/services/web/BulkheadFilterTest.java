@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.GenericServlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+
+public class BulkheadFilterTest {
+    @Test
+    public void resumedRequestsGoThroughRequestFilters() throws Exception {
+        final List<String> authenticated = new ArrayList<>();
+        final List<String> served = new ArrayList<>();
+        final ApplicationDispatcherServlet dispatcher = new ApplicationDispatcherServlet(false);
+        final List<Runnable> nested = new ArrayList<>();
+        dispatcher.update(new DispatcherRoutes.Builder()
+                .servlet("app", new GenericServlet() {
+                    @Override
+                    public void service(final ServletRequest req, final ServletResponse res) {
+                        served.add(req.getAttribute("id") + ":" + req.getDispatcherType());
+                        nested.forEach(Runnable::run); // the second request arrives while the first one holds the permit
+                        nested.clear();
+                    }
+                }, singleton("/*"), emptyMap())
+                .filter("bulkhead", new BulkheadFilter(1, 10, 30000), Integer.MAX_VALUE - 2,
+                        singleton("/*"), emptySet(), EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC), emptyMap())
+                .filter("auth", new Filter() {
+                    @Override
+                    public void init(final FilterConfig filterConfig) {
+                        // no-op
+                    }
+
+                    @Override
+                    public void doFilter(final ServletRequest request, final ServletResponse response,
+                                         final FilterChain chain) throws IOException, ServletException {
+                        authenticated.add(String.valueOf(request.getAttribute("id")));
+                        chain.doFilter(request, response);
+                    }
+
+                    @Override
+                    public void destroy() {
+                        // no-op
+                    }
+                }, 0, singleton("/*"), emptySet(), EnumSet.of(DispatcherType.REQUEST), emptyMap())
+                .build());
+
+        final HttpServletResponse response = HttpServletResponse.class.cast(Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+                    if ("sendError".equals(method.getName())) {
+                        Assert.fail("Unexpected error " + args[0]);
+                    }
+                    return "isCommitted".equals(method.getName()) ? false : null;
+                }));
+        nested.add(() -> {
+            try {
+                dispatcher.service(request("second", dispatcher, response), response);
+            } catch (final Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        dispatcher.service(request("first", dispatcher, response), response);
+
+        Assert.assertEquals(2, served.size());
+        Assert.assertEquals("first:REQUEST", served.get(0));
+        Assert.assertEquals("second:REQUEST", served.get(1)); // parked then resumed
+        Assert.assertEquals(2, authenticated.size());
+        Assert.assertEquals("first", authenticated.get(0));
+        Assert.assertEquals("second", authenticated.get(1));
+    }
+
+    // a minimal asynchronous request, dispatch() is synchronous
+    private HttpServletRequest request(final String id, final ApplicationDispatcherServlet dispatcher,
+                                       final HttpServletResponse response) {
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("id", id);
+        final DispatcherType[] type = {DispatcherType.REQUEST};
+        final AsyncContext[] async = {null};
+        final HttpServletRequest[] self = {null};
+        self[0] = HttpServletRequest.class.cast(Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAttribute":
+                            return attributes.get(args[0]);
+                        case "setAttribute":
+                            attributes.put(String.class.cast(args[0]), args[1]);
+                            return null;
+                        case "removeAttribute":
+                            attributes.remove(args[0]);
+                            return null;
+                        case "getDispatcherType":
+                            return type[0];
+                        case "getServletPath":
+                            return "/test";
+                        case "isAsyncSupported":
+                            return true;
+                        case "isAsyncStarted":
+                            return async[0] != null;
+                        case "getAsyncContext":
+                            return async[0];
+                        case "startAsync":
+                            async[0] = AsyncContext.class.cast(Proxy.newProxyInstance(
+                                    getClass().getClassLoader(), new Class<?>[]{AsyncContext.class}, (ac, m, a) -> {
+                                        switch (m.getName()) {
+                                            case "getRequest":
+                                                return self[0];
+                                            case "getResponse":
+                                                return response;
+                                            case "dispatch":
+                                                async[0] = null;
+                                                type[0] = DispatcherType.ASYNC;
+                                                dispatcher.service(self[0], response);
+                                                return null;
+                                            default:
+                                                return null;
+                                        }
+                                    }));
+                            return async[0];
+                        default:
+                            return null;
+                    }
+                }));
+        return self[0];
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.http.context.ServletContextHelper;
+
+import java.lang.reflect.Proxy;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.list;
+
+public class ContextHelperRegistrationTest {
+    private final AtomicLong ids = new AtomicLong();
+    private final List<Map<String, Object>> registered = new CopyOnWriteArrayList<>();
+    private final BundleContext context = BundleContext.class.cast(Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{BundleContext.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "registerService":
+                        return register(Dictionary.class.cast(args[2]));
+                    case "getAllServiceReferences":
+                        return registered.stream().map(this::reference).toArray(ServiceReference[]::new);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }));
+
+    @Test
+    public void applicationsWithoutContextPathShareTheRoot() {
+        final ServiceRegistration<ServletContextHelper> first = register("first", "", false);
+        final ServiceRegistration<ServletContextHelper> second = register("second", "", false);
+        Assert.assertEquals(2, registered.size());
+        Assert.assertEquals("/", first.getReference().getProperty("osgi.http.whiteboard.context.path"));
+        Assert.assertEquals("/", second.getReference().getProperty("osgi.http.whiteboard.context.path"));
+        Assert.assertEquals(0, second.getReference().getProperty(Constants.SERVICE_RANKING));
+    }
+
+    @Test
+    public void explicitRootRanksBeforeTheImplicitOnes() {
+        register("implicit", "", false);
+        final ServiceRegistration<ServletContextHelper> explicit = register("explicit", "", true);
+        Assert.assertEquals(2, registered.size());
+        Assert.assertEquals(1, explicit.getReference().getProperty(Constants.SERVICE_RANKING));
+    }
+
+    @Test
+    public void explicitPathsCanNotBeShared() {
+        register("first", "/app", true);
+        register("other", "/other", true);
+        try {
+            register("second", "/app", true);
+            Assert.fail("IllegalStateException expected");
+        } catch (final IllegalStateException ise) {
+            Assert.assertTrue(ise.getMessage(), ise.getMessage().contains("'first'"));
+        }
+        Assert.assertEquals(2, registered.size()); // the rejected helper is unregistered
+    }
+
+    private ServiceRegistration<ServletContextHelper> register(final String application, final String path, final boolean explicit) {
+        return HttpServiceServletServerFactory.registerContextHelper(
+                context, application, "karaf-spring-boot-" + application, path, explicit, new ServletContextHelper() {
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private ServiceRegistration<ServletContextHelper> register(final Dictionary<String, Object> config) {
+        final Map<String, Object> properties = new ConcurrentHashMap<>();
+        for (final String key : list(config.keys())) {
+            properties.put(key, config.get(key));
+        }
+        properties.put(Constants.SERVICE_ID, ids.incrementAndGet());
+        registered.add(properties);
+        return ServiceRegistration.class.cast(Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{ServiceRegistration.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getReference":
+                            return reference(properties);
+                        case "unregister":
+                            registered.remove(properties);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                }));
+    }
+
+    private ServiceReference<?> reference(final Map<String, Object> properties) {
+        return ServiceReference.class.cast(Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{ServiceReference.class}, (proxy, method, args) -> {
+                    if ("getProperty".equals(method.getName())) {
+                        return properties.get(String.valueOf(args[0]));
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.spring.boot.services.web;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.GenericServlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+
+public class DispatcherRoutesTest {
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    public void exactMatch() {
+        final DispatcherRoutes routes = routes();
+        assertMatch(routes.match("/api/status"), "exact", "/api/status", null);
+        assertMatch(routes.match(""), "root", "", "/");
+    }
+
+    @Test
+    public void longestPrefixMatch() {
+        final DispatcherRoutes routes = routes();
+        assertMatch(routes.match("/api/users/1"), "api", "/api", "/users/1");
+        assertMatch(routes.match("/api"), "api", "/api", null);
+        assertMatch(routes.match("/api/admin/users"), "admin", "/api/admin", "/users");
+        assertMatch(routes.match("/api/statusx"), "api", "/api", "/statusx");
+    }
+
+    @Test
+    public void extensionMatch() {
+        final DispatcherRoutes routes = routes();
+        assertMatch(routes.match("/pages/index.jsp"), "jsp", "/pages/index.jsp", null);
+        assertMatch(routes.match("/api/index.jsp"), "api", "/api", "/index.jsp"); // prefix wins
+        assertMatch(routes.match("/pages.jsp/index"), "default", "/pages.jsp/index", null); // not the last segment
+    }
+
+    @Test
+    public void defaultMatch() {
+        final DispatcherRoutes routes = routes();
+        assertMatch(routes.match("/other"), "default", "/other", null);
+        assertMatch(routes.match("/"), "default", "/", null);
+        Assert.assertNull(new DispatcherRoutes.Builder()
+                .servlet("exact", servlet("exact"), singleton("/exact"), emptyMap())
+                .build()
+                .match("/other"));
+    }
+
+    @Test
+    public void filtersAreOrderedByRankingThenRegistration() throws Exception {
+        final ApplicationDispatcherServlet dispatcher = new ApplicationDispatcherServlet(false);
+        dispatcher.update(new DispatcherRoutes.Builder()
+                .servlet("api", servlet("api"), singleton("/api/*"), emptyMap())
+                .filter("second", filter("second"), 0, singleton("/*"), emptySet(), EnumSet.of(DispatcherType.REQUEST), emptyMap())
+                .filter("first", filter("first"), 10, singleton("/api/*"), emptySet(), EnumSet.of(DispatcherType.REQUEST), emptyMap())
+                .filter("third", filter("third"), 0, emptySet(), singleton("api"), EnumSet.of(DispatcherType.REQUEST), emptyMap())
+                .filter("other", filter("other"), 20, singleton("/other/*"), emptySet(), EnumSet.of(DispatcherType.REQUEST), emptyMap())
+                .filter("async", filter("async"), 30, singleton("/*"), emptySet(), EnumSet.of(DispatcherType.ASYNC), emptyMap())
+                .build());
+
+        dispatcher.service(request("/api/users"), response());
+        Assert.assertEquals(asList("first", "second", "third", "api:/api:/users"), calls);
+    }
+
+    @Test
+    public void rootFilterOnlyAppliesToTheDefaultServlet() throws Exception {
+        final ApplicationDispatcherServlet dispatcher = new ApplicationDispatcherServlet(false);
+        dispatcher.update(new DispatcherRoutes.Builder()
+                .servlet("app", servlet("app"), asList("/", "/api/*"), emptyMap())
+                .filter("default", filter("default"), 0, singleton("/"), emptySet(), EnumSet.of(DispatcherType.REQUEST), emptyMap())
+                .build());
+
+        dispatcher.service(request("/api/users"), response());
+        Assert.assertEquals(singletonList("app:/api:/users"), calls);
+
+        calls.clear();
+        dispatcher.service(request("/index.html"), response());
+        Assert.assertEquals(asList("default", "app:/index.html:null"), calls);
+    }
+
+    private DispatcherRoutes routes() {
+        return new DispatcherRoutes.Builder()
+                .servlet("root", servlet("root"), singleton(""), emptyMap())
+                .servlet("exact", servlet("exact"), singleton("/api/status"), emptyMap())
+                .servlet("api", servlet("api"), singleton("/api/*"), emptyMap())
+                .servlet("admin", servlet("admin"), singleton("/api/admin/*"), emptyMap())
+                .servlet("jsp", servlet("jsp"), singleton("*.jsp"), emptyMap())
+                .servlet("default", servlet("default"), singleton("/"), emptyMap())
+                .build();
+    }
+
+    private void assertMatch(final DispatcherRoutes.Match match, final String servlet,
+                             final String servletPath, final String pathInfo) {
+        Assert.assertNotNull(match);
+        Assert.assertEquals(servlet, match.target.servlet.name);
+        Assert.assertEquals(servletPath, match.servletPath);
+        Assert.assertEquals(pathInfo, match.pathInfo);
+    }
+
+    private GenericServlet servlet(final String name) {
+        return new GenericServlet() {
+            @Override
+            public void service(final ServletRequest req, final ServletResponse res) {
+                final HttpServletRequest request = HttpServletRequest.class.cast(req);
+                calls.add(name + ':' + request.getServletPath() + ':' + request.getPathInfo());
+            }
+        };
+    }
+
+    private Filter filter(final String name) {
+        return new Filter() {
+            @Override
+            public void init(final FilterConfig filterConfig) {
+                // no-op
+            }
+
+            @Override
+            public void doFilter(final ServletRequest request, final ServletResponse response,
+                                 final FilterChain chain) throws IOException, ServletException {
+                calls.add(name);
+                chain.doFilter(request, response);
+            }
+
+            @Override
+            public void destroy() {
+                // no-op
+            }
+        };
+    }
+
+    private HttpServletRequest request(final String path) {
+        return HttpServletRequest.class.cast(Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getDispatcherType":
+                            return DispatcherType.REQUEST;
+                        case "getServletPath":
+                            return path;
+                        default:
+                            return null;
+                    }
+                }));
+    }
+
+    private HttpServletResponse response() {
+        return HttpServletResponse.class.cast(Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+                    if ("sendError".equals(method.getName())) {
+                        Assert.fail("Unexpected error " + args[0]);
+                    }
+                    return null;
+                }));
+    }
+}